@@ -0,0 +1,134 @@
+package net.utsuro.mask;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 1カラム分の値をForkJoinPoolで分割して並列にマスク化するタスク.
+ * ・件数が分割単位以下になるまで半分に分割し、それぞれDataMask.executeBatchCompiled()を呼び出す
+ * ・ルールは開始時に1回だけ解決し、分割した全ての範囲で使い回す
+ * ・乱数はスレッドごとに割り当てられるため、並列に実行しても同じ乱数列を奪い合わない
+ * ※マスク処理(ユニークリストの格納先等も含む)がスレッドセーフな場合のみ使用すること
+ *
+ * <pre>
+ * BatchMaskingTask.invoke(pool, new RandomTextReplacer(), values, values, values.length, rule);
+ * </pre>
+ */
+public final class BatchMaskingTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * デフォルトの分割単位(件数).
+   */
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  private final transient DataMask mask;
+  private final transient Object[] in;
+  private final transient Object[] out;
+  private final int from;
+  private final int to;
+  private final transient CompiledRule rule;
+  private final int threshold;
+
+  private BatchMaskingTask(DataMask mask, Object[] in, Object[] out, int from, int to,
+      CompiledRule rule, int threshold) {
+    this.mask = mask;
+    this.in = in;
+    this.out = out;
+    this.from = from;
+    this.to = to;
+    this.rule = rule;
+    this.threshold = threshold;
+  }
+
+  /**
+   * デフォルトの分割単位で並列にマスク化する.
+   * @param pool 実行するForkJoinPool(nullの場合は共通プール)
+   * @param mask マスク処理
+   * @param in 対象データの配列
+   * @param out 置換後のデータの格納先(入力と同じ配列でも良い)
+   * @param len 件数(配列の先頭からlen件を対象とする)
+   * @param rule マスク化ルール
+   * @throws Exception マスク処理でのエラー発生時
+   */
+  public static void invoke(ForkJoinPool pool, DataMask mask, Object[] in, Object[] out, int len,
+      MaskingRule rule) throws Exception {
+    invoke(pool, mask, in, out, len, rule, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * 分割単位を指定して並列にマスク化する.
+   * @param pool 実行するForkJoinPool(nullの場合は共通プール)
+   * @param mask マスク処理
+   * @param in 対象データの配列
+   * @param out 置換後のデータの格納先(入力と同じ配列でも良い)
+   * @param len 件数(配列の先頭からlen件を対象とする)
+   * @param rule マスク化ルール
+   * @param threshold 分割単位(件数)
+   * @throws IllegalArgumentException マスク処理が無い場合、件数・分割単位が不正な場合
+   * @throws Exception マスク処理でのエラー発生時
+   */
+  public static void invoke(ForkJoinPool pool, DataMask mask, Object[] in, Object[] out, int len,
+      MaskingRule rule, int threshold) throws Exception {
+
+    if (mask == null) {
+      throw new IllegalArgumentException("マスク処理が指定されていません。");
+    }
+    if (len < 0 || len > in.length || len > out.length) {
+      throw new IllegalArgumentException(String.format("件数 %d が配列の長さを超えています。", len));
+    }
+    if (threshold < 1) {
+      throw new IllegalArgumentException(String.format("分割単位 %d は1以上を指定してください。", threshold));
+    }
+
+    ForkJoinPool p = (pool == null) ? ForkJoinPool.commonPool() : pool;
+    try {
+      p.invoke(new BatchMaskingTask(mask, in, out, 0, len, CompiledRule.compile(rule), threshold));
+    } catch (RuntimeException e) {
+      // マスク処理で発生したエラーは元の例外にして返す
+      for (Throwable t = e; t != null; t = t.getCause()) {
+        if (t instanceof MaskingFailure) {
+          throw (Exception) t.getCause();
+        }
+      }
+      throw e;
+    }
+
+  }
+
+  @Override
+  protected void compute() {
+
+    int len = to - from;
+    if (len > threshold) {
+      // 半分に分割
+      int mid = from + len / 2;
+      invokeAll(new BatchMaskingTask(mask, in, out, from, mid, rule, threshold),
+          new BatchMaskingTask(mask, in, out, mid, to, rule, threshold));
+      return;
+    }
+
+    try {
+      // 分割した範囲をそのまま実行する
+      mask.executeBatchCompiled(in, from, out, from, len, rule);
+    } catch (Exception e) {
+      throw new MaskingFailure(e);
+    }
+
+  }
+
+  /**
+   * マスク処理で発生したエラーを呼び出し元まで運ぶための例外.
+   */
+  private static final class MaskingFailure extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    MaskingFailure(Exception cause) {
+      super(cause);
+    }
+
+  }
+
+}
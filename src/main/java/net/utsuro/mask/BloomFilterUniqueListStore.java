@@ -0,0 +1,459 @@
+package net.utsuro.mask;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ユニークリストの存在チェックの前にブルームフィルタで判定する格納先クラス.
+ * ・識別子(uniqueId)ごとに出力値のブルームフィルタを持ち、確実に存在しない値は格納先に問い合わせない
+ * ・存在するかもしれない値のみ元の格納先(DBなど)で確認する
+ * ・フィルタのサイズは識別子ごとの想定件数と誤検知率から決める
+ * ※格納先に登録済の値をフィルタに反映させるため、使用前にrebuild()またはclear()を呼ぶこと
+ * ※rebuild()またはclear()するまでは全て元の格納先に問い合わせる
+ */
+public class BloomFilterUniqueListStore implements UniqueListStore {
+
+  /**
+   * デフォルトの識別子ごとの想定件数.
+   */
+  public static final long DEFAULT_EXPECTED_COUNT = 1000000L;
+
+  /**
+   * デフォルトの誤検知率.
+   */
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  /**
+   * DBのユニークリストの出力値の全件取得SQL.
+   */
+  private static final String SELECT_OUTPUTS_SQL = "SELECT"
+      + " id, output_val"
+      + " FROM sys_unique_list";
+
+  private final UniqueListStore delegate;
+  private final long defaultExpectedCount;
+  private final double falsePositiveRate;
+  private final Map<String, Long> expectedCounts = new ConcurrentHashMap<>();
+  private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+  private volatile boolean ready;
+
+  /**
+   * フィルタで存在しないと判定した件数.
+   */
+  private final LongAdder negativeCount = new LongAdder();
+
+  /**
+   * フィルタで存在するかもしれないと判定し、格納先で存在した件数.
+   */
+  private final LongAdder truePositiveCount = new LongAdder();
+
+  /**
+   * フィルタで存在するかもしれないと判定し、格納先では存在しなかった件数.
+   */
+  private final LongAdder falsePositiveCount = new LongAdder();
+
+  /**
+   * コンストラクタ.
+   * @param delegate 元の格納先
+   */
+  public BloomFilterUniqueListStore(UniqueListStore delegate) {
+    this(delegate, DEFAULT_EXPECTED_COUNT, DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param delegate 元の格納先
+   * @param expectedCount 識別子ごとの想定件数
+   * @param falsePositiveRate 想定件数登録時の誤検知率(0より大きく1未満)
+   */
+  public BloomFilterUniqueListStore(UniqueListStore delegate, long expectedCount,
+      double falsePositiveRate) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("元の格納先を指定してください。");
+    }
+    if (expectedCount <= 0) {
+      throw new IllegalArgumentException("想定件数は1以上を指定してください。");
+    }
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("誤検知率は0より大きく1未満を指定してください。");
+    }
+    this.delegate = delegate;
+    this.defaultExpectedCount = expectedCount;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /**
+   * 元の格納先を取得.
+   * @return delegate
+   */
+  public UniqueListStore getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * 識別子ごとの想定件数をセット.
+   * ※フィルタ作成前(rebuild()、clear()の前)に指定すること
+   * @param id 識別子(カラム名とは限らず)
+   * @param expectedCount 想定件数
+   */
+  public void setExpectedCount(String id, long expectedCount) {
+    if (expectedCount <= 0) {
+      throw new IllegalArgumentException("想定件数は1以上を指定してください。");
+    }
+    expectedCounts.put(normalizeId(id), expectedCount);
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ※元の格納先にそのまま問い合わせる
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public String getRegisteredUniqueVal(String id, String val) throws SQLException {
+    return delegate.getRegisteredUniqueVal(id, val);
+  }
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * ・フィルタで存在しないと判定できた場合は元の格納先に問い合わせない
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean isExistsInUniqueList(String id, String val) throws SQLException {
+
+    if (val == null) {
+      return false;
+    }
+    if (!ready) {
+      return delegate.isExistsInUniqueList(id, val);
+    }
+    Filter filter = filters.get(normalizeId(id));
+    if (filter == null || !filter.mightContain(val)) {
+      negativeCount.increment();
+      return false;
+    }
+    boolean ret = delegate.isExistsInUniqueList(id, val);
+    if (ret) {
+      truePositiveCount.increment();
+    } else {
+      falsePositiveCount.increment();
+    }
+    return ret;
+
+  }
+
+  /**
+   * ユニークリストに登録する.
+   * ・元の格納先に登録し、出力値をフィルタに追加する
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean addUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    boolean ret = delegate.addUniqueList(id, inputVal, outputVal);
+    if (outputVal != null && inputVal != null) {
+      // 登録失敗(重複)の場合も格納先には存在するのでフィルタに追加する
+      filterOf(id).put(outputVal);
+    }
+    return ret;
+
+  }
+
+  /**
+   * INPUTが登録済ならその値を取得し、未登録なら登録する.
+   * ・元の格納先にそのまま委譲し(DBの場合は1回のSQLで行う)、結果の出力値をフィルタに追加する
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 登録済の値または登録した値、OUTPUTが重複して登録できなかった場合はnull
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public String addOrGetUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    String ret = delegate.addOrGetUniqueList(id, inputVal, outputVal);
+    if (outputVal != null && inputVal != null) {
+      // 重複した場合も格納先には存在するのでフィルタに追加する
+      filterOf(id).put((ret != null) ? ret : outputVal);
+    }
+    return ret;
+
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   * ・元の格納先を初期化し、フィルタも空にする
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void clear() throws SQLException {
+    delegate.clear();
+    filters.clear();
+    resetStatistics();
+    ready = true;
+  }
+
+  /**
+   * DBのユニークリストからフィルタを作り直す.
+   * @param conn DBコネクション
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public void rebuild(Connection conn) throws SQLException {
+
+    // 作り直している間は元の格納先に問い合わせる
+    ready = false;
+    filters.clear();
+    resetStatistics();
+    if (conn != null && !conn.isClosed()) {
+      synchronized (conn) {
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_OUTPUTS_SQL)) {
+          stmt.setFetchSize(10000);
+          try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+              String id = rs.getString("id");
+              String val = rs.getString("output_val");
+              if (val != null) {
+                filterOf(id).put(val);
+              }
+            }
+          }
+        }
+      }
+    }
+    ready = true;
+
+  }
+
+  /**
+   * 元の格納先の登録内容からフィルタを作り直す.
+   * ※元の格納先が登録内容の一括取得に対応していない場合はエラー(全て元の格納先に問い合わせる)
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 格納先アクセス時のエラー
+   */
+  public void rebuild() throws SQLException, IOException {
+    ready = false;
+    filters.clear();
+    resetStatistics();
+    delegate.forEachEntry((id, inputVal, outputVal) -> {
+      if (outputVal != null) {
+        filterOf(id).put(outputVal);
+      }
+    });
+    ready = true;
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 受け取る処理でのエラー
+   */
+  @Override
+  public void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+    delegate.forEachEntry(consumer);
+  }
+
+  /**
+   * スナップショットから登録内容を読み込む.
+   * ・元の格納先に読み込み、フィルタを作り直す
+   * ※フィルタを作り直せない格納先の場合は全て元の格納先に問い合わせる
+   * @param reader スナップショットの読み込み
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 読み込み時のエラー
+   */
+  @Override
+  public void loadSnapshot(UniqueListSnapshot.Reader reader) throws SQLException, IOException {
+    ready = false;
+    delegate.loadSnapshot(reader);
+    try {
+      rebuild();
+    } catch (SQLFeatureNotSupportedException e) {
+      filters.clear();
+    }
+  }
+
+  /**
+   * 未反映の登録内容を元の格納先に反映する.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void flush() throws SQLException {
+    delegate.flush();
+  }
+
+  /**
+   * 元の格納先の使用を終了する.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+    delegate.close();
+  }
+
+  /**
+   * フィルタで存在しないと判定して問い合わせを省略した件数を取得.
+   * @return 件数
+   */
+  public long getNegativeCount() {
+    return negativeCount.sum();
+  }
+
+  /**
+   * フィルタで存在するかもしれないと判定して格納先に問い合わせた件数を取得.
+   * @return 件数
+   */
+  public long getPositiveCount() {
+    return truePositiveCount.sum() + falsePositiveCount.sum();
+  }
+
+  /**
+   * 実際の誤検知率を取得.
+   * ※存在しなかった値のうち、フィルタで存在するかもしれないと判定された割合
+   * @return 誤検知率
+   */
+  public double getObservedFalsePositiveRate() {
+    long fp = falsePositiveCount.sum();
+    long total = fp + negativeCount.sum();
+    return (total == 0) ? 0 : (double) fp / total;
+  }
+
+  /**
+   * 現在の登録件数から見込まれる誤検知率を取得.
+   * @param id 識別子(カラム名とは限らず)
+   * @return 誤検知率
+   */
+  public double getExpectedFalsePositiveRate(String id) {
+    Filter filter = filters.get(normalizeId(id));
+    return (filter == null) ? 0 : filter.expectedFalsePositiveRate();
+  }
+
+  /**
+   * フィルタの使用メモリ(バイト数)を取得.
+   * @return 全識別子のフィルタのバイト数
+   */
+  public long getMemoryUsage() {
+    long ret = 0;
+    for (Filter filter : filters.values()) {
+      ret += filter.byteSize();
+    }
+    return ret;
+  }
+
+  private void resetStatistics() {
+    negativeCount.reset();
+    truePositiveCount.reset();
+    falsePositiveCount.reset();
+  }
+
+  private Filter filterOf(String id) {
+    String key = normalizeId(id);
+    return filters.computeIfAbsent(key,
+        k -> new Filter(expectedCounts.getOrDefault(k, defaultExpectedCount), falsePositiveRate));
+  }
+
+  /**
+   * 識別子のnullを空文字に揃える.
+   * @param id 識別子
+   * @return 正規化した識別子
+   */
+  private static String normalizeId(String id) {
+    return (id == null) ? "" : id;
+  }
+
+  /**
+   * ブルームフィルタ.
+   * ※ハッシュ関数はダブルハッシュ法(h1 + i * h2)で必要な数だけ作る
+   */
+  private static class Filter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashCount;
+    private final LongAdder count = new LongAdder();
+
+    Filter(long expectedCount, double falsePositiveRate) {
+      // m = -n * ln(p) / (ln2)^2, k = m / n * ln2
+      double m = -expectedCount * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+      long words = Math.max(1, Math.min((long) Math.ceil(m / 64), Integer.MAX_VALUE - 8));
+      bits = new AtomicLongArray((int) words);
+      bitSize = words * 64;
+      hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedCount * Math.log(2)));
+    }
+
+    void put(String val) {
+      long h1 = hash(val);
+      long h2 = mix(h1) | 1;
+      boolean changed = false;
+      for (int i = 0; i < hashCount; i++) {
+        long idx = Long.remainderUnsigned(h1 + i * h2, bitSize);
+        int word = (int) (idx >>> 6);
+        long mask = 1L << idx;
+        long cur = bits.get(word);
+        while ((cur & mask) == 0) {
+          if (bits.compareAndSet(word, cur, cur | mask)) {
+            changed = true;
+            break;
+          }
+          cur = bits.get(word);
+        }
+      }
+      if (changed) {
+        count.increment();
+      }
+    }
+
+    boolean mightContain(String val) {
+      long h1 = hash(val);
+      long h2 = mix(h1) | 1;
+      for (int i = 0; i < hashCount; i++) {
+        long idx = Long.remainderUnsigned(h1 + i * h2, bitSize);
+        if ((bits.get((int) (idx >>> 6)) & (1L << idx)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    double expectedFalsePositiveRate() {
+      // (1 - e^(-kn/m))^k
+      return Math.pow(1 - Math.exp(-(double) hashCount * count.sum() / bitSize), hashCount);
+    }
+
+    long byteSize() {
+      return bitSize / 8;
+    }
+
+    private static long hash(String val) {
+      return MappedUniqueListStore.hash(new byte[0], val.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long mix(long h) {
+      h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+      h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return h ^ (h >>> 33);
+    }
+
+  }
+
+}
@@ -0,0 +1,263 @@
+package net.utsuro.mask;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 文字列を1文字(コードポイント)ずつ走査して置換するための作業領域.
+ * ・split("")と違いサロゲートペア(JIS X 0213の第3・4水準漢字等)も1文字として扱う
+ * ・1文字に対するパターン判定はパターンごとの判定表に覚えておき、2回目以降は表引きで行う
+ * ・入力の展開先と出力先はスレッドごとに使い回すため、1件あたりの生成物は出力の文字列のみ
+ * ※try-with-resourcesで使用すること(使用中に入れ子で取得した場合のみ新たに作成する)
+ */
+final class CodePointText implements AutoCloseable {
+
+  /**
+   * パターンの判定表をキャッシュする件数の上限(超えた場合は破棄して作り直す).
+   */
+  private static final int CACHE_MAX = 100;
+
+  /**
+   * 使い回す作業領域の大きさの上限(超えた場合は返却時に破棄する).
+   */
+  private static final int REUSE_MAX = 4096;
+
+  private static final Map<Pattern, MatchTable> CACHE = new ConcurrentHashMap<>();
+
+  private static final ThreadLocal<CodePointText> LOCAL =
+      ThreadLocal.withInitial(CodePointText::new);
+
+  /**
+   * 入力文字列のコードポイント.
+   */
+  private int[] codePoints = new int[64];
+
+  /**
+   * 入力文字列の文字数(コードポイント数).
+   */
+  private int length;
+
+  /**
+   * 出力先.
+   */
+  private StringBuilder out = new StringBuilder(64);
+
+  private boolean inUse = false;
+
+  private CodePointText() {}
+
+  /**
+   * 文字列を1文字ずつに展開した作業領域を取得する.
+   * @param s 対象の文字列
+   * @return 作業領域
+   */
+  static CodePointText of(CharSequence s) {
+    CodePointText ret = LOCAL.get();
+    if (ret.inUse) {
+      // 入れ子で使用する場合は別に作成
+      ret = new CodePointText();
+    }
+    ret.inUse = true;
+    ret.load(s);
+    return ret;
+  }
+
+  /**
+   * 文字列を展開する.
+   * @param s 対象の文字列
+   */
+  private void load(CharSequence s) {
+    int len = s.length();
+    if (codePoints.length < len) {
+      codePoints = new int[len];
+    }
+    int cnt = 0;
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        // サロゲートペアは1文字にする
+        codePoints[cnt++] = Character.toCodePoint(c, s.charAt(++i));
+      } else {
+        codePoints[cnt++] = c;
+      }
+    }
+    length = cnt;
+    out.setLength(0);
+  }
+
+  /**
+   * 文字数(コードポイント数)を取得.
+   * @return 文字数
+   */
+  int length() {
+    return length;
+  }
+
+  /**
+   * 指定した文字目のコードポイントを取得.
+   * @param index 文字目(0～)
+   * @return コードポイント
+   */
+  int codePointAt(int index) {
+    return codePoints[index];
+  }
+
+  /**
+   * 指定した2つの文字目の文字を入れ替える.
+   * @param i 文字目(0～)
+   * @param j 文字目(0～)
+   */
+  void swap(int i, int j) {
+    int tmp = codePoints[i];
+    codePoints[i] = codePoints[j];
+    codePoints[j] = tmp;
+  }
+
+  /**
+   * 指定した文字目がパターンにマッチするかどうか.
+   * @param index 文字目(0～)
+   * @param pattern パターン
+   * @return true=マッチする, false=マッチしない
+   */
+  boolean find(int index, Pattern pattern) {
+    return find(pattern, codePoints[index]);
+  }
+
+  /**
+   * 出力先を取得.
+   * @return 出力先
+   */
+  StringBuilder out() {
+    return out;
+  }
+
+  /**
+   * 指定した文字目をそのまま出力する.
+   * @param index 文字目(0～)
+   * @return この作業領域
+   */
+  CodePointText appendSource(int index) {
+    out.appendCodePoint(codePoints[index]);
+    return this;
+  }
+
+  /**
+   * 文字列を出力する.
+   * @param s 出力する文字列
+   * @return この作業領域
+   */
+  CodePointText append(CharSequence s) {
+    out.append(s);
+    return this;
+  }
+
+  /**
+   * 出力した文字列を取得.
+   * @return 出力した文字列
+   */
+  String result() {
+    return out.toString();
+  }
+
+  /**
+   * 作業領域を返却する.
+   */
+  @Override
+  public void close() {
+    if (codePoints.length > REUSE_MAX) {
+      codePoints = new int[64];
+    }
+    if (out.capacity() > REUSE_MAX) {
+      out = new StringBuilder(64);
+    }
+    inUse = false;
+  }
+
+  /**
+   * 1文字がパターンにマッチするかどうか.
+   * ・1文字だけの文字列にPattern.matcher().find()した結果と同じ
+   * ・BMP内の文字はパターンごとの判定表に覚えておく
+   * @param pattern パターン
+   * @param codePoint 判定したい文字のコードポイント
+   * @return true=マッチする, false=マッチしない
+   */
+  static boolean find(Pattern pattern, int codePoint) {
+    if (codePoint > Character.MAX_VALUE) {
+      return pattern.matcher(new String(Character.toChars(codePoint))).find();
+    }
+    MatchTable table = CACHE.get(pattern);
+    if (table == null) {
+      if (CACHE.size() >= CACHE_MAX) {
+        CACHE.clear();
+      }
+      table = CACHE.computeIfAbsent(pattern, MatchTable::new);
+    }
+    return table.find((char) codePoint);
+  }
+
+  /**
+   * 全角として扱う文字かどうか.
+   * ・SJISで2byteの文字は全角
+   * ※BMP外の文字はSJISで表せないが、JIS X 0213の漢字等なので全角として扱う
+   * @param codePoint 判定したい文字のコードポイント
+   * @return true=全角, false=半角
+   */
+  static boolean isWideChar(int codePoint) {
+    return codePoint > Character.MAX_VALUE || MaskingUtil.isWideChar(codePoint);
+  }
+
+  /**
+   * 半角数字かどうか.
+   * @param codePoint 判定したい文字のコードポイント
+   * @return true=半角数字, false=それ以外
+   */
+  static boolean isHalfNumber(int codePoint) {
+    return codePoint >= '0' && codePoint <= '9';
+  }
+
+  /**
+   * 全角数字かどうか.
+   * @param codePoint 判定したい文字のコードポイント
+   * @return true=全角数字, false=それ以外
+   */
+  static boolean isWideNumber(int codePoint) {
+    return codePoint >= '０' && codePoint <= '９';
+  }
+
+  /**
+   * パターンごとの1文字の判定表.
+   * ・256文字ごとの区画に分け、判定した文字を含む区画のみ作成する
+   * ※複数スレッドで同時に書き込んでも同じ値になるため排他しない
+   */
+  private static final class MatchTable {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte UNMATCH = 2;
+
+    private final Pattern pattern;
+    private final byte[][] pages = new byte[256][];
+
+    MatchTable(Pattern pattern) {
+      this.pattern = pattern;
+    }
+
+    boolean find(char c) {
+      byte[] page = pages[c >> 8];
+      if (page == null) {
+        page = new byte[256];
+        pages[c >> 8] = page;
+      }
+      byte ret = page[c & 0xFF];
+      if (ret == UNKNOWN) {
+        ret = (pattern.matcher(String.valueOf(c)).find()) ? MATCH : UNMATCH;
+        page[c & 0xFF] = ret;
+      }
+      return ret == MATCH;
+    }
+
+  }
+
+}
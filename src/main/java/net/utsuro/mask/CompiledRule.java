@@ -0,0 +1,281 @@
+package net.utsuro.mask;
+
+import java.time.chrono.JapaneseChronology;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * マスク化ルールを事前に解決したクラス.
+ * ・型変換先のクラス、日付書式、かな・カナの変換、派生ルール(型変換先だけ異なるルール等)を保持する
+ * ・カラムごとに1回compile()しておき、DataMask.executeCompiled()に渡すと
+ *   行ごとにルールのコピーやクラス・書式の解決を行わない
+ * ・作成後は変更しないため、複数スレッドで共有できる
+ * ※getRule()で取得したルールは変更しないこと
+ */
+public final class CompiledRule {
+
+  /**
+   * 派生ルール等のキー: マスク後の置換マスク用のルール.
+   */
+  private static final String AFTER_TEXT_REPLACE = "afterTextReplace";
+
+  /**
+   * マスク化ルール.
+   */
+  private final MaskingRule rule;
+
+  /**
+   * compile()で作成したかどうか(派生ルールも作成時に解決する).
+   */
+  private final boolean isCompiled;
+
+  /**
+   * 型変換先のクラス(未解決はnull).
+   */
+  private volatile Class<?> toClass;
+
+  /**
+   * 日付書式(未解決、書式指定無しはnull).
+   */
+  private volatile DateTimeFormatter dateTimeFormatter;
+  private volatile boolean isDateTimeFormatterResolved = false;
+
+  /**
+   * かな・カナの変換(未解決はnull).
+   */
+  private volatile KanaConverter kanaConverter;
+
+  /**
+   * 派生ルール、マスク処理ごとの事前計算結果.
+   */
+  private final Map<Object, Object> derived = new ConcurrentHashMap<>();
+
+  private CompiledRule(MaskingRule rule, boolean isCompiled) {
+    this.rule = rule;
+    this.isCompiled = isCompiled;
+    if (isCompiled) {
+      resolve();
+    }
+  }
+
+  /**
+   * マスク化ルールを事前に解決する.
+   * ・ルールをコピーするため、以降に元のルールを変更しても影響しない
+   * ・型変換先のクラス、日付書式、かな・カナの変換はこの時点で解決する
+   * ※解決できない型変換先・日付書式は、使用した時点でエラーになる(ルールを直接渡した場合と同じ)
+   * @param rule マスク化ルール
+   * @return 事前に解決したルール、ルールが無い場合はnull
+   */
+  public static CompiledRule compile(MaskingRule rule) {
+    if (rule == null) {
+      return null;
+    }
+    return new CompiledRule(new MaskingRule(rule), true);
+  }
+
+  /**
+   * マスク化ルールをコピーせずに包む.
+   * ※1回の呼び出しの中だけで使用する場合用。解決は使用した時点で行う
+   * @param rule マスク化ルール
+   * @return ルールを包んだもの、ルールが無い場合はnull
+   */
+  static CompiledRule wrap(MaskingRule rule) {
+    return (rule == null) ? null : new CompiledRule(rule, false);
+  }
+
+  /**
+   * マスク化ルールを取得.
+   * ※変更しないこと
+   * @return マスク化ルール
+   */
+  public MaskingRule getRule() {
+    return rule;
+  }
+
+  /**
+   * 型変換先のクラスを取得.
+   * @return 型変換先のクラス
+   * @throws IllegalArgumentException 型変換先が指定されていない、または存在しない場合
+   */
+  public Class<?> getToClass() {
+    Class<?> ret = toClass;
+    if (ret == null) {
+      if (rule.getToClassName() == null || rule.getToClassName().isEmpty()) {
+        // 変換後のクラス名が指定されていない場合はエラー
+        throw new IllegalArgumentException("型変換先が指定されていません。");
+      }
+      try {
+        ret = Class.forName(rule.getToClassName());
+      } catch (IllegalArgumentException | SecurityException | ClassNotFoundException e) {
+        throw new IllegalArgumentException(
+            String.format("型変換先の指定 %s に問題があります。", rule.getToClassName()), e);
+      }
+      toClass = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * 日付書式を取得.
+   * ※書式に「GGGG」を含む場合は和暦として扱う
+   * @return 日付書式、書式指定無しの場合はnull
+   * @throws IllegalArgumentException 書式が不正な場合
+   */
+  public DateTimeFormatter getDateTimeFormatter() {
+    if (!isDateTimeFormatterResolved) {
+      String format = rule.getDateTimeFormat();
+      DateTimeFormatter ret = null;
+      if (format != null && !format.isEmpty()) {
+        if (format.indexOf("GGGG") >= 0) {
+          // 和暦ありとして扱う
+          ret = DateTimeFormatter.ofPattern(format).withChronology(JapaneseChronology.INSTANCE);
+        } else {
+          // 西暦
+          ret = DateTimeFormatter.ofPattern(format);
+        }
+      }
+      dateTimeFormatter = ret;
+      isDateTimeFormatterResolved = true;
+    }
+    return dateTimeFormatter;
+  }
+
+  /**
+   * 文字種変換(かな・カナ)の変換クラスを取得.
+   * ・大文字化、半角カナ化、全角カナ化、ひらがな化を指定された順にまとめて行う
+   * @return 変換クラス
+   */
+  public KanaConverter getKanaConverter() {
+    KanaConverter ret = kanaConverter;
+    if (ret == null) {
+      List<KanaConverter.Step> steps = new ArrayList<>();
+      if (rule.useUpperCaseKana()) {
+        // カナ小文字とかな小文字を大文字にする
+        steps.add(KanaConverter.Step.UPPER_HALF_KANA);
+        steps.add(KanaConverter.Step.UPPER_WIDE_KANA);
+        steps.add(KanaConverter.Step.UPPER_HIRAGANA);
+      }
+      if (rule.useHalfKana()) {
+        // かなをカナにしてから半角カナにする
+        steps.add(KanaConverter.Step.HIRAGANA_TO_WIDE_KANA);
+        steps.add(KanaConverter.Step.WIDE_KANA_TO_HALF_KANA);
+      }
+      if (rule.useWideKana()) {
+        // 半角カナは全角に、ひらがなはカナにする
+        steps.add(KanaConverter.Step.HALF_KANA_TO_WIDE_KANA);
+        steps.add(KanaConverter.Step.HIRAGANA_TO_WIDE_KANA);
+      }
+      if (rule.useHiragana()) {
+        // 半角カナを全角にしてからひらがなにする
+        steps.add(KanaConverter.Step.HALF_KANA_TO_WIDE_KANA);
+        steps.add(KanaConverter.Step.WIDE_KANA_TO_HIRAGANA);
+      }
+      ret = KanaConverter.of(steps.toArray(new KanaConverter.Step[0]));
+      kanaConverter = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * 型変換先だけ異なるルールを取得.
+   * ※型変換先ごとに1回だけ作成する
+   * @param className 型変換先のクラス名
+   * @return 型変換先を差し替えたルール
+   */
+  public CompiledRule withToClassName(String className) {
+    if (Objects.equals(className, rule.getToClassName())) {
+      return this;
+    }
+    return getDerived(new ToClassKey(className), r -> {
+      MaskingRule ret = new MaskingRule(r);
+      ret.setToClassName(className);
+      return new CompiledRule(ret, isCompiled);
+    });
+  }
+
+  /**
+   * マスク後の置換マスク用のルールを取得.
+   * ※奇数目・偶数目の文字のみマスクするパターンを、マスク後の置換マスク用の指定に差し替えたもの
+   * @return マスク後の置換マスク用のルール
+   */
+  public CompiledRule getAfterTextReplaceRule() {
+    return getDerived(AFTER_TEXT_REPLACE, r -> {
+      MaskingRule ret = new MaskingRule(r);
+      ret.useOddCharMask(r.useAfterRepOddCharMask());
+      ret.useEvenCharMask(r.useAfterRepEvenCharMask());
+      return new CompiledRule(ret, isCompiled);
+    });
+  }
+
+  /**
+   * 派生ルールやマスク処理ごとの事前計算結果を取得.
+   * ・キーごとに初回のみ作成し、以降は同じものを返す
+   * ※作成処理ではルールを変更しないこと(派生ルールはコピーしてから変更する)
+   * @param <T> 事前計算結果の型
+   * @param key キー(マスク処理のクラス名等、他と重複しないもの)
+   * @param factory ルールから事前計算結果を作成する処理
+   * @return 事前計算結果
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getDerived(Object key, Function<? super MaskingRule, ? extends T> factory) {
+    Object ret = derived.get(key);
+    if (ret == null) {
+      ret = factory.apply(rule);
+      Object prev = derived.putIfAbsent(key, ret);
+      if (prev != null) {
+        ret = prev;
+      }
+    }
+    return (T) ret;
+  }
+
+  /**
+   * 型変換先のクラス、日付書式、かな・カナの変換を解決する.
+   * ※解決できないものは使用した時点でエラーにするため、ここでは無視する
+   */
+  private void resolve() {
+    if (rule.getToClassName() != null && !rule.getToClassName().isEmpty()) {
+      try {
+        getToClass();
+      } catch (IllegalArgumentException e) {
+        // 使用した時点でエラーにする
+      }
+    }
+    try {
+      getDateTimeFormatter();
+    } catch (IllegalArgumentException e) {
+      // 使用した時点でエラーにする
+    }
+    getKanaConverter();
+  }
+
+  /**
+   * 型変換先ごとの派生ルールのキー.
+   */
+  private static final class ToClassKey {
+
+    private final String className;
+
+    ToClassKey(String className) {
+      this.className = className;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof ToClassKey
+          && Objects.equals(className, ((ToClassKey) obj).className);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(className);
+    }
+
+  }
+
+}
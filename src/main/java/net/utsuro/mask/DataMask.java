@@ -1,8 +1,6 @@
 package net.utsuro.mask;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 /**
@@ -33,6 +31,15 @@ public interface DataMask {
    */
   public default void setConnection(Connection conn) {}
 
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * ・DBコネクションを閉じる前、マスク処理の使用を終了する前に呼ぶこと
+   * ※DBコネクションをセットし直した場合、前のDBコネクションのキャッシュはその時に閉じる
+   * ※デフォルトは何もしない
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public default void closeStatements() throws SQLException {}
+
   /**
    * マスク化した値に置換する.
    * @param src 対象データ
@@ -42,6 +49,93 @@ public interface DataMask {
    */
   public Object execute(Object src, MaskingRule rule) throws Exception;
 
+  /**
+   * 事前に解決したルールでマスク化した値に置換する.
+   * ・行ごとに呼び出す場合はCompiledRule.compile()したものを使い回すこと
+   * ※デフォルトは元のルールでexecute(Object, MaskingRule)を呼び出す
+   * @param src 対象データ
+   * @param rule 事前に解決したマスク化ルール
+   * @return 置換後のデータ
+   * @throws Exception エラー発生時
+   */
+  public default Object executeCompiled(Object src, CompiledRule rule) throws Exception {
+    return execute(src, (rule == null) ? null : rule.getRule());
+  }
+
+  /**
+   * 複数の値をまとめてマスク化した値に置換する.
+   * ・ルールのチェック、解決をまとめて1回だけ行うため、1件ずつexecute()するより速い
+   * ・入力と出力に同じ配列を指定した場合はその場で置換する
+   * ・ForkJoinPoolで分割して並列に実行する場合はBatchMaskingTaskを使用する
+   * ※開始位置を0としてexecuteBatch(Object[], int, Object[], int, int, MaskingRule)を呼び出す
+   * @param in 対象データの配列
+   * @param out 置換後のデータの格納先(先頭からlen件に格納する)
+   * @param len 件数(配列の先頭からlen件を対象とする)
+   * @param rule マスク化ルール
+   * @throws Exception エラー発生時
+   */
+  public default void executeBatch(Object[] in, Object[] out, int len, MaskingRule rule)
+      throws Exception {
+    executeBatch(in, 0, out, 0, len, rule);
+  }
+
+  /**
+   * 配列の範囲を指定して複数の値をまとめてマスク化した値に置換する.
+   * ・in[inOff]からlen件を置換してout[outOff]から格納する
+   * ・BatchMaskingTaskで分割した範囲を切り出さずにそのまま実行する
+   * ※入力と出力に同じ配列を指定する場合は同じ開始位置を指定すること
+   * ※ルールを1回だけ包んでexecuteBatchCompiled()を呼び出す
+   * @param in 対象データの配列
+   * @param inOff 対象データの開始位置
+   * @param out 置換後のデータの格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param rule マスク化ルール
+   * @throws Exception エラー発生時
+   */
+  public default void executeBatch(Object[] in, int inOff, Object[] out, int outOff, int len,
+      MaskingRule rule) throws Exception {
+    executeBatchCompiled(in, inOff, out, outOff, len, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで配列の範囲を指定して複数の値をまとめてマスク化した値に置換する.
+   * ・MaskingPipeline、BatchMaskingTaskは解決済のルールを渡し、呼び出しごとの解決を省略する
+   * ※まとめて実行する処理を実装する場合はこちらをオーバーライドすること
+   * ※入力と出力に同じ配列を指定する場合は同じ開始位置を指定すること
+   * ※デフォルトはexecuteCompiled()を1件ずつ呼び出す
+   * @param in 対象データの配列
+   * @param inOff 対象データの開始位置
+   * @param out 置換後のデータの格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param rule 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  public default void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff,
+      int len, CompiledRule rule) throws Exception {
+    for (int i = 0; i < len; i++) {
+      out[outOff + i] = executeCompiled(in[inOff + i], rule);
+    }
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※デフォルトはDBコネクションのユニークリスト(sys_unique_list)を使用する
+   * ※デフォルトは呼び出しごとに生成するため(ステートメントもキャッシュしない)、
+   *   ユニークリストを使用する実装クラスはUniqueListStoreHolderに保持したものを返すこと
+   * @return ユニークリストの格納先
+   */
+  public default UniqueListStore getUniqueListStore() {
+    return new JdbcUniqueListStore(getConnection(), null, 0);
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param store セットする格納先
+   */
+  public default void setUniqueListStore(UniqueListStore store) {}
+
   /**
    * ユニークリストから既登録の値を取得する.
    * ※INPUTが同じものがあれば再利用する決定論的置換で使用
@@ -51,29 +145,8 @@ public interface DataMask {
    * @throws SQLException DBアクセス時のエラー
    */
   public default Object getRegisteredUniqueVal(String id, String val) throws SQLException {
-
-    Object ret = null;
-    Connection conn = getConnection();
-    if (conn != null && !conn.isClosed() && val != null) {
-      StringBuilder sql;
-      sql = new StringBuilder();
-      sql.append("SELECT")
-          .append(" output_val")
-          .append(" FROM sys_unique_list")
-          .append(" WHERE id = ?")
-          .append(" AND input_val = ?");
-      try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-        stmt.setString(1, id);
-        stmt.setString(2, val);
-        try (ResultSet rs = stmt.executeQuery()) {
-          if (rs.next()) {
-            ret = rs.getString("output_val");
-          }
-        }
-      }
-    }
-    return ret;
-
+    UniqueListStore store = getUniqueListStore();
+    return (store == null) ? null : store.getRegisteredUniqueVal(id, val);
   }
 
   /**
@@ -84,30 +157,8 @@ public interface DataMask {
    * @throws SQLException DBアクセス時のエラー
    */
   public default boolean isExistsInUniqueList(String id, String val) throws SQLException {
-
-    boolean ret = false;
-    Connection conn = getConnection();
-    if (conn != null && !conn.isClosed() && val != null) {
-      synchronized (this) {
-        StringBuilder sql;
-        sql = new StringBuilder();
-        sql.append("SELECT")
-            .append(" COUNT(*) AS cnt")
-            .append(" FROM sys_unique_list")
-            .append(" WHERE id = ?")
-            .append(" AND output_val = ?");
-        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-          stmt.setString(1, id);
-          stmt.setString(2, val);
-          try (ResultSet rs = stmt.executeQuery()) {
-            if (rs.next() && rs.getLong("cnt") > 0) {
-              ret = true;
-            }
-          }
-        }
-      }
-    }
-    return ret;
+    UniqueListStore store = getUniqueListStore();
+    return store != null && store.isExistsInUniqueList(id, val);
   }
 
   /**
@@ -121,30 +172,23 @@ public interface DataMask {
    */
   public default boolean addUniqueList(String id, String inputVal, String outputVal)
       throws SQLException {
+    UniqueListStore store = getUniqueListStore();
+    return store == null || store.addUniqueList(id, inputVal, outputVal);
+  }
 
-    boolean ret = true;
-    Connection conn = getConnection();
-    if (conn != null && !conn.isClosed() && inputVal != null && outputVal != null) {
-      synchronized (this) {
-        StringBuilder sql;
-        sql = new StringBuilder();
-        sql.append("INSERT INTO sys_unique_list")
-            .append(" (id, input_val, output_val)")
-            .append(" VALUES")
-            .append(" (?, ?, ?)");
-        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-          stmt.setString(1, id);
-          stmt.setString(2, inputVal);
-          stmt.setString(3, outputVal);
-          stmt.execute();
-        } catch (SQLException e) {
-          // 一意誓約違反になったら再抽選
-          ret = false;
-        }
-      }
-    }
-    return ret;
-
+  /**
+   * INPUTが登録済ならその値を取得し、未登録なら登録する.
+   * ※決定論的置換で既登録の値の取得と生成結果の登録をまとめて行う
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 登録済の値または登録した値、OUTPUTが重複して登録できなかった場合はnull
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public default String addOrGetUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+    UniqueListStore store = getUniqueListStore();
+    return (store == null) ? outputVal : store.addOrGetUniqueList(id, inputVal, outputVal);
   }
 
 }
@@ -2,7 +2,6 @@ package net.utsuro.mask;
 
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 /**
@@ -44,14 +43,10 @@ public class DataMaskFactory {
    */
   public static void initUniqueList(Connection conn) throws SQLException {
     // ユニーク管理リストのクリア
-    if (conn != null && !conn.isClosed()) {
-      StringBuilder sql;
-      sql = new StringBuilder();
-      sql.append("TRUNCATE TABLE sys_unique_list");
-      try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-        stmt.execute();
-      }
+    try (JdbcUniqueListStore store = new JdbcUniqueListStore(conn, null, 0)) {
+      store.clear();
     }
+    UniqueListStoreHolder.clearSamplers(conn);
   }
 
 
@@ -30,6 +30,20 @@ public class DateTimeConcat implements DataMask {
 
   }
 
+  /**
+   * 事前に解決したルールで日付と時刻を日時に結合する.
+   * @param src 結合したい値の配列
+   * @param rule 事前に解決したマスク化ルール
+   * @return 結合後の値
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule rule) throws Exception {
+
+    return concat(src, rule);
+
+  }
+
   /**
    * 日付と時刻を日時に結合する.
    * @param src 結合したい値の配列
@@ -38,7 +52,19 @@ public class DateTimeConcat implements DataMask {
    * @throws Exception エラー発生時
    */
   public static Object concat(Object src, MaskingRule rule) throws Exception {
+    return concat(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで日付と時刻を日時に結合する.
+   * @param src 結合したい値の配列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 結合後の値
+   * @throws Exception エラー発生時
+   */
+  private static Object concat(Object src, CompiledRule compiled) throws Exception {
 
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || src == null) {
       // ルールが無い場合、引き渡された値がnullの場合はそのまま返却
       return src;
@@ -49,16 +75,15 @@ public class DateTimeConcat implements DataMask {
     }
 
     Object[] arr = (Object[]) src;
-    MaskingRule tempRule = new MaskingRule(rule);
 
     // 日付と時刻にそれぞれ変換
-    tempRule.setToClassName(LocalDate.class.getName());
-    LocalDate date = (LocalDate) TypeConverter.convert(arr[0], tempRule);
-    tempRule.setToClassName(LocalTime.class.getName());
-    LocalTime time = (LocalTime) TypeConverter.convert(arr[1], tempRule);
+    LocalDate date = (LocalDate) TypeConverter.convert(arr[0],
+        compiled.withToClassName(LocalDate.class.getName()));
+    LocalTime time = (LocalTime) TypeConverter.convert(arr[1],
+        compiled.withToClassName(LocalTime.class.getName()));
 
     // LocalDateTimeに結合して引き渡された元々のルールで変換して返す
-    return TypeConverter.convert(LocalDateTime.of(date, time), rule);
+    return TypeConverter.convert(LocalDateTime.of(date, time), compiled);
 
   }
 
@@ -28,6 +28,20 @@ public class DateTimeSplit implements DataMask {
 
   }
 
+  /**
+   * 事前に解決したルールで日時を日付と時刻に分割する.
+   * @param src 分割したい値
+   * @param rule 事前に解決したマスク化ルール
+   * @return 分割後の値の配列
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule rule) throws Exception {
+
+    return split(src, rule);
+
+  }
+
   /**
    * 日時を日付と時刻に分割する.
    * @param src 分割したい値
@@ -36,7 +50,19 @@ public class DateTimeSplit implements DataMask {
    * @throws Exception エラー発生時
    */
   public static Object split(Object src, MaskingRule rule) throws Exception {
+    return split(src, CompiledRule.wrap(rule));
+  }
 
+  /**
+   * 事前に解決したルールで日時を日付と時刻に分割する.
+   * @param src 分割したい値
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 分割後の値の配列
+   * @throws Exception エラー発生時
+   */
+  private static Object split(Object src, CompiledRule compiled) throws Exception {
+
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || src == null) {
       // ルールが無い場合、引き渡された値がnullの場合はそのまま返却
       return src;
@@ -47,19 +73,17 @@ public class DateTimeSplit implements DataMask {
       throw new IllegalArgumentException("2つの型変換先が指定されていません。");
     }
 
-    MaskingRule tempRule = new MaskingRule(rule);
-
     // LocalDateTimeに変換
-    tempRule.setToClassName(LocalDateTime.class.getName());
-    LocalDateTime dateTime = (LocalDateTime) TypeConverter.convert(src, tempRule);
+    LocalDateTime dateTime = (LocalDateTime) TypeConverter.convert(src,
+        compiled.withToClassName(LocalDateTime.class.getName()));
 
     Object[] obj = new Object[2];
 
     // 2枠分の型変換
-    tempRule.setToClassName(rule.getToClassNames().get(0));
-    obj[0] = TypeConverter.convert(dateTime.toLocalDate(), tempRule);
-    tempRule.setToClassName(rule.getToClassNames().get(1));
-    obj[1] = TypeConverter.convert(dateTime.toLocalTime(), tempRule);
+    obj[0] = TypeConverter.convert(dateTime.toLocalDate(),
+        compiled.withToClassName(rule.getToClassNames().get(0)));
+    obj[1] = TypeConverter.convert(dateTime.toLocalTime(),
+        compiled.withToClassName(rule.getToClassNames().get(1)));
 
     return obj;
 
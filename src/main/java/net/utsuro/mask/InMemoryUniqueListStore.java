@@ -0,0 +1,294 @@
+package net.utsuro.mask;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * メモリ上でユニークリストを管理する格納先クラス.
+ * ・識別子(uniqueId)ごとに領域を分け、さらに値のハッシュで分割したストライプ単位でロックする
+ * ・DBを使用しないため、プロセス内でのみ一意性・一貫性が保証される
+ */
+public class InMemoryUniqueListStore implements UniqueListStore {
+
+  /**
+   * デフォルトのストライプ数.
+   */
+  public static final int DEFAULT_STRIPE_COUNT = 64;
+
+  /**
+   * 識別子ごとの領域.
+   */
+  private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+  /**
+   * ストライプ選択用のマスク値.
+   */
+  private final int stripeMask;
+
+  /**
+   * デフォルトコンストラクタ.
+   */
+  public InMemoryUniqueListStore() {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param stripeCount 識別子ごとのストライプ数(2の累乗に切り上げる)
+   */
+  public InMemoryUniqueListStore(int stripeCount) {
+    if (stripeCount <= 0) {
+      throw new IllegalArgumentException("ストライプ数は1以上を指定してください。");
+    }
+    int count = Integer.highestOneBit(stripeCount);
+    if (count < stripeCount) {
+      count <<= 1;
+    }
+    this.stripeMask = count - 1;
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ※INPUTが同じものがあれば再利用する決定論的置換で使用
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値
+   */
+  @Override
+  public String getRegisteredUniqueVal(String id, String val) {
+
+    if (val == null) {
+      return null;
+    }
+    Namespace ns = namespaces.get(normalizeId(id));
+    if (ns == null) {
+      return null;
+    }
+    Stripe stripe = ns.stripeOf(val);
+    synchronized (stripe) {
+      return stripe.inputs.get(val);
+    }
+
+  }
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   */
+  @Override
+  public boolean isExistsInUniqueList(String id, String val) {
+
+    if (val == null) {
+      return false;
+    }
+    Namespace ns = namespaces.get(normalizeId(id));
+    if (ns == null) {
+      return false;
+    }
+    Stripe stripe = ns.stripeOf(val);
+    synchronized (stripe) {
+      return stripe.outputs.containsKey(val);
+    }
+
+  }
+
+  /**
+   * ユニークリストに登録する.
+   * ※ユニーク値生成の場合、OUTPUTに同値はNGなので再抽選する
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   */
+  @Override
+  public boolean addUniqueList(String id, String inputVal, String outputVal) {
+
+    if (inputVal == null || outputVal == null) {
+      // DB版と同様、登録対象外は成功扱い
+      return true;
+    }
+    Namespace ns = namespaces.computeIfAbsent(normalizeId(id), k -> new Namespace(stripeMask));
+    Stripe outStripe = ns.stripeOf(outputVal);
+    synchronized (outStripe) {
+      if (outStripe.outputs.putIfAbsent(outputVal, inputVal) != null) {
+        // OUTPUTが重複する場合は一意誓約違反と同じ扱い
+        return false;
+      }
+    }
+    Stripe inStripe = ns.stripeOf(inputVal);
+    synchronized (inStripe) {
+      // 同じINPUTは最初に登録されたものを優先する
+      inStripe.inputs.putIfAbsent(inputVal, outputVal);
+    }
+    return true;
+
+  }
+
+  /**
+   * INPUTが登録済ならその値を取得し、未登録なら登録する.
+   * ・INPUTとOUTPUTのストライプをまとめてロックし、確認と登録を1回で行う
+   * ※複数スレッドから同じINPUTを登録しても、全てのスレッドが同じ値を受け取る
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 登録済の値または登録した値、OUTPUTが重複して登録できなかった場合はnull
+   */
+  @Override
+  public String addOrGetUniqueList(String id, String inputVal, String outputVal) {
+
+    if (inputVal == null) {
+      // 登録対象外は成功扱い
+      return outputVal;
+    }
+    if (outputVal == null) {
+      return getRegisteredUniqueVal(id, inputVal);
+    }
+    Namespace ns = namespaces.computeIfAbsent(normalizeId(id), k -> new Namespace(stripeMask));
+    Stripe inStripe = ns.stripeOf(inputVal);
+    Stripe outStripe = ns.stripeOf(outputVal);
+    // デッドロックしないよう、ストライプの番号順にロックする
+    Stripe first = (inStripe.index <= outStripe.index) ? inStripe : outStripe;
+    Stripe second = (first == inStripe) ? outStripe : inStripe;
+    synchronized (first) {
+      synchronized (second) {
+        String ret = inStripe.inputs.get(inputVal);
+        if (ret != null) {
+          return ret;
+        }
+        if (outStripe.outputs.putIfAbsent(outputVal, inputVal) != null) {
+          // OUTPUTが重複する場合は一意誓約違反と同じ扱い
+          return null;
+        }
+        inStripe.inputs.put(inputVal, outputVal);
+        return outputVal;
+      }
+    }
+
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   */
+  @Override
+  public void clear() {
+    namespaces.clear();
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * ・識別子、入力値、出力値の順に並べて渡す
+   * ※識別子ごとに登録内容を複製して並べ替えるため、一時的にその分のメモリを使用する
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException 受け取る処理でのエラー
+   * @throws IOException 受け取る処理でのエラー
+   */
+  @Override
+  public void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+
+    for (Map.Entry<String, Namespace> e : new TreeMap<>(namespaces).entrySet()) {
+      List<String[]> entries = new ArrayList<>();
+      for (Stripe stripe : e.getValue().stripes) {
+        synchronized (stripe) {
+          for (Map.Entry<String, String> out : stripe.outputs.entrySet()) {
+            entries.add(new String[] {out.getValue(), out.getKey()});
+          }
+        }
+      }
+      entries.sort(Comparator.<String[], String>comparing(v -> v[0])
+          .thenComparing(v -> v[1]));
+      for (String[] entry : entries) {
+        consumer.accept(e.getKey(), entry[0], entry[1]);
+      }
+    }
+
+  }
+
+  /**
+   * 識別子ごとの登録件数(OUTPUTの件数)を取得.
+   * @param id 識別子(カラム名とは限らず)
+   * @return 登録件数
+   */
+  public long size(String id) {
+
+    Namespace ns = namespaces.get(normalizeId(id));
+    if (ns == null) {
+      return 0;
+    }
+    long ret = 0;
+    for (Stripe stripe : ns.stripes) {
+      synchronized (stripe) {
+        ret += stripe.outputs.size();
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * 識別子のnullを空文字に揃える.
+   * @param id 識別子
+   * @return 正規化した識別子
+   */
+  private static String normalizeId(String id) {
+    return (id == null) ? "" : id;
+  }
+
+  /**
+   * 識別子ごとの領域.
+   */
+  private static class Namespace {
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    Namespace(int mask) {
+      this.mask = mask;
+      this.stripes = new Stripe[mask + 1];
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new Stripe(i);
+      }
+    }
+
+    Stripe stripeOf(String val) {
+      int h = val.hashCode();
+      return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+  }
+
+  /**
+   * ロック単位となるストライプ.
+   */
+  private static class Stripe {
+
+    /**
+     * ストライプの番号(ロックの順序).
+     */
+    private final int index;
+
+    /**
+     * INPUT → OUTPUT のマッピング.
+     */
+    private final Map<String, String> inputs = new HashMap<>();
+
+    /**
+     * OUTPUT → INPUT のマッピング(登録済のOUTPUT).
+     */
+    private final Map<String, String> outputs = new HashMap<>();
+
+    Stripe(int index) {
+      this.index = index;
+    }
+
+  }
+
+}
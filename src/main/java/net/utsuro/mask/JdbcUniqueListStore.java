@@ -0,0 +1,331 @@
+package net.utsuro.mask;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * DBのユニークリスト(sys_unique_list)を使用する格納先クラス.
+ * ・DBごとの差異はUniqueListDialectで吸収する(指定しない場合はコネクションから判別する)
+ * ・SQLのステートメントは格納先ごとのStatementCacheで使い回し、close()で閉じる
+ * ※同一コネクションへのアクセスはコネクション単位で排他する
+ */
+public class JdbcUniqueListStore implements UniqueListStore {
+
+  /**
+   * ユニークリストへの登録SQL.
+   */
+  static final String INSERT_SQL = "INSERT INTO sys_unique_list"
+      + " (id, input_val, output_val)"
+      + " VALUES"
+      + " (?, ?, ?)";
+
+  /**
+   * OUTPUTの存在チェックSQL.
+   */
+  static final String EXISTS_SQL = "SELECT"
+      + " COUNT(*) AS cnt"
+      + " FROM sys_unique_list"
+      + " WHERE id = ?"
+      + " AND output_val = ?";
+
+  /**
+   * 登録内容の全件取得SQL.
+   */
+  static final String SELECT_ALL_SQL = "SELECT"
+      + " id, input_val, output_val"
+      + " FROM sys_unique_list"
+      + " ORDER BY id, input_val, output_val";
+
+  /**
+   * 一括取得・一括登録の件数単位.
+   */
+  static final int BATCH_SIZE = 10000;
+
+  private final Connection conn;
+  private final StatementCache statements;
+  private UniqueListDialect dialect;
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   */
+  public JdbcUniqueListStore(Connection conn) {
+    this(conn, null);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   * @param dialect DB種別(nullの場合はコネクションから判別する)
+   */
+  public JdbcUniqueListStore(Connection conn, UniqueListDialect dialect) {
+    this(conn, dialect, StatementCache.DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   * @param dialect DB種別(nullの場合はコネクションから判別する)
+   * @param statementCacheSize ステートメントのキャッシュ件数の上限(0の場合はキャッシュしない)
+   */
+  public JdbcUniqueListStore(Connection conn, UniqueListDialect dialect,
+      int statementCacheSize) {
+    this.conn = conn;
+    this.statements = (conn == null) ? null : new StatementCache(conn, statementCacheSize);
+    this.dialect = dialect;
+  }
+
+  /**
+   * DBコネクションを取得.
+   * @return conn
+   */
+  public Connection getConnection() {
+    return conn;
+  }
+
+  /**
+   * ステートメントのキャッシュを取得.
+   * @return キャッシュ(DBコネクションが無い場合はnull)
+   */
+  public StatementCache getStatementCache() {
+    return statements;
+  }
+
+  /**
+   * DB種別を取得.
+   * ※指定が無い場合は初回にコネクションから判別する
+   * @return dialect
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public UniqueListDialect getDialect() throws SQLException {
+    if (dialect == null) {
+      dialect = UniqueListDialect.of(conn);
+    }
+    return dialect;
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ※INPUTが同じものがあれば再利用する決定論的置換で使用
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public String getRegisteredUniqueVal(String id, String val) throws SQLException {
+
+    String ret = null;
+    if (conn != null && !conn.isClosed() && val != null) {
+      synchronized (conn) {
+        ret = UniqueListDialect.getRegisteredUniqueVal(statements, id, val);
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean isExistsInUniqueList(String id, String val) throws SQLException {
+
+    boolean ret = false;
+    if (conn != null && !conn.isClosed() && val != null) {
+      synchronized (conn) {
+        try (PreparedStatement stmt = statements.prepare(EXISTS_SQL)) {
+          stmt.setString(1, id);
+          stmt.setString(2, val);
+          try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next() && rs.getLong("cnt") > 0) {
+              ret = true;
+            }
+          }
+        }
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * ユニークリストに登録する.
+   * ※ユニーク値生成の場合、OUTPUTに同値はNGなので再抽選する
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean addUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    boolean ret = true;
+    if (conn != null && !conn.isClosed() && inputVal != null && outputVal != null) {
+      synchronized (conn) {
+        try (PreparedStatement stmt = statements.prepare(INSERT_SQL)) {
+          stmt.setString(1, id);
+          stmt.setString(2, inputVal);
+          stmt.setString(3, outputVal);
+          stmt.execute();
+        } catch (SQLException e) {
+          // 一意誓約違反になったら再抽選
+          ret = false;
+        }
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * INPUTが登録済ならその値を取得し、未登録なら登録する.
+   * ・DB種別に合ったSQLでできるだけ1回で行う
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 登録済の値または登録した値、OUTPUTが重複して登録できなかった場合はnull
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public String addOrGetUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    String ret = outputVal;
+    if (conn != null && !conn.isClosed() && inputVal != null && outputVal != null) {
+      synchronized (conn) {
+        ret = getDialect().addOrGet(statements, id, inputVal, outputVal);
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * ・識別子、入力値、出力値の順に並べて渡す
+   * ※並べ替えはDBで行い、結果は順次読み込む
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException DBアクセス時のエラー
+   * @throws IOException 受け取る処理でのエラー
+   */
+  @Override
+  public void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+
+    if (conn == null || conn.isClosed()) {
+      return;
+    }
+    synchronized (conn) {
+      // 1回限りの全件取得なのでキャッシュしない
+      try (PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_SQL,
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        stmt.setFetchSize(BATCH_SIZE);
+        try (ResultSet rs = stmt.executeQuery()) {
+          while (rs.next()) {
+            consumer.accept(rs.getString("id"), rs.getString("input_val"),
+                rs.getString("output_val"));
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * スナップショットから登録内容を読み込む.
+   * ・件数単位でバッチ登録し、自動コミットの場合は最後まで読み込んで件数とCRCを検証できてからコミットする
+   * ・自動コミットの場合、検証エラーを含めてエラーになった場合はロールバックして何も登録しない
+   * ※自動コミットでない場合のコミット・ロールバックは呼び出し元で行うこと
+   * ※一意制約違反が発生した場合は例外をそのままスローする(初期化済のユニークリストに読み込むこと)
+   * @param reader スナップショットの読み込み
+   * @throws SQLException DBアクセス時のエラー
+   * @throws IOException 読み込み時のエラー
+   */
+  @Override
+  public void loadSnapshot(UniqueListSnapshot.Reader reader) throws SQLException, IOException {
+
+    if (conn == null || conn.isClosed()) {
+      return;
+    }
+    synchronized (conn) {
+      boolean autoCommit = conn.getAutoCommit();
+      try (PreparedStatement stmt = statements.prepare(INSERT_SQL)) {
+        if (autoCommit) {
+          conn.setAutoCommit(false);
+        }
+        try {
+          int count = 0;
+          while (reader.next()) {
+            if (reader.getInputVal() == null || reader.getOutputVal() == null) {
+              // 登録対象外
+              continue;
+            }
+            stmt.setString(1, reader.getId());
+            stmt.setString(2, reader.getInputVal());
+            stmt.setString(3, reader.getOutputVal());
+            stmt.addBatch();
+            if (++count % BATCH_SIZE == 0) {
+              stmt.executeBatch();
+            }
+          }
+          if (count % BATCH_SIZE != 0) {
+            stmt.executeBatch();
+          }
+          if (autoCommit) {
+            conn.commit();
+          }
+        } catch (SQLException | IOException e) {
+          if (autoCommit) {
+            conn.rollback();
+          }
+          throw e;
+        }
+      } finally {
+        if (autoCommit && !conn.getAutoCommit()) {
+          conn.setAutoCommit(true);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void clear() throws SQLException {
+
+    // ユニーク管理リストのクリア
+    if (conn != null && !conn.isClosed()) {
+      synchronized (conn) {
+        try (PreparedStatement stmt = statements.prepare(getDialect().getTruncateSql())) {
+          stmt.execute();
+        }
+      }
+    }
+
+  }
+
+  /**
+   * 格納先の使用を終了する.
+   * ・キャッシュ中のステートメントを閉じる(DBコネクションは閉じない)
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+    if (statements != null) {
+      statements.close();
+    }
+  }
+
+}
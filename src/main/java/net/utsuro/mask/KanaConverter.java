@@ -0,0 +1,433 @@
+package net.utsuro.mask;
+
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * かな・カナの変換(小文字→大文字、ひらがな⇔全角カナ、全角カナ⇔半角カナ)を組み合わせて行うクラス.
+ * ・変換手順を並べて指定し、1文字ごとの変換を文字コードで引く表にまとめておく
+ * ・続けて行える変換はまとめて1回の走査で行う(半角カナの濁点・半濁点の結合も含む)
+ * ・作成後は変更しないため、複数スレッドで共有できる
+ * ※変換結果は変換手順ごとにMaskingUtilの変換メソッドを順に呼んだ場合と同じになる
+ */
+public final class KanaConverter {
+
+  /**
+   * 変換手順.
+   */
+  public enum Step {
+    /** 半角カナ小文字を大文字にする. */
+    UPPER_HALF_KANA,
+    /** 全角カナ小文字を大文字にする. */
+    UPPER_WIDE_KANA,
+    /** ひらがな小文字を大文字にする. */
+    UPPER_HIRAGANA,
+    /** ひらがなを全角カナにする. */
+    HIRAGANA_TO_WIDE_KANA,
+    /** 全角カナをひらがなにする. */
+    WIDE_KANA_TO_HIRAGANA,
+    /** 全角カナを半角カナにする. */
+    WIDE_KANA_TO_HALF_KANA,
+    /** 半角カナを全角カナにする(濁点・半濁点は前の文字と結合する). */
+    HALF_KANA_TO_WIDE_KANA,
+    /** Unicode正規化(NFKC)する. */
+    NORMALIZE
+  }
+
+  /**
+   * 半角カナテーブル(変換用).
+   */
+  private static final String[] HKANA_CHARACTER_FULL = {
+      "ｱ", "ｲ", "ｳ", "ｴ", "ｵ",
+      "ｶ", "ｷ", "ｸ", "ｹ", "ｺ",
+      "ｻ", "ｼ", "ｽ", "ｾ", "ｿ",
+      "ﾀ", "ﾁ", "ﾂ", "ﾃ", "ﾄ",
+      "ﾅ", "ﾆ", "ﾇ", "ﾈ", "ﾉ",
+      "ﾊ", "ﾋ", "ﾌ", "ﾍ", "ﾎ",
+      "ﾏ", "ﾐ", "ﾑ", "ﾒ", "ﾓ",
+      "ﾔ", "ﾕ", "ﾖ",
+      "ﾗ", "ﾘ", "ﾙ", "ﾚ", "ﾛ",
+      "ﾜ", "ｦ", "ﾝ",
+      "ｶﾞ", "ｷﾞ", "ｸﾞ", "ｹﾞ", "ｺﾞ",
+      "ｻﾞ", "ｼﾞ", "ｽﾞ", "ｾﾞ", "ｿﾞ",
+      "ﾀﾞ", "ﾁﾞ", "ﾂﾞ", "ﾃﾞ", "ﾄﾞ",
+      "ﾊﾞ", "ﾋﾞ", "ﾌﾞ", "ﾍﾞ", "ﾎﾞ",
+      "ｳﾞ", "ｰ", "｡", "､", "｢", "｣",
+      "ﾊﾟ", "ﾋﾟ", "ﾌﾟ", "ﾍﾟ", "ﾎﾟ",
+      "ｧ", "ｨ", "ｩ", "ｪ", "ｫ",
+      "ｯ", "ｬ", "ｭ", "ｮ"
+  };
+
+  /**
+   * 全角カナテーブル(変換用).
+   */
+  private static final String[] WKANA_CHARACTER_FULL = {
+      "ア", "イ", "ウ", "エ", "オ",
+      "カ", "キ", "ク", "ケ", "コ",
+      "サ", "シ", "ス", "セ", "ソ",
+      "タ", "チ", "ツ", "テ", "ト",
+      "ナ", "ニ", "ヌ", "ネ", "ノ",
+      "ハ", "ヒ", "フ", "ヘ", "ホ",
+      "マ", "ミ", "ム", "メ", "モ",
+      "ヤ", "ユ", "ヨ",
+      "ラ", "リ", "ル", "レ", "ロ",
+      "ワ", "ヲ", "ン",
+      "ガ", "ギ", "グ", "ゲ", "ゴ",
+      "ザ", "ジ", "ズ", "ゼ", "ゾ",
+      "ダ", "ヂ", "ヅ", "デ", "ド",
+      "バ", "ビ", "ブ", "ベ", "ボ",
+      "ヴ", "ー", "。", "、", "「", "」",
+      "パ", "ピ", "プ", "ペ", "ポ",
+      "ァ", "ィ", "ゥ", "ェ", "ォ",
+      "ッ", "ャ", "ュ", "ョ"
+  };
+
+  /**
+   * 小文字と大文字の対応(半角カナ、全角カナ、ひらがな).
+   */
+  private static final String[][] LOWER_UPPER = {
+      {"ｧｨｩｪｫｯｬｭｮ", "ｱｲｳｴｵﾂﾔﾕﾖ"},
+      {"ァィゥェォヵヶッャュョヮ", "アイウエオカケツヤユヨワ"},
+      {"ぁぃぅぇぉっゃゅょゎ", "あいうえおつやゆよわ"}
+  };
+
+  /**
+   * 変換対象になりうる文字の範囲(記号・ひらがな・全角カナ).
+   */
+  private static final char WIDE_BASE = 0x3000;
+
+  /**
+   * 変換対象になりうる文字の範囲(半角カナ).
+   */
+  private static final char HALF_BASE = 0xFF60;
+
+  /**
+   * 表の大きさ(U+3000～U+30FF、U+FF60～U+FF9F).
+   */
+  private static final int TABLE_SIZE = 0x100 + 0x40;
+
+  private static final char VOICED_MARK = 'ﾞ';
+  private static final char SEMI_VOICED_MARK = 'ﾟ';
+
+  /**
+   * 半角カナ1文字の全角カナ(無い場合は0).
+   */
+  private static final char[] HALF_TO_WIDE = new char[TABLE_SIZE];
+
+  /**
+   * 濁点付き半角カナの全角カナ(無い場合は0).
+   */
+  private static final char[] HALF_VOICED_TO_WIDE = new char[TABLE_SIZE];
+
+  /**
+   * 半濁点付き半角カナの全角カナ(無い場合は0).
+   */
+  private static final char[] HALF_SEMI_VOICED_TO_WIDE = new char[TABLE_SIZE];
+
+  /**
+   * キャッシュする件数の上限(超えた場合は破棄して作り直す).
+   */
+  private static final int CACHE_MAX = 100;
+
+  private static final Map<List<Step>, KanaConverter> CACHE = new ConcurrentHashMap<>();
+
+  /**
+   * 1回の走査で行う変換の並び.
+   */
+  private final Pass[] passes;
+
+  static {
+    for (int i = 0; i < HKANA_CHARACTER_FULL.length; i++) {
+      String h = HKANA_CHARACTER_FULL[i];
+      char w = WKANA_CHARACTER_FULL[i].charAt(0);
+      int slot = slot(h.charAt(0));
+      if (h.length() == 1) {
+        HALF_TO_WIDE[slot] = w;
+      } else if (h.charAt(1) == VOICED_MARK) {
+        HALF_VOICED_TO_WIDE[slot] = w;
+      } else {
+        HALF_SEMI_VOICED_TO_WIDE[slot] = w;
+      }
+    }
+  }
+
+  /**
+   * コンストラクタ.
+   * @param steps 変換手順(指定した順に変換する)
+   */
+  public KanaConverter(Step... steps) {
+
+    if (steps == null) {
+      throw new IllegalArgumentException("変換手順を指定してください。");
+    }
+    List<Pass> buff = new ArrayList<>();
+    List<Step> pre = new ArrayList<>();
+    List<Step> post = new ArrayList<>();
+    boolean useMerge = false;
+    for (Step step : steps) {
+      if (step == null) {
+        throw new IllegalArgumentException("変換手順を指定してください。");
+      }
+      if (step == Step.NORMALIZE) {
+        // 正規化は単独で行う
+        addPass(buff, pre, useMerge, post);
+        buff.add(new Pass());
+        useMerge = false;
+      } else if (step == Step.HALF_KANA_TO_WIDE_KANA) {
+        // 濁点の結合は1文字ずつの変換結果を先読みするため、前の変換が1文字→1文字の場合のみまとめる
+        if (useMerge || pre.contains(Step.WIDE_KANA_TO_HALF_KANA)) {
+          addPass(buff, pre, useMerge, post);
+        }
+        useMerge = true;
+      } else if (useMerge) {
+        post.add(step);
+      } else {
+        pre.add(step);
+      }
+    }
+    addPass(buff, pre, useMerge, post);
+    this.passes = buff.toArray(new Pass[0]);
+
+  }
+
+  /**
+   * 変換手順に対応する変換クラスを取得.
+   * ※変換手順ごとにキャッシュして使い回す
+   * @param steps 変換手順(指定した順に変換する)
+   * @return 変換クラス
+   */
+  public static KanaConverter of(Step... steps) {
+    List<Step> key = Arrays.asList(steps);
+    KanaConverter ret = CACHE.get(key);
+    if (ret == null) {
+      ret = new KanaConverter(steps);
+      if (CACHE.size() >= CACHE_MAX) {
+        CACHE.clear();
+      }
+      CACHE.put(Arrays.asList(steps.clone()), ret);
+    }
+    return ret;
+  }
+
+  /**
+   * 変換する.
+   * @param s 対象の文字
+   * @return 変換後の文字、nullはnull
+   */
+  public String convert(String s) {
+    if (s == null || s.isEmpty()) {
+      return s;
+    }
+    String ret = s;
+    for (Pass pass : passes) {
+      ret = pass.convert(ret);
+    }
+    return ret;
+  }
+
+  /**
+   * 表のインデックスを返す.
+   * @param c 文字
+   * @return インデックス、変換対象外の文字は-1
+   */
+  private static int slot(char c) {
+    if (c >= WIDE_BASE && c < WIDE_BASE + 0x100) {
+      return c - WIDE_BASE;
+    } else if (c >= HALF_BASE && c < HALF_BASE + 0x40) {
+      return 0x100 + c - HALF_BASE;
+    }
+    return -1;
+  }
+
+  /**
+   * 表のインデックスに対応する文字を返す.
+   * @param slot インデックス
+   * @return 文字
+   */
+  private static char charAt(int slot) {
+    return (char) ((slot < 0x100) ? WIDE_BASE + slot : HALF_BASE + slot - 0x100);
+  }
+
+  /**
+   * 1文字→1文字以上の変換を1文字に行う.
+   * @param step 変換手順(濁点の結合・正規化以外)
+   * @param c 文字
+   * @return 変換後の文字
+   */
+  private static String convert(Step step, char c) {
+    switch (step) {
+      case UPPER_HALF_KANA:
+        return toUpper(LOWER_UPPER[0], c);
+      case UPPER_WIDE_KANA:
+        return toUpper(LOWER_UPPER[1], c);
+      case UPPER_HIRAGANA:
+        return toUpper(LOWER_UPPER[2], c);
+      case HIRAGANA_TO_WIDE_KANA:
+        return String.valueOf((c >= 'ぁ' && c <= 'ん') ? (char) (c + 0x0060) : c);
+      case WIDE_KANA_TO_HIRAGANA:
+        return String.valueOf((c >= 'ァ' && c <= 'ン') ? (char) (c - 0x0060) : c);
+      case WIDE_KANA_TO_HALF_KANA:
+        String s = String.valueOf(c);
+        int idx = Arrays.asList(WKANA_CHARACTER_FULL).indexOf(s);
+        return (idx < 0) ? s : HKANA_CHARACTER_FULL[idx];
+      default:
+        throw new IllegalArgumentException(String.format("変換手順 %s は1文字ずつ変換できません。", step));
+    }
+  }
+
+  private static String toUpper(String[] lowerUpper, char c) {
+    int idx = lowerUpper[0].indexOf(c);
+    return String.valueOf((idx < 0) ? c : lowerUpper[1].charAt(idx));
+  }
+
+  /**
+   * 1文字ずつの変換手順をまとめた表を作成.
+   * @param steps 変換手順
+   * @return 表(変換しない文字はnull)
+   */
+  private static String[] createTable(List<Step> steps) {
+    String[] ret = new String[TABLE_SIZE];
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      String s = String.valueOf(charAt(i));
+      for (Step step : steps) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < s.length(); j++) {
+          sb.append(convert(step, s.charAt(j)));
+        }
+        s = sb.toString();
+      }
+      if (s.length() != 1 || s.charAt(0) != charAt(i)) {
+        ret[i] = s;
+      }
+    }
+    return ret;
+  }
+
+  private static void addPass(List<Pass> passes, List<Step> pre, boolean useMerge, List<Step> post) {
+    if (useMerge) {
+      passes.add(new Pass(createTable(pre), createTable(post)));
+    } else if (!pre.isEmpty()) {
+      passes.add(new Pass(null, createTable(pre)));
+    }
+    pre.clear();
+    post.clear();
+  }
+
+  /**
+   * 1回の走査で行う変換.
+   * ・濁点の結合を行わない場合は、1文字ずつ表を引いて変換する
+   * ・濁点の結合を行う場合は、前処理の表を引いた文字に対して結合してから、後処理の表を引く
+   */
+  private static final class Pass {
+
+    /**
+     * Unicode正規化(NFKC)するかどうか.
+     */
+    private final boolean useNormalize;
+
+    /**
+     * 前処理の表(濁点の結合を行う場合のみ、1文字→1文字).
+     */
+    private final char[] pre;
+
+    /**
+     * 1文字ずつの変換(濁点の結合を行う場合は後処理)の表.
+     */
+    private final String[] post;
+
+    Pass() {
+      this.useNormalize = true;
+      this.pre = null;
+      this.post = null;
+    }
+
+    Pass(String[] pre, String[] post) {
+      this.useNormalize = false;
+      if (pre != null) {
+        this.pre = new char[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+          this.pre[i] = (pre[i] == null) ? charAt(i) : pre[i].charAt(0);
+        }
+      } else {
+        this.pre = null;
+      }
+      this.post = post;
+    }
+
+    String convert(String s) {
+
+      if (useNormalize) {
+        // 正規化済の場合はそのまま返す
+        return Normalizer.isNormalized(s, Form.NFKC) ? s : Normalizer.normalize(s, Form.NFKC);
+      }
+      int len = s.length();
+      StringBuilder sb = null;
+      int i = 0;
+      while (i < len) {
+        char c = s.charAt(i);
+        int slot = slot(c);
+        if (slot < 0) {
+          // 変換対象外
+          if (sb != null) {
+            sb.append(c);
+          }
+          i++;
+          continue;
+        }
+        int from = i;
+        i++;
+        String str;
+        if (pre == null) {
+          str = post[slot];
+        } else {
+          char x = pre[slot];
+          char next = (i < len) ? pre(s.charAt(i)) : 0;
+          int xslot = slot(x);
+          if (next == VOICED_MARK || next == SEMI_VOICED_MARK) {
+            // 次の文字が濁点・半濁点の場合は2文字セットで変換する
+            char w = (xslot < 0) ? 0 : (next == VOICED_MARK)
+                ? HALF_VOICED_TO_WIDE[xslot] : HALF_SEMI_VOICED_TO_WIDE[xslot];
+            i++;
+            str = (w != 0) ? post(w) : post(x).concat(post(next));
+          } else {
+            char w = (xslot < 0) ? 0 : HALF_TO_WIDE[xslot];
+            str = post((w != 0) ? w : x);
+          }
+        }
+        if (str == null || (str.length() == i - from && s.regionMatches(from, str, 0, i - from))) {
+          // 変換しない文字
+          if (sb != null) {
+            sb.append(s, from, i);
+          }
+          continue;
+        }
+        if (sb == null) {
+          // 最初に変換した文字までをコピーする
+          sb = new StringBuilder(len + 8);
+          sb.append(s, 0, from);
+        }
+        sb.append(str);
+      }
+      return (sb == null) ? s : sb.toString();
+
+    }
+
+    private char pre(char c) {
+      int slot = slot(c);
+      return (slot < 0) ? c : pre[slot];
+    }
+
+    private String post(char c) {
+      int slot = slot(c);
+      String ret = (slot < 0) ? null : post[slot];
+      return (ret == null) ? String.valueOf(c) : ret;
+    }
+
+  }
+
+}
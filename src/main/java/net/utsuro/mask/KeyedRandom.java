@@ -0,0 +1,131 @@
+package net.utsuro.mask;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * キーと識別子と入力値から決まる乱数を生成するクラス.
+ * ・HMAC-SHA256(キー, 識別子 + 入力値)の先頭64bitを種にして SplitMix64 で乱数列を生成する
+ * ・キー、識別子、入力値が同じなら常に同じ乱数列になるため、ユニークリスト無しで決定論的置換ができる
+ * ※スレッドセーフではないため、スレッドごとに生成して使用すること
+ */
+public class KeyedRandom extends Random {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String ALGORITHM = "HmacSHA256";
+
+  /**
+   * スレッドごとのMAC(キーが変わった場合のみ初期化し直す).
+   */
+  private static final ThreadLocal<KeyedMac> MAC = new ThreadLocal<>();
+
+  private long state;
+
+  /**
+   * コンストラクタ.
+   * @param seed 乱数の種
+   */
+  public KeyedRandom(long seed) {
+    super(seed);
+    this.state = seed;
+  }
+
+  /**
+   * キーと識別子と入力値から乱数を生成する.
+   * @param key キー(秘密の文字列)
+   * @param uniqueId 識別子(カラム名とは限らず)
+   * @param input 入力値
+   * @return 乱数
+   */
+  public static KeyedRandom of(String key, String uniqueId, String input) {
+    return new KeyedRandom(seed(key, uniqueId, input));
+  }
+
+  /**
+   * キーと識別子と入力値から乱数の種を求める.
+   * @param key キー(秘密の文字列)
+   * @param uniqueId 識別子(カラム名とは限らず)
+   * @param input 入力値
+   * @return 乱数の種
+   */
+  public static long seed(String key, String uniqueId, String input) {
+
+    if (key == null || key.isEmpty()) {
+      throw new IllegalArgumentException("キーを指定してください。");
+    }
+    KeyedMac keyedMac = MAC.get();
+    if (keyedMac == null || !keyedMac.key.equals(key)) {
+      keyedMac = new KeyedMac(key);
+      MAC.set(keyedMac);
+    }
+    Mac mac = keyedMac.mac;
+    if (uniqueId != null) {
+      mac.update(uniqueId.getBytes(StandardCharsets.UTF_8));
+    }
+    // 識別子と入力値の区切り(UTF-8に現れない値)
+    mac.update((byte) 0xff);
+    if (input != null) {
+      mac.update(input.getBytes(StandardCharsets.UTF_8));
+    }
+    return ByteBuffer.wrap(mac.doFinal()).getLong();
+
+  }
+
+  /**
+   * 乱数の種をセット.
+   * @param seed 乱数の種
+   */
+  @Override
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed);
+    this.state = seed;
+  }
+
+  /**
+   * 指定bit数の乱数を生成.
+   * @param bits bit数
+   * @return 乱数
+   */
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  /**
+   * 64bitの乱数を生成(SplitMix64).
+   * @return 乱数
+   */
+  @Override
+  public long nextLong() {
+    long z = (state += 0x9e3779b97f4a7c15L);
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * キーと初期化済のMAC.
+   */
+  private static class KeyedMac {
+
+    private final String key;
+    private final Mac mac;
+
+    KeyedMac(String key) {
+      this.key = key;
+      try {
+        mac = Mac.getInstance(ALGORITHM);
+        mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+  }
+
+}
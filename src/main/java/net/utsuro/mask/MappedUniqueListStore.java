@@ -0,0 +1,905 @@
+package net.utsuro.mask;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ファイルにユニークリストを永続化する格納先クラス.
+ * ・値はヒープファイルに追記し、INPUT用とOUTPUT用のハッシュインデックスファイルで検索する
+ * ・ハッシュインデックスはセグメントごとのファイルをメモリマップしたオープンアドレス法(線形探索)で管理する
+ * ・セグメント単位でロックするため、複数スレッドから同時に使用できる
+ * ・同じディレクトリを指定すれば再起動後も前回の登録内容を引き継ぐ
+ * ※ヒープファイルが正となり、インデックスが不整合の場合は開いた時にヒープファイルから再構築する
+ * ※同じディレクトリを複数プロセスで同時に使用することはできない
+ * ※処理の最後に必ずclose()を呼ぶこと
+ */
+public class MappedUniqueListStore implements UniqueListStore {
+
+  /**
+   * デフォルトのセグメント数.
+   */
+  public static final int DEFAULT_SEGMENT_COUNT = 16;
+
+  /**
+   * デフォルトのセグメントごとの初期スロット数.
+   */
+  public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  /**
+   * セグメントごとの最大スロット数(1ファイル1GBまで).
+   */
+  static final int MAX_CAPACITY = 1 << 26;
+
+  private static final int MAGIC = 0x55564d55;
+  private static final int VERSION = 1;
+  private static final int HEAP_HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 12;
+  private static final int INDEX_HEADER_SIZE = 32;
+  private static final int SLOT_SIZE = 16;
+  private static final String HEAP_FILE = "unique_list.heap";
+
+  /**
+   * 一括取得でメモリ上で並べ替える件数単位(超える場合は一時ファイルに分けて並べ替える).
+   */
+  static final int SORT_CHUNK_SIZE = 100000;
+
+  /**
+   * 一括取得の並び順(識別子、入力値、出力値の順).
+   */
+  private static final Comparator<String[]> ENTRY_ORDER = Comparator
+      .<String[], String>comparing(v -> v[0])
+      .thenComparing(v -> v[1])
+      .thenComparing(v -> v[2]);
+
+  private final Path dir;
+  private final int initialCapacity;
+  private final FileChannel heap;
+  private final AtomicLong heapEnd;
+  private final Index inputIndex;
+  private final Index outputIndex;
+  private volatile boolean closed;
+
+  /**
+   * コンストラクタ.
+   * @param dir 格納先のディレクトリ(存在しない場合は作成する)
+   * @throws IOException ファイルアクセス時のエラー
+   */
+  public MappedUniqueListStore(Path dir) throws IOException {
+    this(dir, DEFAULT_SEGMENT_COUNT, DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * コンストラクタ.
+   * ※セグメント数は初回作成時のみ有効で、既存のディレクトリを開く場合は既存のセグメント数を使用する
+   * @param dir 格納先のディレクトリ(存在しない場合は作成する)
+   * @param segmentCount セグメント数(2の累乗に切り上げる)
+   * @param initialCapacity セグメントごとの初期スロット数(2の累乗に切り上げる)
+   * @throws IOException ファイルアクセス時のエラー
+   */
+  public MappedUniqueListStore(Path dir, int segmentCount, int initialCapacity)
+      throws IOException {
+
+    if (segmentCount <= 0 || initialCapacity <= 0) {
+      throw new IllegalArgumentException("セグメント数、初期スロット数は1以上を指定してください。");
+    }
+    this.dir = dir;
+    this.initialCapacity = Math.min(powerOfTwo(Math.max(initialCapacity, 2)), MAX_CAPACITY);
+    Files.createDirectories(dir);
+
+    // 既存のインデックスがあればそのセグメント数を使用する
+    int segments = powerOfTwo(segmentCount);
+    for (int n = 1; n <= MAX_CAPACITY; n <<= 1) {
+      if (Files.exists(dir.resolve(indexFileName("output", 0, n)))) {
+        segments = n;
+        break;
+      }
+    }
+
+    heap = FileChannel.open(dir.resolve(HEAP_FILE), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    boolean rebuild = false;
+    if (heap.size() < HEAP_HEADER_SIZE) {
+      ByteBuffer header = ByteBuffer.allocate(HEAP_HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      heap.truncate(0);
+      writeFully(heap, header, 0);
+      rebuild = true;
+    } else {
+      ByteBuffer header = ByteBuffer.allocate(HEAP_HEADER_SIZE);
+      readFully(heap, header, 0);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+        heap.close();
+        throw new IOException(String.format("%s はユニークリストのファイルではありません。",
+            dir.resolve(HEAP_FILE)));
+      }
+    }
+    heapEnd = new AtomicLong(heap.size());
+
+    inputIndex = new Index(dir, "input", segments, this.initialCapacity);
+    outputIndex = new Index(dir, "output", segments, this.initialCapacity);
+    if (rebuild || !inputIndex.isConsistent(heapEnd.get())
+        || !outputIndex.isConsistent(heapEnd.get())) {
+      rebuildIndex();
+    }
+
+  }
+
+  /**
+   * 格納先のディレクトリを取得.
+   * @return dir
+   */
+  public Path getDirectory() {
+    return dir;
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ※INPUTが同じものがあれば再利用する決定論的置換で使用
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値
+   * @throws SQLException ファイルアクセス時のエラー
+   */
+  @Override
+  public String getRegisteredUniqueVal(String id, String val) throws SQLException {
+
+    if (val == null) {
+      return null;
+    }
+    ensureOpen();
+    byte[] idBytes = encode(id);
+    byte[] valBytes = encode(val);
+    long hash = hash(idBytes, valBytes);
+    Segment seg = inputIndex.segmentOf(hash);
+    try {
+      synchronized (seg) {
+        long offset = seg.find(hash, idBytes, valBytes, true);
+        return (offset < 0) ? null : decode(readRecord(offset).outputVal);
+      }
+    } catch (IOException e) {
+      throw new SQLException("ユニークリストファイルの読み込みに失敗しました。", e);
+    }
+
+  }
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   * @throws SQLException ファイルアクセス時のエラー
+   */
+  @Override
+  public boolean isExistsInUniqueList(String id, String val) throws SQLException {
+
+    if (val == null) {
+      return false;
+    }
+    ensureOpen();
+    byte[] idBytes = encode(id);
+    byte[] valBytes = encode(val);
+    long hash = hash(idBytes, valBytes);
+    Segment seg = outputIndex.segmentOf(hash);
+    try {
+      synchronized (seg) {
+        return seg.find(hash, idBytes, valBytes, false) >= 0;
+      }
+    } catch (IOException e) {
+      throw new SQLException("ユニークリストファイルの読み込みに失敗しました。", e);
+    }
+
+  }
+
+  /**
+   * ユニークリストに登録する.
+   * ※ユニーク値生成の場合、OUTPUTに同値はNGなので再抽選する
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   * @throws SQLException ファイルアクセス時のエラー
+   */
+  @Override
+  public boolean addUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    if (inputVal == null || outputVal == null) {
+      return true;
+    }
+    ensureOpen();
+    byte[] idBytes = encode(id);
+    byte[] inBytes = encode(inputVal);
+    byte[] outBytes = encode(outputVal);
+    long outHash = hash(idBytes, outBytes);
+    long inHash = hash(idBytes, inBytes);
+    long offset;
+    try {
+      Segment outSeg = outputIndex.segmentOf(outHash);
+      synchronized (outSeg) {
+        if (outSeg.find(outHash, idBytes, outBytes, false) >= 0) {
+          // OUTPUTが重複する場合は一意誓約違反と同じ扱い
+          return false;
+        }
+        offset = appendRecord(idBytes, inBytes, outBytes);
+        outSeg.insert(outHash, offset);
+      }
+      Segment inSeg = inputIndex.segmentOf(inHash);
+      synchronized (inSeg) {
+        // 同じINPUTは最初に登録されたものを優先する
+        if (inSeg.find(inHash, idBytes, inBytes, true) < 0) {
+          inSeg.insert(inHash, offset);
+        }
+      }
+    } catch (IOException e) {
+      throw new SQLException("ユニークリストファイルの書き込みに失敗しました。", e);
+    }
+    return true;
+
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   * @throws SQLException ファイルアクセス時のエラー
+   */
+  @Override
+  public void clear() throws SQLException {
+
+    ensureOpen();
+    try {
+      synchronized (heap) {
+        inputIndex.lockAll(() -> outputIndex.lockAll(() -> {
+          heap.truncate(HEAP_HEADER_SIZE);
+          heapEnd.set(HEAP_HEADER_SIZE);
+          inputIndex.reset(initialCapacity);
+          outputIndex.reset(initialCapacity);
+        }));
+      }
+    } catch (IOException e) {
+      throw new SQLException("ユニークリストファイルの初期化に失敗しました。", e);
+    }
+
+  }
+
+  /**
+   * 登録内容をファイルに書き出す.
+   * @throws SQLException ファイルアクセス時のエラー
+   */
+  @Override
+  public void flush() throws SQLException {
+
+    ensureOpen();
+    try {
+      synchronized (heap) {
+        heap.force(false);
+        inputIndex.lockAll(() -> outputIndex.lockAll(() -> {
+          inputIndex.commit(heapEnd.get());
+          outputIndex.commit(heapEnd.get());
+        }));
+      }
+    } catch (IOException e) {
+      throw new SQLException("ユニークリストファイルの書き込みに失敗しました。", e);
+    }
+
+  }
+
+  /**
+   * 登録内容をファイルに書き出して終了する.
+   * @throws SQLException ファイルアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+    try {
+      inputIndex.close();
+      outputIndex.close();
+      heap.close();
+    } catch (IOException e) {
+      throw new SQLException("ユニークリストファイルのクローズに失敗しました。", e);
+    }
+
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * ・識別子、入力値、出力値の順に並べて渡す
+   * ※ヒープファイルを先頭から順に読み込み、件数単位で並べ替える
+   * ※件数単位を超える場合は並べ替えた結果を格納先のディレクトリに一時ファイルとして出力し、
+   *   それらをマージしながら渡す(メモリ上には件数単位分しか保持しない)
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException ファイルアクセス時のエラー
+   * @throws IOException 受け取る処理、一時ファイルでのエラー
+   */
+  @Override
+  public void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+    forEachEntry(consumer, SORT_CHUNK_SIZE);
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * @param consumer 登録内容を受け取る処理
+   * @param chunkSize メモリ上で並べ替える件数単位
+   * @throws SQLException ファイルアクセス時のエラー
+   * @throws IOException 受け取る処理、一時ファイルでのエラー
+   */
+  void forEachEntry(EntryConsumer consumer, int chunkSize) throws SQLException, IOException {
+
+    ensureOpen();
+    List<SortRun> runs = new ArrayList<>();
+    try {
+      List<String[]> chunk = new ArrayList<>();
+      try {
+        // 書き込み中のレコードが無い状態で読み込む範囲を決める
+        long[] end = new long[1];
+        outputIndex.lockAll(() -> end[0] = heapEnd.get());
+        long pos = HEAP_HEADER_SIZE;
+        while (pos < end[0]) {
+          Record rec = readRecord(pos);
+          chunk.add(new String[] {decode(rec.id), decode(rec.inputVal), decode(rec.outputVal)});
+          if (chunk.size() >= chunkSize) {
+            runs.add(SortRun.write(dir, chunk));
+            chunk.clear();
+          }
+          pos += RECORD_HEADER_SIZE + rec.id.length + rec.inputVal.length + rec.outputVal.length;
+        }
+        if (!runs.isEmpty() && !chunk.isEmpty()) {
+          runs.add(SortRun.write(dir, chunk));
+          chunk.clear();
+        }
+      } catch (IOException e) {
+        throw new SQLException("ユニークリストファイルの読み込みに失敗しました。", e);
+      }
+
+      if (runs.isEmpty()) {
+        // 件数単位に収まる場合はメモリ上で並べ替える
+        chunk.sort(ENTRY_ORDER);
+        for (String[] entry : chunk) {
+          consumer.accept(entry[0], entry[1], entry[2]);
+        }
+        return;
+      }
+      // 並べ替え済の一時ファイルの先頭同士を比べて小さい順に渡す
+      PriorityQueue<SortRun> queue =
+          new PriorityQueue<>(runs.size(), (a, b) -> ENTRY_ORDER.compare(a.head, b.head));
+      for (SortRun run : runs) {
+        if (run.next()) {
+          queue.add(run);
+        }
+      }
+      while (!queue.isEmpty()) {
+        SortRun run = queue.poll();
+        consumer.accept(run.head[0], run.head[1], run.head[2]);
+        if (run.next()) {
+          queue.add(run);
+        }
+      }
+    } finally {
+      // 一時ファイルは全て削除してから最初のエラーをスローする
+      IOException error = null;
+      for (SortRun run : runs) {
+        try {
+          run.close();
+        } catch (IOException e) {
+          if (error == null) {
+            error = e;
+          } else {
+            error.addSuppressed(e);
+          }
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
+  }
+
+  /**
+   * 登録件数(OUTPUTの件数)を取得.
+   * @return 登録件数
+   */
+  public long size() {
+    return outputIndex.size();
+  }
+
+  /**
+   * ヒープファイルからインデックスを再構築する.
+   * ※途中までしか書き込まれていないレコードは切り捨てる
+   * @throws IOException ファイルアクセス時のエラー
+   */
+  private void rebuildIndex() throws IOException {
+
+    inputIndex.reset(initialCapacity);
+    outputIndex.reset(initialCapacity);
+    long size = heap.size();
+    long pos = HEAP_HEADER_SIZE;
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    while (pos + RECORD_HEADER_SIZE <= size) {
+      header.clear();
+      readFully(heap, header, pos);
+      long len = RECORD_HEADER_SIZE + (long) header.getInt(0) + header.getInt(4) + header.getInt(8);
+      if (header.getInt(0) < 0 || header.getInt(4) < 0 || header.getInt(8) < 0
+          || pos + len > size) {
+        break;
+      }
+      Record rec = readRecord(pos);
+      long outHash = hash(rec.id, rec.outputVal);
+      Segment outSeg = outputIndex.segmentOf(outHash);
+      if (outSeg.find(outHash, rec.id, rec.outputVal, false) < 0) {
+        outSeg.insert(outHash, pos);
+        long inHash = hash(rec.id, rec.inputVal);
+        Segment inSeg = inputIndex.segmentOf(inHash);
+        if (inSeg.find(inHash, rec.id, rec.inputVal, true) < 0) {
+          inSeg.insert(inHash, pos);
+        }
+      }
+      pos += len;
+    }
+    if (pos < size) {
+      heap.truncate(pos);
+    }
+    heapEnd.set(pos);
+    inputIndex.commit(pos);
+    outputIndex.commit(pos);
+
+  }
+
+  /**
+   * ヒープファイルにレコードを追記する.
+   * @param id 識別子
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 追記したレコードの位置
+   * @throws IOException ファイルアクセス時のエラー
+   */
+  private long appendRecord(byte[] id, byte[] inputVal, byte[] outputVal) throws IOException {
+    int len = RECORD_HEADER_SIZE + id.length + inputVal.length + outputVal.length;
+    ByteBuffer buf = ByteBuffer.allocate(len);
+    buf.putInt(id.length).putInt(inputVal.length).putInt(outputVal.length)
+        .put(id).put(inputVal).put(outputVal).flip();
+    long pos = heapEnd.getAndAdd(len);
+    writeFully(heap, buf, pos);
+    return pos;
+  }
+
+  /**
+   * ヒープファイルからレコードを読み込む.
+   * @param pos レコードの位置
+   * @return レコード
+   * @throws IOException ファイルアクセス時のエラー
+   */
+  private Record readRecord(long pos) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    readFully(heap, header, pos);
+    int idLen = header.getInt(0);
+    int inLen = header.getInt(4);
+    int outLen = header.getInt(8);
+    ByteBuffer body = ByteBuffer.allocate(idLen + inLen + outLen);
+    readFully(heap, body, pos + RECORD_HEADER_SIZE);
+    byte[] data = body.array();
+    return new Record(Arrays.copyOfRange(data, 0, idLen),
+        Arrays.copyOfRange(data, idLen, idLen + inLen),
+        Arrays.copyOfRange(data, idLen + inLen, data.length));
+  }
+
+  private void ensureOpen() throws SQLException {
+    if (closed) {
+      throw new SQLException("ユニークリストファイルはクローズされています。");
+    }
+  }
+
+  /**
+   * 識別子と値から64bitのハッシュ値を求める.
+   * ※0は空きスロットを表すため使用しない
+   * @param id 識別子
+   * @param val 値
+   * @return ハッシュ値
+   */
+  static long hash(byte[] id, byte[] val) {
+    // FNV-1a
+    long h = 0xcbf29ce484222325L;
+    for (byte b : id) {
+      h = (h ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    // UTF-8に現れない値で区切る
+    h = (h ^ 0xff) * 0x100000001b3L;
+    for (byte b : val) {
+      h = (h ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    // 下位ビットの偏りを無くすためにかき混ぜる
+    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+    h = h ^ (h >>> 31);
+    return (h == 0) ? 1 : h;
+  }
+
+  private static byte[] encode(String val) {
+    return (val == null) ? new byte[0] : val.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String decode(byte[] val) {
+    return new String(val, StandardCharsets.UTF_8);
+  }
+
+  private static String indexFileName(String name, int no, int segmentCount) {
+    return String.format("unique_list.%s.%d-%d.idx", name, segmentCount, no);
+  }
+
+  private static int powerOfTwo(int val) {
+    int ret = Integer.highestOneBit(val);
+    return (ret < val) ? ret << 1 : ret;
+  }
+
+  private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      int n = ch.read(buf, pos + buf.position());
+      if (n < 0) {
+        throw new IOException("ユニークリストファイルが途中で終わっています。");
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      ch.write(buf, pos + buf.position());
+    }
+  }
+
+  /**
+   * ヒープファイルのレコード.
+   */
+  private static class Record {
+
+    private final byte[] id;
+    private final byte[] inputVal;
+    private final byte[] outputVal;
+
+    Record(byte[] id, byte[] inputVal, byte[] outputVal) {
+      this.id = id;
+      this.inputVal = inputVal;
+      this.outputVal = outputVal;
+    }
+
+  }
+
+  /**
+   * 一括取得で並べ替えた登録内容の一時ファイル.
+   * ※閉じると一時ファイルは削除する
+   */
+  private static class SortRun implements Closeable {
+
+    private final Path file;
+    private long remaining;
+    private DataInputStream in;
+    private String[] head;
+
+    private SortRun(Path file, long count) {
+      this.file = file;
+      this.remaining = count;
+    }
+
+    /**
+     * 登録内容を並べ替えて一時ファイルに出力する.
+     * @param dir 出力先のディレクトリ
+     * @param chunk 登録内容
+     * @return 一時ファイル
+     * @throws IOException ファイルアクセス時のエラー
+     */
+    static SortRun write(Path dir, List<String[]> chunk) throws IOException {
+      chunk.sort(ENTRY_ORDER);
+      Path file = Files.createTempFile(dir, "unique_list.", ".sort");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file), 65536))) {
+        for (String[] entry : chunk) {
+          for (String val : entry) {
+            byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+          }
+        }
+      } catch (IOException e) {
+        Files.deleteIfExists(file);
+        throw e;
+      }
+      return new SortRun(file, chunk.size());
+    }
+
+    /**
+     * 次の登録内容を読み込む.
+     * @return true=読み込んだ, false=終端
+     * @throws IOException ファイルアクセス時のエラー
+     */
+    boolean next() throws IOException {
+      if (remaining == 0) {
+        head = null;
+        return false;
+      }
+      if (in == null) {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536));
+      }
+      String[] entry = new String[3];
+      for (int i = 0; i < entry.length; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        entry[i] = decode(bytes);
+      }
+      head = entry;
+      remaining--;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (in != null) {
+          in.close();
+        }
+      } finally {
+        Files.deleteIfExists(file);
+      }
+    }
+
+  }
+
+  /**
+   * ロックを保持した状態で実行する処理.
+   */
+  @FunctionalInterface
+  private interface LockedAction {
+    void run() throws IOException;
+  }
+
+  /**
+   * セグメントに分割したハッシュインデックス.
+   */
+  private class Index {
+
+    private final Segment[] segments;
+    private final int shift;
+
+    Index(Path dir, String name, int segmentCount, int initialCapacity) throws IOException {
+      segments = new Segment[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+        segments[i] = new Segment(dir.resolve(indexFileName(name, i, segmentCount)), initialCapacity);
+      }
+      // 上位ビットでセグメントを選択する(スロットは下位ビットで選択)
+      shift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    Segment segmentOf(long hash) {
+      return (segments.length == 1) ? segments[0] : segments[(int) (hash >>> shift)];
+    }
+
+    boolean isConsistent(long heapEnd) {
+      for (Segment seg : segments) {
+        if (seg.getCommittedHeapEnd() != heapEnd) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void lockAll(LockedAction action) throws IOException {
+      lockAll(0, action);
+    }
+
+    private void lockAll(int idx, LockedAction action) throws IOException {
+      if (idx == segments.length) {
+        action.run();
+        return;
+      }
+      synchronized (segments[idx]) {
+        lockAll(idx + 1, action);
+      }
+    }
+
+    void reset(int capacity) throws IOException {
+      for (Segment seg : segments) {
+        seg.reset(capacity);
+      }
+    }
+
+    void commit(long heapEnd) {
+      for (Segment seg : segments) {
+        seg.commit(heapEnd);
+      }
+    }
+
+    long size() {
+      long ret = 0;
+      for (Segment seg : segments) {
+        synchronized (seg) {
+          ret += seg.count;
+        }
+      }
+      return ret;
+    }
+
+    void close() throws IOException {
+      for (Segment seg : segments) {
+        seg.close();
+      }
+    }
+
+  }
+
+  /**
+   * メモリマップしたインデックスファイル.
+   * ・ヘッダ: MAGIC, VERSION, スロット数, 登録件数, 反映済のヒープファイルの末尾位置
+   * ・スロット: ハッシュ値(0=空き), ヒープファイル上のレコード位置
+   */
+  private class Segment {
+
+    private final FileChannel ch;
+    private MappedByteBuffer buf;
+    private int capacity;
+    private int count;
+
+    Segment(Path path, int initialCapacity) throws IOException {
+      ch = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long size = ch.size();
+      if (size >= INDEX_HEADER_SIZE) {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        readFully(ch, header, 0);
+        int cap = header.getInt(8);
+        if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+            && cap > 0 && Integer.bitCount(cap) == 1
+            && size == INDEX_HEADER_SIZE + (long) cap * SLOT_SIZE) {
+          buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+          capacity = cap;
+          count = buf.getInt(12);
+          return;
+        }
+      }
+      // 不正なファイルは作り直す(ヒープファイル末尾位置が不一致になるので再構築される)
+      ch.truncate(0);
+      reset(initialCapacity);
+    }
+
+    long getCommittedHeapEnd() {
+      return buf.getLong(16);
+    }
+
+    /**
+     * スロット数を指定して空の状態にする.
+     * ※マップ中のファイルは縮小できないため、現在のスロット数より小さくはしない
+     * @param newCapacity スロット数
+     * @throws IOException ファイルアクセス時のエラー
+     */
+    void reset(int newCapacity) throws IOException {
+      int cap = Math.max(newCapacity, capacity);
+      if (buf == null || cap != capacity) {
+        buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) cap * SLOT_SIZE);
+      }
+      for (int slot = 0; slot < cap; slot++) {
+        buf.putLong(INDEX_HEADER_SIZE + slot * SLOT_SIZE, 0L);
+      }
+      buf.putInt(0, MAGIC);
+      buf.putInt(4, VERSION);
+      buf.putInt(8, cap);
+      buf.putInt(12, 0);
+      buf.putLong(16, -1L);
+      capacity = cap;
+      count = 0;
+    }
+
+    /**
+     * 一致するレコードの位置を検索する.
+     * @param hash ハッシュ値
+     * @param id 識別子
+     * @param val 値
+     * @param isInput true=入力値で比較, false=出力値で比較
+     * @return レコード位置(無ければ-1)
+     * @throws IOException ファイルアクセス時のエラー
+     */
+    long find(long hash, byte[] id, byte[] val, boolean isInput) throws IOException {
+      int mask = capacity - 1;
+      int slot = (int) hash & mask;
+      while (true) {
+        int pos = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+        long h = buf.getLong(pos);
+        if (h == 0) {
+          return -1;
+        }
+        if (h == hash) {
+          long offset = buf.getLong(pos + 8);
+          Record rec = readRecord(offset);
+          if (Arrays.equals(rec.id, id)
+              && Arrays.equals(isInput ? rec.inputVal : rec.outputVal, val)) {
+            return offset;
+          }
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    /**
+     * スロットに登録する.
+     * ※重複チェックは呼び出し元で行うこと
+     * @param hash ハッシュ値
+     * @param offset レコード位置
+     * @throws IOException ファイルアクセス時のエラー
+     */
+    void insert(long hash, long offset) throws IOException {
+      // 負荷率が1/2を超えたら拡張する
+      if ((count + 1) * 2L > capacity) {
+        grow();
+      }
+      put(hash, offset);
+      count++;
+      buf.putInt(12, count);
+      // 次にcommitされるまで未反映扱い
+      buf.putLong(16, -1L);
+    }
+
+    private void put(long hash, long offset) {
+      int mask = capacity - 1;
+      int slot = (int) hash & mask;
+      while (buf.getLong(INDEX_HEADER_SIZE + slot * SLOT_SIZE) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      int pos = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+      buf.putLong(pos, hash);
+      buf.putLong(pos + 8, offset);
+    }
+
+    private void grow() throws IOException {
+      if (capacity >= MAX_CAPACITY) {
+        throw new IOException("インデックスの容量上限を超えました。セグメント数を増やしてください。");
+      }
+      // 登録済のスロットを退避してから倍のサイズで作り直す
+      long[] hashes = new long[count];
+      long[] offsets = new long[count];
+      int n = 0;
+      for (int slot = 0; slot < capacity; slot++) {
+        int pos = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+        long h = buf.getLong(pos);
+        if (h != 0) {
+          hashes[n] = h;
+          offsets[n] = buf.getLong(pos + 8);
+          n++;
+        }
+      }
+      reset(capacity << 1);
+      for (int i = 0; i < n; i++) {
+        put(hashes[i], offsets[i]);
+      }
+      count = n;
+      buf.putInt(12, count);
+    }
+
+    void commit(long heapEnd) {
+      buf.putLong(16, heapEnd);
+      buf.force();
+    }
+
+    void close() throws IOException {
+      ch.close();
+    }
+
+  }
+
+}
@@ -1,5 +1,6 @@
 package net.utsuro.mask;
 
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -24,6 +25,11 @@ import java.util.regex.Pattern;
  */
 public class MaskedTextReplacer implements DataMask {
 
+  /**
+   * 空白・句読点のパターン(空白もマスクしない場合に使用).
+   */
+  private static final Pattern SPACE_PATTERN = Pattern.compile("[ 　、。､｡\r\n\t]");
+
   /**
    * 文字列をパターンマスクする.
    * @param src マスクしたい文字列
@@ -50,80 +56,215 @@ public class MaskedTextReplacer implements DataMask {
 
   }
 
+  /**
+   * 事前に解決したルールで文字列をパターンマスクする.
+   * ・ルールから求めたマスクの手順はルールごとに1回だけ作成して使い回す
+   * @param src マスクしたい文字列
+   * @param rule 事前に解決したマスク化ルール
+   * @return マスク後の文字列
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule rule) throws Exception {
+
+    if (rule == null || src == null) {
+      // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
+      return src;
+    }
+
+    return replaceCompiled(src.toString(), rule);
+
+  }
+
+  /**
+   * 複数の値をまとめてパターンマスクする.
+   * ※ルールから求めたマスクの手順はルールごとに1回だけ作成し、除外値パターンの判定も使い回す
+   * @param in マスクしたい値の配列
+   * @param inOff 対象データの開始位置
+   * @param out マスク後の文字列の格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param compiled 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff, int len,
+      CompiledRule compiled) throws Exception {
+
+    if (compiled == null) {
+      // ルールが無い場合はそのまま返却
+      System.arraycopy(in, inOff, out, outOff, len);
+      return;
+    }
+
+    MaskPlan plan = compiled.getDerived(MaskedTextReplacer.class, MaskPlan::new);
+    Matcher ignoreValueMatcher = plan.newIgnoreValueMatcher();
+    for (int i = 0; i < len; i++) {
+      Object src = in[inOff + i];
+      out[outOff + i] = (src == null) ? null : plan.replace(src.toString(), ignoreValueMatcher);
+    }
+
+  }
+
   /**
    * 文字列をパターンマスクする.
+   * ※行ごとに呼び出す場合はexecuteCompiledを使用すること
    * @param src マスクしたい文字列
    * @param rule マスク化ルール
    * @return マスク後の文字列
    */
   public static String replace(String src, MaskingRule rule) {
 
-    StringBuilder sb = new StringBuilder();
-
     if (rule == null || src == null) {
       // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
       return src;
     }
 
-    if (src.isEmpty()) {
-      // 引き渡された文字列が空の場合はそのまま返却
+    return new MaskPlan(rule).replace(src, null);
+
+  }
+
+  /**
+   * 事前に解決したルールで文字列をパターンマスクする.
+   * ・ルールから求めたマスクの手順はルールごとに1回だけ作成して使い回す
+   * @param src マスクしたい文字列
+   * @param rule 事前に解決したマスク化ルール
+   * @return マスク後の文字列
+   */
+  static String replaceCompiled(String src, CompiledRule rule) {
+
+    if (rule == null || src == null) {
+      // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
       return src;
     }
 
-    if (rule.getIgnoreValuePattern() != null
-        && rule.getIgnoreValuePattern().matcher(src).find()) {
-      // 除外値パターンにマッチした場合はそのまま返す
-      return src;
+    MaskPlan plan = rule.getDerived(MaskedTextReplacer.class, MaskPlan::new);
+    return plan.replace(src, null);
+
+  }
+
+  /**
+   * ルールから求めたパターンマスクの手順.
+   * ※状態を持たないため、CompiledRuleに保持して複数のスレッドから使用できる
+   */
+  private static final class MaskPlan {
+
+    private final Pattern ignoreValuePattern;
+    private final int unmaskedLengthLeft;
+    private final int unmaskedLengthRight;
+    private final Pattern unMaskPtn;
+    private final Pattern spaceMaskPtn;
+    private final boolean useOddCharMask;
+    private final boolean useEvenCharMask;
+
+    /**
+     * 置換文字列(置換しない場合はnull).
+     */
+    private final String replacementWideNum;
+    private final String replacementWideChar;
+    private final String replacementHalfNum;
+    private final String replacementHalfChar;
+
+    MaskPlan(MaskingRule rule) {
+      ignoreValuePattern = rule.getIgnoreValuePattern();
+      unmaskedLengthLeft = rule.getUnmaksedLengthLeft();
+      unmaskedLengthRight = rule.getUnmaksedLengthRight();
+      unMaskPtn = rule.getUnmaksedCharPattern();
+      spaceMaskPtn = (rule.useWhiteSpaceMask()) ? null : SPACE_PATTERN;
+      useOddCharMask = rule.useOddCharMask();
+      useEvenCharMask = rule.useEvenCharMask();
+      replacementWideNum = (rule.useReplacementWideNum()) ? rule.getReplacementWideNum() : null;
+      replacementWideChar = (rule.useReplacementWideChar()) ? rule.getReplacementWideChar() : null;
+      replacementHalfNum = (rule.useReplacementHalfNum()) ? rule.getReplacementHalfNum() : null;
+      replacementHalfChar = (rule.useReplacementHalfChar()) ? rule.getReplacementHalfChar() : null;
     }
 
-    String[] c = src.split("");
-    int len = c.length;
-    int start = rule.getUnmaksedLengthLeft();
-    if (start < 0) {
-      // 開始がマイナスの場合は後ろから数える
-      start = len + start;
+    /**
+     * 除外値パターンの判定に使い回すMatcherを作成.
+     * ※作成したスレッドの中だけで使用すること
+     * @return Matcher(除外値パターンが無い場合はnull)
+     */
+    Matcher newIgnoreValueMatcher() {
+      return (ignoreValuePattern == null) ? null : ignoreValuePattern.matcher("");
     }
-    int end = len - rule.getUnmaksedLengthRight() - 1;
-    Pattern unMaskPtn = rule.getUnmaksedCharPattern();
-    Pattern spaceMaskPtn = (rule.useWhiteSpaceMask()) ? null : Pattern.compile("[ 　、。､｡\r\n\t]");
 
-    // 1文字ずつ入れ替え
-    for (int i = 0; i < len; i++) {
-      if (i >= start && i <= end
-          && (!rule.useOddCharMask() || i % 2 == 0)
-          && (!rule.useEvenCharMask() || i % 2 == 1)) {
-        // 開始・終了の範囲内かつ奇数・偶数指定ありは該当文字目のみマスク
-        if ((unMaskPtn == null || !unMaskPtn.matcher(c[i]).find())
-            && (spaceMaskPtn == null || !spaceMaskPtn.matcher(c[i]).find())) {
-          // 除外パターンが指定されていないか、マッチしなかった場合はマスク
-          if (MaskingUtil.isWideChar(c[i])) {
-            if (rule.useReplacementWideNum() && c[i].matches("[０-９]")) {
-              // 全角数字
-              sb.append(rule.getReplacementWideNum());
+    /**
+     * 文字列をパターンマスクする.
+     * @param src マスクしたい文字列(null以外)
+     * @param ignoreValueMatcher 使い回すMatcher(nullの場合は必要な場合のみ作成する)
+     * @return マスク後の文字列
+     */
+    String replace(String src, Matcher ignoreValueMatcher) {
+
+      if (src.isEmpty()) {
+        // 引き渡された文字列が空の場合はそのまま返却
+        return src;
+      }
+
+      if (ignoreValuePattern != null) {
+        Matcher m = (ignoreValueMatcher != null)
+            ? ignoreValueMatcher.reset(src) : ignoreValuePattern.matcher(src);
+        if (m.find()) {
+          // 除外値パターンにマッチした場合はそのまま返す
+          return src;
+        }
+      }
+
+      try (CodePointText text = CodePointText.of(src)) {
+        int len = text.length();
+        int start = unmaskedLengthLeft;
+        if (start < 0) {
+          // 開始がマイナスの場合は後ろから数える
+          start = len + start;
+        }
+        int end = len - unmaskedLengthRight - 1;
+
+        // 1文字ずつ入れ替え
+        for (int i = 0; i < len; i++) {
+          if (i >= start && i <= end
+              && (!useOddCharMask || i % 2 == 0)
+              && (!useEvenCharMask || i % 2 == 1)) {
+            // 開始・終了の範囲内かつ奇数・偶数指定ありは該当文字目のみマスク
+            if ((unMaskPtn == null || !text.find(i, unMaskPtn))
+                && (spaceMaskPtn == null || !text.find(i, spaceMaskPtn))) {
+              // 除外パターンが指定されていないか、マッチしなかった場合はマスク
+              int c = text.codePointAt(i);
+              if (CodePointText.isWideChar(c)) {
+                if (replacementWideNum != null && CodePointText.isWideNumber(c)) {
+                  // 全角数字
+                  text.append(replacementWideNum);
+                } else if (replacementWideChar != null) {
+                  // 全角文字
+                  text.append(replacementWideChar);
+                } else {
+                  text.appendSource(i);
+                }
+              } else {
+                if (replacementHalfNum != null && CodePointText.isHalfNumber(c)) {
+                  // 半角数字
+                  text.append(replacementHalfNum);
+                } else if (replacementHalfChar != null) {
+                  // 半角文字
+                  text.append(replacementHalfChar);
+                } else {
+                  text.appendSource(i);
+                }
+              }
             } else {
-              // 全角文字
-              sb.append((rule.useReplacementWideChar()) ? rule.getReplacementWideChar() : c[i]);
+              // 除外パターンにマッチした場合はそのまま返却
+              text.appendSource(i);
             }
           } else {
-            if (rule.useReplacementHalfNum() && c[i].matches("[0-9]")) {
-              // 半角数字
-              sb.append(rule.getReplacementHalfNum());
-            } else {
-              // 半角文字
-              sb.append((rule.useReplacementHalfChar()) ? rule.getReplacementHalfChar() : c[i]);
-            }
+            // マスク範囲外の文字はそのまま返却
+            text.appendSource(i);
           }
-        } else {
-          // 除外パターンにマッチした場合はそのまま返却
-          sb.append(c[i]);
         }
-      } else {
-        // マスク範囲外の文字はそのまま返却
-        sb.append(c[i]);
+
+        return text.result();
       }
+
     }
 
-    return sb.toString();
   }
 
 }
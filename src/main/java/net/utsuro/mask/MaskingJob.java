@@ -0,0 +1,423 @@
+package net.utsuro.mask;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 行(Object[])単位でカラムごとのマスク処理を実行するクラス.
+ * ・カラム名の並びを指定して作成し、add()でカラムごとのマスク処理とルールを追加する
+ *   (カラムごとの定義のMapからof()で作成することもできる)
+ * ・マスク処理のインスタンス生成、DBコネクション等のセット、ルールの事前解決は追加時に1回だけ行う
+ * ・同じカラムに続けて追加したマスク処理はMaskingPipelineにまとめて実行する
+ * ・複数カラムを読み書きするマスク処理(RandomAddressGenerator, RandomFullNameGenerator,
+ *   TextConcat, DateTimeSplit等)は、入力カラムの値の配列を渡し、結果の配列を出力カラムに書き込む
+ * ・行の値はその場で置換する(前に追加した処理の結果を、後に追加した処理が読み込む)
+ * ※組み立て中(add()の呼び出し中)に他のスレッドから実行しないこと
+ *
+ * <pre>
+ * MaskingJob job = new MaskingJob("name", "name_kana", "zip", "pref", "city", "tel")
+ *     .add(new String[] {"name", "name_kana"}, new String[] {"name", "name_kana"},
+ *         "RandomFullNameGenerator", nameRule)
+ *     .add(new String[] {"zip", "pref", "city"}, new String[] {"zip", "pref", "city"},
+ *         "RandomAddressGenerator", addrRule)
+ *     .add("tel", "TextTrim", trimRule)
+ *     .add("tel", "RandomTelnoReplacer", telRule);
+ * job.setConnection(conn);
+ * for (Object[] row : rows) {
+ *   job.process(row);
+ * }
+ * </pre>
+ */
+public final class MaskingJob {
+
+  /**
+   * カラム名の並び.
+   */
+  private final List<String> columnNames;
+
+  /**
+   * カラム名とインデックスの対応.
+   */
+  private final Map<String, Integer> columnIndexes = new HashMap<>();
+
+  /**
+   * 実行する処理(追加順).
+   */
+  private final List<Task> tasks = new ArrayList<>();
+
+  /**
+   * 生成したマスク処理(DBコネクション等のセット用).
+   */
+  private final List<DataMask> masks = new ArrayList<>();
+
+  private Connection conn;
+
+  private UniqueListStore uniqueListStore;
+
+  /**
+   * カラム名の並びを指定して作成する.
+   * @param columnNames カラム名の並び(行の値の並びと同じ順)
+   * @throws IllegalArgumentException カラム名が無い、または重複している場合
+   */
+  public MaskingJob(String... columnNames) {
+    this((columnNames == null) ? null : Arrays.asList(columnNames));
+  }
+
+  /**
+   * カラム名の並びを指定して作成する.
+   * @param columnNames カラム名の並び(行の値の並びと同じ順)
+   * @throws IllegalArgumentException カラム名が無い、または重複している場合
+   */
+  public MaskingJob(List<String> columnNames) {
+    if (columnNames == null || columnNames.isEmpty()) {
+      throw new IllegalArgumentException("カラム名が指定されていません。");
+    }
+    this.columnNames = new ArrayList<>(columnNames);
+    for (int i = 0; i < this.columnNames.size(); i++) {
+      if (columnIndexes.put(this.columnNames.get(i), i) != null) {
+        throw new IllegalArgumentException(
+            String.format("カラム %s が重複しています。", this.columnNames.get(i)));
+      }
+    }
+  }
+
+  /**
+   * カラムごとのマスク処理の定義から作成する.
+   * ・カラムごとに、マスク処理のクラス名とマスク化ルールの組を実行する順に並べて指定する
+   * ・カラムの実行順はrulesの反復順(順序を指定する場合はLinkedHashMapを使用する)
+   * ・各組はadd(String, String, MaskingRule)で追加する
+   * ※複数カラムを読み書きするマスク処理は作成後にadd()で追加する
+   * <pre>
+   * Map&lt;String, List&lt;Map.Entry&lt;String, MaskingRule&gt;&gt;&gt; rules = new LinkedHashMap&lt;&gt;();
+   * rules.put("tel", List.of(Map.entry("TextTrim", trimRule),
+   *     Map.entry("RandomTelnoReplacer", telRule)));
+   * MaskingJob job = MaskingJob.of(List.of("name", "tel"), rules);
+   * </pre>
+   * @param columnNames カラム名の並び(行の値の並びと同じ順)
+   * @param rules カラム名 → (マスク処理のクラス名, マスク化ルール)の並び
+   * @return ジョブ
+   * @throws IllegalArgumentException カラム名が無い・重複している場合、カラムが存在しない場合、
+   *     マスク処理のクラスが見つからない場合など
+   */
+  public static MaskingJob of(List<String> columnNames,
+      Map<String, ? extends List<? extends Map.Entry<String, MaskingRule>>> rules) {
+
+    MaskingJob job = new MaskingJob(columnNames);
+    if (rules == null) {
+      return job;
+    }
+    for (Map.Entry<String, ? extends List<? extends Map.Entry<String, MaskingRule>>> column
+        : rules.entrySet()) {
+      if (column.getValue() == null) {
+        continue;
+      }
+      for (Map.Entry<String, MaskingRule> mask : column.getValue()) {
+        job.add(column.getKey(), mask.getKey(), mask.getValue());
+      }
+    }
+    return job;
+
+  }
+
+  /**
+   * 1カラムのマスク処理を追加する.
+   * @param column カラム名
+   * @param maskClassName マスク処理のクラス名(パッケージ名は不要)
+   * @param rule マスク化ルール
+   * @return このジョブ
+   * @throws IllegalArgumentException カラムが存在しない場合、マスク処理のクラスが見つからない場合など
+   */
+  public MaskingJob add(String column, String maskClassName, MaskingRule rule) {
+    return add(column, DataMaskFactory.newInstance(maskClassName), rule);
+  }
+
+  /**
+   * 1カラムのマスク処理を追加する.
+   * ・直前に同じカラムのマスク処理を追加している場合は、続けて実行するようにまとめる
+   * @param column カラム名
+   * @param mask マスク処理
+   * @param rule マスク化ルール
+   * @return このジョブ
+   * @throws IllegalArgumentException カラムが存在しない場合、マスク処理の型が合わない場合など
+   */
+  public MaskingJob add(String column, DataMask mask, MaskingRule rule) {
+
+    int index = getColumnIndex(column);
+    Task last = (tasks.isEmpty()) ? null : tasks.get(tasks.size() - 1);
+    if (last != null && last.isSingleColumn(index)) {
+      last.pipeline.add(mask, rule);
+    } else {
+      // エラーの場合に空の処理が残らないように、パイプラインを作ってから登録する
+      MaskingPipeline pipeline = new MaskingPipeline();
+      pipeline.add(mask, rule);
+      tasks.add(new Task(new int[] {index}, new int[] {index}, pipeline));
+    }
+    initMask(mask);
+    return this;
+
+  }
+
+  /**
+   * 複数カラムを読み書きするマスク処理を追加する.
+   * @param srcColumns 入力カラム名の配列(1つの場合は値そのもの、複数の場合は値の配列を渡す)
+   * @param destColumns 出力カラム名の配列(複数の場合は結果の配列を順に書き込む)
+   * @param maskClassName マスク処理のクラス名(パッケージ名は不要)
+   * @param rule マスク化ルール
+   * @return このジョブ
+   * @throws IllegalArgumentException カラムが存在しない場合、マスク処理のクラスが見つからない場合など
+   */
+  public MaskingJob add(String[] srcColumns, String[] destColumns,
+      String maskClassName, MaskingRule rule) {
+    return add(srcColumns, destColumns, DataMaskFactory.newInstance(maskClassName), rule);
+  }
+
+  /**
+   * 複数カラムを読み書きするマスク処理を追加する.
+   * @param srcColumns 入力カラム名の配列(1つの場合は値そのもの、複数の場合は値の配列を渡す)
+   * @param destColumns 出力カラム名の配列(複数の場合は結果の配列を順に書き込む)
+   * @param mask マスク処理
+   * @param rule マスク化ルール
+   * @return このジョブ
+   * @throws IllegalArgumentException カラムが存在しない場合、マスク処理の型が合わない場合など
+   */
+  public MaskingJob add(String[] srcColumns, String[] destColumns, DataMask mask, MaskingRule rule) {
+
+    if (srcColumns == null || srcColumns.length == 0
+        || destColumns == null || destColumns.length == 0) {
+      throw new IllegalArgumentException("入力カラム、出力カラムが指定されていません。");
+    }
+    int[] src = new int[srcColumns.length];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = getColumnIndex(srcColumns[i]);
+    }
+    int[] dest = new int[destColumns.length];
+    for (int i = 0; i < dest.length; i++) {
+      dest[i] = getColumnIndex(destColumns[i]);
+    }
+    MaskingPipeline pipeline =
+        new MaskingPipeline((src.length == 1) ? Object.class : Object[].class);
+    pipeline.add(mask, rule);
+    tasks.add(new Task(src, dest, pipeline));
+    initMask(mask);
+    return this;
+
+  }
+
+  /**
+   * 1行のマスク処理を実行する.
+   * ※行の値はその場で置換する
+   * @param row 行の値(カラム名の並びと同じ順)
+   * @return 置換後の行(引数と同じ配列)
+   * @throws Exception エラー発生時
+   */
+  public Object[] process(Object[] row) throws Exception {
+    checkRow(row);
+    for (Task task : tasks) {
+      task.apply(row);
+    }
+    return row;
+  }
+
+  /**
+   * 複数行のマスク処理をまとめて実行する.
+   * ・処理ごとに全行を実行する(カラムごとのマスク処理とルールを続けて使う)
+   * ・1カラムの処理はカラムの値を配列に取り出し、MaskingPipeline.executeBatch()でまとめて実行する
+   * ※行の値はその場で置換する
+   * @param rows 行の値のリスト
+   * @throws Exception エラー発生時
+   */
+  public void processBatch(List<Object[]> rows) throws Exception {
+
+    Object[][] rowArray = rows.toArray(new Object[0][]);
+    for (Object[] row : rowArray) {
+      checkRow(row);
+    }
+
+    int len = rowArray.length;
+    Object[] vals = new Object[len];
+    for (Task task : tasks) {
+      if (task.src.length == 1 && task.dest.length == 1) {
+        // 1カラムの処理はカラム単位でまとめて実行
+        for (int i = 0; i < len; i++) {
+          vals[i] = rowArray[i][task.src[0]];
+        }
+        task.pipeline.executeBatch(vals, vals, len);
+        for (int i = 0; i < len; i++) {
+          rowArray[i][task.dest[0]] = vals[i];
+        }
+      } else {
+        for (Object[] row : rowArray) {
+          task.apply(row);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * DBコネクションを取得.
+   * @return conn
+   */
+  public Connection getConnection() {
+    return conn;
+  }
+
+  /**
+   * DBコネクションをセット.
+   * ・追加済、以降に追加するマスク処理にもセットする
+   * @param conn セットする conn
+   */
+  public void setConnection(Connection conn) {
+    this.conn = conn;
+    for (DataMask mask : masks) {
+      mask.setConnection(conn);
+    }
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * @return ユニークリストの格納先
+   */
+  public UniqueListStore getUniqueListStore() {
+    return uniqueListStore;
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * ・追加済、以降に追加するマスク処理にもセットする
+   * @param store セットする格納先
+   */
+  public void setUniqueListStore(UniqueListStore store) {
+    this.uniqueListStore = store;
+    for (DataMask mask : masks) {
+      mask.setUniqueListStore(store);
+    }
+  }
+
+  /**
+   * カラム名の並びを取得.
+   * @return カラム名の並び
+   */
+  public List<String> getColumnNames() {
+    return new ArrayList<>(columnNames);
+  }
+
+  /**
+   * 実行する処理の数を取得(同じカラムに続けて追加したものは1つ).
+   * @return 実行する処理の数
+   */
+  public int getTaskCount() {
+    return tasks.size();
+  }
+
+  /**
+   * カラム名からインデックスを取得.
+   * @param column カラム名
+   * @return インデックス
+   * @throws IllegalArgumentException カラムが存在しない場合
+   */
+  private int getColumnIndex(String column) {
+    Integer ret = columnIndexes.get(column);
+    if (ret == null) {
+      throw new IllegalArgumentException(String.format("カラム %s が存在しません。", column));
+    }
+    return ret;
+  }
+
+  /**
+   * 追加したマスク処理にDBコネクション、ユニークリストの格納先をセットする.
+   * @param mask マスク処理
+   */
+  private void initMask(DataMask mask) {
+    if (conn != null) {
+      mask.setConnection(conn);
+    }
+    if (uniqueListStore != null) {
+      mask.setUniqueListStore(uniqueListStore);
+    }
+    masks.add(mask);
+  }
+
+  /**
+   * 行の項目数をチェックする.
+   * @param row 行の値
+   * @throws IllegalArgumentException 行の項目数がカラム数と一致しない場合
+   */
+  private void checkRow(Object[] row) {
+    if (row == null || row.length != columnNames.size()) {
+      throw new IllegalArgumentException(String.format("行の項目数 %s がカラム数 %d と一致しません。",
+          (row == null) ? "null" : String.valueOf(row.length), columnNames.size()));
+    }
+  }
+
+  /**
+   * 入力カラムを読み込んでマスク処理を実行し、出力カラムに書き込む処理.
+   */
+  private static final class Task {
+
+    private final int[] src;
+    private final int[] dest;
+    private final MaskingPipeline pipeline;
+
+    Task(int[] src, int[] dest, MaskingPipeline pipeline) {
+      this.src = src;
+      this.dest = dest;
+      this.pipeline = pipeline;
+    }
+
+    /**
+     * 指定したカラムだけを読み書きする処理かどうか.
+     * @param index カラムのインデックス
+     * @return true=指定したカラムだけを読み書きする, false=それ以外
+     */
+    boolean isSingleColumn(int index) {
+      return src.length == 1 && dest.length == 1 && src[0] == index && dest[0] == index;
+    }
+
+    /**
+     * 1行分を実行する.
+     * @param row 行の値
+     * @throws Exception エラー発生時
+     */
+    void apply(Object[] row) throws Exception {
+
+      Object val;
+      if (src.length == 1) {
+        val = row[src[0]];
+      } else {
+        Object[] vals = new Object[src.length];
+        for (int i = 0; i < src.length; i++) {
+          vals[i] = row[src[i]];
+        }
+        val = vals;
+      }
+
+      Object ret = pipeline.execute(val);
+
+      if (dest.length == 1) {
+        row[dest[0]] = ret;
+      } else if (ret == null) {
+        // 結果がnullの場合は全出力カラムをnullにする
+        for (int i = 0; i < dest.length; i++) {
+          row[dest[i]] = null;
+        }
+      } else if (ret instanceof Object[]) {
+        // 結果の配列を順に書き込む(足りない場合はnull)
+        Object[] vals = (Object[]) ret;
+        for (int i = 0; i < dest.length; i++) {
+          row[dest[i]] = (i < vals.length) ? vals[i] : null;
+        }
+      } else {
+        throw new IllegalArgumentException(String.format(
+            "マスク結果 %s を複数カラムに書き込めません。", ret.getClass().getName()));
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,492 @@
+package net.utsuro.mask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 1カラムに対する複数のマスク処理を順に実行するクラス.
+ * ・add()でマスク処理とルールを追加する時点で、前の処理の出力型と次の処理の入力型が合うかチェックする
+ * ・文字列→文字列の処理(TextTrim, TextReplace, TextSubstr, MaskedTextReplacer, ShuffleTextReplacer)が
+ *   連続する場合は1つにまとめ、型変換やルールのコピーをせずに順に適用する(Trim, Substrは元の文字列の範囲を
+ *   狭めるだけで、途中の文字列を作成しない)
+ * ・ルールが無い等、常に元の値をそのまま返す処理は追加時に除外する
+ * ・組み立て後は変更しないため、複数スレッドで共有できる(各マスク処理がスレッドセーフな場合)
+ * ※組み立て中(add()の呼び出し中)に他のスレッドから実行しないこと
+ *
+ * <pre>
+ * MaskingPipeline pipeline = new MaskingPipeline(String.class)
+ *     .add(new TextTrim(), trimRule)
+ *     .add(new TextReplace(), replaceRule)
+ *     .add(new RandomTextReplacer(), randomRule)
+ *     .add(new TextSubstr(), substrRule)
+ *     .add(new TypeConverter(), convertRule);
+ * Object masked = pipeline.execute(value);
+ * </pre>
+ */
+public final class MaskingPipeline {
+
+  /**
+   * 入力値の型.
+   */
+  private final Class<?> srcClass;
+
+  /**
+   * 現時点の出力値の型(不明な場合はObject).
+   */
+  private Class<?> outputClass;
+
+  /**
+   * 実行する処理.
+   */
+  private final List<Stage> stages = new ArrayList<>();
+
+  /**
+   * 追加された処理の数(除外したものも含む).
+   */
+  private int stepCount = 0;
+
+  /**
+   * 入力値の型を指定せずに作成する.
+   */
+  public MaskingPipeline() {
+    this(Object.class);
+  }
+
+  /**
+   * 入力値の型を指定して作成する.
+   * ・最初の処理の入力型のチェック、常に元の値を返す処理の判定に使用する
+   * @param srcClass 入力値の型(nullの場合はObject)
+   */
+  public MaskingPipeline(Class<?> srcClass) {
+    this.srcClass = (srcClass == null) ? Object.class : srcClass;
+    this.outputClass = this.srcClass;
+  }
+
+  /**
+   * マスク処理を追加する.
+   * ・ルールはこの時点でCompiledRule.compile()するため、以降に元のルールを変更しても影響しない
+   * ・エラーになった場合はパイプラインを変更しない
+   * @param mask マスク処理
+   * @param rule マスク化ルール
+   * @return このパイプライン
+   * @throws IllegalArgumentException マスク処理が無い場合、前の処理の出力型を受け取れない場合、
+   *     型変換先の指定に問題がある場合
+   */
+  public MaskingPipeline add(DataMask mask, MaskingRule rule) {
+
+    int step = stepCount + 1;
+    if (mask == null) {
+      throw new IllegalArgumentException(
+          String.format("%d番目のマスク処理が指定されていません。", step));
+    }
+
+    Class<?> inputClass = getInputClass(mask);
+    if (inputClass != Object.class && outputClass != Object.class
+        && !inputClass.isAssignableFrom(outputClass)) {
+      // 前の処理の出力型を受け取れない場合はエラー
+      throw new IllegalArgumentException(String.format(
+          "%d番目のマスク処理 %s は %s を受け取れません。(%s のみ)", step,
+          mask.getClass().getSimpleName(), outputClass.getName(), inputClass.getName()));
+    }
+
+    CompiledRule compiled = CompiledRule.compile(rule);
+    if (isIdentity(mask, compiled)) {
+      // 常に元の値をそのまま返す処理は除外
+      stepCount = step;
+      return this;
+    }
+
+    // エラーになり得るものは全て確認してから追加する
+    Class<?> nextOutputClass = resolveOutputClass(mask, compiled);
+    StringOp op = getStringOp(mask, compiled);
+    Stage last = (stages.isEmpty()) ? null : stages.get(stages.size() - 1);
+    if (op != null && last instanceof FusedStage) {
+      // 文字列→文字列の処理が連続する場合はまとめる
+      ((FusedStage) last).ops.add(op);
+    } else if (op != null) {
+      stages.add(new FusedStage(op, inputClass == String.class));
+    } else {
+      stages.add(new MaskStage(mask, compiled));
+    }
+
+    outputClass = nextOutputClass;
+    stepCount = step;
+    return this;
+
+  }
+
+  /**
+   * 追加したマスク処理を順に実行する.
+   * @param src 対象データ
+   * @return 置換後のデータ
+   * @throws Exception エラー発生時
+   */
+  public Object execute(Object src) throws Exception {
+    Object ret = src;
+    for (Stage stage : stages) {
+      ret = stage.apply(ret);
+    }
+    return ret;
+  }
+
+  /**
+   * 複数の値に追加したマスク処理を順にまとめて実行する.
+   * ・処理ごとに全件をDataMask.executeBatchCompiled()で実行し、追加時に解決したルールを使い回す
+   * @param in 対象データの配列
+   * @param out 置換後のデータの格納先(入力と同じ配列でも良い)
+   * @param len 件数(配列の先頭からlen件を対象とする)
+   * @throws Exception エラー発生時
+   */
+  public void executeBatch(Object[] in, Object[] out, int len) throws Exception {
+    if (stages.isEmpty()) {
+      System.arraycopy(in, 0, out, 0, len);
+      return;
+    }
+    Object[] src = in;
+    for (Stage stage : stages) {
+      stage.applyBatch(src, out, len);
+      src = out;
+    }
+  }
+
+  /**
+   * 入力値の型を取得.
+   * @return 入力値の型
+   */
+  public Class<?> getSrcClass() {
+    return srcClass;
+  }
+
+  /**
+   * 出力値の型を取得.
+   * @return 出力値の型(不明な場合はObject)
+   */
+  public Class<?> getOutputClass() {
+    return outputClass;
+  }
+
+  /**
+   * 追加されたマスク処理の数を取得(除外したものも含む).
+   * @return 追加されたマスク処理の数
+   */
+  public int getStepCount() {
+    return stepCount;
+  }
+
+  /**
+   * 実際に実行する処理の数を取得(除外した処理、まとめた処理を除く).
+   * @return 実際に実行する処理の数
+   */
+  public int getStageCount() {
+    return stages.size();
+  }
+
+  /**
+   * マスク処理が受け取れる入力値の型を取得.
+   * @param mask マスク処理
+   * @return 入力値の型(不明な場合はObject)
+   */
+  private static Class<?> getInputClass(DataMask mask) {
+    if (mask instanceof TextTrim || mask instanceof TextReplace || mask instanceof TextSubstr
+        || mask instanceof TextSplit || mask instanceof ShuffleTextReplacer) {
+      // 文字列にキャストして処理するもの
+      return String.class;
+    }
+    return Object.class;
+  }
+
+  /**
+   * マスク処理の出力値の型を取得.
+   * @param mask マスク処理
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 出力値の型(不明な場合はObject)
+   */
+  private static Class<?> resolveOutputClass(DataMask mask, CompiledRule compiled) {
+    if (mask instanceof TextTrim || mask instanceof TextReplace || mask instanceof TextSubstr
+        || mask instanceof ShuffleTextReplacer || mask instanceof MaskedTextReplacer
+        || mask instanceof RandomTextReplacer || mask instanceof RandomTelnoReplacer
+        || mask instanceof RandomCardnoReplacer || mask instanceof RandomMailAddrReplacer) {
+      // 文字列を返すもの(nullはそのまま)
+      return String.class;
+    } else if (mask instanceof TextSplit) {
+      return String[].class;
+    } else if (mask instanceof TypeConverter && compiled != null) {
+      // 型変換先のクラス(指定に問題がある場合はここでエラー)
+      return compiled.getToClass();
+    }
+    return Object.class;
+  }
+
+  /**
+   * 常に元の値をそのまま返す処理かどうか.
+   * ・このパッケージのマスク処理でルールが無い場合
+   * ・置換の正規表現が無いTextReplace、開始・終了インデックスとバイト数が0のTextSubstr
+   * ・入力値が文字列で、除外値パターンが入力値に関係なくマッチする文字列置換
+   *   (ユニークリストを使用する場合は登録が必要なので除く)
+   * @param mask マスク処理
+   * @param compiled 事前に解決したマスク化ルール
+   * @return true=常に元の値を返す, false=それ以外
+   */
+  private boolean isIdentity(DataMask mask, CompiledRule compiled) {
+
+    if (compiled == null) {
+      return mask.getClass().getPackage() == DataMask.class.getPackage();
+    }
+
+    MaskingRule rule = compiled.getRule();
+    Class<?> clazz = mask.getClass();
+    if (clazz == TextReplace.class) {
+      return rule.getTextReplaceRegex() == null || rule.getTextReplaceRegex().isEmpty();
+    } else if (clazz == TextSubstr.class) {
+      return rule.getTruncateEbcdicBytes() <= 0 && rule.getTruncateSjisBytes() <= 0
+          && rule.getBeginIndex() == 0 && rule.getEndIndex() == 0;
+    } else if (clazz == MaskedTextReplacer.class || clazz == ShuffleTextReplacer.class
+        || clazz == RandomTextReplacer.class || clazz == RandomTelnoReplacer.class
+        || clazz == RandomCardnoReplacer.class || clazz == RandomMailAddrReplacer.class) {
+      return outputClass == String.class && !rule.useUniqueList()
+          && matchesAlways(rule.getIgnoreValuePattern());
+    }
+    return false;
+
+  }
+
+  /**
+   * パターンが入力値に関係なくfind()でマッチするかどうか.
+   * ・先頭で1文字も読まずに(末尾の判定もせずに)マッチするパターンのみtrueとする
+   * ※「.*」等の入力値を読むパターンは、実際は常にマッチしてもfalseになる
+   * @param pattern パターン
+   * @return true=常にマッチする, false=マッチしない場合がある
+   */
+  static boolean matchesAlways(Pattern pattern) {
+    if (pattern == null) {
+      return false;
+    }
+    Matcher m = pattern.matcher("");
+    return m.lookingAt() && !m.hitEnd();
+  }
+
+  /**
+   * 文字列→文字列の処理としてまとめられる場合は、その処理を取得.
+   * ※継承したクラスは処理を変更している可能性があるためまとめない
+   * @param mask マスク処理
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 文字列→文字列の処理、まとめられない場合はnull
+   */
+  private static StringOp getStringOp(DataMask mask, CompiledRule compiled) {
+
+    if (compiled == null) {
+      return null;
+    }
+
+    MaskingRule rule = compiled.getRule();
+    Class<?> clazz = mask.getClass();
+    if (clazz == TextTrim.class) {
+      return text -> text.trim(rule);
+    } else if (clazz == TextSubstr.class) {
+      if (rule.getTruncateEbcdicBytes() > 0 || rule.getTruncateSjisBytes() > 0) {
+        return text -> text.set(TextSubstr.substr(text.toString(), rule));
+      }
+      return text -> text.substr(rule);
+    } else if (clazz == TextReplace.class) {
+      return text -> text.set(TextReplace.replace(text.toString(), rule));
+    } else if (clazz == MaskedTextReplacer.class) {
+      return text -> text.set(MaskedTextReplacer.replaceCompiled(text.toString(), compiled));
+    } else if (clazz == ShuffleTextReplacer.class) {
+      return text -> text.set(ShuffleTextReplacer.replace(text.toString(), rule));
+    }
+    return null;
+
+  }
+
+  /**
+   * 実行する処理.
+   */
+  private interface Stage {
+
+    /**
+     * 処理を実行する.
+     * @param src 対象データ
+     * @return 置換後のデータ
+     * @throws Exception エラー発生時
+     */
+    Object apply(Object src) throws Exception;
+
+    /**
+     * 複数の値に処理をまとめて実行する.
+     * @param in 対象データの配列
+     * @param out 置換後のデータの格納先
+     * @param len 件数
+     * @throws Exception エラー発生時
+     */
+    void applyBatch(Object[] in, Object[] out, int len) throws Exception;
+
+  }
+
+  /**
+   * マスク処理をそのまま実行する処理.
+   */
+  private static final class MaskStage implements Stage {
+
+    private final DataMask mask;
+    private final CompiledRule compiled;
+
+    MaskStage(DataMask mask, CompiledRule compiled) {
+      this.mask = mask;
+      this.compiled = compiled;
+    }
+
+    @Override
+    public Object apply(Object src) throws Exception {
+      return mask.executeCompiled(src, compiled);
+    }
+
+    @Override
+    public void applyBatch(Object[] in, Object[] out, int len) throws Exception {
+      mask.executeBatchCompiled(in, 0, out, 0, len, compiled);
+    }
+
+  }
+
+  /**
+   * 連続する文字列→文字列の処理をまとめたもの.
+   */
+  private static final class FusedStage implements Stage {
+
+    private final List<StringOp> ops = new ArrayList<>();
+
+    /**
+     * 最初の処理が文字列にキャストするかどうか(falseはtoString()).
+     */
+    private final boolean isCastString;
+
+    FusedStage(StringOp first, boolean isCastString) {
+      this.ops.add(first);
+      this.isCastString = isCastString;
+    }
+
+    @Override
+    public Object apply(Object src) throws Exception {
+      if (src == null) {
+        // まとめた処理はいずれもnullをそのまま返す
+        return null;
+      }
+      TextRange text = new TextRange((isCastString) ? (String) src : src.toString());
+      for (StringOp op : ops) {
+        op.apply(text);
+        if (text.isNull()) {
+          return null;
+        }
+      }
+      return text.toString();
+    }
+
+    @Override
+    public void applyBatch(Object[] in, Object[] out, int len) throws Exception {
+      for (int i = 0; i < len; i++) {
+        out[i] = apply(in[i]);
+      }
+    }
+
+  }
+
+  /**
+   * 文字列→文字列の処理.
+   */
+  private interface StringOp {
+
+    /**
+     * 処理を実行する.
+     * @param text 対象の文字列
+     * @throws Exception エラー発生時
+     */
+    void apply(TextRange text) throws Exception;
+
+  }
+
+  /**
+   * 元の文字列の範囲で表した処理途中の文字列.
+   * ※Trim, Substrは範囲を狭めるだけで、他の処理に渡す時点で初めて文字列を作成する
+   */
+  private static final class TextRange {
+
+    private String s;
+    private int begin;
+    private int end;
+
+    TextRange(String s) {
+      set(s);
+    }
+
+    /**
+     * 処理結果の文字列に差し替える.
+     * @param s 処理結果の文字列
+     */
+    void set(String s) {
+      this.s = s;
+      this.begin = 0;
+      this.end = (s == null) ? 0 : s.length();
+    }
+
+    boolean isNull() {
+      return s == null;
+    }
+
+    /**
+     * 前後の空白を除いた範囲にする(TextTrim.trim()と同じ).
+     * @param rule マスク化ルール
+     */
+    void trim(MaskingRule rule) {
+      boolean isBoth = !rule.useLTrim() && !rule.useRTrim();
+      boolean isKeepWideSpace = rule.isKeepWideSpaceTrim();
+      if (isBoth || rule.useLTrim()) {
+        while (begin < end && isSpace(s.codePointAt(begin), isKeepWideSpace)) {
+          begin += Character.charCount(s.codePointAt(begin));
+        }
+      }
+      if (isBoth || rule.useRTrim()) {
+        while (end > begin && isSpace(s.codePointBefore(end), isKeepWideSpace)) {
+          end -= Character.charCount(s.codePointBefore(end));
+        }
+      }
+    }
+
+    /**
+     * 部分文字列の範囲にする(TextSubstr.substr()のインデックス指定と同じ).
+     * ※範囲外の場合は文字列を作成してTextSubstr.substr()と同じエラーにする
+     * @param rule マスク化ルール
+     */
+    void substr(MaskingRule rule) {
+      int len = end - begin;
+      if (len == 0) {
+        return;
+      }
+      int st = (rule.getBeginIndex() < 0) ? len + rule.getBeginIndex() : rule.getBeginIndex();
+      int ed = (rule.getEndIndex() == 0) ? len : Math.min(len, rule.getEndIndex());
+      if (st < 0 || st > ed) {
+        set(TextSubstr.substr(toString(), rule));
+        return;
+      }
+      end = begin + ed;
+      begin += st;
+    }
+
+    /**
+     * 空白かどうか.
+     * @param codePoint 判定したい文字のコードポイント
+     * @param isKeepWideSpace true=半角の空白・制御文字のみ(String.trim()), false=String.strip()
+     * @return true=空白, false=それ以外
+     */
+    private static boolean isSpace(int codePoint, boolean isKeepWideSpace) {
+      return (isKeepWideSpace) ? codePoint <= ' ' : Character.isWhitespace(codePoint);
+    }
+
+    @Override
+    public String toString() {
+      return (s == null) ? null : s.substring(begin, end);
+    }
+
+  }
+
+}
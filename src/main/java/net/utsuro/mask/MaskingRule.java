@@ -5,7 +5,12 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 import net.utsuro.mask.MaskingUtil.CharType;
 
@@ -203,6 +208,16 @@ public class MaskingRule {
    */
   private int[] pickupWeights = null;
 
+  /**
+   * ピックアップリストの重み付き抽選用(ピックアップリスト・重みから作成).
+   * ※ピックアップリスト・重みをセットし直すと作り直す
+   */
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private volatile WeightedSampler pickupSampler = null;
+
   /**
    * データ選択リストの対象テーブル名.
    */
@@ -318,6 +333,14 @@ public class MaskingRule {
    */
   private boolean isDeterministicReplace = false;
 
+  /**
+   * 決定論的置換のキー(秘密の文字列).
+   * ※指定した場合はユニークリストを使わず、キーと識別子と入力値のHMACを種にした乱数で生成する
+   *  (一意にする場合は重複チェックのためユニークリストも使用する)
+   */
+  @ToString.Exclude
+  private String deterministicKey = null;
+
   /**
    * 生成した値を一意にするかどうか(NULL以外).
    */
@@ -475,6 +498,7 @@ public class MaskingRule {
     this.addrFormat = that.getAddrFormat();
     this.fullNameFormat = that.getFullNameFormat();
     this.isDeterministicReplace = that.isDeterministicReplace();
+    this.deterministicKey = that.getDeterministicKey();
     this.isUniqueValue = that.isUniqueValue();
     this.toClassName = that.getToClassName();
     if (that.getToClassNames() != null) {
@@ -660,6 +684,23 @@ public class MaskingRule {
     }
   }
 
+  /**
+   * キーによる決定論的置換を行うかどうか.
+   * @return true=キーから生成する, false=しない
+   */
+  public boolean useDeterministicKey() {
+    return isDeterministicReplace && deterministicKey != null && !deterministicKey.isEmpty();
+  }
+
+  /**
+   * ユニークリストを使用するかどうか.
+   * ※キーによる決定論的置換で一意にしない場合は使用しない
+   * @return true=使用する, false=使用しない
+   */
+  public boolean useUniqueList() {
+    return isUniqueValue || (isDeterministicReplace && !useDeterministicKey());
+  }
+
   /**
    * データ選択リストの連番カラム名を取得.
    * ※ランダム選択するためには対象テーブルには空き番の無い連番カラム(数値)が必要。
@@ -674,4 +715,43 @@ public class MaskingRule {
     }
   }
 
+  /**
+   * ピックアップリストをセット.
+   * @param pickupList セットする pickupList
+   */
+  public void setPickupList(String[] pickupList) {
+    this.pickupList = pickupList;
+    this.pickupSampler = null;
+  }
+
+  /**
+   * ピックアップリストの重み(確率)をセット.
+   * @param pickupWeights セットする pickupWeights
+   */
+  public void setPickupWeights(int[] pickupWeights) {
+    this.pickupWeights = pickupWeights;
+    this.pickupSampler = null;
+  }
+
+  /**
+   * ピックアップリストの重み付き抽選用のインスタンスを取得.
+   * ・重み指定がまったく無い場合は一律1、リストより少ない場合は不足分を0とする
+   * ※初回に作成してルールに保持する(複数スレッドで共有可)。
+   *  リスト・重みの配列の中身を直接書き換えた場合はセットし直すこと
+   * @return 抽選用のインスタンス、ピックアップリストが無い場合はnull
+   */
+  WeightedSampler getPickupSampler() {
+    WeightedSampler ret = pickupSampler;
+    if (ret == null && pickupList != null && pickupList.length > 0) {
+      int weightsCount = (pickupWeights == null) ? 0 : pickupWeights.length;
+      int[] weights = new int[pickupList.length];
+      for (int i = 0; i < weights.length; i++) {
+        weights[i] = (weightsCount == 0) ? 1 : ((i < weightsCount) ? pickupWeights[i] : 0);
+      }
+      ret = new WeightedSampler(weights);
+      pickupSampler = ret;
+    }
+    return ret;
+  }
+
 }
@@ -2,18 +2,18 @@ package net.utsuro.mask;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.security.SecureRandom;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.regex.Matcher;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 /**
@@ -62,54 +62,6 @@ public abstract class MaskingUtil {
       "｛", "｜", "｝", "￣"
   };
 
-  /**
-   * 半角カナテーブル(変換用).
-   */
-  static final String[] HKANA_CHARACTER_FULL = {
-      "ｱ", "ｲ", "ｳ", "ｴ", "ｵ",
-      "ｶ", "ｷ", "ｸ", "ｹ", "ｺ",
-      "ｻ", "ｼ", "ｽ", "ｾ", "ｿ",
-      "ﾀ", "ﾁ", "ﾂ", "ﾃ", "ﾄ",
-      "ﾅ", "ﾆ", "ﾇ", "ﾈ", "ﾉ",
-      "ﾊ", "ﾋ", "ﾌ", "ﾍ", "ﾎ",
-      "ﾏ", "ﾐ", "ﾑ", "ﾒ", "ﾓ",
-      "ﾔ", "ﾕ", "ﾖ",
-      "ﾗ", "ﾘ", "ﾙ", "ﾚ", "ﾛ",
-      "ﾜ", "ｦ", "ﾝ",
-      "ｶﾞ", "ｷﾞ", "ｸﾞ", "ｹﾞ", "ｺﾞ",
-      "ｻﾞ", "ｼﾞ", "ｽﾞ", "ｾﾞ", "ｿﾞ",
-      "ﾀﾞ", "ﾁﾞ", "ﾂﾞ", "ﾃﾞ", "ﾄﾞ",
-      "ﾊﾞ", "ﾋﾞ", "ﾌﾞ", "ﾍﾞ", "ﾎﾞ",
-      "ｳﾞ", "ｰ", "｡", "､", "｢", "｣",
-      "ﾊﾟ", "ﾋﾟ", "ﾌﾟ", "ﾍﾟ", "ﾎﾟ",
-      "ｧ", "ｨ", "ｩ", "ｪ", "ｫ",
-      "ｯ", "ｬ", "ｭ", "ｮ"
-  };
-
-  /**
-   * 全角カナテーブル(変換用).
-   */
-  static final String[] WKANA_CHARACTER_FULL = {
-      "ア", "イ", "ウ", "エ", "オ",
-      "カ", "キ", "ク", "ケ", "コ",
-      "サ", "シ", "ス", "セ", "ソ",
-      "タ", "チ", "ツ", "テ", "ト",
-      "ナ", "ニ", "ヌ", "ネ", "ノ",
-      "ハ", "ヒ", "フ", "ヘ", "ホ",
-      "マ", "ミ", "ム", "メ", "モ",
-      "ヤ", "ユ", "ヨ",
-      "ラ", "リ", "ル", "レ", "ロ",
-      "ワ", "ヲ", "ン",
-      "ガ", "ギ", "グ", "ゲ", "ゴ",
-      "ザ", "ジ", "ズ", "ゼ", "ゾ",
-      "ダ", "ヂ", "ヅ", "デ", "ド",
-      "バ", "ビ", "ブ", "ベ", "ボ",
-      "ヴ", "ー", "。", "、", "「", "」",
-      "パ", "ピ", "プ", "ペ", "ポ",
-      "ァ", "ィ", "ゥ", "ェ", "ォ",
-      "ッ", "ャ", "ュ", "ョ"
-  };
-
   /**
    * 半角カナテーブル(生成用/出現率のレート順).
    * ※記号などは生成しないため除外している
@@ -183,26 +135,150 @@ public abstract class MaskingUtil {
   static int hiraganaTotalWeight = 0;
 
   /**
-   * 乱数生成用.
+   * カナ出現率の重み付き抽選用.
    */
-  private static final SecureRandom  rnd = new SecureRandom();
+  private static final WeightedSampler HKANA_SAMPLER = new WeightedSampler(HKANA_RATIO);
 
   /**
-   * カナ大文字変換用.
+   * かな出現率の重み付き抽選用.
    */
-  private static Map<String, String> lowerHalfKanaMap = new HashMap<>();
-  private static Map<String, String> lowerWideKanaMap = new HashMap<>();
+  private static final WeightedSampler HIRAGANA_SAMPLER = new WeightedSampler(HIRAGANA_RATIO);
 
   /**
-   * ひらがな大文字変換用.
+   * 文字(BMP)ごとのバイト数(SJIS換算).
+   * ※MS932で変換できない文字は「?」に置き換わるため1byte
    */
-  private static Map<String, String> lowerHiraganaMap = new HashMap<>();
+  private static final byte[] SJIS_WIDTH = createSjisWidthTable();
 
   /**
-   * カナ全角半角変換用.
+   * 文字(BMP)ごとのEBCDIC(Cp930)の種類: 変換できない文字(シフト状態のまま代替文字1byte).
    */
-  private static List<String> halfKanaTable = new ArrayList<>();
-  private static List<String> wideKanaTable = new ArrayList<>();
+  private static final byte EBCDIC_UNMAPPABLE = 0;
+
+  /**
+   * 文字(BMP)ごとのEBCDIC(Cp930)の種類: 1byte文字(SBCS).
+   */
+  private static final byte EBCDIC_SBCS = 1;
+
+  /**
+   * 文字(BMP)ごとのEBCDIC(Cp930)の種類: 2byte文字(DBCS、前後にシフトコードが必要).
+   */
+  private static final byte EBCDIC_DBCS = 2;
+
+  /**
+   * 文字(BMP)ごとのEBCDIC(Cp930)の種類.
+   */
+  private static final byte[] EBCDIC_TYPE = createEbcdicTypeTable();
+
+  /**
+   * JIS第一水準の漢字(SJIS 0x889F～0x9872).
+   */
+  static final char[] SJIS_KANJI_LEVEL1 = createSjisTable(0x889F, 0x9872);
+
+  /**
+   * JIS第二水準(SJIS 0x989F～0x9FFC、0xE040～0xEAA4)とIBM拡張文字(SJIS 0xFA5C～0xFC4B)の漢字.
+   */
+  static final char[] SJIS_KANJI_OTHER = createSjisTable(
+      0x989F, 0x9FFC, 0xE040, 0xEAA4, 0xFA5C, 0xFC4B);
+
+  /**
+   * 全角カナ(SJIS 0x8340～0x8394).
+   */
+  static final char[] SJIS_WIDE_KANA = createSjisTable(0x8340, 0x8394);
+
+  /**
+   * 全角英大文字(SJIS 0x8260～0x8279).
+   */
+  static final char[] SJIS_WIDE_UPPER_ALPHA = createSjisTable(0x8260, 0x8279);
+
+  /**
+   * 全角英小文字(SJIS 0x8281～0x829A).
+   */
+  static final char[] SJIS_WIDE_LOWER_ALPHA = createSjisTable(0x8281, 0x829A);
+
+  /**
+   * 全角数字(SJIS 0x824F～0x8258).
+   */
+  static final char[] SJIS_WIDE_NUMBER = createSjisTable(0x824F, 0x8258);
+
+  /**
+   * かなの前後関係の判定用(前の文字の状態): 行頭(先頭、句読点・スペース等の後).
+   */
+  static final int KANA_START = 0x01;
+
+  /**
+   * かなの前後関係の判定用(前の文字の状態): ひらがなの小文字(ぁぃぅぇぉっ).
+   * ※全角カナ、半角カナは1bitずつ、拗音(KANA_YOON_*)は2bitずつずらした値
+   */
+  static final int KANA_SMALL_HIRAGANA = 0x02;
+
+  /**
+   * かなの前後関係の判定用(前の文字の状態): 拗音にできるひらがな(きしちにひみりぎじぢびぴ).
+   */
+  static final int KANA_YOON_HIRAGANA = 0x04;
+
+  /**
+   * かなの前後関係の判定用(前の文字の状態): 拗音にできる半角カナ.
+   */
+  static final int KANA_YOON_HALF = 0x40;
+
+  /**
+   * かなの前後関係の判定用(次の文字の種類): 種別(1=ひらがな, 2=全角カナ, 3=半角カナ)を取り出すマスク.
+   */
+  static final int KANA_GROUP_MASK = 0x03;
+
+  /**
+   * かなの前後関係の判定用(次の文字の種類): 小文字の母音(ぁぃぅぇぉ等).
+   */
+  static final int KANA_NEXT_SMALL = 0x04;
+
+  /**
+   * かなの前後関係の判定用(次の文字の種類): 拗音の小文字(ゃゅょ等).
+   */
+  static final int KANA_NEXT_YOON = 0x08;
+
+  /**
+   * 文字ごとの前の文字の状態.
+   */
+  private static final byte[] KANA_PREV = new byte[0x10000];
+
+  /**
+   * 文字ごとの次の文字の種類.
+   */
+  private static final byte[] KANA_NEXT = new byte[0x10000];
+
+  /**
+   * 乱数の供給元.
+   */
+  private static volatile RandomSource randomSource = RandomSource.fast();
+
+  /**
+   * スレッドに割り当てた乱数生成用(キーによる決定論的置換時).
+   */
+  private static final ThreadLocal<Random> threadRandom = new ThreadLocal<>();
+
+  /**
+   * 何もしない乱数の割り当て範囲.
+   */
+  private static final RandomScope NO_SCOPE = new RandomScope(null, false);
+
+  /**
+   * かな・カナ変換用.
+   */
+  private static final KanaConverter UPPER_HALF_KANA =
+      new KanaConverter(KanaConverter.Step.UPPER_HALF_KANA);
+  private static final KanaConverter UPPER_WIDE_KANA =
+      new KanaConverter(KanaConverter.Step.UPPER_WIDE_KANA);
+  private static final KanaConverter UPPER_HIRAGANA =
+      new KanaConverter(KanaConverter.Step.UPPER_HIRAGANA);
+  private static final KanaConverter WIDE_KANA_TO_HALF_KANA =
+      new KanaConverter(KanaConverter.Step.WIDE_KANA_TO_HALF_KANA);
+  private static final KanaConverter HALF_KANA_TO_WIDE_KANA =
+      new KanaConverter(KanaConverter.Step.HALF_KANA_TO_WIDE_KANA);
+  private static final KanaConverter HIRAGANA_TO_WIDE_KANA =
+      new KanaConverter(KanaConverter.Step.HIRAGANA_TO_WIDE_KANA);
+  private static final KanaConverter WIDE_KANA_TO_HIRAGANA =
+      new KanaConverter(KanaConverter.Step.WIDE_KANA_TO_HIRAGANA);
 
   /**
    * 文字種類.
@@ -252,6 +328,16 @@ public abstract class MaskingUtil {
      */
     private int reqByte;
 
+    /**
+     * 文字種判定用の半角記号.
+     */
+    private static final String HALF_SPECIAL = "!\"#$%&'()*+,-./:;<=>?@[]^_`{|}~";
+
+    /**
+     * 文字種判定用の全角記号.
+     */
+    private static final String WIDE_SPECIAL_CHARS = "！”＃＄％＆’（）＊＋，－．／：；＜＝＞？＠［￥］＾＿｀｛｜｝￣";
+
     /**
      * コンストラクタ.
      */
@@ -293,40 +379,55 @@ public abstract class MaskingUtil {
     public static CharType getTypeByString(String str) {
       CharType ret = UNKNOWN;
       if (str != null && str.length() > 0) {
-        char c = str.charAt(0);
-        String s = String.valueOf(c);
-        Character.UnicodeBlock uniBlock = Character.UnicodeBlock.of(c);
-        if (uniBlock == Character.UnicodeBlock.HIRAGANA) {
-          ret = HIRAGANA;
-        } else if (uniBlock == Character.UnicodeBlock.KATAKANA) {
-          ret = WIDE_KANA;
-        } else if (uniBlock == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
-          ret = KANJI;
-        } else if (uniBlock == Character.UnicodeBlock.BASIC_LATIN) {
-          // 半角英数とかいろいろ混ざるので細分化
-          if (s.matches("[a-z]")) {
-            ret = LOWER_ALPHA;
-          } else if (s.matches("[A-Z]")) {
-            ret = UPPER_ALPHA;
-          } else if (s.matches("[0-9]")) {
-            ret = NUMBER;
-          } else if (s.matches("[!\"#$%&'()*+,-./:;<=>?@\\[\\]^_`{|}~]")) {
-            ret = SPECIAL;
-          }
-        } else if (uniBlock == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS) {
-          // 半角カナとか全角英字とかいろいろ混ざるので細分化
-          if (s.matches("[ａ-ｚ]")) {
-            ret = WIDE_LOWER_ALPHA;
-          } else if (s.matches("[Ａ-Ｚ]")) {
-            ret = WIDE_UPPER_ALPHA;
-          } else if (s.matches("[０-９]")) {
-            ret = WIDE_NUMBER;
-          } else if (s.matches("[！”＃＄％＆’（）＊＋，－．／：；＜＝＞？＠［￥］＾＿｀｛｜｝￣]")) {
-            ret = WIDE_SPECIAL;
-          } else if (s.matches("[\\uFF61-\\uFF9F]")) {
-            ret = HALF_KANA;
-          }
+        ret = getTypeByCodePoint(str.charAt(0));
+      }
+      return ret;
+    }
+
+    /**
+     * 1文字から文字種を取得.
+     * ・BMP外の漢字(JIS X 0213の第3・4水準漢字等)と互換漢字(IBM拡張文字等)も漢字とする
+     * @param codePoint 判定したい文字のコードポイント
+     * @return 判定した文字種
+     */
+    public static CharType getTypeByCodePoint(int codePoint) {
+      CharType ret = UNKNOWN;
+      Character.UnicodeBlock uniBlock = Character.UnicodeBlock.of(codePoint);
+      if (uniBlock == Character.UnicodeBlock.HIRAGANA) {
+        ret = HIRAGANA;
+      } else if (uniBlock == Character.UnicodeBlock.KATAKANA) {
+        ret = WIDE_KANA;
+      } else if (uniBlock == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
+        ret = KANJI;
+      } else if (uniBlock == Character.UnicodeBlock.BASIC_LATIN) {
+        // 半角英数とかいろいろ混ざるので細分化
+        if (codePoint >= 'a' && codePoint <= 'z') {
+          ret = LOWER_ALPHA;
+        } else if (codePoint >= 'A' && codePoint <= 'Z') {
+          ret = UPPER_ALPHA;
+        } else if (codePoint >= '0' && codePoint <= '9') {
+          ret = NUMBER;
+        } else if (HALF_SPECIAL.indexOf(codePoint) >= 0) {
+          ret = SPECIAL;
+        }
+      } else if (uniBlock == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS) {
+        // 半角カナとか全角英字とかいろいろ混ざるので細分化
+        if (codePoint >= 'ａ' && codePoint <= 'ｚ') {
+          ret = WIDE_LOWER_ALPHA;
+        } else if (codePoint >= 'Ａ' && codePoint <= 'Ｚ') {
+          ret = WIDE_UPPER_ALPHA;
+        } else if (codePoint >= '０' && codePoint <= '９') {
+          ret = WIDE_NUMBER;
+        } else if (WIDE_SPECIAL_CHARS.indexOf(codePoint) >= 0) {
+          ret = WIDE_SPECIAL;
+        } else if (codePoint >= 0xFF61 && codePoint <= 0xFF9F) {
+          ret = HALF_KANA;
         }
+      } else if (Character.isIdeographic(codePoint)
+          && (uniBlock == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+              || codePoint > Character.MAX_VALUE)) {
+        // 互換漢字とBMP外の漢字
+        ret = KANJI;
       }
       return ret;
     }
@@ -335,6 +436,21 @@ public abstract class MaskingUtil {
 
   // 初期化
   static {
+    // かなの前後関係の判定テーブル生成
+    setKanaFlags(KANA_PREV, "-、。､｡\r\n\t 　", KANA_START);
+    String[][] kana = {
+        // 前の文字(小文字)、前の文字(拗音にできる)、次の文字(行頭禁止)、次の文字(小文字の母音)、次の文字(拗音)
+        {"ぁぃぅぇぉっ", "きしちにひみりぎじぢびぴ", "ぁぃぅぇぉっゃゅょゎん、。", "ぁぃぅぇぉ", "ゃゅょ"},
+        {"ァィゥェォッｰ", "キシチニヒミリギジヂビピ", "ァィゥェォッャュョヮンー", "ァィゥェォ", "ャュョ"},
+        {"ｧｨｩｪｫｯｰ", "ｷｼﾁﾆﾋﾐﾘ", "ｧｨｩｪｫｯｬｭｮﾝｰﾟﾞ､｡", "ｧｨｩｪｫ", "ｬｭｮ"}
+    };
+    for (int i = 0; i < kana.length; i++) {
+      setKanaFlags(KANA_PREV, kana[i][0], KANA_SMALL_HIRAGANA << (i * 2));
+      setKanaFlags(KANA_PREV, kana[i][1], KANA_YOON_HIRAGANA << (i * 2));
+      setKanaFlags(KANA_NEXT, kana[i][2], i + 1);
+      setKanaFlags(KANA_NEXT, kana[i][3], KANA_NEXT_SMALL);
+      setKanaFlags(KANA_NEXT, kana[i][4], KANA_NEXT_YOON);
+    }
     // カナ出現率の重み合計値を求める
     for (int i = 0; i < HKANA_RATIO.length; i++) {
       halfKanaTotalWeight += HKANA_RATIO[i];
@@ -343,43 +459,6 @@ public abstract class MaskingUtil {
     for (int i = 0; i < HIRAGANA_RATIO.length; i++) {
       hiraganaTotalWeight += HIRAGANA_RATIO[i];
     }
-    // 半角カナ大文字化マッピングテーブル生成
-    lowerHalfKanaMap.put("ｧ", "ｱ");
-    lowerHalfKanaMap.put("ｨ", "ｲ");
-    lowerHalfKanaMap.put("ｩ", "ｳ");
-    lowerHalfKanaMap.put("ｪ", "ｴ");
-    lowerHalfKanaMap.put("ｫ", "ｵ");
-    lowerHalfKanaMap.put("ｯ", "ﾂ");
-    lowerHalfKanaMap.put("ｬ", "ﾔ");
-    lowerHalfKanaMap.put("ｭ", "ﾕ");
-    lowerHalfKanaMap.put("ｮ", "ﾖ");
-    // 全角カナ大文字化マッピングテーブル生成
-    lowerWideKanaMap.put("ァ", "ア");
-    lowerWideKanaMap.put("ィ", "イ");
-    lowerWideKanaMap.put("ゥ", "ウ");
-    lowerWideKanaMap.put("ェ", "エ");
-    lowerWideKanaMap.put("ォ", "オ");
-    lowerWideKanaMap.put("ヵ", "カ");
-    lowerWideKanaMap.put("ヶ", "ケ");
-    lowerWideKanaMap.put("ッ", "ツ");
-    lowerWideKanaMap.put("ャ", "ヤ");
-    lowerWideKanaMap.put("ュ", "ユ");
-    lowerWideKanaMap.put("ョ", "ヨ");
-    lowerWideKanaMap.put("ヮ", "ワ");
-    // ひらがな大文字化マッピングテーブル生成
-    lowerHiraganaMap.put("ぁ", "あ");
-    lowerHiraganaMap.put("ぃ", "い");
-    lowerHiraganaMap.put("ぅ", "う");
-    lowerHiraganaMap.put("ぇ", "え");
-    lowerHiraganaMap.put("ぉ", "お");
-    lowerHiraganaMap.put("っ", "つ");
-    lowerHiraganaMap.put("ゃ", "や");
-    lowerHiraganaMap.put("ゅ", "ゆ");
-    lowerHiraganaMap.put("ょ", "よ");
-    lowerHiraganaMap.put("ゎ", "わ");
-    // カナ全角半角変換用
-    halfKanaTable = Arrays.asList(HKANA_CHARACTER_FULL);
-    wideKanaTable = Arrays.asList(WKANA_CHARACTER_FULL);
   }
 
   /**
@@ -458,27 +537,121 @@ public abstract class MaskingUtil {
    * @param s 検査したい文字
    * @return 全角文字が含まれている場合true, 半角のみの場合false
    */
-  public static boolean isWideChar(String s) {
+  public static boolean isWideChar(CharSequence s) {
     boolean ret = false;
     if (s != null && s.length() > 0) {
-      ret = (s.getBytes(Charset.forName("MS932")).length != s.length());
+      ret = (getSjisByteCount(s) != s.length());
     }
     return ret;
   }
 
+  /**
+   * 全角文字(SJIS)かどうかを返す.
+   * @param c 検査したい文字
+   * @return 全角文字の場合true, 半角の場合false
+   */
+  public static boolean isWideChar(char c) {
+    return SJIS_WIDTH[c] == 2;
+  }
+
+  /**
+   * 全角文字(SJIS)かどうかを返す.
+   * ※BMP外の文字はMS932で変換できないためfalse
+   * @param codePoint 検査したい文字のコードポイント
+   * @return 全角文字の場合true, 半角の場合false
+   */
+  public static boolean isWideChar(int codePoint) {
+    return getSjisByteCount(codePoint) == 2;
+  }
+
   /**
    * バイト数(SJIS換算)を返す.
+   * ※1文字ごとの換算表を引くため、文字コードの変換は行わない
    * @param s カウントしたい文字
    * @return SJIS換算バイト数(全角2byte、半角1byte、nullは0byte)
    */
-  public static int getSjisByteCount(String s) {
+  public static int getSjisByteCount(CharSequence s) {
     int ret = 0;
-    if (s != null && s.length() > 0) {
-      ret = s.getBytes(Charset.forName("MS932")).length;
+    if (s == null) {
+      return ret;
+    }
+    int len = s.length();
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        // ASCIIは1byte
+        ret++;
+      } else if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        // サロゲートペアは変換できず「?」1文字になる
+        ret++;
+        i++;
+      } else {
+        ret += SJIS_WIDTH[c];
+      }
     }
     return ret;
   }
 
+  /**
+   * バイト数(SJIS換算)を返す.
+   * @param c カウントしたい文字
+   * @return SJIS換算バイト数(全角2byte、半角1byte)
+   */
+  public static int getSjisByteCount(char c) {
+    return SJIS_WIDTH[c];
+  }
+
+  /**
+   * バイト数(SJIS換算)を返す.
+   * ※BMP外の文字はMS932で変換できず「?」になるため1byte
+   * @param codePoint カウントしたい文字のコードポイント
+   * @return SJIS換算バイト数(全角2byte、半角1byte)
+   */
+  public static int getSjisByteCount(int codePoint) {
+    return (codePoint >= 0 && codePoint < SJIS_WIDTH.length) ? SJIS_WIDTH[codePoint] : 1;
+  }
+
+  /**
+   * バイト数(SJIS換算)に収まる範囲の終了インデックスを返す.
+   * ・先頭から1文字ずつSJIS換算し、指定バイト数を超える直前の文字の次のインデックスを返す
+   * ・サロゲートペアの途中で区切ることはない
+   * ※s.substring(0, 戻り値)で省略した文字列、s.substring(戻り値)で溢れた文字列になる
+   * @param s 対象の文字列
+   * @param bytes SJIS換算バイト数
+   * @return 終了インデックス(全て収まる場合は文字列長、nullは0)
+   */
+  public static int getSjisByteEndIndex(CharSequence s, int bytes) {
+    if (s == null) {
+      return 0;
+    }
+    int len = s.length();
+    int cnt = 0;
+    int i = 0;
+    while (i < len) {
+      char c = s.charAt(i);
+      int next = i + 1;
+      int width;
+      if (c < 0x80) {
+        // ASCIIは1byte
+        width = 1;
+      } else if (Character.isHighSurrogate(c) && next < len
+          && Character.isLowSurrogate(s.charAt(next))) {
+        // サロゲートペアは変換できず「?」1文字になる
+        width = 1;
+        next++;
+      } else {
+        width = SJIS_WIDTH[c];
+      }
+      cnt += width;
+      if (cnt > bytes) {
+        break;
+      }
+      i = next;
+    }
+    return i;
+  }
+
   /**
    * バイト数(SJIS換算)で文字列を分割する.
    * @param s 分割したい文字
@@ -488,25 +661,11 @@ public abstract class MaskingUtil {
   public static String[] splitBySjisBytes(String s, int bytes) {
     String[] ret = {null, null};
     if (s != null) {
-      ret = new String[2];
-      int cnt = 0;
-      boolean isOverflow = false;
-      List<String> charList = Arrays.asList(s.split(""));
-      StringBuilder buff = new StringBuilder();
-      // 溢れるまで1文字ずつSJIS換算しながらバッファに格納
-      for (String c : charList) {
-        cnt += getSjisByteCount(c);
-        if (cnt <= bytes) {
-          buff.append(c);
-        } else {
-          isOverflow = true;
-          break;
-        }
-      }
-      ret[0] = buff.toString();
+      int end = getSjisByteEndIndex(s, bytes);
+      ret[0] = s.substring(0, end);
       // 溢れていたら残りを2枠目にセット
-      if (isOverflow) {
-        ret[1] = s.substring(buff.length());
+      if (end < s.length()) {
+        ret[1] = s.substring(end);
       }
     }
     return ret;
@@ -521,38 +680,85 @@ public abstract class MaskingUtil {
   public static String truncateBySjisBytes(String s, int bytes) {
     String ret = null;
     if (s != null) {
-      if (getSjisByteCount(s) <= bytes) {
-        // 溢れないときはそのまま返す
-        return s;
-      }
-      int cnt = 0;
-      List<String> charList = Arrays.asList(s.split(""));
-      StringBuilder buff = new StringBuilder();
-      // 溢れるまで1文字ずつSJIS換算しながらバッファに格納
-      for (String c : charList) {
-        cnt += getSjisByteCount(c);
-        if (cnt <= bytes) {
-          buff.append(c);
-        } else {
-          break;
-        }
-      }
-      ret = buff.toString();
+      // 溢れる直前の文字までで省略(溢れないときはそのまま返る)
+      ret = s.substring(0, getSjisByteEndIndex(s, bytes));
     }
     return ret;
   }
 
   /**
    * バイト数(EBCDIC換算)を返す.
+   * ※1文字ごとの種類の表を引き、シフトアウト(0x0E)・シフトイン(0x0F)の状態を追跡しながら1回の走査で数える
    * @param s カウントしたい文字
    * @return EBCDIC換算バイト数(全角2byte、半角1byte、nullは0byte、シフトコード込み)
    */
-  public static int getEbcdicByteCount(String s) {
+  public static int getEbcdicByteCount(CharSequence s) {
     int ret = 0;
-    if (s != null && s.length() > 0) {
-      ret = s.getBytes(Charset.forName("Cp930")).length;
+    if (s == null) {
+      return ret;
     }
-    return ret;
+    boolean isDbcs = false;
+    int len = s.length();
+    for (int i = 0; i < len; i++) {
+      byte type = EBCDIC_TYPE[s.charAt(i)];
+      if (type == EBCDIC_DBCS) {
+        // 2byte文字の連続の開始時はシフトアウトを付ける
+        ret += (isDbcs) ? 2 : 3;
+        isDbcs = true;
+      } else if (type == EBCDIC_SBCS) {
+        // 2byte文字の連続の終了時はシフトインを付ける
+        ret += (isDbcs) ? 2 : 1;
+        isDbcs = false;
+      } else {
+        // 変換できない文字はシフト状態のまま代替文字1byte
+        ret++;
+        if (Character.isSurrogatePair(s.charAt(i), (i + 1 < len) ? s.charAt(i + 1) : 0)) {
+          i++;
+        }
+      }
+    }
+    // 2byte文字で終わる場合はシフトインを付ける
+    return (isDbcs) ? ret + 1 : ret;
+  }
+
+  /**
+   * バイト数(EBCDIC換算)に収まる範囲の終了インデックスを返す.
+   * ・先頭から1文字ずつシフトコード込みでEBCDIC換算し、指定バイト数を超える直前の文字の次のインデックスを返す
+   * ・2byte文字で区切る場合は、区切った位置で付けるシフトインの1byteも含めて判定する
+   * ・サロゲートペアの途中で区切ることはない
+   * @param s 対象の文字列
+   * @param bytes EBCDIC換算バイト数
+   * @return 終了インデックス(全て収まる場合は文字列長、nullは0)
+   */
+  public static int getEbcdicByteEndIndex(CharSequence s, int bytes) {
+    if (s == null) {
+      return 0;
+    }
+    boolean isDbcs = false;
+    int cnt = 0;
+    int len = s.length();
+    int i = 0;
+    while (i < len) {
+      byte type = EBCDIC_TYPE[s.charAt(i)];
+      int next = i + 1;
+      if (type == EBCDIC_DBCS) {
+        cnt += (isDbcs) ? 2 : 3;
+        isDbcs = true;
+      } else if (type == EBCDIC_SBCS) {
+        cnt += (isDbcs) ? 2 : 1;
+        isDbcs = false;
+      } else {
+        cnt++;
+        if (Character.isSurrogatePair(s.charAt(i), (next < len) ? s.charAt(next) : 0)) {
+          next++;
+        }
+      }
+      if (cnt + ((isDbcs) ? 1 : 0) > bytes) {
+        break;
+      }
+      i = next;
+    }
+    return i;
   }
 
   /**
@@ -564,24 +770,8 @@ public abstract class MaskingUtil {
   public static String truncateByEbcdicBytes(String s, int bytes) {
     String ret = null;
     if (s != null) {
-      if (getEbcdicByteCount(s) <= bytes) {
-        // 溢れないときはそのまま返す
-        return s;
-      }
-      int cnt = 0;
-      List<String> charList = Arrays.asList(s.split(""));
-      StringBuilder buff = new StringBuilder();
-      // 溢れるまで1文字ずつEBCDIC換算しながらバッファに格納
-      for (String c : charList) {
-        cnt = getEbcdicByteCount(buff.append(c).toString());
-        if (cnt > bytes) {
-          buff.deleteCharAt(buff.length() - 1);
-          break;
-        } else if (cnt == bytes) {
-          break;
-        }
-      }
-      ret = buff.toString();
+      // 溢れる直前の文字までで省略(溢れないときはそのまま返る)
+      ret = s.substring(0, getEbcdicByteEndIndex(s, bytes));
     }
     return ret;
   }
@@ -592,16 +782,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String toUpperHalfKana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    Pattern p = Pattern.compile("[ｧｨｩｪｫｯｬｭｮ]");
-    Matcher m = p.matcher(s);
-    while (m.find()) {
-      m.appendReplacement(sb, lowerHalfKanaMap.get(m.group()));
-    }
-    m.appendTail(sb);
-    return sb.toString();
-
+    return UPPER_HALF_KANA.convert(s);
   }
 
   /**
@@ -610,16 +791,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String toUpperWideKana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    Pattern p = Pattern.compile("[ァィゥェォヵヶッャュョヮ]");
-    Matcher m = p.matcher(s);
-    while (m.find()) {
-      m.appendReplacement(sb, lowerWideKanaMap.get(m.group()));
-    }
-    m.appendTail(sb);
-    return sb.toString();
-
+    return UPPER_WIDE_KANA.convert(s);
   }
 
   /**
@@ -628,16 +800,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String toUpperHiragana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    Pattern p = Pattern.compile("[ぁぃぅぇぉっゃゅょゎ]");
-    Matcher m = p.matcher(s);
-    while (m.find()) {
-      m.appendReplacement(sb, lowerHiraganaMap.get(m.group()));
-    }
-    m.appendTail(sb);
-    return sb.toString();
-
+    return UPPER_HIRAGANA.convert(s);
   }
 
   /**
@@ -646,20 +809,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String wideKanaToHalfKana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    String[] c = s.split("");
-    int len = c.length;
-    for (int i = 0; i < len; i++) {
-      int idx = wideKanaTable.indexOf(c[i]);
-      if (idx < 0) {
-        sb.append(c[i]);
-      } else {
-        sb.append(halfKanaTable.get(idx));
-      }
-    }
-    return sb.toString();
-
+    return WIDE_KANA_TO_HALF_KANA.convert(s);
   }
 
   /**
@@ -668,28 +818,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String halfKanaToWideKana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    String[] c = s.split("");
-    int len = c.length;
-    for (int i = 0; i < len; i++) {
-      if (c[i].isEmpty()) {
-        continue;
-      }
-      if (i < c.length - 1 && c[i + 1].matches("[ﾟﾞ]")) {
-        // 次の文字が半角カナの濁点・半濁点の場合は2文字セットで変換する
-        c[i] = c[i].concat(c[i + 1]);
-        c[i + 1] = "";
-      }
-      int idx = halfKanaTable.indexOf(c[i]);
-      if (idx < 0) {
-        sb.append(c[i]);
-      } else {
-        sb.append(wideKanaTable.get(idx));
-      }
-    }
-    return sb.toString();
-
+    return HALF_KANA_TO_WIDE_KANA.convert(s);
   }
 
   /**
@@ -699,14 +828,14 @@ public abstract class MaskingUtil {
    */
   public static String halfNumberToWideNumber(String s) {
 
-    StringBuffer sb = new StringBuffer();
-    String[] c = s.split("");
-    int len = c.length;
+    StringBuilder sb = new StringBuilder(s.length());
+    int len = s.length();
     for (int i = 0; i < len; i++) {
-      if (c[i].matches("[0-9]")) {
-        sb.append((char) ((int) c[i].charAt(0) + 0xFEE0));
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        sb.append((char) (c + 0xFEE0));
       } else {
-        sb.append(c[i]);
+        sb.append(c);
       }
     }
     return sb.toString();
@@ -719,19 +848,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String hiraganaToWideKana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    String[] c = s.split("");
-    int len = c.length;
-    for (int i = 0; i < len; i++) {
-      if (c[i].matches("[ぁ-ん]")) {
-        sb.append((char) ((int) c[i].charAt(0) + 0x0060));
-      } else {
-        sb.append(c[i]);
-      }
-    }
-    return sb.toString();
-
+    return HIRAGANA_TO_WIDE_KANA.convert(s);
   }
 
   /**
@@ -740,19 +857,7 @@ public abstract class MaskingUtil {
    * @return 置換後の文字
    */
   public static String wideKanaToHiragana(String s) {
-
-    StringBuffer sb = new StringBuffer();
-    String[] c = s.split("");
-    int len = c.length;
-    for (int i = 0; i < len; i++) {
-      if (c[i].matches("[ァ-ン]")) {
-        sb.append((char) ((int) c[i].charAt(0) - 0x0060));
-      } else {
-        sb.append(c[i]);
-      }
-    }
-    return sb.toString();
-
+    return WIDE_KANA_TO_HIRAGANA.convert(s);
   }
 
   /**
@@ -762,7 +867,7 @@ public abstract class MaskingUtil {
    * @return true=禁止文字, false=問題なし
    */
   public static boolean isInvalidNextLetter(StringBuilder str, String nextChar) {
-    return isInvalidNextLetter(str.toString(), nextChar);
+    return isInvalidNextLetter(getKanaState(str), nextChar);
   }
 
   /**
@@ -772,41 +877,81 @@ public abstract class MaskingUtil {
    * @return true=禁止文字, false=問題なし
    */
   public static boolean isInvalidNextLetter(String str, String nextChar) {
-    boolean ret = false;
-    String lastChar = (str.isEmpty()) ? "" : str.substring(str.length() - 1);
-    if (lastChar.matches("[ﾟﾞ]")) {
-      // 最後の1文字が半角カナの濁点・半濁点の場合はもう1文字見る
-      if (str.length() >= 2) {
-        lastChar = str.substring(str.length() - 2);
-      }
-    } else if (lastChar.matches("[-、。､｡\r\n\t 　]")) {
-      // 最後の1文字が句読点やスペース等の場合は行頭と同じ扱いにする
-      lastChar = "";
+    return isInvalidNextLetter(getKanaState(str), nextChar);
+  }
+
+  /**
+   * 前の文字の状態から、次の文字が行頭禁止の文字・拗音以外の組み合わせかどうかを返す.
+   * ・判定は文字ごとのテーブル参照のみで行う
+   * ※次の文字が2文字以上(濁点付きの半角カナ等)の場合は問題なしとする
+   * @param state 前の文字の状態(getKanaState()の結果)
+   * @param nextChar 次に来る文字
+   * @return true=禁止文字, false=問題なし
+   */
+  static boolean isInvalidNextLetter(int state, String nextChar) {
+    if (nextChar.length() != 1) {
+      return false;
     }
-    // 次の文字が捨て仮名や「ん」の場合、前の文字を確認
-    if (nextChar.matches("[ぁぃぅぇぉっゃゅょゎん、。]")) {
-      if (lastChar.isEmpty()
-          || (lastChar.matches("[ぁぃぅぇぉっ]") && nextChar.matches("[ぁぃぅぇぉ]"))
-          || (!lastChar.matches("[きしちにひみりぎじぢびぴ]") && nextChar.matches("[ゃゅょ]"))) {
-        // 先頭に来てしまった場合や、ありえない組み合わせになった場合はNG
-        ret = true;
-      }
-    } else if (nextChar.matches("[ァィゥェォッャュョヮンー]")) {
-      if (lastChar.isEmpty()
-          || (lastChar.matches("[ァィゥェォッｰ]") && nextChar.matches("[ァィゥェォ]"))
-          || (!lastChar.matches("[キシチニヒミリギジヂビピ]") && nextChar.matches("[ャュョ]"))) {
-        // 先頭に来てしまった場合や、ありえない組み合わせになった場合はNG
-        ret = true;
-      }
-    } else if (nextChar.matches("[ｧｨｩｪｫｯｬｭｮﾝｰﾟﾞ､｡]")) {
-      if (lastChar.isEmpty()
-          || (lastChar.matches("[ｧｨｩｪｫｯｰ]") && nextChar.matches("[ｧｨｩｪｫ]"))
-          || (!lastChar.matches("(ｷﾞ|ｼﾞ|ﾁﾞ|ﾋﾞ|ﾋﾟ|[ｷｼﾁﾆﾋﾐﾘ])") && nextChar.matches("[ｬｭｮ]"))) {
-        // 先頭に来てしまった場合や、ありえない組み合わせになった場合はNG
-        ret = true;
-      }
+    int next = KANA_NEXT[nextChar.charAt(0)];
+    int group = next & KANA_GROUP_MASK;
+    if (group == 0) {
+      // 捨て仮名や「ん」等以外は問題なし
+      return false;
+    }
+    if ((state & KANA_START) != 0) {
+      // 先頭に来てしまった場合はNG
+      return true;
+    }
+    // 小文字の母音が連続する場合、拗音にできない文字の後に拗音の小文字が来た場合はNG
+    int small = KANA_SMALL_HIRAGANA << ((group - 1) * 2);
+    int yoon = KANA_YOON_HIRAGANA << ((group - 1) * 2);
+    return ((next & KANA_NEXT_SMALL) != 0 && (state & small) != 0)
+        || ((next & KANA_NEXT_YOON) != 0 && (state & yoon) == 0);
+  }
+
+  /**
+   * 文字列の最後の文字から、かなの前後関係の判定に使う状態を求める.
+   * ・最後の1文字が半角カナの濁点・半濁点の場合はもう1文字見る
+   * ・最後の1文字が句読点やスペース等の場合は行頭と同じ扱いにする
+   * @param str 文字列
+   * @return 状態(KANA_START、KANA_SMALL_*、KANA_YOON_*の組み合わせ)
+   */
+  static int getKanaState(CharSequence str) {
+    return getKanaState(str, 0);
+  }
+
+  /**
+   * 文字列の開始位置以降の最後の文字から、かなの前後関係の判定に使う状態を求める.
+   * ※開始位置より前の文字は無いものとして扱う
+   * @param str 文字列
+   * @param start 開始位置
+   * @return 状態(KANA_START、KANA_SMALL_*、KANA_YOON_*の組み合わせ)
+   */
+  static int getKanaState(CharSequence str, int start) {
+    int len = str.length();
+    if (len <= start) {
+      return KANA_START;
+    }
+    char c = str.charAt(len - 1);
+    if (c == 'ﾞ' || c == 'ﾟ') {
+      // ｷﾞ、ｼﾞ、ﾁﾞ、ﾋﾞ、ﾋﾟは拗音にできる
+      char p = (len - 2 >= start) ? str.charAt(len - 2) : 0;
+      return ((c == 'ﾞ' && (p == 'ｷ' || p == 'ｼ' || p == 'ﾁ' || p == 'ﾋ'))
+          || (c == 'ﾟ' && p == 'ﾋ')) ? KANA_YOON_HALF : 0;
+    }
+    return KANA_PREV[c];
+  }
+
+  /**
+   * かなの前後関係の判定テーブルに値をセットする.
+   * @param table 判定テーブル
+   * @param chars 対象の文字
+   * @param flag セットする値(既存の値とのOR)
+   */
+  private static void setKanaFlags(byte[] table, String chars, int flag) {
+    for (int i = 0; i < chars.length(); i++) {
+      table[chars.charAt(i)] |= flag;
     }
-    return ret;
   }
 
   /**
@@ -859,149 +1004,70 @@ public abstract class MaskingUtil {
   public static String getRandomString(
       int sjisLen, EnumSet<CharType> charType, Pattern noGenPattern) {
 
-    List<String> tarCharList = new ArrayList<>();
-    boolean useHalfChar = false;
-    boolean useSjisGenerator = false;
-    int cardinality = 0;
-    StringBuilder sb = new StringBuilder();
-
     if (sjisLen <= 0 || charType == null || charType.isEmpty()) {
       return "";
     }
 
-    // 文字種のALL等を分解してセットする
-    EnumSet<CharType> tarType = charTypeNormalize(charType);
+    // 文字種・生成しない文字パターンごとに作成済の生成方法で生成する
+    return RandomStringPlan.of(charType, noGenPattern).generate(sjisLen);
+
+  }
+
+  /**
+   * ランダムな文字列を生成して出力先に追加します.
+   * ※引き渡す文字種が単独の場合に使用します。
+   * @param sb 出力先
+   * @param sjisLen 生成する文字列のSJIS換算byte数
+   * @param charType 文字種
+   * @param noGenPattern 生成しない文字パターン(正規表現)
+   */
+  static void appendRandomString(
+      StringBuilder sb, int sjisLen, CharType charType, Pattern noGenPattern) {
+
+    if (sjisLen <= 0 || charType == null) {
+      return;
+    }
+
+    RandomStringPlan.of(EnumSet.of(charType), noGenPattern).generate(sb, sjisLen);
 
-    // 対象文字テーブル作成
+  }
+
+  /**
+   * 文字種から生成される文字の一覧を取得します.
+   * ・getRandomString()で1文字ずつ一様に生成される半角の文字種(英字・数字・記号)のみ対象
+   * ※出現率の調整や組み合わせの制約がある文字種を含む場合はnull
+   * @param charType 文字種
+   * @param noGenPattern 生成しない文字パターン(正規表現)
+   * @return 生成される文字の一覧、列挙できない場合はnull
+   */
+  static String[] getGeneratedCharacters(CharType charType, Pattern noGenPattern) {
+
+    if (charType == null) {
+      return null;
+    }
+    EnumSet<CharType> tarType = charTypeNormalize(EnumSet.of(charType));
+    if (tarType.isEmpty() || !EnumSet.of(CharType.LOWER_ALPHA, CharType.UPPER_ALPHA,
+        CharType.NUMBER, CharType.SPECIAL).containsAll(tarType)) {
+      return null;
+    }
+    // getRandomString()と同じ順に並べる
+    List<String> ret = new ArrayList<>();
     if (tarType.contains(CharType.LOWER_ALPHA)) {
-      tarCharList.addAll(Arrays.asList(LOWER_ALPHA_CHARACTER));
-      useHalfChar = true;
-      cardinality += LOWER_ALPHA_CHARACTER.length;
+      ret.addAll(Arrays.asList(LOWER_ALPHA_CHARACTER));
     }
     if (tarType.contains(CharType.UPPER_ALPHA)) {
-      tarCharList.addAll(Arrays.asList(UPPER_ALPHA_CHARACTER));
-      useHalfChar = true;
-      cardinality += UPPER_ALPHA_CHARACTER.length;
+      ret.addAll(Arrays.asList(UPPER_ALPHA_CHARACTER));
     }
     if (tarType.contains(CharType.NUMBER)) {
-      tarCharList.addAll(Arrays.asList(NUMBER_CHARACTER));
-      useHalfChar = true;
-      cardinality += NUMBER_CHARACTER.length;
+      ret.addAll(Arrays.asList(NUMBER_CHARACTER));
     }
     if (tarType.contains(CharType.SPECIAL)) {
-      tarCharList.addAll(Arrays.asList(SPECIAL_CHARACTER));
-      useHalfChar = true;
-      cardinality += SPECIAL_CHARACTER.length;
-    }
-    if (tarType.contains(CharType.WIDE_LOWER_ALPHA)) {
-      useSjisGenerator = true;
-    }
-    if (tarType.contains(CharType.WIDE_UPPER_ALPHA)) {
-      useSjisGenerator = true;
-    }
-    if (tarType.contains(CharType.WIDE_NUMBER)) {
-      useSjisGenerator = true;
-    }
-    if (tarType.contains(CharType.WIDE_SPECIAL)) {
-      tarCharList.addAll(Arrays.asList(WSPECIAL_CHARACTER));
-      cardinality += WSPECIAL_CHARACTER.length;
+      ret.addAll(Arrays.asList(SPECIAL_CHARACTER));
     }
-    if (tarType.contains(CharType.HIRAGANA)) {
-      useSjisGenerator = true;
-    }
-    if (tarType.contains(CharType.WIDE_KANA)) {
-      useSjisGenerator = true;
-    }
-    if (tarType.contains(CharType.HALF_KANA)) {
-      useHalfChar = true;
-      useSjisGenerator = true;
-    }
-    if (tarType.contains(CharType.KANJI)) {
-      useSjisGenerator = true;
-    }
-
-    if (!useHalfChar && sjisLen < 2) {
-      // 全角文字のみなのに2byte未満の指定は組み立てが無駄なのでブランクで返す
-      return "";
-    }
-
-    int i = 0;
-
-    while (i < sjisLen) {
-      String s;
-      int plen;
-      if (useSjisGenerator) {
-        // 出現頻度を調整してSJIS文字生成
-        if (EnumSet.of(CharType.KANJI).equals(tarType)
-            || tarType.contains(CharType.KANJI) && rnd.nextInt(100) < 30) {
-          // 漢字のみ または 漢字込みのとき30%は漢字範囲から生成
-          s = getRandomSjisKanji();
-        } else if (EnumSet.of(CharType.HIRAGANA).equals(tarType)
-            || tarType.contains(CharType.HIRAGANA) && rnd.nextInt(100) < 90) {
-          // ひらがなのみ または ひらがな込みのとき90%はひらがなから生成
-          s = "";
-          do {
-            s = getRandomHiragana();
-            // 生成されたものが捨て仮名や「ン」の場合、前の文字を確認し、
-            // 先頭に来てしまった場合や、ありえない組み合わせになった場合は再抽選
-          } while (isInvalidNextLetter(sb, s));
-        } else if (EnumSet.of(CharType.WIDE_LOWER_ALPHA).equals(tarType)
-            || tarType.contains(CharType.WIDE_LOWER_ALPHA) && rnd.nextInt(100) < 10) {
-          // 全角英小文字のみ または 全角英小文字込みのとき10%は全角英子文字から生成
-          s = getRandomSjisWideLowerAlpha();
-        } else if (EnumSet.of(CharType.WIDE_UPPER_ALPHA).equals(tarType)
-            ||            tarType.contains(CharType.WIDE_UPPER_ALPHA) && rnd.nextInt(100) < 10) {
-          // 全角英大文字のみ または 全角英大文字込みのとき10%は全角大文字から生成
-          s = getRandomSjisWideUpperAlpha();
-        } else if (EnumSet.of(CharType.WIDE_NUMBER).equals(tarType)
-            || tarType.contains(CharType.WIDE_NUMBER) && rnd.nextInt(100) < 10) {
-          // 全角数字のみ または 全角数字込みのとき10%は数字から生成
-          s = getRandomSjisWideNumber();
-        } else if (EnumSet.of(CharType.WIDE_KANA).equals(tarType)
-            || tarType.contains(CharType.WIDE_KANA) && rnd.nextInt(100) < 10) {
-          // 全角カタカナのみ または 全角カタカナ込みのとき10%はカタカナから生成
-          s = "";
-          do {
-            s = getRandomSjisWideKana();
-            // 生成されたものが捨て仮名や「ン」の場合、前の文字を確認し、
-            // 先頭に来てしまった場合や、ありえない組み合わせになった場合は再抽選
-          } while (isInvalidNextLetter(sb, s));
-        } else if (EnumSet.of(CharType.HALF_KANA).equals(tarType)
-            || tarType.contains(CharType.HALF_KANA) && rnd.nextInt(100) < 10) {
-          // 半角カタカナのみ または 半角カタカナ込みのとき10%はカタカナから生成
-          s = "";
-          do {
-            s = getRandomHalfKana();
-            // 生成されたものが捨て仮名や「ン」の場合、前の文字を確認し、
-            // 先頭に来てしまった場合や、ありえない組み合わせになった場合は再抽選
-          } while (isInvalidNextLetter(sb, s));
-        } else if (cardinality > 0) {
-          // 対象文字リストから生成
-          s = tarCharList.get(rnd.nextInt(cardinality));
-        } else {
-          // ここまで決まらなかったら再抽選
-          continue;
-        }
-        plen = s.getBytes(Charset.forName("MS932")).length;
-      } else {
-        s = tarCharList.get(rnd.nextInt(cardinality));
-        plen = s.getBytes(Charset.forName("MS932")).length;
-      }
-      if (noGenPattern != null && noGenPattern.matcher(s).find()) {
-        // 生成しない文字パターンになってしまった場合は再抽選
-        continue;
-      }
-      if (i + plen <= sjisLen) {
-        sb.append(s);
-        i += plen;
-      }
-      if (!useHalfChar && (sjisLen - i) == 1) {
-        // 全角文字のみなのに残り1byteになってしまった場合は強制終了
-        break;
-      }
+    if (noGenPattern != null) {
+      ret.removeIf(c -> noGenPattern.matcher(c).find());
     }
-
-    return sb.toString();
+    return ret.isEmpty() ? null : ret.toArray(new String[0]);
 
   }
 
@@ -1018,6 +1084,7 @@ public abstract class MaskingUtil {
   /**
    * 重み付きランダム抽選を行います.
    * ※計算済の重み合計値を引き渡す場合に使用。重み合計値に-1を渡すと抽選前に計算します。
+   * ※同じ重み配列で繰り返し抽選する場合はWeightedSamplerを使用してください。
    * @param weights 抽選対象の重み配列
    * @param totalWeight 重み合計値
    * @return 抽選結果のインデックス
@@ -1032,7 +1099,7 @@ public abstract class MaskingUtil {
       }
     }
     // 抽選
-    int val = rnd.nextInt(total) + 1;
+    int val = getRandom().nextInt(total) + 1;
     int idx = -1;
     int len = weights.length;
     for (int i = 0; i < len; i++) {
@@ -1055,7 +1122,7 @@ public abstract class MaskingUtil {
     int idx = -1;
     while (idx < 0) {
       // かな出現率の重み付き抽選でランダムにIndexを取得
-      idx = getRandomIndex(HIRAGANA_RATIO, hiraganaTotalWeight);
+      idx = HIRAGANA_SAMPLER.next();
     }
     return HIRAGANA_CHARACTER[idx];
 
@@ -1071,7 +1138,7 @@ public abstract class MaskingUtil {
     int idx = -1;
     while (idx < 0) {
       // かな出現率の重み付き抽選でランダムにIndexを取得
-      idx = getRandomIndex(HKANA_RATIO, halfKanaTotalWeight);
+      idx = HKANA_SAMPLER.next();
     }
     return HKANA_CHARACTER[idx];
 
@@ -1087,55 +1154,12 @@ public abstract class MaskingUtil {
    */
   public static String getRandomSjisKanji() {
 
-    int[] bytes = new int[2]; //Javaのbyte型は-128～127で比較が面倒なのでintで処理
-    boolean isValid = false;
-
-    while (!isValid) {
-      int min;
-      int max;
-
-      if (rnd.nextInt(100) < 80) {
-        // 漢字の80%は第一水準から抽選されるように調整
-        min = 0x88;
-        max = 0x98;
-      } else {
-        min = 0x98;
-        max = 0xFC;
-      }
-
-      // 上位バイト
-      bytes[0] = rnd.nextInt(max + 1 - min) + min;
-      // 下位バイト
-      bytes[1] = rnd.nextInt(0xFC + 1 - 0x40) + 0x40;
-
-      if (bytes[1] == 0x7F
-          || (bytes[0] >= 0xA0 && bytes[0] <= 0xDF)
-          || (bytes[0] >= 0xEB && bytes[0] <= 0xF9)) {
-        // 下位バイトが 0x7F は再抽選
-        // 上位バイトが 0xA0～0xDF、0xEB～0xF9 は再抽選
-        continue;
-      }
-
-      int code = Integer.valueOf(
-          String.format("%02x%02x", bytes[0], bytes[1]), 16);
-
-      if ((code >= 0x889F && code <= 0x9872)
-          || (code >= 0x989F && code <= 0x9FFC)
-          || (code >= 0xE040 && code <= 0xEAA4)
-          || (code >= 0xFA5C && code <= 0xFC4B)) {
-        // 以下の漢字ならなら抜ける、それ以外は再抽選
-        //  ・JIS第一水準 0x889F～0x9872
-        //  ・JIS第二水準 0x989F～0x9FFC、0xE040～0xEAA4
-        //  ・IBM拡張文字 0xFA40～0xFC4B (但し記号のため0xFA40～0xFA5Bは生成しない)
-        isValid = true;
-      }
-
+    Random random = getRandom();
+    if (nextInt(random, 100) < 80) {
+      // 漢字の80%は第一水準から抽選されるように調整
+      return String.valueOf(SJIS_KANJI_LEVEL1[nextInt(random, SJIS_KANJI_LEVEL1.length)]);
     }
-
-    // SJISバイト配列から文字に変換して返す
-    return new String(
-        new byte[] {(byte) bytes[0], (byte) bytes[1]},
-        Charset.forName("MS932"));
+    return String.valueOf(SJIS_KANJI_OTHER[nextInt(random, SJIS_KANJI_OTHER.length)]);
 
   }
 
@@ -1146,29 +1170,7 @@ public abstract class MaskingUtil {
    */
   public static String getRandomSjisWideKana() {
 
-    int[] bytes = new int[2]; //Javaのbyte型は-128～127で比較が面倒なのでintで処理
-    boolean isValid = false;
-
-    while (!isValid) {
-      // 全角カナの範囲 0x8340～0x8394
-      // 上位バイト
-      bytes[0] = 0x83;
-      // 下位バイト
-      bytes[1] = rnd.nextInt(0x94 + 1 - 0x40) + 0x40;
-
-      if (bytes[1] == 0x7F) {
-        // 下位バイトが 0x7F は再抽選
-        continue;
-      }
-
-      isValid = true;
-
-    }
-
-    // SJISバイト配列から文字に変換して返す
-    return new String(
-        new byte[] {(byte) bytes[0], (byte) bytes[1]},
-        Charset.forName("MS932"));
+    return String.valueOf(SJIS_WIDE_KANA[nextInt(getRandom(), SJIS_WIDE_KANA.length)]);
 
   }
 
@@ -1179,18 +1181,8 @@ public abstract class MaskingUtil {
    */
   public static String getRandomSjisWideUpperAlpha() {
 
-    int[] bytes = new int[2]; //Javaのbyte型は-128～127で比較が面倒なのでintで処理
-
-    // 全角英大文字の範囲 0x8260～0x8279
-    // 上位バイト
-    bytes[0] = 0x82;
-    // 下位バイト
-    bytes[1] = rnd.nextInt(0x79 + 1 - 0x60) + 0x60;
-
-    // SJISバイト配列から文字に変換して返す
-    return new String(
-        new byte[] {(byte) bytes[0], (byte) bytes[1]},
-        Charset.forName("MS932"));
+    return String.valueOf(
+        SJIS_WIDE_UPPER_ALPHA[nextInt(getRandom(), SJIS_WIDE_UPPER_ALPHA.length)]);
 
   }
 
@@ -1201,18 +1193,8 @@ public abstract class MaskingUtil {
    */
   public static String getRandomSjisWideLowerAlpha() {
 
-    int[] bytes = new int[2]; //Javaのbyte型は-128～127で比較が面倒なのでintで処理
-
-    // 全角英小文字の範囲 0x8281～0x829A
-    // 上位バイト
-    bytes[0] = 0x82;
-    // 下位バイト
-    bytes[1] = rnd.nextInt(0x9A + 1 - 0x81) + 0x81;
-
-    // SJISバイト配列から文字に変換して返す
-    return new String(
-        new byte[] {(byte) bytes[0], (byte) bytes[1]},
-        Charset.forName("MS932"));
+    return String.valueOf(
+        SJIS_WIDE_LOWER_ALPHA[nextInt(getRandom(), SJIS_WIDE_LOWER_ALPHA.length)]);
 
   }
 
@@ -1223,18 +1205,232 @@ public abstract class MaskingUtil {
    */
   public static String getRandomSjisWideNumber() {
 
-    int[] bytes = new int[2]; //Javaのbyte型は-128～127で比較が面倒なのでintで処理
+    return String.valueOf(SJIS_WIDE_NUMBER[nextInt(getRandom(), SJIS_WIDE_NUMBER.length)]);
 
-    // 全角数字の範囲 0x824F～0x8258
-    // 上位バイト
-    bytes[0] = 0x82;
-    // 下位バイト
-    bytes[1] = rnd.nextInt(0x58 + 1 - 0x4F) + 0x4F;
+  }
 
-    // SJISバイト配列から文字に変換して返す
-    return new String(
-        new byte[] {(byte) bytes[0], (byte) bytes[1]},
-        Charset.forName("MS932"));
+  /**
+   * 文字(BMP)ごとのバイト数(SJIS換算)の表を作成.
+   * ※クラスの初期化時に1回だけ作成し、以降は文字コードの変換無しで表を引く
+   * @return 文字コードをインデックスとしたバイト数の表
+   */
+  private static byte[] createSjisWidthTable() {
+
+    // String.getBytes()と同じく変換できない文字は「?」に置き換える
+    CharsetEncoder encoder = Charset.forName("MS932").newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    byte[] ret = new byte[0x10000];
+    char[] c = new char[1];
+    CharBuffer in = CharBuffer.wrap(c);
+    ByteBuffer out = ByteBuffer.allocate(8);
+    for (int i = 0; i < ret.length; i++) {
+      c[0] = (char) i;
+      in.clear();
+      out.clear();
+      encoder.reset();
+      encoder.encode(in, out, true);
+      encoder.flush(out);
+      ret[i] = (byte) out.position();
+    }
+    return ret;
+
+  }
+
+  /**
+   * 文字(BMP)ごとのEBCDIC(Cp930)の種類の表を作成.
+   * ※クラスの初期化時に1回だけ作成し、以降は文字コードの変換無しで表を引く
+   * @return 文字コードをインデックスとした種類の表
+   */
+  private static byte[] createEbcdicTypeTable() {
+
+    CharsetEncoder encoder = Charset.forName("Cp930").newEncoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    byte[] ret = new byte[0x10000];
+    char[] c = new char[1];
+    CharBuffer in = CharBuffer.wrap(c);
+    ByteBuffer out = ByteBuffer.allocate(8);
+    for (int i = 0; i < ret.length; i++) {
+      c[0] = (char) i;
+      in.clear();
+      out.clear();
+      encoder.reset();
+      if (encoder.encode(in, out, true).isError()) {
+        // 単独のサロゲートも変換できない文字として扱う
+        ret[i] = EBCDIC_UNMAPPABLE;
+        continue;
+      }
+      encoder.flush(out);
+      // 2byte文字はシフトアウト・シフトインが付いて4byteになる
+      ret[i] = (out.position() == 1) ? EBCDIC_SBCS : EBCDIC_DBCS;
+    }
+    return ret;
+
+  }
+
+  /**
+   * SJIS(MS932)の文字コードの範囲から文字の一覧を作成.
+   * ・下位バイトが0x40～0x7E、0x80～0xFCの文字コードのみ対象とする
+   * ・MS932で1文字に変換できない(未定義の)文字コードは除く
+   * ※クラスの初期化時に1回だけ作成し、以降は文字コードの変換無しで抽選する
+   * @param ranges 文字コードの範囲(開始、終了の組を並べる)
+   * @return 文字の一覧
+   */
+  private static char[] createSjisTable(int... ranges) {
+
+    Charset ms932 = Charset.forName("MS932");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i + 1 < ranges.length; i += 2) {
+      for (int code = ranges[i]; code <= ranges[i + 1]; code++) {
+        int low = code & 0xFF;
+        if (low < 0x40 || low == 0x7F || low > 0xFC) {
+          continue;
+        }
+        String c = new String(new byte[] {(byte) (code >> 8), (byte) low}, ms932);
+        if (c.length() == 1 && c.charAt(0) != '\uFFFD') {
+          sb.append(c);
+        }
+      }
+    }
+    return sb.toString().toCharArray();
+
+  }
+
+  /**
+   * 乱数生成用のインスタンスを取得.
+   * ※キーによる決定論的置換中はスレッドに割り当てた乱数を返す
+   * @return 乱数生成用のインスタンス
+   */
+  public static Random getRandom() {
+    Random ret = threadRandom.get();
+    return (ret != null) ? ret : randomSource.get();
+  }
+
+  /**
+   * 乱数の供給元を取得.
+   * @return 乱数の供給元
+   */
+  public static RandomSource getRandomSource() {
+    return randomSource;
+  }
+
+  /**
+   * 乱数の供給元をセット.
+   * ・RandomSource.fast() スレッドごとの高速な乱数(デフォルト)
+   * ・RandomSource.secure() スレッドごとの暗号論的乱数
+   * ・RandomSource.seeded(seed) 種を指定した再現可能な乱数
+   * ※全スレッドに影響するため、マスク処理の開始前にセットすること
+   * @param source 乱数の供給元(nullはデフォルト)
+   */
+  public static void setRandomSource(RandomSource source) {
+    randomSource = (source != null) ? source : RandomSource.fast();
+  }
+
+  /**
+   * 0以上指定値未満の乱数を偏りなく生成する(int版).
+   * ・32bitの乱数と上限の積の上位32bitを使用し、除算は偏る範囲に当たった場合のみ行う
+   * ※Lemireの方法
+   * @param random 乱数生成用のインスタンス
+   * @param bound 上限(この値は含まない、正の値)
+   * @return 乱数
+   */
+  static int nextInt(Random random, int bound) {
+    long m = (random.nextInt() & 0xFFFFFFFFL) * bound;
+    long l = m & 0xFFFFFFFFL;
+    if (l < bound) {
+      // 余りが偏る範囲(2^32 mod bound未満)は引き直す
+      long t = (0x100000000L - bound) % bound;
+      while (l < t) {
+        m = (random.nextInt() & 0xFFFFFFFFL) * bound;
+        l = m & 0xFFFFFFFFL;
+      }
+    }
+    return (int) (m >>> 32);
+  }
+
+  /**
+   * 0以上指定値未満の乱数を偏りなく生成する.
+   * ・64bitの乱数と上限の積の上位64bitを使用し、除算は偏る範囲に当たった場合のみ行う
+   * ※Lemireの方法
+   * @param random 乱数生成用のインスタンス
+   * @param bound 上限(この値は含まない、正の値)
+   * @return 乱数
+   */
+  static long nextLong(Random random, long bound) {
+    long r = random.nextLong();
+    long l = r * bound;
+    if (Long.compareUnsigned(l, bound) < 0) {
+      // 余りが偏る範囲(2^64 mod bound未満)は引き直す
+      long t = Long.remainderUnsigned(-bound, bound);
+      while (Long.compareUnsigned(l, t) < 0) {
+        r = random.nextLong();
+        l = r * bound;
+      }
+    }
+    // 符号なしの積の上位64bit
+    return Math.multiplyHigh(r, bound) + ((r >> 63) & bound);
+  }
+
+  /**
+   * キーによる決定論的置換用の乱数をスレッドに割り当てる.
+   * ・キーと識別子と入力値が同じなら同じ乱数列になる
+   * ・try-with-resourcesで使用し、範囲を抜けると元に戻る
+   * ※キーを使用しないルールや入力値がnullの場合は何もしない
+   * @param rule マスク化ルール
+   * @param input 入力値
+   * @return 割り当て範囲
+   */
+  public static RandomScope bindDeterministicRandom(MaskingRule rule, String input) {
+    if (rule == null || input == null || !rule.useDeterministicKey()) {
+      return NO_SCOPE;
+    }
+    return bindRandom(KeyedRandom.of(rule.getDeterministicKey(), rule.getUniqueId(), input));
+  }
+
+  /**
+   * 乱数をスレッドに割り当てる.
+   * ・try-with-resourcesで使用し、範囲を抜けると元に戻る
+   * @param random 割り当てる乱数(nullは割り当て解除)
+   * @return 割り当て範囲
+   */
+  public static RandomScope bindRandom(Random random) {
+    RandomScope ret = new RandomScope(threadRandom.get(), true);
+    if (random != null) {
+      threadRandom.set(random);
+    } else {
+      threadRandom.remove();
+    }
+    return ret;
+  }
+
+  /**
+   * 乱数のスレッドへの割り当て範囲.
+   */
+  public static final class RandomScope implements AutoCloseable {
+
+    private final Random previous;
+    private final boolean bound;
+
+    private RandomScope(Random previous, boolean bound) {
+      this.previous = previous;
+      this.bound = bound;
+    }
+
+    /**
+     * 割り当て前の状態に戻す.
+     */
+    @Override
+    public void close() {
+      if (!bound) {
+        return;
+      }
+      if (previous != null) {
+        threadRandom.set(previous);
+      } else {
+        threadRandom.remove();
+      }
+    }
 
   }
 
@@ -1246,8 +1442,14 @@ public abstract class MaskingUtil {
    */
   public static int getRandomNumber(int min, int max) {
 
-    return getRandomNumber(
-        BigInteger.valueOf(min), BigInteger.valueOf(max)).intValue();
+    if (max < min) {
+      throw new IllegalArgumentException("最大値が最小値より小さいです。");
+    }
+    long bound = (long) max - min + 1;
+    if (bound <= Integer.MAX_VALUE) {
+      return min + nextInt(getRandom(), (int) bound);
+    }
+    return (int) (min + nextLong(getRandom(), bound));
 
   }
 
@@ -1259,8 +1461,20 @@ public abstract class MaskingUtil {
    */
   public static long getRandomNumber(long min, long max) {
 
-    return getRandomNumber(
-        BigInteger.valueOf(min), BigInteger.valueOf(max)).longValue();
+    if (max < min) {
+      throw new IllegalArgumentException("最大値が最小値より小さいです。");
+    }
+    long bound = max - min + 1;
+    if (bound > 0) {
+      return min + nextLong(getRandom(), bound);
+    }
+    // 範囲がlong型に収まらない場合は範囲外を引き直す(採択率は1/2以上)
+    Random random = getRandom();
+    long ret = random.nextLong();
+    while (ret < min || ret > max) {
+      ret = random.nextLong();
+    }
+    return ret;
 
   }
 
@@ -1272,15 +1486,23 @@ public abstract class MaskingUtil {
    */
   public static BigInteger getRandomNumber(BigInteger min, BigInteger max) {
 
+    if (max.compareTo(min) < 0) {
+      throw new IllegalArgumentException("最大値が最小値より小さいです。");
+    }
+    if (min.bitLength() < Long.SIZE && max.bitLength() < Long.SIZE) {
+      // long型に収まる場合はlong型で生成
+      return BigInteger.valueOf(getRandomNumber(min.longValue(), max.longValue()));
+    }
+
     // 最小値の分をシフトする
     BigInteger upperLimit = max.subtract(min);
     int len = upperLimit.bitLength();
 
-    // ゼロから有効bit数までの乱数生成
-    BigInteger bi = new BigInteger(len, new SecureRandom());
-    if (bi.compareTo(upperLimit) > 0) {
-      // 最大値を超えてしまった場合は調整
-      bi = bi.mod(upperLimit);
+    // ゼロから有効bit数までの乱数生成(最大値を超えた場合は偏らないよう引き直す)
+    Random random = getRandom();
+    BigInteger bi = new BigInteger(len, random);
+    while (bi.compareTo(upperLimit) > 0) {
+      bi = new BigInteger(len, random);
     }
 
     // 最小値分シフトして返却
@@ -1301,8 +1523,13 @@ public abstract class MaskingUtil {
     BigInteger biMin = min.multiply(p).toBigInteger();
     BigInteger biMax = max.multiply(p).toBigInteger();
 
-    // 乱数生成
-    BigDecimal ret = new BigDecimal(getRandomNumber(biMin, biMax));
+    // 乱数生成(桁数をシフトした値がlong型に収まる場合はlong型で生成)
+    BigDecimal ret;
+    if (biMin.bitLength() < Long.SIZE && biMax.bitLength() < Long.SIZE) {
+      ret = BigDecimal.valueOf(getRandomNumber(biMin.longValue(), biMax.longValue()));
+    } else {
+      ret = new BigDecimal(getRandomNumber(biMin, biMax));
+    }
 
     // 小数点以下の桁数分シフトして返却
     return ret.divide(p);
@@ -1318,7 +1545,7 @@ public abstract class MaskingUtil {
   public static LocalDateTime getRandomDate(LocalDateTime min, LocalDateTime max) {
 
     long days = ChronoUnit.DAYS.between(min, max);
-    return min.plusDays(ThreadLocalRandom.current().nextLong(days + 1));
+    return min.plusDays(nextLong(getRandom(), days + 1));
 
   }
 
@@ -22,15 +22,31 @@ public class NullToValue implements DataMask {
    */
   @Override
   public Object execute(Object src, MaskingRule rule) throws Exception {
+    return executeCompiled(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールでNullまたは空文字の場合に固定値に置換する.
+   * @param src 置換したい値
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 置換後の文字列
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule compiled) throws Exception {
 
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || (src != null && !(src instanceof String))
         || (src instanceof String && !((String) src).isEmpty())) {
       // ルールが無い場合、null以外の場合、文字列で空文字以外はそのまま返却
       return src;
     }
 
-    MaskingRule tempRule = new MaskingRule(rule);
-    tempRule.setNullReplace(true);
+    MaskingRule tempRule = compiled.getDerived(NullToValue.class, r -> {
+      MaskingRule ret = new MaskingRule(r);
+      ret.setNullReplace(true);
+      return ret;
+    });
 
     // 固定値変換して返す
     return FixedValueConverter.convert(src, tempRule);
@@ -0,0 +1,402 @@
+package net.utsuro.mask;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DBのユニークリスト(sys_unique_list)を識別子ごとにまとめて読み込んでおく格納先クラス.
+ * ・preload()で指定した識別子の登録内容を一度に読み込み、以降の参照はメモリ上で行う
+ * ・読み込んでいない識別子、メモリ上限を超えた識別子は元の格納先に都度問い合わせる
+ * ・登録は元の格納先に行い、成功した内容をメモリ上にも反映する
+ * ※読み込み済の識別子は他プロセスから同時に登録されないことを前提とする
+ * ※登録時の一意性は元の格納先(DBの一意制約など)で保証される
+ */
+public class PreloadedUniqueListStore implements UniqueListStore {
+
+  /**
+   * デフォルトのメモリ上限(バイト数).
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+  /**
+   * 読み込み時のフェッチサイズ.
+   */
+  static final int FETCH_SIZE = 10000;
+
+  /**
+   * 1件あたりの管理領域の見積り(バイト数).
+   * ※文字列2つ分のヘッダとマップ・セットのエントリ分
+   */
+  private static final long ENTRY_OVERHEAD = 160;
+
+  private final UniqueListStore delegate;
+  private final long memoryBudget;
+  private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+  private final AtomicLong memoryUsage = new AtomicLong();
+
+  /**
+   * メモリ上限を超えて都度問い合わせに切り替えた識別子.
+   */
+  private final Set<String> fallbackIds = ConcurrentHashMap.newKeySet();
+
+  /**
+   * コンストラクタ.
+   * @param delegate 元の格納先
+   */
+  public PreloadedUniqueListStore(UniqueListStore delegate) {
+    this(delegate, DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param delegate 元の格納先
+   * @param memoryBudget 読み込みに使用するメモリの上限(バイト数の見積り)
+   */
+  public PreloadedUniqueListStore(UniqueListStore delegate, long memoryBudget) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("元の格納先を指定してください。");
+    }
+    if (memoryBudget <= 0) {
+      throw new IllegalArgumentException("メモリ上限は1以上を指定してください。");
+    }
+    this.delegate = delegate;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * 元の格納先を取得.
+   * @return delegate
+   */
+  public UniqueListStore getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * ルールで使用する識別子を取得.
+   * ※ユニークリストを使用するルールの識別子のみ対象とする
+   * @param rules ルールのリスト
+   * @return 識別子のセット
+   */
+  public static Set<String> getUniqueIds(Collection<MaskingRule> rules) {
+    Set<String> ret = new LinkedHashSet<>();
+    if (rules != null) {
+      for (MaskingRule rule : rules) {
+        if (rule != null && rule.useUniqueList()) {
+          ret.add(normalizeId(rule.getUniqueId()));
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * DBのユニークリストから指定した識別子の登録内容を読み込む.
+   * ・識別子ごとに前方参照のみのカーソルで順に読み込む
+   * ・メモリ上限を超えた識別子は読み込みを中止して都度問い合わせる
+   * ※PostgreSQLなどは自動コミットを解除しておかないとフェッチサイズが効かず全件を一度に取得する
+   * @param conn DBコネクション
+   * @param ids 識別子のリスト
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public void preload(Connection conn, Collection<String> ids) throws SQLException {
+
+    if (conn == null || conn.isClosed() || ids == null) {
+      return;
+    }
+    StringBuilder sql;
+    sql = new StringBuilder();
+    sql.append("SELECT")
+        .append(" input_val, output_val")
+        .append(" FROM sys_unique_list")
+        .append(" WHERE id = ?");
+    synchronized (conn) {
+      try (PreparedStatement stmt = conn.prepareStatement(sql.toString(),
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        stmt.setFetchSize(FETCH_SIZE);
+        for (String id : new LinkedHashSet<>(ids)) {
+          String key = normalizeId(id);
+          evict(key);
+          fallbackIds.remove(key);
+          Cache cache = new Cache();
+          boolean complete = true;
+          stmt.setString(1, id);
+          try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+              if (!cache.put(rs.getString("input_val"), rs.getString("output_val"))) {
+                complete = false;
+                break;
+              }
+            }
+          }
+          if (complete) {
+            caches.put(key, cache);
+          } else {
+            // メモリ上限を超えたので都度問い合わせにする
+            memoryUsage.addAndGet(-cache.bytes);
+            fallbackIds.add(key);
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ・読み込み済の識別子はメモリ上のみで判定する
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public String getRegisteredUniqueVal(String id, String val) throws SQLException {
+
+    if (val == null) {
+      return null;
+    }
+    Cache cache = caches.get(normalizeId(id));
+    if (cache == null) {
+      return delegate.getRegisteredUniqueVal(id, val);
+    }
+    synchronized (cache) {
+      return cache.inputs.get(val);
+    }
+
+  }
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * ・読み込み済の識別子はメモリ上のみで判定する
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean isExistsInUniqueList(String id, String val) throws SQLException {
+
+    if (val == null) {
+      return false;
+    }
+    Cache cache = caches.get(normalizeId(id));
+    if (cache == null) {
+      return delegate.isExistsInUniqueList(id, val);
+    }
+    synchronized (cache) {
+      return cache.outputs.contains(val);
+    }
+
+  }
+
+  /**
+   * ユニークリストに登録する.
+   * ・元の格納先に登録し、読み込み済の識別子はメモリ上にも反映する
+   * ※メモリ上限を超えた場合はその識別子を都度問い合わせに切り替える
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean addUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    boolean ret = delegate.addUniqueList(id, inputVal, outputVal);
+    if (inputVal == null || outputVal == null) {
+      return ret;
+    }
+    String key = normalizeId(id);
+    Cache cache = caches.get(key);
+    if (cache != null) {
+      boolean within;
+      synchronized (cache) {
+        // 登録失敗(重複)の場合も格納先には存在するのでOUTPUTは反映する
+        within = ret ? cache.put(inputVal, outputVal) : cache.putOutput(outputVal);
+      }
+      if (!within && caches.remove(key, cache)) {
+        memoryUsage.addAndGet(-cache.bytes);
+        fallbackIds.add(key);
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   * ・元の格納先を初期化し、読み込み済の内容も破棄する
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void clear() throws SQLException {
+    delegate.clear();
+    caches.clear();
+    fallbackIds.clear();
+    memoryUsage.set(0);
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 受け取る処理でのエラー
+   */
+  @Override
+  public void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+    delegate.forEachEntry(consumer);
+  }
+
+  /**
+   * スナップショットから登録内容を読み込む.
+   * ・元の格納先に読み込み、読み込み済の内容は破棄する
+   * ※必要に応じて再度preload()すること
+   * @param reader スナップショットの読み込み
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 読み込み時のエラー
+   */
+  @Override
+  public void loadSnapshot(UniqueListSnapshot.Reader reader) throws SQLException, IOException {
+    try {
+      delegate.loadSnapshot(reader);
+    } finally {
+      for (String key : caches.keySet()) {
+        evict(key);
+      }
+    }
+  }
+
+  /**
+   * 未反映の登録内容を元の格納先に反映する.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void flush() throws SQLException {
+    delegate.flush();
+  }
+
+  /**
+   * 元の格納先の使用を終了する.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+    delegate.close();
+  }
+
+  /**
+   * 識別子が読み込み済かどうか.
+   * @param id 識別子(カラム名とは限らず)
+   * @return true=読み込み済, false=都度問い合わせ
+   */
+  public boolean isPreloaded(String id) {
+    return caches.containsKey(normalizeId(id));
+  }
+
+  /**
+   * メモリ上限を超えて都度問い合わせに切り替えた識別子を取得.
+   * @return 識別子のセット
+   */
+  public Set<String> getFallbackIds() {
+    return new HashSet<>(fallbackIds);
+  }
+
+  /**
+   * 読み込んだ内容の使用メモリ(バイト数の見積り)を取得.
+   * @return 全識別子のバイト数
+   */
+  public long getMemoryUsage() {
+    return memoryUsage.get();
+  }
+
+  /**
+   * 識別子のnullを空文字に揃える.
+   * @param id 識別子
+   * @return 正規化した識別子
+   */
+  private static String normalizeId(String id) {
+    return (id == null) ? "" : id;
+  }
+
+  /**
+   * 読み込み済の内容を破棄する.
+   * @param key 識別子
+   */
+  private void evict(String key) {
+    Cache cache = caches.remove(key);
+    if (cache != null) {
+      memoryUsage.addAndGet(-cache.bytes);
+    }
+  }
+
+  /**
+   * 識別子ごとの読み込み済の内容.
+   */
+  private class Cache {
+
+    /**
+     * INPUT → OUTPUT のマッピング.
+     */
+    private final Map<String, String> inputs = new HashMap<>();
+
+    /**
+     * 登録済のOUTPUT.
+     */
+    private final Set<String> outputs = new HashSet<>();
+
+    /**
+     * この識別子の使用メモリ(バイト数の見積り).
+     */
+    private long bytes;
+
+    /**
+     * 登録内容を追加する.
+     * @param inputVal 入力値
+     * @param outputVal 出力値
+     * @return true=メモリ上限内, false=メモリ上限超過
+     */
+    boolean put(String inputVal, String outputVal) {
+      if (outputVal == null) {
+        return true;
+      }
+      if (inputVal != null) {
+        // 同じINPUTは最初に登録されたものを優先する
+        inputs.putIfAbsent(inputVal, outputVal);
+      }
+      outputs.add(outputVal);
+      return reserve(ENTRY_OVERHEAD
+          + 2L * (outputVal.length() + ((inputVal == null) ? 0 : inputVal.length())));
+    }
+
+    /**
+     * OUTPUTのみ追加する.
+     * @param outputVal 出力値
+     * @return true=メモリ上限内, false=メモリ上限超過
+     */
+    boolean putOutput(String outputVal) {
+      if (!outputs.add(outputVal)) {
+        return true;
+      }
+      return reserve(ENTRY_OVERHEAD / 2 + 2L * outputVal.length());
+    }
+
+    private boolean reserve(long size) {
+      bytes += size;
+      return memoryUsage.addAndGet(size) <= memoryBudget;
+    }
+
+  }
+
+}
@@ -5,10 +5,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * 住所のランダム生成クラス.
@@ -20,6 +21,7 @@ import java.util.regex.Pattern;
  * <tr><td>isUniqueValue</td><td>生成した値を一意にするかどうか(NULL以外)</td></tr>
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
  * <tr><td>uniqueId</td><td>決定論的/一意制管理の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>addrFormat</td><td>住所生成時に返却する配列フォーマット(カンマ区切り) ※デフォルトは下記<br>
  * [0] %zip        郵便番号<br>
  * [1] %pref       都道府県<br>
@@ -63,9 +65,32 @@ import java.util.regex.Pattern;
 public class RandomAddressGenerator implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+
+  /**
+   * 番地の枠数(1～4枠)の重み付き抽選用.
+   */
+  private static final WeightedSampler BANCHI_COUNT_SAMPLER =
+      new WeightedSampler(new int[] {2, 7, 10, 5});
+
+  /**
+   * 番地をマスクする際にマスクしない文字(区切り文字)のパターン.
+   */
+  private static final Pattern STREET_UNMASKED_CHAR_PATTERN =
+      Pattern.compile("[-－ ]", Pattern.CASE_INSENSITIVE);
+
+  /**
+   * 番地をマスクする際にランダム生成しない文字のパターン.
+   */
+  private static final Pattern STREET_NO_GEN_CHAR_PATTERN = Pattern.compile("[0０「」]");
+
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
   private long maxSeq = -1;
 
+  /**
+   * 直前に使用した連番カラム名のSQL.
+   */
+  private volatile SelectSql selectSql;
+
   /**
    * このマスク処理でテータベースを使用するかどうか.
    * @return true=使用する, false=使用しない
@@ -80,7 +105,7 @@ public class RandomAddressGenerator implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -88,7 +113,35 @@ public class RandomAddressGenerator implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -126,7 +179,7 @@ public class RandomAddressGenerator implements DataMask {
 
     String[] ret = null;
 
-    if (rule.isDeterministicReplace()) {
+    if (rule.isDeterministicReplace() && rule.useUniqueList()) {
       // 既登録の結果を使用する場合
       String buff = (String) getRegisteredUniqueVal(rule.getUniqueId(), String.join("<>", addr));
       if (buff != null) {
@@ -138,24 +191,28 @@ public class RandomAddressGenerator implements DataMask {
       // 新規生成
       boolean isValid = false;
       int retryCount = 0;
-      while (!isValid) {
-        ret = generate(addr, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue()
-            || !isExistsInUniqueList(rule.getUniqueId(), String.join("<>", ret))) {
-          isValid = true;
-          if (ret != null && (rule.isUniqueValue() || rule.isDeterministicReplace())) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
-            // ※リストに追加失敗した場合は再抽選
-            isValid = addUniqueList(
-                rule.getUniqueId(), String.join("<>", addr), String.join("<>", ret));
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
+      // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+      try (RandomScope scope =
+          MaskingUtil.bindDeterministicRandom(rule, String.join("<>", addr))) {
+        while (!isValid) {
+          ret = generate(addr, rule);
+          // ユニークでないとならない場合は生成結果のチェック
+          if (!rule.isUniqueValue()
+              || !isExistsInUniqueList(rule.getUniqueId(), String.join("<>", ret))) {
+            isValid = true;
+            if (ret != null && rule.useUniqueList()) {
+              // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+              // ※リストに追加失敗した場合は再抽選
+              isValid = addUniqueList(
+                  rule.getUniqueId(), String.join("<>", addr), String.join("<>", ret));
+              if (!isValid) {
+                retryCount++;
+              }
+              if (retryCount > RETRY_MAX) {
+                // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+                throw new SQLIntegrityConstraintViolationException(
+                    String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
+              }
             }
           }
         }
@@ -190,16 +247,12 @@ public class RandomAddressGenerator implements DataMask {
       return src;
     }
 
-    StringBuilder sql;
+    SelectSql sql = getSelectSql(rule);
 
     synchronized (this) {
       if (maxSeq < 0) {
         // 初回は最大値を取得
-        sql = new StringBuilder();
-        sql.append("SELECT")
-            .append(" MAX(").append(rule.getSelectListSeqNoColName()).append(") AS maxseq")
-            .append(" FROM m_postal_code");
-        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+        try (PreparedStatement stmt = uniqueList.getStatementCache().prepare(sql.maxSeq)) {
           try (ResultSet rs = stmt.executeQuery()) {
             if (rs.next()) {
               maxSeq = rs.getLong("maxseq");
@@ -215,11 +268,7 @@ public class RandomAddressGenerator implements DataMask {
     }
 
     // 住所テーブルからデータ取得
-    sql = new StringBuilder();
-    sql.append("SELECT * FROM m_postal_code WHERE ")
-      .append(rule.getSelectListSeqNoColName()).append(" = ?");
-
-    try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+    try (PreparedStatement stmt = uniqueList.getStatementCache().prepare(sql.select)) {
       // 取得する連番をランダム数値から指定する
       long tarNo = MaskingUtil.getRandomNumber(0, maxSeq);
       stmt.setLong(1, tarNo);
@@ -235,49 +284,17 @@ public class RandomAddressGenerator implements DataMask {
             addrBuff = addrBuff.replaceAll("%zip", rs.getString("zip").replaceAll("-", ""));
           }
           // 都道府県カナ
-          kana = rs.getString("ken_furi");
-          if (rule.useUpperCaseKana()) {
-            // カナ小文字を大文字にする
-            kana = MaskingUtil.toUpperWideKana(kana);
-          }
-          if (rule.useHalfKana()) {
-            // カナを半角カナにする
-            kana = MaskingUtil.wideKanaToHalfKana(kana);
-          } else if (!rule.useWideKana()) {
-            // カナをひらがなにする
-            kana = MaskingUtil.wideKanaToHiragana(kana);
-          }
+          kana = getKanaConverter(rule, false).convert(rs.getString("ken_furi"));
           addrBuff = addrBuff.replaceAll("%prefKana", kana);
           // 市区町村カナ
-          kana = rs.getString("city_furi");
-          if (rule.useUpperCaseKana()) {
-            // カナ小文字を大文字にする
-            kana = MaskingUtil.toUpperWideKana(kana);
-          }
-          if (rule.useHalfKana()) {
-            // カナを半角カナにする
-            kana = MaskingUtil.wideKanaToHalfKana(Normalizer.normalize(kana, Form.NFKC));
-          } else if (!rule.useWideKana()) {
-            // カナをひらがなにする
-            kana = MaskingUtil.wideKanaToHiragana(kana);
-          }
+          kana = getKanaConverter(rule, true).convert(rs.getString("city_furi"));
           addrBuff = addrBuff.replaceAll("%cityKana", kana);
           // 町域カナ
           kana = rs.getString("town_furi");
           if (kana != null && rs.getString("block_furi") != null) {
             kana = kana.concat(rs.getString("block_furi"));
           }
-          if (rule.useUpperCaseKana()) {
-            // カナ小文字を大文字にする
-            kana = MaskingUtil.toUpperWideKana(kana);
-          }
-          if (rule.useHalfKana()) {
-            // カナを半角カナにする
-            kana = MaskingUtil.wideKanaToHalfKana(Normalizer.normalize(kana, Form.NFKC));
-          } else if (!rule.useWideKana()) {
-            // カナをひらがなにする
-            kana = MaskingUtil.wideKanaToHiragana(kana);
-          }
+          kana = getKanaConverter(rule, true).convert(kana);
           addrBuff = addrBuff.replaceAll("%townKana", kana);
           // 都道府県
           addrBuff = addrBuff.replaceAll("%pref", rs.getString("ken_name"));
@@ -311,7 +328,7 @@ public class RandomAddressGenerator implements DataMask {
     String streetKana = "";
     if (rule.useBanchiGenerate()) {
       // 重み付きランダムで1～4枠用意
-      int count = MaskingUtil.getRandomIndex(new int[] {2, 7, 10, 5}) + 1;
+      int count = BANCHI_COUNT_SAMPLER.next() + 1;
       String[] buff = new String[count];
       // 後ろの枠ほど桁が大きくなるように生成
       int[][] maxTable = {{5000}, {10, 1000}, {10, 12, 12}, {10, 12, 12, 999}};
@@ -333,8 +350,8 @@ public class RandomAddressGenerator implements DataMask {
           // 番地カナは元の値をマスク
           if (i < addr.length) {
             MaskingRule streetRule = new MaskingRule(rule);
-            streetRule.setUnmaksedChar("[-－ ]");
-            streetRule.setRandomNoGenCharPattern(Pattern.compile("[0０「」]"));
+            streetRule.setUnmaksedCharPattern(STREET_UNMASKED_CHAR_PATTERN);
+            streetRule.setRandomNoGenCharPattern(STREET_NO_GEN_CHAR_PATTERN);
             ret[i] = RandomTextReplacer.replace(addr[i], streetRule);
           } else {
             ret[i] = "";
@@ -349,8 +366,8 @@ public class RandomAddressGenerator implements DataMask {
           // 番地は元の値をマスク
           if (i < addr.length) {
             MaskingRule streetRule = new MaskingRule(rule);
-            streetRule.setUnmaksedChar("[-－ ]");
-            streetRule.setRandomNoGenCharPattern(Pattern.compile("[0０「」]"));
+            streetRule.setUnmaksedCharPattern(STREET_UNMASKED_CHAR_PATTERN);
+            streetRule.setRandomNoGenCharPattern(STREET_NO_GEN_CHAR_PATTERN);
             ret[i] = RandomTextReplacer.replace(addr[i], streetRule);
           } else {
             ret[i] = "";
@@ -373,11 +390,14 @@ public class RandomAddressGenerator implements DataMask {
         if (rule.getShiftOverflowStrings() != null && rule.getShiftOverflowStrings().length > i) {
           isShiftOverflow = rule.getShiftOverflowStrings()[i];
         }
-        if (byteCount > 0) {
-          String[] buff = MaskingUtil.splitBySjisBytes(ret[i], byteCount);
-          ret[i] = buff[0];
-          if (isShiftOverflow && buff[1] != null && i < ret.length - 1) {
-            ret[i + 1] = buff[1].concat((ret[i + 1] != null) ? ret[i + 1] : "");
+        if (byteCount > 0 && ret[i] != null) {
+          int end = MaskingUtil.getSjisByteEndIndex(ret[i], byteCount);
+          if (end < ret[i].length()) {
+            // 溢れた分は次の項目の先頭に送る
+            if (isShiftOverflow && i < ret.length - 1) {
+              ret[i + 1] = ret[i].substring(end).concat((ret[i + 1] != null) ? ret[i + 1] : "");
+            }
+            ret[i] = ret[i].substring(0, end);
           }
         }
       }
@@ -388,4 +408,63 @@ public class RandomAddressGenerator implements DataMask {
 
   }
 
+  /**
+   * フリガナ(全角カナ)の変換クラスを取得.
+   * ・大文字化、半角カナ化またはひらがな化を1回の走査で行う
+   * @param rule マスク化ルール
+   * @param useNormalize 半角カナ化の前にUnicode正規化(NFKC)するかどうか
+   * @return 変換クラス
+   */
+  private static KanaConverter getKanaConverter(MaskingRule rule, boolean useNormalize) {
+    List<KanaConverter.Step> steps = new ArrayList<>();
+    if (rule.useUpperCaseKana()) {
+      // カナ小文字を大文字にする
+      steps.add(KanaConverter.Step.UPPER_WIDE_KANA);
+    }
+    if (rule.useHalfKana()) {
+      // カナを半角カナにする
+      if (useNormalize) {
+        steps.add(KanaConverter.Step.NORMALIZE);
+      }
+      steps.add(KanaConverter.Step.WIDE_KANA_TO_HALF_KANA);
+    } else if (!rule.useWideKana()) {
+      // カナをひらがなにする
+      steps.add(KanaConverter.Step.WIDE_KANA_TO_HIRAGANA);
+    }
+    return KanaConverter.of(steps.toArray(new KanaConverter.Step[0]));
+  }
+
+  /**
+   * 連番カラム名に対応するSQLを取得.
+   * ※連番カラム名が直前と同じ場合は作成済のものを使い回す
+   * @param rule マスク化ルール
+   * @return SQL
+   */
+  private SelectSql getSelectSql(MaskingRule rule) {
+    String seqNoColName = rule.getSelectListSeqNoColName();
+    SelectSql ret = selectSql;
+    if (ret == null || !ret.seqNoColName.equals(seqNoColName)) {
+      ret = new SelectSql(seqNoColName);
+      selectSql = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * 住所テーブルから取得するSQL.
+   */
+  private static final class SelectSql {
+
+    private final String seqNoColName;
+    private final String maxSeq;
+    private final String select;
+
+    SelectSql(String seqNoColName) {
+      this.seqNoColName = seqNoColName;
+      this.maxSeq = "SELECT MAX(" + seqNoColName + ") AS maxseq FROM m_postal_code";
+      this.select = "SELECT * FROM m_postal_code WHERE " + seqNoColName + " = ?";
+    }
+
+  }
+
 }
@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * データのランダム選択クラス.
@@ -12,6 +13,9 @@ import java.sql.SQLException;
  * <caption>利用可能なマスキングルール</caption>
  * <tr><th>プロパティ</th><th>説明</th></tr>
  * <tr><td>isNullReplace</td><td>元値がNullの場合でも置換するかどうか</td></tr>
+ * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※deterministicKeyと合わせて指定した場合のみ有効</td></tr>
+ * <tr><td>uniqueId</td><td>決定論的置換の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※キーと入力値から決まる乱数で選択する</td></tr>
  * <tr><td>ignoreValuePattern</td><td>対象外にする値のパターン(正規表現) ※マッチした場合は元の値そのまま返却</td></tr>
  * <tr><td>selectListTableName</td><td>データ選択リストの対象テーブル名</td></tr>
  * <tr><td>selectListColName</td><td>データ選択リストの対象カラム名</td></tr>
@@ -21,8 +25,14 @@ import java.sql.SQLException;
 public class RandomDataPickup implements DataMask {
 
   private Connection conn;
+  private StatementCache statements;
   private long maxSeq = -1;
 
+  /**
+   * 直前に使用したテーブル名・カラム名のSQL.
+   */
+  private volatile SelectSql selectSql;
+
   /**
    * このマスク処理でテータベースを使用するかどうか.
    * @return true=使用する, false=使用しない
@@ -45,7 +55,31 @@ public class RandomDataPickup implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
+    StatementCache.closeQuietly(statements);
     this.conn = conn;
+    this.statements = (conn == null) ? null : new StatementCache(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    if (statements != null) {
+      statements.close();
+    }
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを取得.
+   * @return キャッシュ
+   */
+  private StatementCache getStatementCache() {
+    if (statements == null) {
+      throw new IllegalArgumentException("DBコネクションを指定してください。");
+    }
+    return statements;
   }
 
   /**
@@ -82,14 +116,10 @@ public class RandomDataPickup implements DataMask {
           "データ選択リストの対象カラム名 selectListColName が指定されていません。");
     }
 
-    StringBuilder sql;
+    SelectSql sql = getSelectSql(rule);
     if (maxSeq < 0) {
       // 初回は最大値を取得
-      sql = new StringBuilder();
-      sql.append("SELECT")
-        .append(" MAX(").append(rule.getSelectListSeqNoColName()).append(") AS maxseq")
-        .append(" FROM ").append(rule.getSelectListTableName());
-      try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+      try (PreparedStatement stmt = getStatementCache().prepare(sql.maxSeq)) {
         try (ResultSet rs = stmt.executeQuery()) {
           if (rs.next()) {
             maxSeq = rs.getLong("maxseq");
@@ -104,18 +134,16 @@ public class RandomDataPickup implements DataMask {
     }
 
     // 対象テーブルからデータ取得
-    sql = new StringBuilder();
-    sql.append("SELECT ")
-      .append(rule.getSelectListColName())
-      .append(" FROM ").append(rule.getSelectListTableName())
-      .append(" WHERE ")
-      .append(rule.getSelectListSeqNoColName()).append(" = ?");
-
     Object ret = null;
 
-    try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+    try (PreparedStatement stmt = getStatementCache().prepare(sql.select)) {
       // 取得する連番をランダム数値から指定する
-      long tarNo = MaskingUtil.getRandomNumber(0, maxSeq);
+      // ※キーによる決定論的置換の場合は入力値から決まる乱数で選択する
+      long tarNo;
+      try (RandomScope scope =
+          MaskingUtil.bindDeterministicRandom(rule, (src == null) ? null : src.toString())) {
+        tarNo = MaskingUtil.getRandomNumber(0, maxSeq);
+      }
       stmt.setLong(1, tarNo);
       // 1件取得する
       try (ResultSet rs = stmt.executeQuery()) {
@@ -130,4 +158,46 @@ public class RandomDataPickup implements DataMask {
 
   }
 
+  /**
+   * テーブル名・カラム名に対応するSQLを取得.
+   * ※テーブル名・カラム名が直前と同じ場合は作成済のものを使い回す
+   * @param rule マスク化ルール
+   * @return SQL
+   */
+  private SelectSql getSelectSql(MaskingRule rule) {
+    SelectSql ret = selectSql;
+    if (ret == null || !ret.isSameTarget(rule)) {
+      ret = new SelectSql(rule);
+      selectSql = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * 対象テーブルから取得するSQL.
+   */
+  private static final class SelectSql {
+
+    private final String tableName;
+    private final String colName;
+    private final String seqNoColName;
+    private final String maxSeq;
+    private final String select;
+
+    SelectSql(MaskingRule rule) {
+      this.tableName = rule.getSelectListTableName();
+      this.colName = rule.getSelectListColName();
+      this.seqNoColName = rule.getSelectListSeqNoColName();
+      this.maxSeq = "SELECT MAX(" + seqNoColName + ") AS maxseq FROM " + tableName;
+      this.select = "SELECT " + colName + " FROM " + tableName + " WHERE " + seqNoColName + " = ?";
+    }
+
+    boolean isSameTarget(MaskingRule rule) {
+      return tableName.equals(rule.getSelectListTableName())
+          && colName.equals(rule.getSelectListColName())
+          && seqNoColName.equals(rule.getSelectListSeqNoColName());
+    }
+
+  }
+
 }
@@ -1,11 +1,13 @@
 package net.utsuro.mask;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * 日付のランダム生成クラス.
@@ -15,6 +17,7 @@ import java.util.regex.Pattern;
  * <tr><th>プロパティ</th><th>説明</th></tr>
  * <tr><td>isUniqueValue</td><td>生成した値を一意にするかどうか(NULL以外)</td></tr>
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>nullReplace</td><td>元値がNullの場合でも置換するかどうか</td></tr>
  * <tr><td>invalidDateReplace</td><td>元値が不正日付の場合でも置換するかどうか</td></tr>
  * <tr><td>ignoreValuePattern</td><td>対象外にする値のパターン(正規表現) ※マッチした場合は元の値そのまま返却</td></tr>
@@ -27,7 +30,7 @@ import java.util.regex.Pattern;
 public class RandomDateGenerator implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
 
   /**
    * このマスク処理でテータベースを使用するかどうか.
@@ -35,7 +38,7 @@ public class RandomDateGenerator implements DataMask {
    */
   @Override
   public boolean useDatabase(MaskingRule rule) {
-    return (rule.isUniqueValue() || rule.isDeterministicReplace());
+    return rule.useUniqueList();
   }
 
   /**
@@ -43,7 +46,7 @@ public class RandomDateGenerator implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -51,7 +54,35 @@ public class RandomDateGenerator implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -63,7 +94,20 @@ public class RandomDateGenerator implements DataMask {
    */
   @Override
   public Object execute(Object src, MaskingRule rule) throws Exception {
+    return executeCompiled(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールでランダム生成日付に置換する.
+   * @param src 置換したい文字列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 置換後の日付
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule compiled) throws Exception {
 
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || (!rule.isNullReplace() && src == null)) {
       // ルールが無い場合、null置換無しで引き渡された値がnullの場合はそのまま返却
       return src;
@@ -71,8 +115,7 @@ public class RandomDateGenerator implements DataMask {
 
     LocalDateTime dt = null;
     String dtStr = null;
-    MaskingRule tempRule = new MaskingRule(rule);
-    tempRule.setToClassName(LocalDateTime.class.getName());
+    CompiledRule tempRule = compiled.withToClassName(LocalDateTime.class.getName());
 
     if (src != null) {
       if (src.getClass() != LocalDateTime.class) {
@@ -97,44 +140,59 @@ public class RandomDateGenerator implements DataMask {
     }
 
     LocalDateTime ret = null;
-    String retStr = null;
-
-    if (dtStr != null && rule.isDeterministicReplace()) {
-      // 既登録の結果を使用する場合
-      retStr = (String) getRegisteredUniqueVal(rule.getUniqueId(), dtStr);
-      if (retStr != null) {
-        try {
-          // LocalDateTimeに統一する
-          ret = (LocalDateTime) TypeConverter.convert(retStr, tempRule);
-        } catch (IllegalArgumentException | java.time.DateTimeException e) {
-          // 引き渡されたオブジェクトが日付や日付に変換可能な値でない場合はそのまま返却
-          return retStr;
-        }
-      }
-    }
-
-    if (ret == null) {
-      // 新規生成
-      boolean isValid = false;
-      int retryCount = 0;
+    boolean isValid = false;
+    int retryCount = 0;
+    // 値空間が小さい場合は使用状況を追跡し、埋まってきたら未使用の値から抽選する
+    UniqueValueSampler sampler = (rule.useUniqueList())
+        ? uniqueList.getSamplers().get(rule.getUniqueId(), getValueSpace(dt, rule)) : null;
+    // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+    try (RandomScope scope = MaskingUtil.bindDeterministicRandom(rule, dtStr)) {
       while (!isValid) {
-        ret = generate(dt, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret.toString())) {
+        boolean isDrawn = (sampler != null && sampler.isSaturated());
+        ret = (isDrawn) ? LocalDateTime.parse(sampler.next()) : generate(dt, rule);
+        if (dtStr != null && rule.isDeterministicReplace() && rule.useUniqueList()) {
+          // 一貫性が必要な場合は既登録の結果の取得と生成結果の登録をまとめて行う
+          // ※既登録の結果があればそれを使用し、生成結果が重複して登録できない場合は再抽選
+          String retStr = addOrGetUniqueList(rule.getUniqueId(), dtStr, ret.toString());
+          if (sampler != null) {
+            sampler.record(ret.toString(), retStr, isDrawn);
+          }
+          isValid = (retStr != null);
+          if (isValid && !retStr.equals(ret.toString())) {
+            try {
+              // LocalDateTimeに統一する
+              ret = (LocalDateTime) TypeConverter.convert(retStr, tempRule);
+            } catch (IllegalArgumentException | java.time.DateTimeException e) {
+              // 引き渡されたオブジェクトが日付や日付に変換可能な値でない場合はそのまま返却
+              return retStr;
+            }
+          }
+        } else if (!rule.isUniqueValue()
+            || !isExistsInUniqueList(rule.getUniqueId(), ret.toString())) {
+          // ユニークでないとならない場合は生成結果のチェック
           isValid = true;
-          if (rule.isUniqueValue() || rule.isDeterministicReplace()) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+          if (rule.useUniqueList()) {
+            // ユニーク性が必要な場合はユニークリストに追加
             // ※リストに追加失敗した場合は再抽選
             isValid = addUniqueList(rule.getUniqueId(), dtStr, ret.toString());
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
-            }
           }
+          if (sampler != null) {
+            sampler.record(ret.toString(), (isValid) ? ret.toString() : null, isDrawn);
+          }
+        } else {
+          // 生成結果が登録済の場合は再抽選
+          if (sampler != null) {
+            sampler.record(ret.toString(), null, isDrawn);
+          }
+          continue;
+        }
+        if (!isValid) {
+          retryCount++;
+        }
+        if (retryCount > RETRY_MAX) {
+          // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+          throw new SQLIntegrityConstraintViolationException(
+              String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
         }
       }
     }
@@ -168,6 +226,22 @@ public class RandomDateGenerator implements DataMask {
     }
 
     // 最小値・最大値の設定
+    LocalDateTime[] range = getRange(dt, rule);
+
+    // 乱数生成して返す
+    return MaskingUtil.getRandomDate(range[0], range[1]);
+
+  }
+
+  /**
+   * 生成する日付の最小値・最大値を求める.
+   * ・期間指定がある場合は元値を基準に計算する
+   * @param dt 元値
+   * @param rule マスク化ルール
+   * @return 最小値・最大値
+   */
+  private static LocalDateTime[] getRange(LocalDateTime dt, MaskingRule rule) {
+
     LocalDateTime min = rule.getMinDate();
     LocalDateTime max = rule.getMaxDate();
 
@@ -214,9 +288,29 @@ public class RandomDateGenerator implements DataMask {
       // 最大値指定なしは最大日時
       max = LocalDateTime.parse("9999-12-31T23:59:59");
     }
+    return new LocalDateTime[] {min, max};
 
-    // 乱数生成して返す
-    return MaskingUtil.getRandomDate(min, max);
+  }
+
+  /**
+   * 生成する日付が取りうる値空間を取得する.
+   * @param src 元値
+   * @param rule マスク化ルール
+   * @return 値空間、元の値のまま返す場合はnull
+   */
+  static UniqueValueSpace getValueSpace(LocalDateTime src, MaskingRule rule) {
+
+    if (rule == null || (!rule.isNullReplace() && src == null)
+        || (src != null && rule.getIgnoreValuePattern() != null
+            && rule.getIgnoreValuePattern().matcher(src.toString()).find())) {
+      return null;
+    }
+    LocalDateTime dt = (src != null) ? src : LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+    LocalDateTime[] range = getRange(dt, rule);
+    if (range[1].isBefore(range[0])) {
+      return null;
+    }
+    return UniqueValueSpace.ofDays(range[0], range[1]);
 
   }
 
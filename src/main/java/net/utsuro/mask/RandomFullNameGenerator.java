@@ -5,9 +5,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * 氏名のランダム生成クラス.
@@ -19,6 +20,7 @@ import java.util.Arrays;
  * <tr><td>isUniqueValue</td><td>生成した値を一意にするかどうか(NULL以外)</td></tr>
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
  * <tr><td>uniqueId</td><td>決定論的/一意制管理の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>fullNameFormat</td><td>個人名生成時に返却する配列フォーマット(カンマ区切り) ※デフォルトは下記<br>
  * [0] %lastNameKanji %firstNameKanji 氏名漢字<br>
  * [1] %lastNameKana %firstNameKana   氏名カナ</td></tr>
@@ -35,10 +37,15 @@ import java.util.Arrays;
 public class RandomFullNameGenerator implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
   private long lastNameMaxSeq = -1;
   private long firstNameMaxSeq = -1;
 
+  /**
+   * 直前に使用した連番カラム名のSQL.
+   */
+  private volatile SelectSql selectSql;
+
   /**
    * このマスク処理でテータベースを使用するかどうか.
    * @return true=使用する, false=使用しない
@@ -53,7 +60,7 @@ public class RandomFullNameGenerator implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -61,7 +68,35 @@ public class RandomFullNameGenerator implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -99,7 +134,7 @@ public class RandomFullNameGenerator implements DataMask {
 
     String[] ret = null;
 
-    if (rule.isDeterministicReplace()) {
+    if (rule.isDeterministicReplace() && rule.useUniqueList()) {
       // 既登録の結果を使用する場合
       String buff = (String) getRegisteredUniqueVal(rule.getUniqueId(), String.join("<>", names));
       if (buff != null) {
@@ -111,24 +146,28 @@ public class RandomFullNameGenerator implements DataMask {
       // 新規生成
       boolean isValid = false;
       int retryCount = 0;
-      while (!isValid) {
-        ret = generate(names, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue()
-            || !isExistsInUniqueList(rule.getUniqueId(), String.join("<>", ret))) {
-          isValid = true;
-          if (ret != null && (rule.isUniqueValue() || rule.isDeterministicReplace())) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
-            // ※リストに追加失敗した場合は再抽選
-            isValid = addUniqueList(
-                rule.getUniqueId(), String.join("<>", names), String.join("<>", ret));
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
+      // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+      try (RandomScope scope =
+          MaskingUtil.bindDeterministicRandom(rule, String.join("<>", names))) {
+        while (!isValid) {
+          ret = generate(names, rule);
+          // ユニークでないとならない場合は生成結果のチェック
+          if (!rule.isUniqueValue()
+              || !isExistsInUniqueList(rule.getUniqueId(), String.join("<>", ret))) {
+            isValid = true;
+            if (ret != null && rule.useUniqueList()) {
+              // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+              // ※リストに追加失敗した場合は再抽選
+              isValid = addUniqueList(
+                  rule.getUniqueId(), String.join("<>", names), String.join("<>", ret));
+              if (!isValid) {
+                retryCount++;
+              }
+              if (retryCount > RETRY_MAX) {
+                // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+                throw new SQLIntegrityConstraintViolationException(
+                    String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
+              }
             }
           }
         }
@@ -158,21 +197,12 @@ public class RandomFullNameGenerator implements DataMask {
       return src;
     }
 
-    StringBuilder sql;
+    SelectSql sql = getSelectSql(rule);
 
     synchronized (this) {
       if (lastNameMaxSeq < 0) {
         // 初回は最大値を取得
-        sql = new StringBuilder();
-        sql.append("SELECT")
-            .append(" MAX(CASE WHEN name_type = 'LAST_NAME' THEN ")
-            .append(rule.getSelectListSeqNoColName())
-            .append(" ELSE -1 END) AS sei_maxseq")
-            .append(",MAX(CASE WHEN name_type = 'FIRST_NAME' THEN ")
-            .append(rule.getSelectListSeqNoColName())
-            .append(" ELSE -1 END) AS mei_maxseq")
-            .append(" FROM m_jinmei");
-        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+        try (PreparedStatement stmt = uniqueList.getStatementCache().prepare(sql.maxSeq)) {
           try (ResultSet rs = stmt.executeQuery()) {
             if (rs.next()) {
               lastNameMaxSeq = rs.getLong("sei_maxseq");
@@ -189,18 +219,9 @@ public class RandomFullNameGenerator implements DataMask {
     }
 
     // 人名テーブルからデータ取得
-    sql = new StringBuilder();
-    sql.append("SELECT")
-      .append(" name_type, kanji, yomi")
-      .append(" FROM m_jinmei")
-      .append(" WHERE (name_type = 'LAST_NAME' AND ")
-      .append(rule.getSelectListSeqNoColName()).append(" = ?)")
-      .append(" OR (name_type = 'FIRST_NAME' AND ")
-      .append(rule.getSelectListSeqNoColName()).append(" = ?)");
-
     boolean isExists = false;
 
-    try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+    try (PreparedStatement stmt = uniqueList.getStatementCache().prepare(sql.select)) {
       // 取得する連番をランダム数値から指定する
       long tarLastNameNo = MaskingUtil.getRandomNumber(0, lastNameMaxSeq);
       long tarFirstNameNo = MaskingUtil.getRandomNumber(0, firstNameMaxSeq);
@@ -210,19 +231,7 @@ public class RandomFullNameGenerator implements DataMask {
       try (ResultSet rs = stmt.executeQuery()) {
         while (rs.next()) {
           isExists = true;
-          String kana = rs.getString("yomi");
-          if (rule.useUpperCaseKana()) {
-            // カナ小文字を大文字にする
-            kana = MaskingUtil.toUpperHiragana(kana);
-          }
-          if (rule.useWideKana() || rule.useHalfKana()) {
-            // カナを全角カナにする
-            kana = MaskingUtil.hiraganaToWideKana(kana);
-            if (rule.useHalfKana()) {
-              // カナを半角カナにする
-              kana = MaskingUtil.wideKanaToHalfKana(Normalizer.normalize(kana, Form.NFKC));
-            }
-          }
+          String kana = getKanaConverter(rule).convert(rs.getString("yomi"));
           if ("LAST_NAME".equals(rs.getString("name_type"))) {
             namesBuff = namesBuff.replaceAll("%lastNameKanji", rs.getString("kanji"));
             namesBuff = namesBuff.replaceAll("%lastNameKana", kana);
@@ -245,4 +254,70 @@ public class RandomFullNameGenerator implements DataMask {
 
   }
 
+  /**
+   * よみ(ひらがな)の変換クラスを取得.
+   * ・大文字化、全角カナ化・半角カナ化を1回の走査で行う
+   * @param rule マスク化ルール
+   * @return 変換クラス
+   */
+  private static KanaConverter getKanaConverter(MaskingRule rule) {
+    List<KanaConverter.Step> steps = new ArrayList<>();
+    if (rule.useUpperCaseKana()) {
+      // カナ小文字を大文字にする
+      steps.add(KanaConverter.Step.UPPER_HIRAGANA);
+    }
+    if (rule.useWideKana() || rule.useHalfKana()) {
+      // カナを全角カナにする
+      steps.add(KanaConverter.Step.HIRAGANA_TO_WIDE_KANA);
+      if (rule.useHalfKana()) {
+        // カナを半角カナにする
+        steps.add(KanaConverter.Step.NORMALIZE);
+        steps.add(KanaConverter.Step.WIDE_KANA_TO_HALF_KANA);
+      }
+    }
+    return KanaConverter.of(steps.toArray(new KanaConverter.Step[0]));
+  }
+
+  /**
+   * 連番カラム名に対応するSQLを取得.
+   * ※連番カラム名が直前と同じ場合は作成済のものを使い回す
+   * @param rule マスク化ルール
+   * @return SQL
+   */
+  private SelectSql getSelectSql(MaskingRule rule) {
+    String seqNoColName = rule.getSelectListSeqNoColName();
+    SelectSql ret = selectSql;
+    if (ret == null || !ret.seqNoColName.equals(seqNoColName)) {
+      ret = new SelectSql(seqNoColName);
+      selectSql = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * 人名テーブルから取得するSQL.
+   */
+  private static final class SelectSql {
+
+    private final String seqNoColName;
+    private final String maxSeq;
+    private final String select;
+
+    SelectSql(String seqNoColName) {
+      this.seqNoColName = seqNoColName;
+      this.maxSeq = "SELECT"
+          + " MAX(CASE WHEN name_type = 'LAST_NAME' THEN " + seqNoColName
+          + " ELSE -1 END) AS sei_maxseq"
+          + ",MAX(CASE WHEN name_type = 'FIRST_NAME' THEN " + seqNoColName
+          + " ELSE -1 END) AS mei_maxseq"
+          + " FROM m_jinmei";
+      this.select = "SELECT"
+          + " name_type, kanji, yomi"
+          + " FROM m_jinmei"
+          + " WHERE (name_type = 'LAST_NAME' AND " + seqNoColName + " = ?)"
+          + " OR (name_type = 'FIRST_NAME' AND " + seqNoColName + " = ?)";
+    }
+
+  }
+
 }
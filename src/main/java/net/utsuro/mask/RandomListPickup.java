@@ -1,5 +1,7 @@
 package net.utsuro.mask;
 
+import net.utsuro.mask.MaskingUtil.RandomScope;
+
 /**
  * リストのランダム選択クラス.
  *
@@ -7,15 +9,15 @@ package net.utsuro.mask;
  * <caption>利用可能なマスキングルール</caption>
  * <tr><th>プロパティ</th><th>説明</th></tr>
  * <tr><td>isNullReplace</td><td>元値がNullの場合でも置換するかどうか</td></tr>
+ * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※deterministicKeyと合わせて指定した場合のみ有効</td></tr>
+ * <tr><td>uniqueId</td><td>決定論的置換の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※キーと入力値から決まる乱数で選択する</td></tr>
  * <tr><td>pickupList</td><td>ピックアップリスト</td></tr>
  * <tr><td>pickupWeights</td><td>ピックアップリストの重み(確率)</td></tr>
  * </table>
  */
 public class RandomListPickup implements DataMask {
 
-  private int[] weights = null;
-  private int totalWeight = 0;
-
   /**
    * ランダムにリストから選択して置換する.
    * @param src 置換したい文字列
@@ -31,28 +33,65 @@ public class RandomListPickup implements DataMask {
       return src;
     }
 
-    int pickupListCount = (rule.getPickupList() == null) ? 0 : rule.getPickupList().length;
-    int weightsCount = (rule.getPickupWeights() == null) ? 0 : rule.getPickupWeights().length;
-
-    if (pickupListCount == 0) {
+    // 重み付き抽選用の別名表はルールごとに1回だけ作成して使い回す
+    WeightedSampler sampler = rule.getPickupSampler();
+    if (sampler == null) {
       // リストが設定されていない場合はそのまま返却
       return src;
     }
 
-    if (weights == null) {
-      // 未作成のときは重みリストの作成と重み合計値の計算
-      weights = new int[pickupListCount];
-      for (int i = 0; i < pickupListCount; i++) {
-        // 重み指定がまったく無い場合は一律1をセット、足りない場合は0をセット
-        weights[i] = (weightsCount == 0) ? 1 : ((i < weightsCount) ? rule.getPickupWeights()[i] : 0);
-        totalWeight += weights[i];
-      }
-    }
-
     // 重み付きランダム取得のインデックスからリスト値を選択して返却
-    int idx = MaskingUtil.getRandomIndex(weights, totalWeight);
+    // ※キーによる決定論的置換の場合は入力値から決まる乱数で選択する
+    int idx;
+    try (RandomScope scope =
+        MaskingUtil.bindDeterministicRandom(rule, (src == null) ? null : src.toString())) {
+      idx = sampler.next();
+    }
     return rule.getPickupList()[idx];
 
   }
 
+  /**
+   * 複数の値をまとめてランダムにリストから選択して置換する.
+   * ※重み付き抽選用の別名表の取得、決定論的置換かどうかの判定はまとめて1回だけ行う
+   * @param in 置換したい値の配列
+   * @param inOff 対象データの開始位置
+   * @param out 置換後の値の格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param compiled 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff, int len,
+      CompiledRule compiled) throws Exception {
+
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
+    WeightedSampler sampler = (rule == null) ? null : rule.getPickupSampler();
+    if (sampler == null) {
+      // ルールが無い場合、リストが設定されていない場合はそのまま返却
+      System.arraycopy(in, inOff, out, outOff, len);
+      return;
+    }
+
+    boolean isNullReplace = rule.isNullReplace();
+    boolean useDeterministicKey = rule.useDeterministicKey();
+    Object[] list = rule.getPickupList();
+    for (int i = 0; i < len; i++) {
+      Object src = in[inOff + i];
+      if (!isNullReplace && src == null) {
+        // null置換無しで引き渡された値がnullの場合はそのまま返却
+        out[outOff + i] = src;
+      } else if (useDeterministicKey && src != null) {
+        // キーによる決定論的置換の場合は入力値から決まる乱数で選択する
+        try (RandomScope scope = MaskingUtil.bindDeterministicRandom(rule, src.toString())) {
+          out[outOff + i] = list[sampler.next()];
+        }
+      } else {
+        out[outOff + i] = list[sampler.next()];
+      }
+    }
+
+  }
+
 }
@@ -1,11 +1,12 @@
 package net.utsuro.mask;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Pattern;
 
 import net.utsuro.mask.MaskingUtil.CharType;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * メールアドレスのランダム置換クラス.
@@ -16,6 +17,7 @@ import net.utsuro.mask.MaskingUtil.CharType;
  * <tr><td>isUniqueValue</td><td>生成した値を一意にするかどうか(NULL以外)</td></tr>
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
  * <tr><td>uniqueId</td><td>決定論的/一意制管理の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>ignoreValuePattern</td><td>対象外にする値のパターン(正規表現) ※マッチした場合は元の値そのまま返却</td></tr>
  * <tr><td>DomainReplacement</td><td>メールアドレス生成時のドメイン名</td></tr>
  * <tr><td>randomNoGenCharPattern</td><td>ランダム生成しない文字パターン(正規表現) ※記号はOKでもカンマとかクォートはNGとか自動生成パスワードのlとIやOと0は見分けが付きにくいから除外とか</td></tr>
@@ -25,7 +27,7 @@ import net.utsuro.mask.MaskingUtil.CharType;
 public class RandomMailAddrReplacer implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
 
   /**
    * ランダム生成用のトップ・セカンドレベルドメインリスト.
@@ -36,13 +38,26 @@ public class RandomMailAddrReplacer implements DataMask {
       ".net"
   };
 
+  /**
+   * 不正なメールアドレスをランダム文字列置換する際にマスクしない文字(記号)のパターン.
+   */
+  private static final Pattern SPECIAL_CHAR_PATTERN = Pattern.compile(
+      String.format("[%%%s]+", Pattern.quote(String.join("", MaskingUtil.SPECIAL_CHARACTER))),
+      Pattern.CASE_INSENSITIVE);
+
+  /**
+   * メールアドレス形式のパターン.
+   */
+  private static final Pattern MAIL_ADDRESS_PATTERN = Pattern.compile(
+      "^[a-zA-Z0-9_+-]+(.[a-zA-Z0-9_+-]+)*@([a-zA-Z0-9][a-zA-Z0-9-]*[a-zA-Z0-9]*\\.)+[a-zA-Z]{2,}$");
+
   /**
    * このマスク処理でテータベースを使用するかどうか.
    * @return true=使用する, false=使用しない
    */
   @Override
   public boolean useDatabase(MaskingRule rule) {
-    return (rule.isUniqueValue() || rule.isDeterministicReplace());
+    return rule.useUniqueList();
   }
 
   /**
@@ -50,7 +65,7 @@ public class RandomMailAddrReplacer implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -58,7 +73,35 @@ public class RandomMailAddrReplacer implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -86,34 +129,39 @@ public class RandomMailAddrReplacer implements DataMask {
     }
 
     String ret = null;
-
-    if (rule.isDeterministicReplace()) {
-      // 既登録の結果を使用する場合
-      ret = (String) getRegisteredUniqueVal(rule.getUniqueId(), tarStr);
-    }
-
-    if (ret == null) {
-      // 新規生成
-      boolean isValid = false;
-      int retryCount = 0;
+    boolean isValid = false;
+    int retryCount = 0;
+    // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+    try (RandomScope scope = MaskingUtil.bindDeterministicRandom(rule, tarStr)) {
       while (!isValid) {
         ret = replace(tarStr, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+        if (rule.isDeterministicReplace() && rule.useUniqueList()) {
+          // 一貫性が必要な場合は既登録の結果の取得と生成結果の登録をまとめて行う
+          // ※既登録の結果があればそれを使用し、生成結果が重複して登録できない場合は再抽選
+          String registered = addOrGetUniqueList(rule.getUniqueId(), tarStr, ret);
+          isValid = (registered != null);
+          if (isValid) {
+            ret = registered;
+          }
+        } else if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+          // ユニークでないとならない場合は生成結果のチェック
           isValid = true;
-          if (rule.isUniqueValue() || rule.isDeterministicReplace()) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+          if (rule.useUniqueList()) {
+            // ユニーク性が必要な場合はユニークリストに追加
             // ※リストに追加失敗した場合は再抽選
             isValid = addUniqueList(rule.getUniqueId(), tarStr, ret);
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
-            }
           }
+        } else {
+          // 生成結果が登録済の場合は再抽選
+          continue;
+        }
+        if (!isValid) {
+          retryCount++;
+        }
+        if (retryCount > RETRY_MAX) {
+          // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+          throw new SQLIntegrityConstraintViolationException(
+              String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
         }
       }
     }
@@ -150,13 +198,12 @@ public class RandomMailAddrReplacer implements DataMask {
     }
 
     String base = src.trim();
-    String[] c = base.split("");
-    int len = c.length;
+    int len = base.codePointCount(0, base.length());
     boolean isValidAddr = false;
 
     String domain;
 
-    if (src.matches("^[a-zA-Z0-9_+-]+(.[a-zA-Z0-9_+-]+)*@([a-zA-Z0-9][a-zA-Z0-9-]*[a-zA-Z0-9]*\\.)+[a-zA-Z]{2,}$")) {
+    if (MAIL_ADDRESS_PATTERN.matcher(src).matches()) {
       // 元の値がメールアドレス形式かどうか
       isValidAddr = true;
     }
@@ -164,7 +211,7 @@ public class RandomMailAddrReplacer implements DataMask {
     if (!isValidAddr && !rule.isInvalidMailAddressReplace()) {
       // 不正なメールアドレスの場合に置換しないときはランダム文字列置換する
       MaskingRule textRepRule = new MaskingRule(rule);
-      textRepRule.setUnmaksedChar(String.format("[%%%s]+", Pattern.quote(String.join("", MaskingUtil.SPECIAL_CHARACTER))));
+      textRepRule.setUnmaksedCharPattern(SPECIAL_CHAR_PATTERN);
       return RandomTextReplacer.replace(src, textRepRule);
     }
 
@@ -175,7 +222,7 @@ public class RandomMailAddrReplacer implements DataMask {
           .append(rule.getDomainReplacement()).toString();
     } else {
       // トップレベルドメインのランダム選択
-      int idx = ThreadLocalRandom.current().nextInt(TOPSEC_DOMAIN.length);
+      int idx = MaskingUtil.getRandom().nextInt(TOPSEC_DOMAIN.length);
       domain = TOPSEC_DOMAIN[idx];
       // 元のドメイン名の長さでランダム生成
       int domainLen = len - Math.max(base.indexOf("@"), 0) - domain.length() - 1;
@@ -195,12 +242,9 @@ public class RandomMailAddrReplacer implements DataMask {
       sb.append(MaskingUtil.getRandomString(1,
           CharType.LOWER_ALPHA, rule.getRandomNoGenCharPattern()));
     } else {
-      // 1文字ずつ入れ替え
-      for (int i = 0; i < len; i++) {
-        // 選択したトップレベルドメイン分以外をランダム生成英字に差し替えする
-        sb.append(MaskingUtil.getRandomString(1,
-            CharType.LOWER_ALPHA, rule.getRandomNoGenCharPattern()));
-      }
+      // 選択したトップレベルドメイン分以外をランダム生成英字に差し替えする
+      MaskingUtil.appendRandomString(sb, len,
+          CharType.LOWER_ALPHA, rule.getRandomNoGenCharPattern());
     }
 
     // ドメイン名を付与して返却
@@ -2,6 +2,8 @@ package net.utsuro.mask;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 数値のランダム生成クラス.
@@ -17,6 +19,16 @@ import java.math.BigInteger;
  */
 public class RandomNumGenerator implements DataMask {
 
+  /**
+   * 最大値指定なしの場合に乱数の範囲を覚えておく桁数の上限.
+   */
+  private static final int PRECISION_CACHE_MAX = 40;
+
+  /**
+   * 数値の文字列のパターン.
+   */
+  private static final Pattern DECIMAL_PATTERN = Pattern.compile("-?\\d+(\\.\\d+)?");
+
   /**
    * ランダム生成数値に置換する.
    * @param src 置換したい文字列
@@ -32,10 +44,95 @@ public class RandomNumGenerator implements DataMask {
       return src;
     }
 
+    // null置換ありで引き渡された値がnullの場合はゼロとして扱う
+    BigDecimal num = (src == null) ? BigDecimal.ZERO : toDecimal(src);
+    if (num == null) {
+      // 引き渡されたオブジェクトが数値でない場合はそのまま返却
+      return src;
+    }
+
+    return generate(num, rule);
+
+  }
+
+  /**
+   * 複数の値をまとめてランダム生成数値に置換する.
+   * ・最小値・最大値からの乱数の範囲はまとめて1回だけ求める(最大値指定なしは桁数ごと)
+   * ・除外値パターンの判定は使い回す
+   * @param in 置換したい値の配列
+   * @param inOff 対象データの開始位置
+   * @param out 置換後の数値の格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param compiled 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff, int len,
+      CompiledRule compiled) throws Exception {
+
+    if (compiled == null) {
+      // ルールが無い場合はそのまま返却
+      System.arraycopy(in, inOff, out, outOff, len);
+      return;
+    }
+
+    MaskingRule rule = compiled.getRule();
+
+    boolean isNullReplace = rule.isNullReplace();
+    Matcher ignoreValueMatcher = (rule.getIgnoreValuePattern() == null)
+        ? null : rule.getIgnoreValuePattern().matcher("");
+    BigDecimal min = (rule.getMinDecimalValue() == null)
+        ? BigDecimal.ZERO : rule.getMinDecimalValue();
+    NumberRange fixedRange = (rule.getMaxDecimalValue() == null)
+        ? null : new NumberRange(min, rule.getMaxDecimalValue());
+    NumberRange[] rangeByPrecision = new NumberRange[PRECISION_CACHE_MAX];
+
+    for (int i = 0; i < len; i++) {
+      Object src = in[inOff + i];
+      if (!isNullReplace && src == null) {
+        // null置換無しで引き渡された値がnullの場合はそのまま返却
+        out[outOff + i] = src;
+        continue;
+      }
+      // null置換ありで引き渡された値がnullの場合はゼロとして扱う
+      BigDecimal num = (src == null) ? BigDecimal.ZERO : toDecimal(src);
+      if (num == null) {
+        // 引き渡されたオブジェクトが数値でない場合はそのまま返却
+        out[outOff + i] = src;
+        continue;
+      }
+      if (ignoreValueMatcher != null && ignoreValueMatcher.reset(num.toString()).find()) {
+        // 除外値パターンにマッチした場合はそのまま返す
+        out[outOff + i] = num;
+        continue;
+      }
+      NumberRange range = fixedRange;
+      if (range == null) {
+        // 最大値指定なしは今の値の桁数の最大値 (ex: 123 → 999)
+        int precision = num.precision();
+        range = (precision < rangeByPrecision.length) ? rangeByPrecision[precision] : null;
+        if (range == null) {
+          range = new NumberRange(min, BigDecimal.TEN.pow(precision).subtract(BigDecimal.ONE));
+          if (precision < rangeByPrecision.length) {
+            rangeByPrecision[precision] = range;
+          }
+        }
+      }
+      out[outOff + i] = range.next();
+    }
+
+  }
+
+  /**
+   * 数値に変換する.
+   * @param src 変換したい値
+   * @return 数値、数値でない場合はnull
+   */
+  private static BigDecimal toDecimal(Object src) {
+
     BigDecimal num;
-    if (rule.isNullReplace() && src == null) {
-      num = BigDecimal.ZERO;
-    } else if (src instanceof Long) {
+    if (src instanceof Long) {
       num = BigDecimal.valueOf((Long) src);
     } else if (src instanceof Integer) {
       num = BigDecimal.valueOf((Integer) src);
@@ -48,14 +145,12 @@ public class RandomNumGenerator implements DataMask {
       num = new BigDecimal((BigInteger) src);
     } else if (src instanceof BigDecimal) {
       num = (BigDecimal) src;
-    } else if ((src instanceof String) && ((String) src).matches("-?\\d+(\\.\\d+)?")) {
+    } else if ((src instanceof String) && DECIMAL_PATTERN.matcher((String) src).matches()) {
       num = new BigDecimal((String) src);
     } else {
-      // 引き渡されたオブジェクトが数値でない場合はそのまま返却
-      return src;
+      num = null;
     }
-
-    return generate(num, rule);
+    return num;
 
   }
 
@@ -100,4 +195,40 @@ public class RandomNumGenerator implements DataMask {
 
   }
 
+  /**
+   * 最小値・最大値から求めた乱数の範囲.
+   * ※MaskingUtil.getRandomNumber(BigDecimal, BigDecimal)と同じ手順で、桁数のシフトを事前に行う
+   */
+  private static final class NumberRange {
+
+    private final BigDecimal p;
+    private final BigInteger biMin;
+    private final BigInteger biMax;
+    private final boolean isLong;
+
+    NumberRange(BigDecimal min, BigDecimal max) {
+      // 小数点以下の桁数分シフト
+      p = BigDecimal.TEN.pow(Math.max(min.scale(), max.scale()));
+      biMin = min.multiply(p).toBigInteger();
+      biMax = max.multiply(p).toBigInteger();
+      isLong = biMin.bitLength() < Long.SIZE && biMax.bitLength() < Long.SIZE;
+    }
+
+    /**
+     * 範囲内の乱数を生成.
+     * @return 生成した数値
+     */
+    BigDecimal next() {
+      BigDecimal ret;
+      if (isLong) {
+        ret = BigDecimal.valueOf(MaskingUtil.getRandomNumber(biMin.longValue(), biMax.longValue()));
+      } else {
+        ret = new BigDecimal(MaskingUtil.getRandomNumber(biMin, biMax));
+      }
+      // 小数点以下の桁数分シフトして返却
+      return ret.divide(p);
+    }
+
+  }
+
 }
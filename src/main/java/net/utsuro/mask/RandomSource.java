@@ -0,0 +1,68 @@
+package net.utsuro.mask;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * マスク処理で使用する乱数の供給元インターフェース.
+ * ・MaskingUtil.setRandomSource()で指定し、各マスク処理はMaskingUtil.getRandom()経由で使用する
+ * ・get()は呼び出したスレッド専用の乱数を返すこと(スレッド間で共有すると競合するため)
+ * ※キーによる決定論的置換中はスレッドに割り当てた乱数が優先される
+ */
+@FunctionalInterface
+public interface RandomSource {
+
+  /**
+   * 呼び出したスレッド用の乱数を取得.
+   * @return 乱数生成用のインスタンス
+   */
+  public Random get();
+
+  /**
+   * スレッドごとの高速な乱数(ThreadLocalRandom)を使用する.
+   * ※デフォルト。スレッド間でロックの競合が無い
+   * @return 乱数の供給元
+   */
+  public static RandomSource fast() {
+    return ThreadLocalRandom::current;
+  }
+
+  /**
+   * スレッドごとの暗号論的乱数(SecureRandom)を使用する.
+   * ・出力値から乱数列を推測されたくない場合に使用する
+   * ※スレッドごとにDRBGを生成するため、共有のSecureRandomのようなロックの競合は無い
+   * @return 乱数の供給元
+   */
+  public static RandomSource secure() {
+    ThreadLocal<Random> random = ThreadLocal.withInitial(() -> {
+      try {
+        return SecureRandom.getInstance("DRBG");
+      } catch (NoSuchAlgorithmException e) {
+        return new SecureRandom();
+      }
+    });
+    return random::get;
+  }
+
+  /**
+   * 乱数の種を指定した再現可能な乱数を使用する.
+   * ・スレッドごとに種から分岐した乱数列(SplitMix64)を割り当てる
+   * ・1スレッドで処理する場合、同じ種・同じ入力なら実行ごとに同じ結果になる
+   * ※複数スレッドの場合は、スレッドが最初に乱数を使用した順に乱数列が割り当てられる
+   * @param seed 乱数の種
+   * @return 乱数の供給元
+   */
+  public static RandomSource seeded(long seed) {
+    SplittableRandom root = new SplittableRandom(seed);
+    ThreadLocal<Random> random = ThreadLocal.withInitial(() -> {
+      synchronized (root) {
+        return new KeyedRandom(root.nextLong());
+      }
+    });
+    return random::get;
+  }
+
+}
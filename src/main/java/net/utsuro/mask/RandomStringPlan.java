@@ -0,0 +1,415 @@
+package net.utsuro.mask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import net.utsuro.mask.MaskingUtil.CharType;
+
+/**
+ * MaskingUtil.getRandomString()の文字種・生成しない文字パターンごとの生成方法.
+ * ・文字種の分解、対象文字の一覧、文字種ごとの抽選率、SJIS換算byte数を事前に求めておく
+ * ・生成しない文字は一覧から除いておくため、生成時に正規表現で判定しない
+ * ・作成後は変更しないため、複数スレッドで共有できる
+ * ※文字種・生成しない文字パターンごとにキャッシュして使い回す
+ */
+final class RandomStringPlan {
+
+  /**
+   * キャッシュする件数の上限(超えた場合は破棄して作り直す).
+   */
+  private static final int CACHE_MAX = 1000;
+
+  private static final Map<Key, RandomStringPlan> CACHE = new ConcurrentHashMap<>();
+
+  /**
+   * 抽選率付きの文字種(漢字、ひらがな、全角英小文字…の順に抽選する).
+   */
+  private final Source[] sources;
+
+  /**
+   * 上記で決まらなかった場合の対象文字の一覧(半角英数記号・全角記号).
+   */
+  private final Source list;
+
+  /**
+   * 1byteの文字を生成するかどうか.
+   */
+  private final boolean useHalfChar;
+
+  /**
+   * 文字種・生成しない文字パターンに対応する生成方法を取得.
+   * @param charType 文字種
+   * @param noGenPattern 生成しない文字パターン(正規表現)
+   * @return 生成方法
+   */
+  static RandomStringPlan of(EnumSet<CharType> charType, Pattern noGenPattern) {
+    Key key = new Key(charType, noGenPattern);
+    RandomStringPlan ret = CACHE.get(key);
+    if (ret == null) {
+      // 呼び出し元の文字種を書き換えないようにコピーしてから作成する
+      key = new Key(EnumSet.copyOf(charType), noGenPattern);
+      ret = new RandomStringPlan(
+          MaskingUtil.charTypeNormalize(EnumSet.copyOf(charType)), noGenPattern);
+      if (CACHE.size() >= CACHE_MAX) {
+        CACHE.clear();
+      }
+      CACHE.put(key, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * コンストラクタ.
+   * @param tarType 分解済の文字種
+   * @param noGenPattern 生成しない文字パターン(正規表現)
+   */
+  private RandomStringPlan(EnumSet<CharType> tarType, Pattern noGenPattern) {
+
+    List<Source> buff = new ArrayList<>();
+    // 漢字込みのとき30%は漢字範囲から生成
+    addSource(buff, tarType, CharType.KANJI, 30, Source.ofChars(
+        MaskingUtil.SJIS_KANJI_LEVEL1, MaskingUtil.SJIS_KANJI_OTHER, noGenPattern));
+    // ひらがな込みのとき90%はひらがなから生成
+    addSource(buff, tarType, CharType.HIRAGANA, 90, Source.ofKana(
+        MaskingUtil.HIRAGANA_CHARACTER, MaskingUtil.HIRAGANA_RATIO, 1, noGenPattern));
+    // 全角英小文字・全角英大文字・全角数字込みのとき10%はそれぞれから生成
+    addSource(buff, tarType, CharType.WIDE_LOWER_ALPHA, 10,
+        Source.ofChars(MaskingUtil.SJIS_WIDE_LOWER_ALPHA, null, noGenPattern));
+    addSource(buff, tarType, CharType.WIDE_UPPER_ALPHA, 10,
+        Source.ofChars(MaskingUtil.SJIS_WIDE_UPPER_ALPHA, null, noGenPattern));
+    addSource(buff, tarType, CharType.WIDE_NUMBER, 10,
+        Source.ofChars(MaskingUtil.SJIS_WIDE_NUMBER, null, noGenPattern));
+    // 全角カタカナ・半角カタカナ込みのとき10%はそれぞれから生成
+    addSource(buff, tarType, CharType.WIDE_KANA, 10,
+        Source.ofKana(toStrings(MaskingUtil.SJIS_WIDE_KANA), null, 2, noGenPattern));
+    addSource(buff, tarType, CharType.HALF_KANA, 10, Source.ofKana(
+        MaskingUtil.HKANA_CHARACTER, MaskingUtil.HKANA_RATIO, 3, noGenPattern));
+    this.sources = buff.toArray(new Source[0]);
+
+    // 対象文字の一覧
+    StringBuilder sb = new StringBuilder();
+    if (tarType.contains(CharType.LOWER_ALPHA)) {
+      sb.append(String.join("", MaskingUtil.LOWER_ALPHA_CHARACTER));
+    }
+    if (tarType.contains(CharType.UPPER_ALPHA)) {
+      sb.append(String.join("", MaskingUtil.UPPER_ALPHA_CHARACTER));
+    }
+    if (tarType.contains(CharType.NUMBER)) {
+      sb.append(String.join("", MaskingUtil.NUMBER_CHARACTER));
+    }
+    if (tarType.contains(CharType.SPECIAL)) {
+      sb.append(String.join("", MaskingUtil.SPECIAL_CHARACTER));
+    }
+    if (tarType.contains(CharType.WIDE_SPECIAL)) {
+      sb.append(String.join("", MaskingUtil.WSPECIAL_CHARACTER));
+    }
+    this.list = Source.ofChars(sb.toString().toCharArray(), null, noGenPattern);
+
+    boolean half = (list != null && list.hasHalfChar());
+    for (Source src : sources) {
+      half |= src.hasHalfChar();
+    }
+    this.useHalfChar = half;
+
+  }
+
+  /**
+   * 文字種が含まれていれば抽選対象に追加する.
+   * @param buff 抽選対象
+   * @param tarType 分解済の文字種
+   * @param type 追加する文字種
+   * @param rate 抽選率(%)
+   * @param src 文字種の文字(生成しない文字を除いて残らなかった場合はnull)
+   */
+  private static void addSource(
+      List<Source> buff, EnumSet<CharType> tarType, CharType type, int rate, Source src) {
+    if (src == null || !tarType.contains(type)) {
+      return;
+    }
+    // その文字種のみの場合は必ず選ぶ
+    src.rate = (tarType.size() == 1) ? 100 : rate;
+    buff.add(src);
+  }
+
+  /**
+   * ランダムな文字列を生成する.
+   * @param sjisLen 生成する文字列のSJIS換算byte数
+   * @return 生成した文字列
+   */
+  String generate(int sjisLen) {
+    StringBuilder sb = new StringBuilder(sjisLen);
+    generate(sb, sjisLen);
+    return sb.toString();
+  }
+
+  /**
+   * ランダムな文字列を生成して出力先に追加する.
+   * ※かなの前後関係は追加した部分の中だけで判定する
+   * @param sb 出力先
+   * @param sjisLen 生成する文字列のSJIS換算byte数
+   */
+  void generate(StringBuilder sb, int sjisLen) {
+
+    if ((sources.length == 0 && list == null) || (!useHalfChar && sjisLen < 2)) {
+      // 生成できる文字が無い場合はブランクで返す
+      // 全角文字のみなのに2byte未満の指定は組み立てが無駄なのでブランクで返す
+      return;
+    }
+
+    Random random = MaskingUtil.getRandom();
+    int start = sb.length();
+    int i = 0;
+    while (i < sjisLen) {
+      Source src = select(random);
+      if (src == null) {
+        // ここまで決まらなかったら再抽選
+        continue;
+      }
+      int idx;
+      if (src.kanaSamplers != null) {
+        // かなは前の文字の後に来られる文字(捨て仮名や「ン」の組み合わせを考慮)からのみ抽選する
+        WeightedSampler sampler = src.kanaSamplers[
+            Source.stateKey(MaskingUtil.getKanaState(sb, start), src.kanaGroup)];
+        if (sampler == null) {
+          // 来られる文字が無い場合は再抽選
+          continue;
+        }
+        idx = sampler.next(random);
+      } else {
+        idx = MaskingUtil.nextInt(random, src.chars.length);
+      }
+      int plen = src.widths[idx];
+      if (i + plen <= sjisLen) {
+        if (src.chars != null) {
+          sb.append(src.chars[idx]);
+        } else {
+          sb.append(src.strings[idx]);
+        }
+        i += plen;
+      }
+      if (!useHalfChar && (sjisLen - i) == 1) {
+        // 全角文字のみなのに残り1byteになってしまった場合は強制終了
+        break;
+      }
+    }
+
+  }
+
+  /**
+   * 抽選率に従って生成元の文字種を選ぶ.
+   * @param random 乱数生成用のインスタンス
+   * @return 生成元、決まらなかった場合はnull
+   */
+  private Source select(Random random) {
+    for (Source src : sources) {
+      if (src.rate >= 100 || MaskingUtil.nextInt(random, 100) < src.rate) {
+        return src;
+      }
+    }
+    return list;
+  }
+
+  private static String[] toStrings(char[] chars) {
+    String[] ret = new String[chars.length];
+    for (int i = 0; i < chars.length; i++) {
+      ret[i] = String.valueOf(chars[i]);
+    }
+    return ret;
+  }
+
+  /**
+   * 文字種ごとの生成元.
+   */
+  private static final class Source {
+
+    /**
+     * 前の文字の状態の種類数(行頭、小文字の後、拗音にできる文字の後の組み合わせ).
+     */
+    private static final int STATE_COUNT = 8;
+
+    /**
+     * 対象文字(1文字ずつの場合).
+     */
+    private final char[] chars;
+
+    /**
+     * 対象文字(かな。濁点付きの半角カナ等、2文字以上を含む).
+     */
+    private final String[] strings;
+
+    /**
+     * 対象文字ごとのSJIS換算byte数.
+     */
+    private final byte[] widths;
+
+    /**
+     * かなの前の文字の状態ごとの重み付き抽選用(来られる文字が無い状態はnull、かな以外はnull).
+     */
+    private final WeightedSampler[] kanaSamplers;
+
+    /**
+     * かなの種別(1=ひらがな, 2=全角カナ, 3=半角カナ).
+     */
+    private final int kanaGroup;
+
+    /**
+     * 1byteの文字を生成するかどうか.
+     */
+    private final boolean half;
+
+    /**
+     * 抽選率(%、100は必ず選ぶ).
+     */
+    private int rate = 100;
+
+    private Source(char[] chars, String[] strings, int[] weights, int kanaGroup) {
+      this.chars = chars;
+      this.strings = strings;
+      this.kanaGroup = kanaGroup;
+      int len = (chars != null) ? chars.length : strings.length;
+      this.widths = new byte[len];
+      boolean hasHalf = false;
+      for (int i = 0; i < len; i++) {
+        widths[i] = (byte) ((chars != null)
+            ? MaskingUtil.getSjisByteCount(chars[i]) : MaskingUtil.getSjisByteCount(strings[i]));
+        hasHalf |= (widths[i] == 1 && (weights == null || weights[i] > 0));
+      }
+      this.half = hasHalf;
+      if (weights == null) {
+        this.kanaSamplers = null;
+        return;
+      }
+      // 前の文字の状態ごとに、後に来られない文字の重みを0にした抽選用を作成
+      this.kanaSamplers = new WeightedSampler[STATE_COUNT];
+      for (int key = 0; key < STATE_COUNT; key++) {
+        int state = stateOf(key, kanaGroup);
+        int[] w = new int[len];
+        int total = 0;
+        for (int i = 0; i < len; i++) {
+          if (!MaskingUtil.isInvalidNextLetter(state, strings[i])) {
+            w[i] = weights[i];
+            total += w[i];
+          }
+        }
+        kanaSamplers[key] = (total > 0) ? new WeightedSampler(w) : null;
+      }
+    }
+
+    /**
+     * 一様に抽選する生成元を作成.
+     * @param chars 対象文字
+     * @param more 対象文字(続き)
+     * @param noGenPattern 生成しない文字パターン(正規表現)
+     * @return 生成元、対象文字が残らなかった場合はnull
+     */
+    static Source ofChars(char[] chars, char[] more, Pattern noGenPattern) {
+      int len = chars.length + ((more != null) ? more.length : 0);
+      char[] buff = new char[len];
+      int count = 0;
+      for (int i = 0; i < len; i++) {
+        char c = (i < chars.length) ? chars[i] : more[i - chars.length];
+        if (noGenPattern == null || !noGenPattern.matcher(String.valueOf(c)).find()) {
+          buff[count++] = c;
+        }
+      }
+      if (count == 0) {
+        return null;
+      }
+      char[] ret = (count == len) ? buff : Arrays.copyOf(buff, count);
+      return new Source(ret, null, null, 0);
+    }
+
+    /**
+     * 重み付きで抽選する生成元(かな)を作成.
+     * @param strings 対象文字
+     * @param weights 重み(一様に抽選する場合はnull)
+     * @param kanaGroup かなの種別(1=ひらがな, 2=全角カナ, 3=半角カナ)
+     * @param noGenPattern 生成しない文字パターン(正規表現)
+     * @return 生成元、対象文字が残らなかった場合はnull
+     */
+    static Source ofKana(String[] strings, int[] weights, int kanaGroup, Pattern noGenPattern) {
+      int[] w = new int[strings.length];
+      int total = 0;
+      for (int i = 0; i < strings.length; i++) {
+        if (noGenPattern != null && noGenPattern.matcher(strings[i]).find()) {
+          // 生成しない文字は重み0にする
+          continue;
+        }
+        w[i] = (weights != null) ? weights[i] : 1;
+        total += w[i];
+      }
+      if (total == 0) {
+        return null;
+      }
+      return new Source(null, strings, w, kanaGroup);
+    }
+
+    /**
+     * 前の文字の状態から、かなの種別に関係する部分だけを取り出した番号を求める.
+     * @param state 前の文字の状態
+     * @param kanaGroup かなの種別
+     * @return 番号(1=行頭, 2=小文字の後, 4=拗音にできる文字の後 の組み合わせ)
+     */
+    static int stateKey(int state, int kanaGroup) {
+      if ((state & MaskingUtil.KANA_START) != 0) {
+        return 1;
+      }
+      return ((state >> (1 + (kanaGroup - 1) * 2)) & 3) << 1;
+    }
+
+    /**
+     * 番号に対応する前の文字の状態を求める(stateKey()の逆).
+     * @param key 番号
+     * @param kanaGroup かなの種別
+     * @return 前の文字の状態
+     */
+    private static int stateOf(int key, int kanaGroup) {
+      int ret = ((key >> 1) & 3) << (1 + (kanaGroup - 1) * 2);
+      return ((key & 1) != 0) ? (ret | MaskingUtil.KANA_START) : ret;
+    }
+
+    boolean hasHalfChar() {
+      return half;
+    }
+
+  }
+
+  /**
+   * キャッシュのキー(文字種、生成しない文字パターン).
+   */
+  private static final class Key {
+
+    private final EnumSet<CharType> charType;
+    private final String pattern;
+    private final int flags;
+
+    Key(EnumSet<CharType> charType, Pattern noGenPattern) {
+      this.charType = charType;
+      this.pattern = (noGenPattern != null) ? noGenPattern.pattern() : null;
+      this.flags = (noGenPattern != null) ? noGenPattern.flags() : 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) obj;
+      return charType.equals(that.charType) && flags == that.flags
+          && Objects.equals(pattern, that.pattern);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(charType, pattern, flags);
+    }
+
+  }
+
+}
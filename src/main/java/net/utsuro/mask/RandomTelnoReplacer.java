@@ -1,9 +1,11 @@
 package net.utsuro.mask;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.regex.Pattern;
 import net.utsuro.mask.MaskingUtil.CharType;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * 電話番号のランダム生成クラス.
@@ -14,6 +16,7 @@ import net.utsuro.mask.MaskingUtil.CharType;
  * <tr><td>isUniqueValue</td><td>生成した値を一意にするかどうか(NULL以外)</td></tr>
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
  * <tr><td>uniqueId</td><td>決定論的/一意制管理の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>ignoreValuePattern</td><td>対象外にする値のパターン(正規表現) ※マッチした場合は元の値そのまま返却</td></tr>
  * <tr><td>randomNoGenCharPattern</td><td>ランダム生成しない文字パターン(正規表現) ※記号はOKでもカンマとかクォートはNGとか自動生成パスワードのlとIやOと0は見分けが付きにくいから除外とか</td></tr>
  * </table>
@@ -21,7 +24,13 @@ import net.utsuro.mask.MaskingUtil.CharType;
 public class RandomTelnoReplacer implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+
+  /**
+   * 電話番号の区切り文字のパターン.
+   */
+  private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[-\\(\\)]");
+
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
 
   /**
    * このマスク処理でテータベースを使用するかどうか.
@@ -29,7 +38,7 @@ public class RandomTelnoReplacer implements DataMask {
    */
   @Override
   public boolean useDatabase(MaskingRule rule) {
-    return (rule.isUniqueValue() || rule.isDeterministicReplace());
+    return rule.useUniqueList();
   }
 
   /**
@@ -37,7 +46,7 @@ public class RandomTelnoReplacer implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -45,7 +54,35 @@ public class RandomTelnoReplacer implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -71,34 +108,52 @@ public class RandomTelnoReplacer implements DataMask {
     }
 
     String ret = null;
-
-    if (rule.isDeterministicReplace()) {
-      // 既登録の結果を使用する場合
-      ret = (String) getRegisteredUniqueVal(rule.getUniqueId(), tarStr);
-    }
-
-    if (ret == null) {
-      // 新規生成
-      boolean isValid = false;
-      int retryCount = 0;
+    boolean isValid = false;
+    int retryCount = 0;
+    // 値空間が小さい場合は使用状況を追跡し、埋まってきたら未使用の値から抽選する
+    UniqueValueSampler sampler = (rule.useUniqueList())
+        ? uniqueList.getSamplers().get(rule.getUniqueId(), getValueSpace(tarStr, rule)) : null;
+    // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+    try (RandomScope scope = MaskingUtil.bindDeterministicRandom(rule, tarStr)) {
       while (!isValid) {
-        ret = replace(tarStr, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+        boolean isDrawn = (sampler != null && sampler.isSaturated());
+        ret = (isDrawn) ? sampler.next() : replace(tarStr, rule);
+        if (rule.isDeterministicReplace() && rule.useUniqueList()) {
+          // 一貫性が必要な場合は既登録の結果の取得と生成結果の登録をまとめて行う
+          // ※既登録の結果があればそれを使用し、生成結果が重複して登録できない場合は再抽選
+          String registered = addOrGetUniqueList(rule.getUniqueId(), tarStr, ret);
+          if (sampler != null) {
+            sampler.record(ret, registered, isDrawn);
+          }
+          isValid = (registered != null);
+          if (isValid) {
+            ret = registered;
+          }
+        } else if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+          // ユニークでないとならない場合は生成結果のチェック
           isValid = true;
-          if (rule.isUniqueValue() || rule.isDeterministicReplace()) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+          if (rule.useUniqueList()) {
+            // ユニーク性が必要な場合はユニークリストに追加
             // ※リストに追加失敗した場合は再抽選
             isValid = addUniqueList(rule.getUniqueId(), tarStr, ret);
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
-            }
           }
+          if (sampler != null) {
+            sampler.record(ret, (isValid) ? ret : null, isDrawn);
+          }
+        } else {
+          // 生成結果が登録済の場合は再抽選
+          if (sampler != null) {
+            sampler.record(ret, null, isDrawn);
+          }
+          continue;
+        }
+        if (!isValid) {
+          retryCount++;
+        }
+        if (retryCount > RETRY_MAX) {
+          // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+          throw new SQLIntegrityConstraintViolationException(
+              String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
         }
       }
     }
@@ -114,8 +169,6 @@ public class RandomTelnoReplacer implements DataMask {
    */
   public static String replace(String src, MaskingRule rule) {
 
-    StringBuilder sb = new StringBuilder();
-
     if (rule == null || src == null) {
       // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
       return src;
@@ -132,30 +185,65 @@ public class RandomTelnoReplacer implements DataMask {
       return src;
     }
 
-    String[] c = src.split("");
-    int len = c.length;
-    boolean isFirst = true;
-    Pattern ptn = Pattern.compile("[-\\(\\)]");
-
-    // 1文字ずつ入れ替え
-    for (int i = 0; i < len; i++) {
-      if (!ptn.matcher(c[i]).find()) {
-        if (isFirst) {
-          // 1文字目の入れ替えは0にする
-          sb.append("0");
-          isFirst = false;
+    try (CodePointText text = CodePointText.of(src)) {
+      int len = text.length();
+      boolean isFirst = true;
+
+      // 1文字ずつ入れ替え
+      for (int i = 0; i < len; i++) {
+        if (!text.find(i, SEPARATOR_PATTERN)) {
+          if (isFirst) {
+            // 1文字目の入れ替えは0にする
+            text.append("0");
+            isFirst = false;
+          } else {
+            // 除外パターンにマッチしなかった場合はランダム生成数字に差し替えする
+            MaskingUtil.appendRandomString(text.out(), 1,
+                CharType.NUMBER, rule.getRandomNoGenCharPattern());
+          }
         } else {
-          // 除外パターンにマッチしなかった場合はランダム生成数字に差し替えする
-          sb.append(MaskingUtil.getRandomString(1,
-              CharType.NUMBER, rule.getRandomNoGenCharPattern()));
+          // 除外パターンにマッチした場合はそのまま返却
+          text.appendSource(i);
         }
-      } else {
-        // 除外パターンにマッチした場合はそのまま返却
-        sb.append(c[i]);
       }
+
+      return text.result();
     }
 
-    return sb.toString();
+  }
+
+  /**
+   * 置換後の電話番号が取りうる値空間を取得する.
+   * @param src 置換したい文字列
+   * @param rule マスク化ルール
+   * @return 値空間、元の値のまま返す場合はnull
+   */
+  static UniqueValueSpace getValueSpace(String src, MaskingRule rule) {
+
+    if (rule == null || src == null || src.isEmpty()
+        || (rule.getIgnoreValuePattern() != null
+            && rule.getIgnoreValuePattern().matcher(src).find())) {
+      return null;
+    }
+    String[] digits = MaskingUtil.getGeneratedCharacters(CharType.NUMBER,
+        rule.getRandomNoGenCharPattern());
+    if (digits == null) {
+      return null;
+    }
+    try (CodePointText text = CodePointText.of(src)) {
+      String[][] chars = new String[text.length()][];
+      boolean isFirst = true;
+      for (int i = 0; i < chars.length; i++) {
+        if (!text.find(i, SEPARATOR_PATTERN)) {
+          // 1文字目は0固定
+          chars[i] = (isFirst) ? new String[] {"0"} : digits;
+          isFirst = false;
+        } else {
+          chars[i] = new String[] {new String(Character.toChars(text.codePointAt(i)))};
+        }
+      }
+      return UniqueValueSpace.ofChars(chars, false);
+    }
 
   }
 
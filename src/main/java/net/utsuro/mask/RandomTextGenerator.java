@@ -1,9 +1,10 @@
 package net.utsuro.mask;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
-import java.util.concurrent.ThreadLocalRandom;
 import net.utsuro.mask.MaskingUtil.CharType;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * 文字列のランダム生成クラス.
@@ -15,6 +16,7 @@ import net.utsuro.mask.MaskingUtil.CharType;
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
  * <tr><td>isNullReplace</td><td>元値がNullの場合でも置換するかどうか</td></tr>
  * <tr><td>uniqueId</td><td>決定論的/一意制管理の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>ignoreValuePattern</td><td>対象外にする値のパターン(正規表現) ※マッチした場合は元の値そのまま返却</td></tr>
  * <tr><td>minSjisByteCount</td><td>生成時の最小SJIS換算バイト数</td></tr>
  * <tr><td>maxSjisByteCount</td><td>生成時の最大SJIS換算バイト数</td></tr>
@@ -35,7 +37,7 @@ import net.utsuro.mask.MaskingUtil.CharType;
 public class RandomTextGenerator implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
 
   /**
    * このマスク処理でテータベースを使用するかどうか.
@@ -43,7 +45,7 @@ public class RandomTextGenerator implements DataMask {
    */
   @Override
   public boolean useDatabase(MaskingRule rule) {
-    return (rule.isUniqueValue() || rule.isDeterministicReplace());
+    return rule.useUniqueList();
   }
 
   /**
@@ -51,7 +53,7 @@ public class RandomTextGenerator implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -59,7 +61,35 @@ public class RandomTextGenerator implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -71,7 +101,20 @@ public class RandomTextGenerator implements DataMask {
    */
   @Override
   public Object execute(Object src, MaskingRule rule) throws Exception {
+    return executeCompiled(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで文字列ランダム生成する.
+   * @param src 置換したい文字列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 置換後の文字列
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule compiled) throws Exception {
 
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || (!rule.isNullReplace() && src == null)) {
       // ルールが無い場合、null置換無しで引き渡された値がnullの場合はそのまま返却
       return src;
@@ -85,34 +128,39 @@ public class RandomTextGenerator implements DataMask {
     }
 
     String ret = null;
-
-    if (tarStr != null && rule.isDeterministicReplace()) {
-      // 既登録の結果を使用する場合
-      ret = (String) getRegisteredUniqueVal(rule.getUniqueId(), tarStr);
-    }
-
-    if (ret == null) {
-      // 新規生成
-      boolean isValid = false;
-      int retryCount = 0;
+    boolean isValid = false;
+    int retryCount = 0;
+    // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+    try (RandomScope scope = MaskingUtil.bindDeterministicRandom(rule, tarStr)) {
       while (!isValid) {
-        ret = generate(tarStr, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+        ret = generate(tarStr, compiled);
+        if (tarStr != null && rule.isDeterministicReplace() && rule.useUniqueList()) {
+          // 一貫性が必要な場合は既登録の結果の取得と生成結果の登録をまとめて行う
+          // ※既登録の結果があればそれを使用し、生成結果が重複して登録できない場合は再抽選
+          String registered = addOrGetUniqueList(rule.getUniqueId(), tarStr, ret);
+          isValid = (registered != null);
+          if (isValid) {
+            ret = registered;
+          }
+        } else if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+          // ユニークでないとならない場合は生成結果のチェック
           isValid = true;
-          if (tarStr != null && (rule.isUniqueValue() || rule.isDeterministicReplace())) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+          if (tarStr != null && rule.useUniqueList()) {
+            // ユニーク性が必要な場合はユニークリストに追加
             // ※リストに追加失敗した場合は再抽選
             isValid = addUniqueList(rule.getUniqueId(), tarStr, ret);
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
-            }
           }
+        } else {
+          // 生成結果が登録済の場合は再抽選
+          continue;
+        }
+        if (!isValid) {
+          retryCount++;
+        }
+        if (retryCount > RETRY_MAX) {
+          // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+          throw new SQLIntegrityConstraintViolationException(
+              String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
         }
       }
     }
@@ -128,7 +176,19 @@ public class RandomTextGenerator implements DataMask {
    * @throws Exception エラー発生時
    */
   public static String generate(String src, MaskingRule rule) throws Exception {
+    return generate(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで文字列ランダム生成する.
+   * @param src 置換したい文字列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 置換後の文字列
+   * @throws Exception エラー発生時
+   */
+  private static String generate(String src, CompiledRule compiled) throws Exception {
 
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || (!rule.isNullReplace() && src == null)) {
       // ルールが無い場合、null置換無しで引き渡された値がnullの場合はそのまま返却
       return src;
@@ -152,7 +212,7 @@ public class RandomTextGenerator implements DataMask {
       int max = (rule.getMaxSjisByteCount() == 0) ?
           MaskingUtil.getSjisByteCount(tarStr) :
           Math.max(rule.getMaxSjisByteCount(), rule.getMinSjisByteCount());
-      byteCount = ThreadLocalRandom.current().nextInt(max + 1 - min) + min;
+      byteCount = MaskingUtil.getRandom().nextInt(max + 1 - min) + min;
     } else {
       byteCount = MaskingUtil.getSjisByteCount(tarStr);
     }
@@ -192,17 +252,14 @@ public class RandomTextGenerator implements DataMask {
         || rule.useWideKana() || rule.useHiragana()
         || rule.useUpperCase() || rule.useLowerCase()) {
       // 文字変換が指定されている場合は変換
-      MaskingRule afterRepRule = new MaskingRule(rule);
-      afterRepRule.setToClassName(String.class.getName());
-      sb = new StringBuilder().append(TypeConverter.convert(sb.toString(), afterRepRule));
+      sb = new StringBuilder().append(TypeConverter.convert(sb.toString(),
+          compiled.withToClassName(String.class.getName())));
     }
 
     if (rule.useAfterTextReplace()) {
       // ランダム生成後に更に置換するかどうか
-      MaskingRule afterRepRule = new MaskingRule(rule);
-      afterRepRule.useOddCharMask(rule.useAfterRepOddCharMask());
-      afterRepRule.useEvenCharMask(rule.useAfterRepEvenCharMask());
-      sb = new StringBuilder(MaskedTextReplacer.replace(sb.toString(), afterRepRule));
+      sb = new StringBuilder(MaskedTextReplacer.replaceCompiled(sb.toString(),
+          compiled.getAfterTextReplaceRule()));
     }
 
     return sb.toString();
@@ -1,9 +1,12 @@
 package net.utsuro.mask;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.utsuro.mask.MaskingUtil.CharType;
+import net.utsuro.mask.MaskingUtil.RandomScope;
 
 /**
  * 文字列のランダム置換クラス.
@@ -14,6 +17,7 @@ import net.utsuro.mask.MaskingUtil.CharType;
  * <tr><td>isUniqueValue</td><td>生成した値を一意にするかどうか(NULL以外)</td></tr>
  * <tr><td>isDeterministicReplace</td><td>決定論的置換するかどうか ※INPUTが同じならOUTPUTも同じ値にする(NULL以外)</td></tr>
  * <tr><td>uniqueId</td><td>決定論的/一意制管理の任意の識別子 ※カラム名で無くても良い</td></tr>
+ * <tr><td>deterministicKey</td><td>決定論的置換のキー ※指定した場合はユニークリストを使わず、キーと入力値から決まる乱数で生成する</td></tr>
  * <tr><td>ignoreValuePattern</td><td>対象外にする値のパターン(正規表現) ※マッチした場合は元の値そのまま返却</td></tr>
  * <tr><td>unmaksedLengthLeft</td><td>マスクしない文字数(左)</td></tr>
  * <tr><td>unmaksedLengthRight</td><td>マスクしない文字数(右)</td></tr>
@@ -36,7 +40,13 @@ import net.utsuro.mask.MaskingUtil.CharType;
 public class RandomTextReplacer implements DataMask {
 
   private static final int RETRY_MAX = 5;
-  private Connection conn;
+
+  /**
+   * 空白・句読点のパターン(空白もマスクしない場合に使用).
+   */
+  private static final Pattern SPACE_PATTERN = Pattern.compile("[ 　、。､｡\r\n\t]");
+
+  private final UniqueListStoreHolder uniqueList = new UniqueListStoreHolder();
 
   /**
    * このマスク処理でテータベースを使用するかどうか.
@@ -44,7 +54,7 @@ public class RandomTextReplacer implements DataMask {
    */
   @Override
   public boolean useDatabase(MaskingRule rule) {
-    return (rule.isUniqueValue() || rule.isDeterministicReplace());
+    return rule.useUniqueList();
   }
 
   /**
@@ -52,7 +62,7 @@ public class RandomTextReplacer implements DataMask {
    * @return conn
    */
   public Connection getConnection() {
-    return conn;
+    return uniqueList.getConnection();
   }
 
   /**
@@ -60,7 +70,35 @@ public class RandomTextReplacer implements DataMask {
    * @param conn セットする conn
    */
   public void setConnection(Connection conn) {
-    this.conn = conn;
+    uniqueList.setConnection(conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを閉じる.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void closeStatements() throws SQLException {
+    uniqueList.close();
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return uniqueListStore
+   */
+  @Override
+  public UniqueListStore getUniqueListStore() {
+    return uniqueList.getUniqueListStore();
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param uniqueListStore セットする uniqueListStore
+   */
+  @Override
+  public void setUniqueListStore(UniqueListStore uniqueListStore) {
+    uniqueList.setUniqueListStore(uniqueListStore);
   }
 
   /**
@@ -73,7 +111,61 @@ public class RandomTextReplacer implements DataMask {
    */
   @Override
   public Object execute(Object src, MaskingRule rule) throws Exception {
+    return executeCompiled(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 複数の値をまとめてランダム生成文字列に置換する.
+   * ・事前に解決したルールと、文字変換用・マスク後の置換マスク用の派生ルールを全件で使い回す
+   * ・ユニークリストを使用しない場合、除外値パターンの判定を使い回す
+   * @param in 置換したい値の配列
+   * @param inOff 対象データの開始位置
+   * @param out 置換後の文字列の格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param compiled 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff, int len,
+      CompiledRule compiled) throws Exception {
+
+    if (compiled == null) {
+      // ルールが無い場合はそのまま返却
+      System.arraycopy(in, inOff, out, outOff, len);
+      return;
+    }
 
+    MaskingRule rule = compiled.getRule();
+    Matcher ignoreValueMatcher = (rule.getIgnoreValuePattern() == null || rule.useUniqueList())
+        ? null : rule.getIgnoreValuePattern().matcher("");
+    for (int i = 0; i < len; i++) {
+      Object src = in[inOff + i];
+      if (src == null) {
+        // 引き渡された文字列がnullの場合はそのまま返却
+        out[outOff + i] = null;
+      } else if (ignoreValueMatcher != null
+          && ignoreValueMatcher.reset(src.toString()).find()) {
+        // 除外値パターンにマッチした場合は文字列のまま返す
+        out[outOff + i] = src.toString();
+      } else {
+        out[outOff + i] = executeCompiled(src, compiled);
+      }
+    }
+
+  }
+
+  /**
+   * 事前に解決したルールでランダム生成文字列に置換する.
+   * @param src 置換したい文字列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 置換後の文字列
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule compiled) throws Exception {
+
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || src == null) {
       // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
       return src;
@@ -87,34 +179,52 @@ public class RandomTextReplacer implements DataMask {
     }
 
     String ret = null;
-
-    if (rule.isDeterministicReplace()) {
-      // 既登録の結果を使用する場合
-      ret = (String) getRegisteredUniqueVal(rule.getUniqueId(), tarStr);
-    }
-
-    if (ret == null) {
-      // 新規生成
-      boolean isValid = false;
-      int retryCount = 0;
+    boolean isValid = false;
+    int retryCount = 0;
+    // 値空間が小さい場合は使用状況を追跡し、埋まってきたら未使用の値から抽選する
+    UniqueValueSampler sampler = (rule.useUniqueList())
+        ? uniqueList.getSamplers().get(rule.getUniqueId(), getValueSpace(tarStr, rule)) : null;
+    // キーによる決定論的置換の場合は入力値から決まる乱数で生成する
+    try (RandomScope scope = MaskingUtil.bindDeterministicRandom(rule, tarStr)) {
       while (!isValid) {
-        ret = replace(tarStr, rule);
-        // ユニークでないとならない場合は生成結果のチェック
-        if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+        boolean isDrawn = (sampler != null && sampler.isSaturated());
+        ret = (isDrawn) ? sampler.next() : replace(tarStr, compiled);
+        if (rule.isDeterministicReplace() && rule.useUniqueList()) {
+          // 一貫性が必要な場合は既登録の結果の取得と生成結果の登録をまとめて行う
+          // ※既登録の結果があればそれを使用し、生成結果が重複して登録できない場合は再抽選
+          String registered = addOrGetUniqueList(rule.getUniqueId(), tarStr, ret);
+          if (sampler != null) {
+            sampler.record(ret, registered, isDrawn);
+          }
+          isValid = (registered != null);
+          if (isValid) {
+            ret = registered;
+          }
+        } else if (!rule.isUniqueValue() || !isExistsInUniqueList(rule.getUniqueId(), ret)) {
+          // ユニークでないとならない場合は生成結果のチェック
           isValid = true;
-          if (rule.isUniqueValue() || rule.isDeterministicReplace()) {
-            // 一貫性が必要な場合とユニーク性が必要な場合はユニークリストに追加
+          if (rule.useUniqueList()) {
+            // ユニーク性が必要な場合はユニークリストに追加
             // ※リストに追加失敗した場合は再抽選
             isValid = addUniqueList(rule.getUniqueId(), tarStr, ret);
-            if (!isValid) {
-              retryCount++;
-            }
-            if (retryCount > RETRY_MAX) {
-              // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
-              throw new SQLIntegrityConstraintViolationException(
-                  String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
-            }
           }
+          if (sampler != null) {
+            sampler.record(ret, (isValid) ? ret : null, isDrawn);
+          }
+        } else {
+          // 生成結果が登録済の場合は再抽選
+          if (sampler != null) {
+            sampler.record(ret, null, isDrawn);
+          }
+          continue;
+        }
+        if (!isValid) {
+          retryCount++;
+        }
+        if (retryCount > RETRY_MAX) {
+          // 何度やってもユニークにならない場合、設定ルールがおかしいと思われるのでエラー
+          throw new SQLIntegrityConstraintViolationException(
+              String.format("%d回重複してユニークリストの登録に失敗しました。", RETRY_MAX));
         }
       }
     }
@@ -131,8 +241,20 @@ public class RandomTextReplacer implements DataMask {
    * @throws Exception エラー発生時
    */
   public static String replace(String src, MaskingRule rule) throws Exception {
+    return replace(src, CompiledRule.wrap(rule));
+  }
 
-    StringBuilder sb = new StringBuilder();
+  /**
+   * 事前に解決したルールでランダム生成文字列に置換する.
+   * @param src 置換したい文字列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 置換後の文字列
+   * @throws Exception エラー発生時
+   */
+  private static String replace(String src, CompiledRule compiled) throws Exception {
+
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
+    String ret;
 
     if (rule == null || src == null) {
       // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
@@ -150,8 +272,56 @@ public class RandomTextReplacer implements DataMask {
       return src;
     }
 
-    String[] c = src.split("");
-    int len = c.length;
+    try (CodePointText text = CodePointText.of(src)) {
+      int len = text.length();
+      CharType[] charTypes = getCharTypes(text, rule);
+
+      // 文字種ごとに生成
+      int byteCount = 0;
+      for (int i = 0; i < len; i++) {
+        if (charTypes[i] != CharType.NONE) {
+          byteCount += charTypes[i].getReqByte();
+          // 最後の1文字または次の文字と文字種が異なる場合はまとめてランダム生成
+          if (i == len - 1 || charTypes[i] != charTypes[i + 1]) {
+            MaskingUtil.appendRandomString(text.out(), byteCount, charTypes[i],
+                rule.getRandomNoGenCharPattern());
+            byteCount = 0;
+          }
+        } else {
+          // マスク範囲外や除外パターンにマッチした場合はそのまま返却
+          text.appendSource(i);
+          byteCount = 0;
+        }
+      }
+      ret = text.result();
+    }
+
+    if (rule.useUpperCaseKana() || rule.useHalfKana()
+        || rule.useWideKana() || rule.useHiragana()
+        || rule.useUpperCase() || rule.useLowerCase()) {
+      // 文字変換が指定されている場合は変換
+      ret = (String) TypeConverter.convert(ret,
+          compiled.withToClassName(String.class.getName()));
+    }
+
+    if (rule.useAfterTextReplace()) {
+      // ランダム生成後に更に置換するかどうか
+      ret = MaskedTextReplacer.replaceCompiled(ret, compiled.getAfterTextReplaceRule());
+    }
+
+    return ret;
+
+  }
+
+  /**
+   * 1文字ごとに生成する文字種を判定する.
+   * @param text 置換したい文字列
+   * @param rule マスク化ルール
+   * @return 文字種(マスクしない文字はNONE)
+   */
+  private static CharType[] getCharTypes(CodePointText text, MaskingRule rule) {
+
+    int len = text.length();
     int start = rule.getUnmaksedLengthLeft();
     if (start < 0) {
       // 開始がマイナスの場合は後ろから数える
@@ -159,25 +329,24 @@ public class RandomTextReplacer implements DataMask {
     }
     int end = len - rule.getUnmaksedLengthRight() - 1;
     Pattern unMaskPtn = rule.getUnmaksedCharPattern();
-    Pattern spaceMaskPtn = (rule.useWhiteSpaceMask()) ? null : Pattern.compile("[ 　、。､｡\r\n\t]");
+    Pattern spaceMaskPtn = (rule.useWhiteSpaceMask()) ? null : SPACE_PATTERN;
 
-    // 文字種判定
-    CharType[] charTypes = new CharType[c.length];
+    CharType[] charTypes = new CharType[len];
     for (int i = 0; i < len; i++) {
       if (i >= start && i <= end
           && (!rule.useOddCharMask() || i % 2 == 0)
           && (!rule.useEvenCharMask() || i % 2 == 1)) {
         // 開始・終了の範囲内かつ奇数・偶数指定ありは該当文字目のみマスク
-        if ((unMaskPtn == null || !unMaskPtn.matcher(c[i]).find())
-            && (spaceMaskPtn == null || !spaceMaskPtn.matcher(c[i]).find())) {
+        if ((unMaskPtn == null || !text.find(i, unMaskPtn))
+            && (spaceMaskPtn == null || !text.find(i, spaceMaskPtn))) {
           // 除外パターンが指定されていないか、マッチしなかった場合はランダム生成文字列に差し替えする
-          boolean isWide = MaskingUtil.isWideChar(c[i]);
+          boolean isWide = CodePointText.isWideChar(text.codePointAt(i));
           if (rule.useRandomGenCharType()) {
             // 生成文字種が指定されている場合はそれを生成
             charTypes[i] = rule.getRandomGenCharType();
           } else {
             // 生成文字種の指定がなければ元の値と同じ文字種を生成
-            charTypes[i] = CharType.getTypeByString(c[i]);
+            charTypes[i] = CharType.getTypeByCodePoint(text.codePointAt(i));
           }
           if (charTypes[i] == CharType.UNKNOWN) {
             // 文字種不明の場合はWIDEかHALFで指定
@@ -192,44 +361,46 @@ public class RandomTextReplacer implements DataMask {
         charTypes[i] = CharType.NONE;
       }
     }
+    return charTypes;
 
-    // 文字種ごとに生成
-    int byteCount = 0;
-    for (int i = 0; i < len; i++) {
-      if (charTypes[i] != CharType.NONE) {
-        byteCount += charTypes[i].getReqByte();
-        // 最後の1文字または次の文字と文字種が異なる場合はまとめてランダム生成
-        if (i == len - 1 || charTypes[i] != charTypes[i + 1]) {
-          sb.append(MaskingUtil.getRandomString(byteCount, charTypes[i],
-              rule.getRandomNoGenCharPattern()));
-          byteCount = 0;
-        }
-      } else {
-        // マスク範囲外や除外パターンにマッチした場合はそのまま返却
-        sb.append(c[i]);
-        byteCount = 0;
-      }
-    }
+  }
 
-    if (rule.useUpperCaseKana() || rule.useHalfKana()
+  /**
+   * 置換後の文字列が取りうる値空間を取得する.
+   * ・1文字ずつ一様に生成される半角の文字種(英字・数字・記号)のみの場合に求められる
+   * ※文字変換や置換マスクを併用する場合、元の値のまま返す場合はnull
+   * @param src 置換したい文字列
+   * @param rule マスク化ルール
+   * @return 値空間、求められない場合はnull
+   */
+  static UniqueValueSpace getValueSpace(String src, MaskingRule rule) {
+
+    if (rule == null || src == null || src.isEmpty()
+        || (rule.getIgnoreValuePattern() != null
+            && rule.getIgnoreValuePattern().matcher(src).find())
+        || rule.useUpperCaseKana() || rule.useHalfKana()
         || rule.useWideKana() || rule.useHiragana()
-        || rule.useUpperCase() || rule.useLowerCase()) {
-      // 文字変換が指定されている場合は変換
-      MaskingRule afterRepRule = new MaskingRule(rule);
-      afterRepRule.setToClassName(String.class.getName());
-      sb = new StringBuilder().append(TypeConverter.convert(sb.toString(), afterRepRule));
+        || rule.useUpperCase() || rule.useLowerCase()
+        || rule.useAfterTextReplace()) {
+      return null;
     }
-
-    if (rule.useAfterTextReplace()) {
-      // ランダム生成後に更に置換するかどうか
-      MaskingRule afterRepRule = new MaskingRule(rule);
-      afterRepRule.useOddCharMask(rule.useAfterRepOddCharMask());
-      afterRepRule.useEvenCharMask(rule.useAfterRepEvenCharMask());
-      sb = new StringBuilder(MaskedTextReplacer.replace(sb.toString(), afterRepRule));
+    try (CodePointText text = CodePointText.of(src)) {
+      CharType[] charTypes = getCharTypes(text, rule);
+      String[][] chars = new String[text.length()][];
+      for (int i = 0; i < chars.length; i++) {
+        if (charTypes[i] == CharType.NONE) {
+          chars[i] = new String[] {new String(Character.toChars(text.codePointAt(i)))};
+        } else {
+          chars[i] = MaskingUtil.getGeneratedCharacters(charTypes[i],
+              rule.getRandomNoGenCharPattern());
+          if (chars[i] == null) {
+            return null;
+          }
+        }
+      }
+      return UniqueValueSpace.ofChars(chars, false);
     }
 
-    return sb.toString();
-
   }
 
 }
@@ -1,9 +1,6 @@
 package net.utsuro.mask;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Random;
 
 /**
  * 文字列のシャッフル置換クラス.
@@ -49,17 +46,18 @@ public class ShuffleTextReplacer implements DataMask {
       return src;
     }
 
-    StringBuilder sb = new StringBuilder();
-
-    // 分割してシャッフルして結合
-    List<String> list = Arrays.asList(src.split(""));
-    Collections.shuffle(list, ThreadLocalRandom.current());
-    for (String s : list) {
-      sb.append(s);
+    // 1文字ずつに分割してシャッフルして結合(Collections.shuffle()と同じ手順)
+    try (CodePointText text = CodePointText.of(src)) {
+      Random random = MaskingUtil.getRandom();
+      for (int i = text.length(); i > 1; i--) {
+        text.swap(i - 1, random.nextInt(i));
+      }
+      for (int i = 0; i < text.length(); i++) {
+        text.appendSource(i);
+      }
+      return text.result();
     }
 
-    return sb.toString();
-
   }
 
 }
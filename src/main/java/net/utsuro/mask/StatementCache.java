@@ -0,0 +1,335 @@
+package net.utsuro.mask;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DBコネクションのPreparedStatementを使い回すキャッシュクラス.
+ * ・prepare()で取得したステートメントはclose()するとキャッシュに戻り、同じSQLで再利用される
+ * ・使用中のステートメントはキャッシュから外すため、複数スレッドで同じステートメントを共有しない
+ * ・キャッシュする件数は上限を持ち、古いものから閉じる
+ * ・ステートメントを使用するクラス(格納先・マスク処理)ごとに保持し、クラス間で共有する静的なキャッシュは持たない
+ * ※使用を終了する場合はclose()を呼ぶこと(呼ばない場合はコネクションを閉じた時に閉じられる)
+ */
+public class StatementCache implements AutoCloseable {
+
+  /**
+   * デフォルトのキャッシュ件数の上限.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  private final Connection conn;
+
+  /**
+   * SQLごとの未使用のステートメント(最近使用した順).
+   */
+  private final LinkedHashMap<String, Deque<PreparedStatement>> idle =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private int idleCount = 0;
+  private int maxSize;
+  private boolean released = false;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   */
+  public StatementCache(Connection conn) {
+    this(conn, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   * @param maxSize キャッシュ件数の上限(0の場合はキャッシュしない)
+   */
+  public StatementCache(Connection conn, int maxSize) {
+    if (conn == null) {
+      throw new IllegalArgumentException("DBコネクションを指定してください。");
+    }
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("キャッシュ件数の上限は0以上を指定してください。");
+    }
+    this.conn = conn;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * DBコネクションを取得.
+   * @return conn
+   */
+  public Connection getConnection() {
+    return conn;
+  }
+
+  /**
+   * キャッシュからステートメントを取得する.
+   * ・キャッシュに無い場合は新たに作成する
+   * ※使用後はclose()でキャッシュに戻すこと
+   * @param sql SQL文
+   * @return ステートメント
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+
+    PreparedStatement stmt = null;
+    synchronized (this) {
+      Deque<PreparedStatement> stmts = idle.get(sql);
+      while (stmt == null && stmts != null && !stmts.isEmpty()) {
+        stmt = stmts.pollFirst();
+        idleCount--;
+        if (stmt.isClosed()) {
+          stmt = null;
+        }
+      }
+      if (stmts != null && stmts.isEmpty()) {
+        idle.remove(sql);
+      }
+    }
+    if (stmt != null) {
+      hitCount.increment();
+    } else {
+      missCount.increment();
+      stmt = conn.prepareStatement(sql);
+    }
+    return new CachedStatement(sql, stmt);
+
+  }
+
+  /**
+   * キャッシュ件数の上限を取得.
+   * @return maxSize
+   */
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * キャッシュ件数の上限をセット.
+   * ※0の場合はキャッシュしない
+   * @param maxSize キャッシュ件数の上限
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public void setMaxSize(int maxSize) throws SQLException {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("キャッシュ件数の上限は0以上を指定してください。");
+    }
+    List<PreparedStatement> evicted;
+    synchronized (this) {
+      this.maxSize = maxSize;
+      evicted = evict();
+    }
+    closeAll(evicted);
+  }
+
+  /**
+   * キャッシュ中の件数を取得.
+   * @return 件数
+   */
+  public synchronized int size() {
+    return idleCount;
+  }
+
+  /**
+   * キャッシュから取得できた件数を取得.
+   * @return 件数
+   */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /**
+   * キャッシュに無く新たに作成した件数を取得.
+   * @return 件数
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * キャッシュ中のステートメントを全て閉じる.
+   * ※以降に使用が終わったステートメントはキャッシュに戻さずに閉じる
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+    List<PreparedStatement> stmts = new ArrayList<>();
+    synchronized (this) {
+      released = true;
+      for (Deque<PreparedStatement> deque : idle.values()) {
+        stmts.addAll(deque);
+      }
+      idle.clear();
+      idleCount = 0;
+    }
+    closeAll(stmts);
+  }
+
+  /**
+   * 使用しなくなったキャッシュ(または格納先)を閉じる.
+   * ※DBコネクションを切り替えた場合に使用し、以降は使用しないため閉じる際のエラーは無視する
+   * @param statements キャッシュ、またはキャッシュを持つ格納先
+   */
+  static void closeQuietly(AutoCloseable statements) {
+    if (statements == null) {
+      return;
+    }
+    try {
+      statements.close();
+    } catch (Exception e) {
+      // 閉じられなくてもコネクションを閉じた時に閉じられる
+    }
+  }
+
+  /**
+   * 使用が終わったステートメントをキャッシュに戻す.
+   * @param sql SQL文
+   * @param stmt ステートメント
+   * @param batched バッチを追加したかどうか
+   * @throws SQLException DBアクセス時のエラー
+   */
+  private void giveBack(String sql, PreparedStatement stmt, boolean batched) throws SQLException {
+
+    if (stmt.isClosed()) {
+      return;
+    }
+    if (conn.isClosed()) {
+      stmt.close();
+      return;
+    }
+    try {
+      stmt.clearParameters();
+      if (batched) {
+        stmt.clearBatch();
+      }
+    } catch (SQLException e) {
+      // 再利用できない状態のものは閉じる
+      stmt.close();
+      return;
+    }
+    List<PreparedStatement> evicted;
+    synchronized (this) {
+      if (released || maxSize == 0) {
+        evicted = Collections.singletonList(stmt);
+      } else {
+        idle.computeIfAbsent(sql, k -> new ArrayDeque<>()).addLast(stmt);
+        idleCount++;
+        evicted = evict();
+      }
+    }
+    closeAll(evicted);
+
+  }
+
+  /**
+   * 上限を超えた分を古いものからキャッシュから外す.
+   * @return キャッシュから外したステートメント
+   */
+  private List<PreparedStatement> evict() {
+    List<PreparedStatement> ret = new ArrayList<>();
+    Iterator<Deque<PreparedStatement>> it = idle.values().iterator();
+    while (idleCount > maxSize && it.hasNext()) {
+      Deque<PreparedStatement> stmts = it.next();
+      while (idleCount > maxSize && !stmts.isEmpty()) {
+        ret.add(stmts.pollFirst());
+        idleCount--;
+      }
+      if (stmts.isEmpty()) {
+        it.remove();
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * ステートメントを閉じる.
+   * ※エラーが発生しても全て閉じてから最初のエラーをスローする
+   * @param stmts ステートメント
+   * @throws SQLException DBアクセス時のエラー
+   */
+  private static void closeAll(List<PreparedStatement> stmts) throws SQLException {
+    SQLException error = null;
+    for (PreparedStatement stmt : stmts) {
+      try {
+        stmt.close();
+      } catch (SQLException e) {
+        if (error == null) {
+          error = e;
+        } else {
+          error.addSuppressed(e);
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * close()でキャッシュに戻すステートメントのラッパー.
+   * ※close()以外の呼び出しはそのまま委譲する
+   */
+  private class CachedStatement extends DelegatingPreparedStatement {
+
+    private final String sql;
+    private final PreparedStatement stmt;
+    private boolean closed = false;
+    private boolean batched = false;
+
+    CachedStatement(String sql, PreparedStatement stmt) {
+      this.sql = sql;
+      this.stmt = stmt;
+    }
+
+    @Override
+    protected PreparedStatement delegate() throws SQLException {
+      if (closed) {
+        throw new SQLException("ステートメントは既に閉じられています。");
+      }
+      return stmt;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (!closed) {
+        closed = true;
+        giveBack(sql, stmt, batched);
+      }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+      return closed || stmt.isClosed();
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+      delegate().addBatch();
+      batched = true;
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+      delegate().addBatch(sql);
+      batched = true;
+    }
+
+    @Override
+    public String toString() {
+      return stmt.toString();
+    }
+
+  }
+
+}
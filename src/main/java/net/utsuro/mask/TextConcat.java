@@ -25,6 +25,20 @@ public class TextConcat implements DataMask {
 
   }
 
+  /**
+   * 事前に解決したルールで複数文字列を1つに結合する.
+   * @param src 結合したい値の配列
+   * @param rule 事前に解決したマスク化ルール
+   * @return 結合後の値
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule rule) throws Exception {
+
+    return concat(src, rule);
+
+  }
+
   /**
    * 複数文字列を1つに結合する.
    * @param src 結合したい値の配列
@@ -33,7 +47,19 @@ public class TextConcat implements DataMask {
    * @throws Exception エラー発生時
    */
   public static Object concat(Object src, MaskingRule rule) throws Exception {
+    return concat(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで複数文字列を1つに結合する.
+   * @param src 結合したい値の配列
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 結合後の値
+   * @throws Exception エラー発生時
+   */
+  private static Object concat(Object src, CompiledRule compiled) throws Exception {
 
+    MaskingRule rule = (compiled == null) ? null : compiled.getRule();
     if (rule == null || src == null || !src.getClass().isArray()) {
       // ルールが無い場合、引き渡された値がnullの場合、配列でない場合はそのまま返却
       return src;
@@ -41,8 +67,7 @@ public class TextConcat implements DataMask {
 
     Object[] arr = (Object[]) src;
     StringBuilder sb = new StringBuilder();
-    MaskingRule tempRule = new MaskingRule(rule);
-    tempRule.setToClassName(String.class.getName());
+    CompiledRule tempRule = compiled.withToClassName(String.class.getName());
 
     // 文字列に変換して結合
     for (int i = 0; i < arr.length; i++) {
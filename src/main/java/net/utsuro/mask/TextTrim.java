@@ -27,6 +27,40 @@ public class TextTrim implements DataMask {
 
   }
 
+  /**
+   * 複数の値の前後の空白をまとめてTrimする.
+   * ※Trimの種類の判定はまとめて1回だけ行う
+   * @param in Trimしたい値の配列
+   * @param inOff 対象データの開始位置
+   * @param out Trim後の文字列の格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param compiled 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff, int len,
+      CompiledRule compiled) throws Exception {
+
+    if (compiled == null) {
+      // ルールが無い場合はそのまま返却
+      System.arraycopy(in, inOff, out, outOff, len);
+      return;
+    }
+
+    MaskingRule rule = compiled.getRule();
+
+    // LTrim, RTrimのどちらも指定されていない場合は両方
+    boolean isKeepWideSpace = rule.isKeepWideSpaceTrim();
+    boolean isLTrim = rule.useLTrim() || !rule.useRTrim();
+    boolean isRTrim = rule.useRTrim() || !rule.useLTrim();
+    for (int i = 0; i < len; i++) {
+      String s = (String) in[inOff + i];
+      out[outOff + i] = (s == null) ? null : trim(s, isKeepWideSpace, isLTrim, isRTrim);
+    }
+
+  }
+
   /**
    * 前後の空白をTrimする.
    * @param src Trimしたい値
@@ -40,36 +74,36 @@ public class TextTrim implements DataMask {
       return src;
     }
 
-    String s = src;
+    // LTrim, RTrimのどちらも指定されていない場合は両方
+    return trim(src, rule.isKeepWideSpaceTrim(),
+        rule.useLTrim() || !rule.useRTrim(), rule.useRTrim() || !rule.useLTrim());
 
-    if (rule.isKeepWideSpaceTrim()) {
+  }
+
+  /**
+   * 前後の空白をTrimする.
+   * @param s Trimしたい値
+   * @param isKeepWideSpace true=半角スペースのみTrimする, false=全角スペースもTrimする
+   * @param isLTrim 左側をTrimするかどうか
+   * @param isRTrim 右側をTrimするかどうか
+   * @return Trim後の文字列
+   */
+  private static String trim(String s, boolean isKeepWideSpace, boolean isLTrim, boolean isRTrim) {
+
+    if (isKeepWideSpace) {
       // 半角スペースのみTrimする
-      if (!rule.useLTrim() && !rule.useRTrim()) {
-        s = s.trim();
-      } else {
-        if (rule.useLTrim()) {
-          s = ltrim(s);
-        }
-        if (rule.useRTrim()) {
-          s = rtrim(s);
-        }
+      if (isLTrim && isRTrim) {
+        return s.trim();
       }
+      return (isLTrim) ? ltrim(s) : rtrim(s);
     } else {
       // 全角スペースもTrimする
-      if (!rule.useLTrim() && !rule.useRTrim()) {
-        s = s.strip();
-      } else {
-        if (rule.useLTrim()) {
-          s = s.stripLeading();
-        }
-        if (rule.useRTrim()) {
-          s = s.stripTrailing();
-        }
+      if (isLTrim && isRTrim) {
+        return s.strip();
       }
+      return (isLTrim) ? s.stripLeading() : s.stripTrailing();
     }
 
-    return s;
-
   }
 
   /**
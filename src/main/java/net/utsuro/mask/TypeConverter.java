@@ -10,7 +10,6 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.chrono.JapaneseChronology;
 import java.time.chrono.JapaneseDate;
 import java.time.chrono.JapaneseEra;
 import java.time.format.DateTimeFormatter;
@@ -93,6 +92,47 @@ public class TypeConverter implements DataMask {
 
   }
 
+  /**
+   * 事前に解決したルールで型変換する.
+   * @param src 入力値
+   * @param rule 事前に解決したマスク化ルール
+   * @return 変換後の値
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public Object executeCompiled(Object src, CompiledRule rule) throws Exception {
+
+    return convert(src, rule);
+
+  }
+
+  /**
+   * 複数の値をまとめて型変換する.
+   * ※型変換先のクラス、日付書式、かな・カナの変換はまとめて1回だけ解決する
+   * @param in 入力値の配列
+   * @param inOff 対象データの開始位置
+   * @param out 変換後の値の格納先
+   * @param outOff 格納先の開始位置
+   * @param len 件数
+   * @param compiled 事前に解決したマスク化ルール
+   * @throws Exception エラー発生時
+   */
+  @Override
+  public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff, int len,
+      CompiledRule compiled) throws Exception {
+
+    if (compiled == null) {
+      // ルールが無い場合はそのまま返却
+      System.arraycopy(in, inOff, out, outOff, len);
+      return;
+    }
+
+    for (int i = 0; i < len; i++) {
+      out[outOff + i] = convert(in[inOff + i], compiled);
+    }
+
+  }
+
   /**
    * 型変換する.
    * @param src 入力値
@@ -101,51 +141,30 @@ public class TypeConverter implements DataMask {
    * @throws Exception エラー発生時
    */
   public static Object convert(Object src, MaskingRule rule) throws Exception {
+    return convert(src, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで型変換する.
+   * @param src 入力値
+   * @param compiled 事前に解決したマスク化ルール
+   * @return 変換後の値
+   * @throws Exception エラー発生時
+   */
+  public static Object convert(Object src, CompiledRule compiled) throws Exception {
 
-    if (rule == null || src == null) {
+    if (compiled == null || src == null) {
       // ルールが無い場合、引き渡された文字列がnullの場合はそのまま返却
       return src;
     }
 
-    if (rule.getToClassName() == null || rule.getToClassName().isEmpty()) {
-      // 変換後のクラス名が指定されていない場合はエラー
-      throw new IllegalArgumentException("型変換先が指定されていません。");
-    }
-
+    MaskingRule rule = compiled.getRule();
     Object obj = null;
-    Class<?> clazz;
-
-    try {
-      clazz = Class.forName(rule.getToClassName());
-    } catch (IllegalArgumentException | SecurityException | ClassNotFoundException e) {
-      throw new IllegalArgumentException(
-          String.format("型変換先の指定 %s に問題があります。", rule.getToClassName()), e);
-    }
+    Class<?> clazz = compiled.getToClass();
 
     if (clazz == String.class && clazz == src.getClass()) {
       // 文字列同士の変換の場合は文字種変換
-      String s = (String) src;
-      if (rule.useUpperCaseKana()) {
-        // カナ小文字とかな小文字を大文字にする
-        s = MaskingUtil.toUpperHalfKana(s);
-        s = MaskingUtil.toUpperWideKana(s);
-        s = MaskingUtil.toUpperHiragana(s);
-      }
-      if (rule.useHalfKana()) {
-        // かなをカナにしてから半角カナにする
-        s = MaskingUtil.hiraganaToWideKana(s);
-        s = MaskingUtil.wideKanaToHalfKana(s);
-      }
-      if (rule.useWideKana()) {
-        // 半角カナは全角に、ひらがなはカナにする
-        s = MaskingUtil.halfKanaToWideKana(s);
-        s = MaskingUtil.hiraganaToWideKana(s);
-      }
-      if (rule.useHiragana()) {
-        // 半角カナを全角にしてからひらがなにする
-        s = MaskingUtil.halfKanaToWideKana(s);
-        s = MaskingUtil.wideKanaToHiragana(s);
-      }
+      String s = compiled.getKanaConverter().convert((String) src);
       if (rule.useUpperCase()) {
         // 英小文字を大文字にする
         s = s.toUpperCase();
@@ -164,12 +183,12 @@ public class TypeConverter implements DataMask {
 
     if (isDateTimeClass(clazz)) {
       // 日付への変換
-      return toDateTime(src, clazz, rule);
+      return toDateTime(src, clazz, compiled);
     }
 
     if (isDateTimeClass(src.getClass())) {
       // 日付からの変換
-      return fromDateTime(src, clazz, rule);
+      return fromDateTime(src, clazz, compiled);
     }
 
     if (clazz == java.lang.String.class) {
@@ -256,7 +275,7 @@ public class TypeConverter implements DataMask {
    * @return 変換後の値
    */
   public static Object toDateTime(Object src, Class<?> clazz) {
-    return toDateTime(src, clazz, null);
+    return toDateTime(src, clazz, (CompiledRule) null);
   }
 
   /**
@@ -268,6 +287,17 @@ public class TypeConverter implements DataMask {
    * @return 変換後の値
    */
   public static Object toDateTime(Object src, Class<?> clazz, MaskingRule rule) {
+    return toDateTime(src, clazz, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで日付系クラスの値に変換する.
+   * @param src 変換したい値
+   * @param clazz 変換後の値のクラス
+   * @param rule 事前に解決したマスク化ルール
+   * @return 変換後の値
+   */
+  private static Object toDateTime(Object src, Class<?> clazz, CompiledRule rule) {
 
     if (src == null) {
       // NULLはそのまま返却
@@ -290,18 +320,9 @@ public class TypeConverter implements DataMask {
 
     if (isNumClass(src.getClass()) || src instanceof String) {
       String s = src.toString();
-      DateTimeFormatter df;
-      if (rule != null && rule.getDateTimeFormat() != null && !rule.getDateTimeFormat().isEmpty()) {
-        // 書式指定ありならそれを使用
-        if (rule.getDateTimeFormat().indexOf("GGGG") >= 0) {
-          // 和暦ありとして扱う
-          df = DateTimeFormatter.ofPattern(rule.getDateTimeFormat())
-              .withChronology(JapaneseChronology.INSTANCE);
-        } else {
-          // 西暦
-          df = DateTimeFormatter.ofPattern(rule.getDateTimeFormat());
-        }
-      } else {
+      // 書式指定ありならそれを使用(和暦はルール側で解決済み)
+      DateTimeFormatter df = (rule == null) ? null : rule.getDateTimeFormatter();
+      if (df == null) {
         // 書式指定無しなら自動判定
         if (s.matches("[0-9]{4}") && !isTimeClass(clazz)) {
           // 返却型が時刻でなければ年と判断
@@ -460,7 +481,7 @@ public class TypeConverter implements DataMask {
    * @return 変換後の値
    */
   public static Object fromDateTime(Object src, Class<?> clazz) {
-    return fromDateTime(src, clazz, null);
+    return fromDateTime(src, clazz, (CompiledRule) null);
   }
 
   /**
@@ -472,6 +493,17 @@ public class TypeConverter implements DataMask {
    * @return 変換後の値
    */
   public static Object fromDateTime(Object src, Class<?> clazz, MaskingRule rule) {
+    return fromDateTime(src, clazz, CompiledRule.wrap(rule));
+  }
+
+  /**
+   * 事前に解決したルールで日付系クラスの値から変換する.
+   * @param src 変換したい日付系の値
+   * @param clazz 変換後の値のクラス
+   * @param rule 事前に解決したマスク化ルール
+   * @return 変換後の値
+   */
+  private static Object fromDateTime(Object src, Class<?> clazz, CompiledRule rule) {
 
     if (src == null) {
       // NULLはそのまま返却
@@ -520,16 +552,9 @@ public class TypeConverter implements DataMask {
     }
 
     // 返却書式の選択
-    DateTimeFormatter df;
-    if (rule != null && rule.getDateTimeFormat() != null && !rule.getDateTimeFormat().isEmpty()) {
-      if (rule.getDateTimeFormat().indexOf("GGGG") >= 0) {
-        // 和暦ありとして扱う
-        df = DateTimeFormatter.ofPattern(rule.getDateTimeFormat())
-            .withChronology(JapaneseChronology.INSTANCE);
-      } else {
-        // 西暦
-        df = DateTimeFormatter.ofPattern(rule.getDateTimeFormat());
-      }
+    DateTimeFormatter df = (rule == null) ? null : rule.getDateTimeFormatter();
+    if (df != null) {
+      // 書式指定ありならそれを使用(和暦はルール側で解決済み)
     } else if (isTime) {
       if (isNumClass(clazz)) {
         df = NUMTIME_FORMATTER;
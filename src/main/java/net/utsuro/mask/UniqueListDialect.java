@@ -0,0 +1,243 @@
+package net.utsuro.mask;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * DBのユニークリスト(sys_unique_list)操作のDBごとの差異を吸収する列挙型.
+ * ・既登録の値の取得と登録(insert-or-get)をできるだけ1回のSQLで行う
+ * ・ユニークリストの初期化(TRUNCATE)もここで定義する
+ * ※sys_unique_listには(id, output_val)の一意制約があることを前提とする
+ */
+public enum UniqueListDialect {
+
+  /**
+   * 標準SQL(既登録の値の取得と登録を別々のSQLで行う).
+   */
+  STANDARD,
+
+  /**
+   * PostgreSQL(INSERT ... ON CONFLICT ... RETURNING で1回で行う).
+   */
+  POSTGRESQL {
+
+    @Override
+    public String addOrGet(StatementCache statements, String id, String inputVal,
+        String outputVal) throws SQLException {
+
+      try (PreparedStatement stmt = statements.prepare(POSTGRESQL_ADD_OR_GET_SQL)) {
+        stmt.setString(1, id);
+        stmt.setString(2, inputVal);
+        stmt.setString(3, id);
+        stmt.setString(4, inputVal);
+        stmt.setString(5, outputVal);
+        try (ResultSet rs = stmt.executeQuery()) {
+          // 既登録または登録できた場合のみ結果が返る
+          return rs.next() ? rs.getString("output_val") : null;
+        }
+      }
+
+    }
+
+  },
+
+  /**
+   * H2(MERGEの結果をFINAL TABLEで取得して1回で行う).
+   */
+  H2 {
+
+    @Override
+    public String addOrGet(StatementCache statements, String id, String inputVal,
+        String outputVal) throws SQLException {
+
+      try (PreparedStatement stmt = statements.prepare(H2_ADD_OR_GET_SQL)) {
+        stmt.setString(1, id);
+        stmt.setString(2, inputVal);
+        stmt.setString(3, outputVal);
+        try (ResultSet rs = stmt.executeQuery()) {
+          // INPUTが一致する行があればその値、OUTPUTのみ一致する行しか無ければ重複
+          while (rs.next()) {
+            if (inputVal.equals(rs.getString("input_val"))) {
+              return rs.getString("output_val");
+            }
+          }
+          return null;
+        }
+      }
+
+    }
+
+  },
+
+  /**
+   * Oracle(MERGEで登録し、登録できなかった場合のみ既登録の値を取得する).
+   */
+  ORACLE {
+
+    @Override
+    public String addOrGet(StatementCache statements, String id, String inputVal,
+        String outputVal) throws SQLException {
+
+      try (PreparedStatement stmt = statements.prepare(ORACLE_ADD_OR_GET_SQL)) {
+        stmt.setString(1, id);
+        stmt.setString(2, inputVal);
+        stmt.setString(3, outputVal);
+        if (stmt.executeUpdate() > 0) {
+          return outputVal;
+        }
+      }
+      // 登録できなかった場合はINPUTが登録済かOUTPUTが重複
+      return getRegisteredUniqueVal(statements, id, inputVal);
+
+    }
+
+  };
+
+  /**
+   * INPUTに対応するOUTPUTの取得SQL.
+   */
+  static final String SELECT_OUTPUT_SQL = "SELECT"
+      + " output_val"
+      + " FROM sys_unique_list"
+      + " WHERE id = ?"
+      + " AND input_val = ?";
+
+  /**
+   * PostgreSQLの既登録の値の取得と登録SQL.
+   */
+  static final String POSTGRESQL_ADD_OR_GET_SQL = "WITH cur AS ("
+      + "SELECT output_val"
+      + " FROM sys_unique_list"
+      + " WHERE id = ?"
+      + " AND input_val = ?"
+      + "), ins AS ("
+      + "INSERT INTO sys_unique_list"
+      + " (id, input_val, output_val)"
+      + " SELECT ?, ?, ?"
+      + " WHERE NOT EXISTS (SELECT 1 FROM cur)"
+      + " ON CONFLICT DO NOTHING"
+      + " RETURNING output_val"
+      + ")"
+      + " SELECT output_val FROM cur"
+      + " UNION ALL"
+      + " SELECT output_val FROM ins";
+
+  /**
+   * H2の既登録の値の取得と登録SQL.
+   */
+  static final String H2_ADD_OR_GET_SQL = "SELECT"
+      + " input_val, output_val"
+      + " FROM FINAL TABLE ("
+      + "MERGE INTO sys_unique_list t"
+      + " USING (SELECT CAST(? AS VARCHAR) AS id,"
+      + " CAST(? AS VARCHAR) AS input_val,"
+      + " CAST(? AS VARCHAR) AS output_val) s"
+      + " ON (t.id = s.id"
+      + " AND (t.input_val = s.input_val OR t.output_val = s.output_val))"
+      + " WHEN MATCHED THEN UPDATE SET t.output_val = t.output_val"
+      + " WHEN NOT MATCHED THEN INSERT"
+      + " (id, input_val, output_val)"
+      + " VALUES"
+      + " (s.id, s.input_val, s.output_val)"
+      + ")";
+
+  /**
+   * Oracleの登録SQL.
+   */
+  static final String ORACLE_ADD_OR_GET_SQL = "MERGE INTO sys_unique_list t"
+      + " USING (SELECT ? AS id, ? AS input_val, ? AS output_val FROM dual) s"
+      + " ON (t.id = s.id"
+      + " AND (t.input_val = s.input_val OR t.output_val = s.output_val))"
+      + " WHEN NOT MATCHED THEN INSERT"
+      + " (id, input_val, output_val)"
+      + " VALUES"
+      + " (s.id, s.input_val, s.output_val)";
+
+  /**
+   * DBコネクションに合ったDB種別を取得.
+   * ※判別できない場合はSTANDARD
+   * @param conn DBコネクション
+   * @return DB種別
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public static UniqueListDialect of(Connection conn) throws SQLException {
+
+    DatabaseMetaData meta = (conn == null) ? null : conn.getMetaData();
+    String name = (meta == null) ? null : meta.getDatabaseProductName();
+    if (name == null) {
+      return STANDARD;
+    }
+    if (name.startsWith("PostgreSQL")) {
+      return POSTGRESQL;
+    } else if (name.startsWith("H2")) {
+      return H2;
+    } else if (name.startsWith("Oracle")) {
+      return ORACLE;
+    }
+    return STANDARD;
+
+  }
+
+  /**
+   * ユニークリストを初期化するSQLを取得.
+   * @return SQL
+   */
+  public String getTruncateSql() {
+    return "TRUNCATE TABLE sys_unique_list";
+  }
+
+  /**
+   * INPUTが登録済ならその値を取得し、未登録なら登録する.
+   * ※呼び出し元でコネクション単位の排他を行うこと
+   * @param statements ステートメントのキャッシュ
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 登録済の値または登録した値、OUTPUTが重複して登録できなかった場合はnull
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public String addOrGet(StatementCache statements, String id, String inputVal,
+      String outputVal) throws SQLException {
+
+    String ret = getRegisteredUniqueVal(statements, id, inputVal);
+    if (ret == null) {
+      try (PreparedStatement stmt = statements.prepare(JdbcUniqueListStore.INSERT_SQL)) {
+        stmt.setString(1, id);
+        stmt.setString(2, inputVal);
+        stmt.setString(3, outputVal);
+        stmt.execute();
+        ret = outputVal;
+      } catch (SQLException e) {
+        // 一意誓約違反になったら再抽選
+        ret = null;
+      }
+    }
+    return ret;
+
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * @param statements ステートメントのキャッシュ
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @return INPUTが同じマスク済の値
+   * @throws SQLException DBアクセス時のエラー
+   */
+  static String getRegisteredUniqueVal(StatementCache statements, String id, String inputVal)
+      throws SQLException {
+
+    try (PreparedStatement stmt = statements.prepare(SELECT_OUTPUT_SQL)) {
+      stmt.setString(1, id);
+      stmt.setString(2, inputVal);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() ? rs.getString("output_val") : null;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,464 @@
+package net.utsuro.mask;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * ユニークリストのスナップショット(バイナリ形式)を出力・読み込みするクラス.
+ * ・どの格納先からも出力でき、別の環境の格納先に順次読み込みで登録できる
+ * ・識別子ごとにまとめ、入力値は直前の入力値との共通部分を省いて格納する
+ * ・文字列は長さ(可変長整数)の後にUTF-8で格納し、本体は圧縮することもできる
+ * ※形式: ヘッダ("UVUL", バージョン, フラグ) + 本体(識別子/登録内容の並び + 件数 + CRC32)
+ */
+public class UniqueListSnapshot {
+
+  /**
+   * 形式のバージョン.
+   */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'U', 'V', 'U', 'L'};
+  private static final int FLAG_COMPRESSED = 1;
+  private static final int TAG_END = 0;
+  private static final int TAG_ID = 1;
+  private static final int TAG_ENTRY = 2;
+  private static final int BUFFER_SIZE = 65536;
+
+  private UniqueListSnapshot() {}
+
+  /**
+   * 格納先の登録内容をスナップショットとして出力する.
+   * @param store 格納先
+   * @param out 出力先(閉じない)
+   * @param compress 圧縮するかどうか
+   * @return 出力した件数
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 出力時のエラー
+   */
+  public static long export(UniqueListStore store, OutputStream out, boolean compress)
+      throws SQLException, IOException {
+    Writer writer = new Writer(out, compress);
+    store.forEachEntry(writer::write);
+    writer.finish();
+    return writer.getCount();
+  }
+
+  /**
+   * 格納先の登録内容をスナップショットファイルに出力する.
+   * @param store 格納先
+   * @param file 出力ファイル
+   * @param compress 圧縮するかどうか
+   * @return 出力した件数
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 出力時のエラー
+   */
+  public static long export(UniqueListStore store, Path file, boolean compress)
+      throws SQLException, IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      return export(store, out, compress);
+    }
+  }
+
+  /**
+   * スナップショットを格納先に読み込む.
+   * ・件数とCRCは最後まで読み込んだ時点で検証するため、格納先のloadSnapshot()には検証エラーが
+   *   登録の途中でスローされる(DBのユニークリストは全件検証できてからコミットする)
+   * ※読み込み直せる場合はverify()で検証してから読み込むこと
+   * ※初期化済の格納先に読み込むこと
+   * @param in 読み込み元(閉じない)
+   * @param store 格納先
+   * @return 読み込んだ件数
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 読み込み時のエラー、形式が不正な場合
+   */
+  public static long load(InputStream in, UniqueListStore store)
+      throws SQLException, IOException {
+    Reader reader = new Reader(in);
+    store.loadSnapshot(reader);
+    // 最後まで読み込んで件数とCRCを検証する
+    while (reader.next()) {
+      continue;
+    }
+    return reader.getCount();
+  }
+
+  /**
+   * スナップショットファイルを格納先に読み込む.
+   * ・先にファイル全体の件数とCRCを検証し、壊れている場合は格納先に登録しない
+   * ※初期化済の格納先に読み込むこと
+   * @param file 読み込むファイル
+   * @param store 格納先
+   * @return 読み込んだ件数
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 読み込み時のエラー、形式が不正な場合
+   */
+  public static long load(Path file, UniqueListStore store) throws SQLException, IOException {
+    verify(file);
+    try (InputStream in = Files.newInputStream(file)) {
+      return load(in, store);
+    }
+  }
+
+  /**
+   * スナップショットを最後まで読み込んで件数とCRCを検証する.
+   * @param in 読み込み元(閉じない)
+   * @return 件数
+   * @throws IOException 読み込み時のエラー、形式が不正な場合
+   */
+  public static long verify(InputStream in) throws IOException {
+    Reader reader = new Reader(in);
+    while (reader.next()) {
+      continue;
+    }
+    return reader.getCount();
+  }
+
+  /**
+   * スナップショットファイルを最後まで読み込んで件数とCRCを検証する.
+   * @param file 読み込むファイル
+   * @return 件数
+   * @throws IOException 読み込み時のエラー、形式が不正な場合
+   */
+  public static long verify(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return verify(in);
+    }
+  }
+
+  /**
+   * 直前の文字列との共通部分の長さを求める.
+   * ※サロゲートペアの途中では区切らない
+   * @param prev 直前の文字列
+   * @param val 文字列
+   * @return 共通部分の長さ
+   */
+  static int commonPrefix(String prev, String val) {
+    if (prev == null || val == null) {
+      return 0;
+    }
+    int max = Math.min(prev.length(), val.length());
+    int ret = 0;
+    while (ret < max && prev.charAt(ret) == val.charAt(ret)) {
+      ret++;
+    }
+    if (ret > 0 && ret < val.length() && Character.isHighSurrogate(val.charAt(ret - 1))) {
+      ret--;
+    }
+    return ret;
+  }
+
+  /**
+   * スナップショットの出力クラス.
+   */
+  public static class Writer implements Closeable {
+
+    private final OutputStream base;
+    private final Deflater deflater;
+    private final OutputStream body;
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+    private String lastId;
+    private String lastInput;
+    private boolean started = false;
+    private boolean finished = false;
+    private long count = 0;
+
+    /**
+     * コンストラクタ.
+     * @param out 出力先
+     * @param compress 圧縮するかどうか
+     * @throws IOException 出力時のエラー
+     */
+    public Writer(OutputStream out, boolean compress) throws IOException {
+      this.base = new BufferedOutputStream(out, BUFFER_SIZE);
+      base.write(MAGIC);
+      base.write(VERSION);
+      base.write(compress ? FLAG_COMPRESSED : 0);
+      this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+      this.body = compress ? new DeflaterOutputStream(base, deflater, BUFFER_SIZE) : base;
+      this.out = new CheckedOutputStream(body, crc);
+    }
+
+    /**
+     * 登録内容を1件出力する.
+     * @param id 識別子
+     * @param inputVal 入力値
+     * @param outputVal 出力値
+     * @throws IOException 出力時のエラー
+     */
+    public void write(String id, String inputVal, String outputVal) throws IOException {
+      if (finished) {
+        throw new IOException("スナップショットの出力は終了しています。");
+      }
+      if (!started || (id == null ? lastId != null : !id.equals(lastId))) {
+        // 識別子が変わったらブロックを分ける
+        out.write(TAG_ID);
+        writeString(id);
+        lastId = id;
+        lastInput = null;
+        started = true;
+      }
+      out.write(TAG_ENTRY);
+      int prefix = commonPrefix(lastInput, inputVal);
+      writeVarint(prefix);
+      writeString((inputVal == null) ? null : inputVal.substring(prefix));
+      writeString(outputVal);
+      lastInput = inputVal;
+      count++;
+    }
+
+    /**
+     * 終端を出力する.
+     * ※出力先は閉じない
+     * @throws IOException 出力時のエラー
+     */
+    public void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      out.write(TAG_END);
+      writeVarint(count);
+      // CRCは自身を含めずに計算する
+      long value = crc.getValue();
+      for (int i = 24; i >= 0; i -= 8) {
+        body.write((int) (value >>> i) & 0xff);
+      }
+      if (deflater != null) {
+        ((DeflaterOutputStream) body).finish();
+        deflater.end();
+      }
+      base.flush();
+    }
+
+    /**
+     * 出力した件数を取得.
+     * @return 件数
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * 終端を出力する.
+     * @throws IOException 出力時のエラー
+     */
+    @Override
+    public void close() throws IOException {
+      finish();
+    }
+
+    private void writeString(String val) throws IOException {
+      if (val == null) {
+        writeVarint(0);
+        return;
+      }
+      byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length + 1L);
+      out.write(bytes);
+    }
+
+    private void writeVarint(long val) throws IOException {
+      while ((val & ~0x7fL) != 0) {
+        out.write((int) ((val & 0x7f) | 0x80));
+        val >>>= 7;
+      }
+      out.write((int) val);
+    }
+
+  }
+
+  /**
+   * スナップショットの読み込みクラス.
+   */
+  public static class Reader implements Closeable {
+
+    private final Inflater inflater;
+    private final InputStream raw;
+    private final CheckedInputStream body;
+    private final CRC32 crc = new CRC32();
+    private String id;
+    private String inputVal;
+    private String outputVal;
+    private boolean ended = false;
+    private long count = 0;
+
+    /**
+     * コンストラクタ.
+     * @param in 読み込み元
+     * @throws IOException 読み込み時のエラー、形式が不正な場合
+     */
+    public Reader(InputStream in) throws IOException {
+      InputStream base = new BufferedInputStream(in, BUFFER_SIZE);
+      byte[] magic = new byte[MAGIC.length];
+      for (int i = 0; i < magic.length; i++) {
+        magic[i] = (byte) readByte(base);
+      }
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException("ユニークリストのスナップショットではありません。");
+      }
+      int version = readByte(base);
+      if (version != VERSION) {
+        throw new IOException(String.format("未対応のスナップショットのバージョンです。(%d)", version));
+      }
+      boolean compressed = (readByte(base) & FLAG_COMPRESSED) != 0;
+      this.inflater = compressed ? new Inflater() : null;
+      this.raw = compressed ? new InflaterInputStream(base, inflater, BUFFER_SIZE) : base;
+      this.body = new CheckedInputStream(raw, crc);
+    }
+
+    /**
+     * 次の登録内容を読み込む.
+     * @return true=読み込んだ, false=終端
+     * @throws IOException 読み込み時のエラー、形式が不正な場合
+     */
+    public boolean next() throws IOException {
+
+      while (!ended) {
+        int tag = readByte(body);
+        if (tag == TAG_ID) {
+          id = readString();
+          inputVal = null;
+        } else if (tag == TAG_ENTRY) {
+          int prefix = (int) readVarint();
+          String suffix = readString();
+          if (suffix == null) {
+            inputVal = null;
+          } else {
+            if (prefix > 0 && (inputVal == null || prefix > inputVal.length())) {
+              throw new IOException("スナップショットの形式が不正です。");
+            }
+            inputVal = (prefix > 0) ? inputVal.substring(0, prefix) + suffix : suffix;
+          }
+          outputVal = readString();
+          count++;
+          return true;
+        } else if (tag == TAG_END) {
+          try {
+            verify();
+          } finally {
+            close();
+          }
+        } else {
+          throw new IOException("スナップショットの形式が不正です。");
+        }
+      }
+      return false;
+
+    }
+
+    /**
+     * 識別子を取得.
+     * @return id
+     */
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * 入力値を取得.
+     * @return inputVal
+     */
+    public String getInputVal() {
+      return inputVal;
+    }
+
+    /**
+     * 出力値を取得.
+     * @return outputVal
+     */
+    public String getOutputVal() {
+      return outputVal;
+    }
+
+    /**
+     * 読み込んだ件数を取得.
+     * @return 件数
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * 読み込みを終了する.
+     * ※読み込み元は閉じない
+     */
+    @Override
+    public void close() {
+      ended = true;
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+
+    /**
+     * 件数とCRCを検証する.
+     * @throws IOException 検証エラー
+     */
+    private void verify() throws IOException {
+      long expectedCount = readVarint();
+      long value = crc.getValue();
+      long expectedCrc = 0;
+      for (int i = 0; i < 4; i++) {
+        expectedCrc = (expectedCrc << 8) | readByte(raw);
+      }
+      if (expectedCount != count || expectedCrc != value) {
+        throw new IOException("スナップショットが壊れています。");
+      }
+    }
+
+    private String readString() throws IOException {
+      long len = readVarint();
+      if (len == 0) {
+        return null;
+      }
+      if (len - 1 > Integer.MAX_VALUE) {
+        throw new IOException("スナップショットの形式が不正です。");
+      }
+      byte[] bytes = body.readNBytes((int) (len - 1));
+      if (bytes.length != len - 1) {
+        throw new EOFException("スナップショットが途中で終わっています。");
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+      long ret = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte(body);
+        ret |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return ret;
+        }
+      }
+      throw new IOException("スナップショットの形式が不正です。");
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("スナップショットが途中で終わっています。");
+      }
+      return b;
+    }
+
+  }
+
+}
@@ -0,0 +1,130 @@
+package net.utsuro.mask;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * ユニークリスト(決定論的置換・一意制管理)の格納先インターフェース.
+ * ※DataMaskのユニークリスト関連のデフォルトメソッドはこのインターフェースに委譲する
+ */
+public interface UniqueListStore extends AutoCloseable {
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ※INPUTが同じものがあれば再利用する決定論的置換で使用
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値、未登録の場合はnull
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public String getRegisteredUniqueVal(String id, String val) throws SQLException;
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public boolean isExistsInUniqueList(String id, String val) throws SQLException;
+
+  /**
+   * ユニークリストに登録する.
+   * ※OUTPUTが同じ値は一意にならないため登録失敗とする
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public boolean addUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException;
+
+  /**
+   * INPUTが登録済ならその値を取得し、未登録なら登録する.
+   * ※決定論的置換で既登録の値の取得と生成結果の登録をまとめて行う
+   * ※デフォルトはgetRegisteredUniqueVal()とaddUniqueList()を順に呼び出す
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return 登録済の値または登録した値、OUTPUTが重複して登録できなかった場合はnull
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public default String addOrGetUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+    String ret = getRegisteredUniqueVal(id, inputVal);
+    if (ret == null && addUniqueList(id, inputVal, outputVal)) {
+      ret = outputVal;
+    }
+    return ret;
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * ・識別子、入力値、出力値の順に並べて渡す
+   * ※スナップショットの出力で使用し、対応していない格納先はエラーとする
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException 格納先アクセス時のエラー、対応していない場合
+   * @throws IOException 受け取る処理でのエラー
+   */
+  public default void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+    throw new SQLFeatureNotSupportedException("登録内容の一括取得には対応していません。");
+  }
+
+  /**
+   * スナップショットから登録内容を読み込む.
+   * ※デフォルトはaddUniqueList()で1件ずつ登録する
+   * @param reader スナップショットの読み込み
+   * @throws SQLException 格納先アクセス時のエラー
+   * @throws IOException 読み込み時のエラー
+   */
+  public default void loadSnapshot(UniqueListSnapshot.Reader reader)
+      throws SQLException, IOException {
+    while (reader.next()) {
+      addUniqueList(reader.getId(), reader.getInputVal(), reader.getOutputVal());
+    }
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public void clear() throws SQLException;
+
+  /**
+   * 未反映の登録内容を格納先に反映する.
+   * ※登録を遅延させる格納先のみ処理する
+   * @throws SQLException DBアクセス時のエラー
+   */
+  public default void flush() throws SQLException {}
+
+  /**
+   * 格納先の使用を終了する.
+   * ※未反映の登録内容は反映する
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public default void close() throws SQLException {
+    flush();
+  }
+
+  /**
+   * 登録内容を受け取るインターフェース.
+   */
+  @FunctionalInterface
+  public interface EntryConsumer {
+
+    /**
+     * 登録内容を1件受け取る.
+     * @param id 識別子
+     * @param inputVal 入力値
+     * @param outputVal 出力値
+     * @throws SQLException 格納先アクセス時のエラー
+     * @throws IOException 出力時のエラー
+     */
+    void accept(String id, String inputVal, String outputVal) throws SQLException, IOException;
+
+  }
+
+}
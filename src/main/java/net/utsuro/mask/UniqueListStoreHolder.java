@@ -0,0 +1,135 @@
+package net.utsuro.mask;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * マスク処理ごとのDBコネクションとユニークリストの格納先を保持するクラス.
+ * ・格納先が未指定の場合はDBコネクションのユニークリストを使用する
+ * ・DBコネクションの格納先はコネクションのセット時に1回だけ生成し、DB種別の判別結果も使い回す
+ * ・マスク処理で使用するSQLのステートメントもDBコネクションの格納先のキャッシュで使い回す
+ * ・DBコネクションをセットし直した場合は前の格納先のキャッシュを閉じる
+ * ・一意制管理の抽選クラスは格納先(未指定の場合はDBコネクション)ごとに共有し、
+ *   同じユニークリストを使用するマスク処理の間で値空間の使用状況を引き継ぐ
+ * ※ユニークリストを使用するマスク処理はこのクラスに委譲すること
+ * ※使用を終了する場合はclose()でキャッシュを閉じること
+ */
+public final class UniqueListStoreHolder implements AutoCloseable {
+
+  /**
+   * 格納先またはDBコネクションごとの抽選クラス.
+   * ※抽選クラスは格納先・DBコネクションを参照しないため、使用されなくなれば破棄される
+   */
+  private static final Map<Object, UniqueValueSampler.Pool> SAMPLERS =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private Connection conn;
+  private UniqueListStore store;
+  private JdbcUniqueListStore defaultStore = new JdbcUniqueListStore(null);
+  private UniqueValueSampler.Pool samplers = new UniqueValueSampler.Pool();
+
+  /**
+   * DBコネクションを取得.
+   * @return conn
+   */
+  public Connection getConnection() {
+    return conn;
+  }
+
+  /**
+   * DBコネクションをセット.
+   * @param conn セットする conn
+   */
+  public void setConnection(Connection conn) {
+    StatementCache.closeQuietly(defaultStore);
+    this.conn = conn;
+    this.defaultStore = new JdbcUniqueListStore(conn);
+    this.samplers = samplersOf((store != null) ? store : conn);
+  }
+
+  /**
+   * DBコネクションのステートメントのキャッシュを取得.
+   * @return キャッシュ
+   */
+  public StatementCache getStatementCache() {
+    StatementCache statements = defaultStore.getStatementCache();
+    if (statements == null) {
+      throw new IllegalArgumentException("DBコネクションを指定してください。");
+    }
+    return statements;
+  }
+
+  /**
+   * ユニークリストの格納先を取得.
+   * ※未指定の場合はDBコネクションのユニークリストを使用する
+   * @return 格納先
+   */
+  public UniqueListStore getUniqueListStore() {
+    return (store != null) ? store : defaultStore;
+  }
+
+  /**
+   * ユニークリストの格納先をセット.
+   * @param store セットする格納先(nullの場合はDBコネクションのユニークリスト)
+   */
+  public void setUniqueListStore(UniqueListStore store) {
+    this.store = store;
+    this.samplers = samplersOf((store != null) ? store : conn);
+  }
+
+  /**
+   * 一意制管理の抽選クラスを取得.
+   * ※同じ格納先(未指定の場合は同じDBコネクション)を使用するマスク処理で共有する
+   * @return 抽選クラス
+   */
+  public UniqueValueSampler.Pool getSamplers() {
+    return samplers;
+  }
+
+  /**
+   * DBコネクションの格納先のステートメントのキャッシュを閉じる.
+   * ※閉じた後も使用できるが、ステートメントはキャッシュせずに都度閉じる
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+    defaultStore.close();
+  }
+
+  /**
+   * DBコネクションのユニークリストで共有している抽選クラスを破棄する.
+   * ※ユニークリストを初期化した場合に呼ぶこと
+   * @param conn DBコネクション
+   */
+  public static void clearSamplers(Connection conn) {
+    clearSamplersOf(conn);
+  }
+
+  /**
+   * 格納先で共有している抽選クラスを破棄する.
+   * ※ユニークリストを初期化した場合に呼ぶこと
+   * @param store 格納先
+   */
+  public static void clearSamplers(UniqueListStore store) {
+    clearSamplersOf(store);
+  }
+
+  private static UniqueValueSampler.Pool samplersOf(Object key) {
+    if (key == null) {
+      // ユニークリストが無い場合は共有しない
+      return new UniqueValueSampler.Pool();
+    }
+    return SAMPLERS.computeIfAbsent(key, k -> new UniqueValueSampler.Pool());
+  }
+
+  private static void clearSamplersOf(Object key) {
+    UniqueValueSampler.Pool pool = (key == null) ? null : SAMPLERS.get(key);
+    if (pool != null) {
+      pool.clear();
+    }
+  }
+
+}
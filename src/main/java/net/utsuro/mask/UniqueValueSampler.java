@@ -0,0 +1,228 @@
+package net.utsuro.mask;
+
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一意制管理の値空間の使用状況を追跡し、埋まってきたら未使用の値から抽選するクラス.
+ * ・登録できた値、重複した値を使用済として値空間から除き、未使用の値の件数を管理する
+ * ・使用済の割合が飽和率に達するか、連続して重複した場合は飽和したとみなす
+ * ・飽和後は未使用の値から直接抽選するため、値空間を使い切るまで一定の手間で生成できる
+ * ※未使用の値は入れ替え済の位置のみ保持する(疎なFisher-Yatesシャッフル)
+ */
+public class UniqueValueSampler {
+
+  /**
+   * 飽和したとみなす使用済の割合.
+   */
+  public static final double SATURATION_RATE = 0.5;
+
+  /**
+   * 飽和したとみなす連続重複回数.
+   */
+  public static final int SATURATION_REJECTS = 5;
+
+  /**
+   * 追跡する値空間の大きさの上限.
+   * ※これより大きい値空間は飽和しないものとして追跡しない(使用済の件数分のメモリを使用するため)
+   */
+  public static final long MAX_SPACE_SIZE = 1000000L;
+
+  private final String uniqueId;
+  private final UniqueValueSpace space;
+
+  /**
+   * 位置 → 番号(入れ替え済の位置のみ).
+   */
+  private final Map<Long, Long> indexAt = new HashMap<>();
+
+  /**
+   * 番号 → 位置(入れ替え済の番号のみ).
+   */
+  private final Map<Long, Long> positionOf = new HashMap<>();
+
+  /**
+   * 未使用の件数(位置0～remaining-1が未使用).
+   */
+  private long remaining;
+  private int rejects = 0;
+  private boolean saturated = false;
+
+  /**
+   * コンストラクタ.
+   * @param uniqueId 識別子
+   * @param space 値空間
+   */
+  public UniqueValueSampler(String uniqueId, UniqueValueSpace space) {
+    if (space == null) {
+      throw new IllegalArgumentException("値空間を指定してください。");
+    }
+    this.uniqueId = uniqueId;
+    this.space = space;
+    this.remaining = space.size();
+  }
+
+  /**
+   * 値空間を取得.
+   * @return space
+   */
+  public UniqueValueSpace getSpace() {
+    return space;
+  }
+
+  /**
+   * 未使用の件数を取得.
+   * @return 件数
+   */
+  public synchronized long getRemaining() {
+    return remaining;
+  }
+
+  /**
+   * 飽和しているかどうか.
+   * ※飽和している場合はnext()で未使用の値から抽選すること
+   * @return true=飽和している, false=通常の生成で良い
+   */
+  public synchronized boolean isSaturated() {
+    return saturated;
+  }
+
+  /**
+   * 未使用の値から抽選する.
+   * ・抽選した値は使用済として扱い、使用しなかった場合はrecord()で戻す
+   * @return 未使用の値
+   * @throws SQLIntegrityConstraintViolationException 値空間を使い切った場合
+   */
+  public synchronized String next() throws SQLIntegrityConstraintViolationException {
+    if (remaining <= 0) {
+      throw new SQLIntegrityConstraintViolationException(String.format(
+          "ユニークな値を使い切りました。(識別子: %s, 件数: %d)", uniqueId, space.size()));
+    }
+    long index = indexAt(MaskingUtil.nextLong(MaskingUtil.getRandom(), remaining));
+    remove(index);
+    return space.valueOf(index);
+  }
+
+  /**
+   * ユニークリストへの登録結果を反映する.
+   * ・登録できた場合、重複した場合は使用済にする
+   * ・既登録の値を使用した場合は、抽選した値を未使用に戻す
+   * @param candidate 生成した値
+   * @param result 登録結果(登録できた値または既登録の値、重複した場合はnull)
+   * @param isDrawn 生成した値がnext()で抽選したものかどうか
+   */
+  public synchronized void record(String candidate, String result, boolean isDrawn) {
+
+    long index = space.indexOf(candidate);
+    if (index < 0) {
+      return;
+    }
+    if (result != null && !result.equals(candidate)) {
+      // 既登録の値を使用したので生成した値は使用していない
+      if (isDrawn) {
+        restore(index);
+      }
+      return;
+    }
+    remove(index);
+    if (isDrawn) {
+      return;
+    }
+    rejects = (result == null) ? rejects + 1 : 0;
+    if (rejects >= SATURATION_REJECTS
+        || space.size() - remaining >= space.size() * SATURATION_RATE) {
+      // 以降は未使用の値から抽選する
+      saturated = true;
+    }
+
+  }
+
+  private long indexAt(long pos) {
+    Long ret = indexAt.get(pos);
+    return (ret != null) ? ret : pos;
+  }
+
+  private long positionOf(long index) {
+    Long ret = positionOf.get(index);
+    return (ret != null) ? ret : index;
+  }
+
+  private void put(long pos, long index) {
+    if (pos == index) {
+      indexAt.remove(pos);
+      positionOf.remove(index);
+    } else {
+      indexAt.put(pos, index);
+      positionOf.put(index, pos);
+    }
+  }
+
+  /**
+   * 番号を使用済にする(未使用の末尾と入れ替える).
+   * @param index 番号
+   */
+  private void remove(long index) {
+    long pos = positionOf(index);
+    if (pos >= remaining) {
+      // 使用済
+      return;
+    }
+    long last = remaining - 1;
+    long lastIndex = indexAt(last);
+    put(pos, lastIndex);
+    put(last, index);
+    remaining--;
+  }
+
+  /**
+   * 番号を未使用に戻す(使用済の先頭と入れ替える).
+   * @param index 番号
+   */
+  private void restore(long index) {
+    long pos = positionOf(index);
+    if (pos < remaining) {
+      // 未使用
+      return;
+    }
+    long first = remaining;
+    long firstIndex = indexAt(first);
+    put(pos, firstIndex);
+    put(first, index);
+    remaining++;
+  }
+
+  /**
+   * 識別子・値空間ごとの抽選クラスを保持するクラス.
+   */
+  public static class Pool {
+
+    private final Map<String, UniqueValueSampler> samplers = new ConcurrentHashMap<>();
+
+    /**
+     * 識別子・値空間に対応する抽選クラスを取得.
+     * ※値空間が無いか大きすぎる場合は追跡しないためnull
+     * @param uniqueId 識別子
+     * @param space 値空間
+     * @return 抽選クラス
+     */
+    public UniqueValueSampler get(String uniqueId, UniqueValueSpace space) {
+      if (space == null || space.size() > MAX_SPACE_SIZE) {
+        return null;
+      }
+      String key = ((uniqueId == null) ? "" : uniqueId) + "\u0000" + space.getKey();
+      return samplers.computeIfAbsent(key, k -> new UniqueValueSampler(uniqueId, space));
+    }
+
+    /**
+     * 保持している抽選クラスを破棄する.
+     * ※ユニークリストを初期化した場合に呼ぶこと
+     */
+    public void clear() {
+      samplers.clear();
+    }
+
+  }
+
+}
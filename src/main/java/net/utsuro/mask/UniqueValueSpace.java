@@ -0,0 +1,198 @@
+package net.utsuro.mask;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * マスク処理が生成しうる出力値の範囲(値空間)を表すクラス.
+ * ・値空間の大きさと、0から大きさ-1までの番号と出力値の対応を持つ
+ * ・一意制管理で値空間が埋まってきた場合に、未使用の値を直接抽選するために使用する
+ * ※getKey()が同じ値空間は同じ番号で同じ出力値になること
+ */
+public abstract class UniqueValueSpace {
+
+  /**
+   * 値空間を識別するキーを取得.
+   * @return キー
+   */
+  public abstract String getKey();
+
+  /**
+   * 値空間の大きさ(生成しうる出力値の件数)を取得.
+   * ※long型に収まらない場合はLong.MAX_VALUE
+   * @return 件数
+   */
+  public abstract long size();
+
+  /**
+   * 番号に対応する出力値を取得.
+   * @param index 番号(0～size()-1)
+   * @return 出力値
+   */
+  public abstract String valueOf(long index);
+
+  /**
+   * 出力値に対応する番号を取得.
+   * @param value 出力値
+   * @return 番号、値空間に含まれない場合は-1
+   */
+  public abstract long indexOf(String value);
+
+  /**
+   * 1文字ごとに生成される文字が決まっている文字列の値空間を作成.
+   * @param chars 文字位置ごとの生成される文字の一覧(固定の文字は1件のみ)
+   * @param useLuhnDigit 最後の1桁をLuhnアルゴリズムのチェックディジットにするかどうか
+   * @return 値空間
+   */
+  public static UniqueValueSpace ofChars(String[][] chars, boolean useLuhnDigit) {
+    if (chars == null || chars.length == 0) {
+      throw new IllegalArgumentException("文字位置ごとの生成される文字を指定してください。");
+    }
+    for (String[] c : chars) {
+      if (c == null || c.length == 0) {
+        throw new IllegalArgumentException("生成される文字が無い文字位置があります。");
+      }
+    }
+    return new CharSpace(chars, useLuhnDigit);
+  }
+
+  /**
+   * 最小値から最大値までの日単位の日時の値空間を作成.
+   * ※RandomDateGeneratorの生成結果と同じく、最小値の時刻で日付のみ変わる
+   * @param min 最小値
+   * @param max 最大値
+   * @return 値空間
+   */
+  public static UniqueValueSpace ofDays(LocalDateTime min, LocalDateTime max) {
+    if (min == null || max == null || max.isBefore(min)) {
+      throw new IllegalArgumentException("最小値・最大値を正しく指定してください。");
+    }
+    return new DaySpace(min, ChronoUnit.DAYS.between(min, max) + 1);
+  }
+
+  /**
+   * 文字位置ごとの生成される文字の組み合わせの値空間.
+   */
+  private static class CharSpace extends UniqueValueSpace {
+
+    private final String[][] chars;
+    private final boolean useLuhnDigit;
+    private final long size;
+    private final String key;
+
+    CharSpace(String[][] chars, boolean useLuhnDigit) {
+      this.chars = chars;
+      this.useLuhnDigit = useLuhnDigit;
+      long n = 1;
+      StringBuilder sb = new StringBuilder(useLuhnDigit ? "L" : "C");
+      for (int i = 0; i < chars.length; i++) {
+        int len = (useLuhnDigit && i == chars.length - 1) ? 1 : chars[i].length;
+        n = (n > Long.MAX_VALUE / len) ? Long.MAX_VALUE : n * len;
+        sb.append('\u0001').append(String.join("", chars[i]));
+      }
+      this.size = n;
+      this.key = sb.toString();
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public String valueOf(long index) {
+      String[] ret = new String[chars.length];
+      long rest = index;
+      int last = useLuhnDigit ? chars.length - 1 : chars.length;
+      for (int i = last - 1; i >= 0; i--) {
+        ret[i] = chars[i][(int) (rest % chars[i].length)];
+        rest /= chars[i].length;
+      }
+      if (useLuhnDigit) {
+        // 最後の桁をチェックディジットと置換する
+        ret[last] = "0";
+        ret[last] = MaskingUtil.getLuhnDigit(String.join("", ret));
+      }
+      return String.join("", ret);
+    }
+
+    @Override
+    public long indexOf(String value) {
+      if (value == null || value.length() != chars.length) {
+        return -1;
+      }
+      long ret = 0;
+      int last = useLuhnDigit ? chars.length - 1 : chars.length;
+      for (int i = 0; i < last; i++) {
+        int pos = -1;
+        for (int j = 0; j < chars[i].length; j++) {
+          if (chars[i][j].length() == 1 && chars[i][j].charAt(0) == value.charAt(i)) {
+            pos = j;
+            break;
+          }
+        }
+        if (pos < 0) {
+          return -1;
+        }
+        ret = ret * chars[i].length + pos;
+      }
+      return ret;
+    }
+
+  }
+
+  /**
+   * 日単位の日時の値空間.
+   */
+  private static class DaySpace extends UniqueValueSpace {
+
+    private final LocalDateTime min;
+    private final long size;
+
+    DaySpace(LocalDateTime min, long size) {
+      this.min = min;
+      this.size = size;
+    }
+
+    @Override
+    public String getKey() {
+      return "D" + min + "/" + size;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public String valueOf(long index) {
+      return min.plusDays(index).toString();
+    }
+
+    @Override
+    public long indexOf(String value) {
+      if (value == null) {
+        return -1;
+      }
+      LocalDateTime dt;
+      try {
+        dt = LocalDateTime.parse(value);
+      } catch (DateTimeParseException e) {
+        return -1;
+      }
+      if (!dt.toLocalTime().equals(min.toLocalTime())) {
+        return -1;
+      }
+      long ret = ChronoUnit.DAYS.between(min, dt);
+      return (ret >= 0 && ret < size) ? ret : -1;
+    }
+
+  }
+
+}
@@ -0,0 +1,128 @@
+package net.utsuro.mask;
+
+import java.util.Random;
+
+/**
+ * 重み付きランダム抽選を定数時間で行うクラス.
+ * ・重み配列ごとに1回だけ別名表(Vose's alias method)を作成し、抽選は乱数2回と比較1回で行う
+ * ・作成後は変更しないため、複数スレッドで共有できる
+ * ※重みは整数のまま扱うため、確率は重み配列と完全に一致する
+ */
+public class WeightedSampler {
+
+  /**
+   * 列ごとの自身を採用する閾値(0～重み合計値).
+   */
+  private final long[] prob;
+
+  /**
+   * 列ごとの閾値以上の場合に採用するインデックス.
+   */
+  private final int[] alias;
+
+  /**
+   * 重み合計値.
+   */
+  private final long total;
+
+  /**
+   * コンストラクタ.
+   * @param weights 抽選対象の重み配列
+   */
+  public WeightedSampler(int[] weights) {
+
+    if (weights == null || weights.length == 0) {
+      throw new IllegalArgumentException("重みを指定してください。");
+    }
+    int n = weights.length;
+    long sum = 0;
+    for (int w : weights) {
+      if (w < 0) {
+        throw new IllegalArgumentException("重みに負の値は指定できません。");
+      }
+      sum += w;
+    }
+    if (sum == 0) {
+      throw new IllegalArgumentException("重みの合計が0です。");
+    }
+    this.total = sum;
+    this.prob = new long[n];
+    this.alias = new int[n];
+
+    // 1列あたりの容量を重み合計値とし、各重みをn倍して容量と比べる
+    long[] scaled = new long[n];
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = (long) weights[i] * n;
+      if (scaled[i] < total) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+    // 容量に満たない列を、容量を超える列の余りで埋める
+    while (smallCount > 0 && largeCount > 0) {
+      int s = small[--smallCount];
+      int l = large[--largeCount];
+      prob[s] = scaled[s];
+      alias[s] = l;
+      scaled[l] -= total - scaled[s];
+      if (scaled[l] < total) {
+        small[smallCount++] = l;
+      } else {
+        large[largeCount++] = l;
+      }
+    }
+    // 残りはちょうど容量分なので自身のみ
+    while (largeCount > 0) {
+      int l = large[--largeCount];
+      prob[l] = total;
+      alias[l] = l;
+    }
+    while (smallCount > 0) {
+      int s = small[--smallCount];
+      prob[s] = total;
+      alias[s] = s;
+    }
+
+  }
+
+  /**
+   * 抽選対象の件数を取得.
+   * @return 件数
+   */
+  public int size() {
+    return prob.length;
+  }
+
+  /**
+   * 重み合計値を取得.
+   * @return 重み合計値
+   */
+  public long getTotalWeight() {
+    return total;
+  }
+
+  /**
+   * 重み付きランダム抽選を行う.
+   * ※キーによる決定論的置換中はスレッドに割り当てた乱数を使用する
+   * @return 抽選結果のインデックス
+   */
+  public int next() {
+    return next(MaskingUtil.getRandom());
+  }
+
+  /**
+   * 指定した乱数で重み付きランダム抽選を行う.
+   * @param random 乱数生成用のインスタンス
+   * @return 抽選結果のインデックス
+   */
+  public int next(Random random) {
+    int col = MaskingUtil.nextInt(random, prob.length);
+    return (MaskingUtil.nextLong(random, total) < prob[col]) ? col : alias[col];
+  }
+
+}
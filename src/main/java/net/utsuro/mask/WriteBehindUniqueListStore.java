@@ -0,0 +1,450 @@
+package net.utsuro.mask;
+
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DBのユニークリスト(sys_unique_list)への登録をまとめて行う格納先クラス.
+ * ・登録した値は一旦メモリ上の未反映リストに溜め、件数または経過時間でバッチ登録する
+ * ・未反映リストの値も参照・重複チェックの対象とするため、決定論的置換・一意性はそのまま保たれる
+ * ※DBに既に登録済のOUTPUTは登録時にチェックして登録失敗とする(再抽選される)
+ * ※DBの重複チェックは1件ごとに行うため(直前のisExistsInUniqueList()で確認済の場合を除く)、
+ *   まとめられるのは登録(INSERT)とコミットのみ
+ * ※バッチ登録時に他プロセスの登録と重複した値はgetCollisions()で取得できる
+ * ※処理の最後に必ずflush()またはclose()を呼ぶこと
+ */
+public class WriteBehindUniqueListStore implements UniqueListStore {
+
+  /**
+   * デフォルトのバッチ件数.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /**
+   * デフォルトのフラッシュ間隔(ミリ秒).
+   */
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10000L;
+
+  private final Connection conn;
+  private final JdbcUniqueListStore delegate;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+
+  /**
+   * 未反映の登録内容(登録順).
+   */
+  private final List<Entry> pending = new ArrayList<>();
+
+  /**
+   * 識別子ごとの未反映のINPUT → OUTPUT.
+   */
+  private final Map<String, Map<String, String>> pendingInputs = new HashMap<>();
+
+  /**
+   * 識別子ごとの未反映のOUTPUT.
+   */
+  private final Map<String, Set<String>> pendingOutputs = new HashMap<>();
+
+  /**
+   * バッチ登録時に重複した登録内容.
+   */
+  private final List<Entry> collisions = new ArrayList<>();
+
+  /**
+   * 直前に存在しないことを確認したOUTPUT(登録時の再チェック省略用).
+   */
+  private Entry lastAbsent;
+
+  private long lastFlushTime = System.nanoTime();
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   */
+  public WriteBehindUniqueListStore(Connection conn) {
+    this(conn, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+  }
+
+  /**
+   * コンストラクタ.
+   * @param conn DBコネクション
+   * @param batchSize この件数溜まったらバッチ登録する
+   * @param flushIntervalMillis 前回のバッチ登録からこの時間(ミリ秒)経過したら登録時にバッチ登録する(0以下は時間で登録しない)
+   */
+  public WriteBehindUniqueListStore(Connection conn, int batchSize, long flushIntervalMillis) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("バッチ件数は1以上を指定してください。");
+    }
+    this.conn = conn;
+    this.delegate = new JdbcUniqueListStore(conn);
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = (flushIntervalMillis > 0) ? flushIntervalMillis * 1000000L : 0;
+  }
+
+  /**
+   * DBコネクションを取得.
+   * @return conn
+   */
+  public Connection getConnection() {
+    return conn;
+  }
+
+  /**
+   * ユニークリストから既登録の値を取得する.
+   * ※未反映の登録内容も対象とする
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 入力値
+   * @return INPUTが同じマスク済の値
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public String getRegisteredUniqueVal(String id, String val) throws SQLException {
+
+    if (conn == null || val == null) {
+      return null;
+    }
+    synchronized (conn) {
+      Map<String, String> inputs = pendingInputs.get(id);
+      String ret = (inputs != null) ? inputs.get(val) : null;
+      if (ret == null) {
+        ret = delegate.getRegisteredUniqueVal(id, val);
+      }
+      return ret;
+    }
+
+  }
+
+  /**
+   * ユニークリストに存在するかどうかを取得.
+   * ※未反映の登録内容も対象とする
+   * @param id 識別子(カラム名とは限らず)
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean isExistsInUniqueList(String id, String val) throws SQLException {
+
+    if (conn == null || val == null) {
+      return false;
+    }
+    synchronized (conn) {
+      if (isPendingOutput(id, val)) {
+        return true;
+      }
+      boolean ret = delegate.isExistsInUniqueList(id, val);
+      lastAbsent = ret ? null : new Entry(id, null, val);
+      return ret;
+    }
+
+  }
+
+  /**
+   * ユニークリストに登録する.
+   * ・未反映リストに追加し、バッチ件数または間隔に達していればバッチ登録する
+   * ※OUTPUTが未反映リストまたはDBに存在する場合は登録失敗とする
+   * ※DBの重複チェックは直前のisExistsInUniqueList()で同じOUTPUTを確認済の場合のみ省略する
+   * @param id 識別子(カラム名とは限らず)
+   * @param inputVal 入力値
+   * @param outputVal 出力値
+   * @return true=登録成功, false=一意にならず登録失敗
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public boolean addUniqueList(String id, String inputVal, String outputVal)
+      throws SQLException {
+
+    if (conn == null || conn.isClosed() || inputVal == null || outputVal == null) {
+      return true;
+    }
+    synchronized (conn) {
+      if (isPendingOutput(id, outputVal)) {
+        return false;
+      }
+      // 直前のisExistsInUniqueListで存在しないことを確認済ならDBの再チェックは省略
+      boolean checked = lastAbsent != null && lastAbsent.isSameOutput(id, outputVal);
+      lastAbsent = null;
+      if (!checked && delegate.isExistsInUniqueList(id, outputVal)) {
+        return false;
+      }
+      Entry entry = new Entry(id, inputVal, outputVal);
+      pending.add(entry);
+      pendingOutputs.computeIfAbsent(id, k -> new HashSet<>()).add(outputVal);
+      pendingInputs.computeIfAbsent(id, k -> new HashMap<>()).putIfAbsent(inputVal, outputVal);
+      if (pending.size() >= batchSize
+          || (flushIntervalNanos > 0 && System.nanoTime() - lastFlushTime >= flushIntervalNanos)) {
+        flush();
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * 未反映の登録内容をバッチ登録する.
+   * ・自動コミットの場合はバッチ単位でコミットする
+   * ・バッチ登録で一意制約違反が発生した場合は1件ずつ登録し直して重複した値を特定する
+   * ・未反映リストは登録できたものだけ除き、エラーになった場合は残して次回に再登録する
+   * ※自動コミットでない場合のコミットは呼び出し元で行うこと
+   * ※自動コミットでない場合にバッチ登録でエラーが発生した場合は例外をそのままスローする
+   *   (呼び出し元でロールバックしてから再度flush()すること)
+   * ※重複した登録内容はgetCollisions()で取得する
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void flush() throws SQLException {
+
+    if (conn == null) {
+      return;
+    }
+    synchronized (conn) {
+      lastFlushTime = System.nanoTime();
+      if (pending.isEmpty() || conn.isClosed()) {
+        return;
+      }
+      // 未反映リストは登録できるまで残しておく(エラー時に失われないように)
+      boolean autoCommit = conn.getAutoCommit();
+      try (PreparedStatement stmt = delegate.getStatementCache().prepare(JdbcUniqueListStore.INSERT_SQL)) {
+        if (autoCommit) {
+          conn.setAutoCommit(false);
+        }
+        try {
+          for (Entry entry : pending) {
+            stmt.setString(1, entry.getId());
+            stmt.setString(2, entry.getInputVal());
+            stmt.setString(3, entry.getOutputVal());
+            stmt.addBatch();
+          }
+          stmt.executeBatch();
+          if (autoCommit) {
+            conn.commit();
+          }
+          clearPending();
+        } catch (BatchUpdateException e) {
+          if (!autoCommit) {
+            throw e;
+          }
+          // 他プロセスの登録と重複したものがあるので1件ずつ登録して特定する
+          conn.rollback();
+          conn.setAutoCommit(true);
+          addEach();
+        } catch (SQLException | RuntimeException e) {
+          if (autoCommit) {
+            conn.rollback();
+          }
+          throw e;
+        }
+      } finally {
+        if (autoCommit && !conn.getAutoCommit()) {
+          conn.setAutoCommit(true);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * ユニークリストを初期化する.
+   * ※未反映の登録内容も破棄する
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void clear() throws SQLException {
+
+    if (conn == null) {
+      return;
+    }
+    synchronized (conn) {
+      clearPending();
+      collisions.clear();
+      lastAbsent = null;
+      delegate.clear();
+    }
+
+  }
+
+  /**
+   * 登録内容を全て取得する.
+   * ※未反映の登録内容を反映してからDBから取得する
+   * @param consumer 登録内容を受け取る処理
+   * @throws SQLException DBアクセス時のエラー
+   * @throws IOException 受け取る処理でのエラー
+   */
+  @Override
+  public void forEachEntry(EntryConsumer consumer) throws SQLException, IOException {
+    flush();
+    delegate.forEachEntry(consumer);
+  }
+
+  /**
+   * スナップショットから登録内容を読み込む.
+   * ※未反映の登録内容を反映してからDBにバッチ登録する
+   * @param reader スナップショットの読み込み
+   * @throws SQLException DBアクセス時のエラー
+   * @throws IOException 読み込み時のエラー
+   */
+  @Override
+  public void loadSnapshot(UniqueListSnapshot.Reader reader) throws SQLException, IOException {
+    flush();
+    delegate.loadSnapshot(reader);
+  }
+
+  /**
+   * 格納先の使用を終了する.
+   * ・未反映の登録内容を反映してからキャッシュ中のステートメントを閉じる
+   * ※反映でエラーが発生した場合もステートメントは閉じる
+   * @throws SQLException DBアクセス時のエラー
+   */
+  @Override
+  public void close() throws SQLException {
+    try {
+      flush();
+    } finally {
+      delegate.close();
+    }
+  }
+
+  /**
+   * 未反映の登録件数を取得.
+   * @return 未反映の登録件数
+   */
+  public int getPendingCount() {
+    if (conn == null) {
+      return 0;
+    }
+    synchronized (conn) {
+      return pending.size();
+    }
+  }
+
+  /**
+   * これまでのバッチ登録で重複した登録内容を取得.
+   * @return 重複した登録内容
+   */
+  public List<Entry> getCollisions() {
+    if (conn == null) {
+      return Collections.emptyList();
+    }
+    synchronized (conn) {
+      return new ArrayList<>(collisions);
+    }
+  }
+
+  /**
+   * 未反映の登録内容を1件ずつ登録し、重複したものを記録する.
+   * ※途中でエラーになった場合は、それまでに処理したものだけ未反映リストから除く
+   * @throws SQLException DBアクセス時のエラー
+   */
+  private void addEach() throws SQLException {
+    int done = 0;
+    try {
+      for (Entry entry : pending) {
+        if (!delegate.addUniqueList(entry.getId(), entry.getInputVal(), entry.getOutputVal())) {
+          collisions.add(entry);
+        }
+        done++;
+      }
+    } finally {
+      List<Entry> processed = pending.subList(0, done);
+      for (Entry entry : processed) {
+        Set<String> outputs = pendingOutputs.get(entry.getId());
+        if (outputs != null) {
+          outputs.remove(entry.getOutputVal());
+        }
+        Map<String, String> inputs = pendingInputs.get(entry.getId());
+        if (inputs != null) {
+          inputs.remove(entry.getInputVal(), entry.getOutputVal());
+        }
+      }
+      processed.clear();
+    }
+  }
+
+  /**
+   * 未反映の登録内容を破棄する.
+   */
+  private void clearPending() {
+    pending.clear();
+    pendingInputs.clear();
+    pendingOutputs.clear();
+  }
+
+  /**
+   * 未反映リストにOUTPUTが存在するかどうか.
+   * @param id 識別子
+   * @param val 出力値
+   * @return true=存在する, false=存在しない
+   */
+  private boolean isPendingOutput(String id, String val) {
+    Set<String> outputs = pendingOutputs.get(id);
+    return outputs != null && outputs.contains(val);
+  }
+
+  /**
+   * ユニークリストの登録内容.
+   */
+  public static class Entry {
+
+    private final String id;
+    private final String inputVal;
+    private final String outputVal;
+
+    /**
+     * コンストラクタ.
+     * @param id 識別子
+     * @param inputVal 入力値
+     * @param outputVal 出力値
+     */
+    public Entry(String id, String inputVal, String outputVal) {
+      this.id = id;
+      this.inputVal = inputVal;
+      this.outputVal = outputVal;
+    }
+
+    /**
+     * 識別子を取得.
+     * @return id
+     */
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * 入力値を取得.
+     * @return inputVal
+     */
+    public String getInputVal() {
+      return inputVal;
+    }
+
+    /**
+     * 出力値を取得.
+     * @return outputVal
+     */
+    public String getOutputVal() {
+      return outputVal;
+    }
+
+    private boolean isSameOutput(String id, String outputVal) {
+      return outputVal.equals(this.outputVal)
+          && (id == null ? this.id == null : id.equals(this.id));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %s -> %s", id, inputVal, outputVal);
+    }
+
+  }
+
+}
@@ -0,0 +1,109 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class BatchMaskingTaskTest {
+
+  @Nested
+  @DisplayName("method: invoke")
+  class Invoke {
+
+    @Test
+    @DisplayName("マスク処理が無い、件数・分割単位が不正な場合はエラー")
+    void case1() throws Exception {
+      Object[] values = new Object[3];
+      MaskedTextReplacer mask = new MaskedTextReplacer();
+      Exception e = assertThrows(IllegalArgumentException.class,
+          () -> BatchMaskingTask.invoke(null, null, values, values, 3, new MaskingRule()));
+      assertEquals("マスク処理が指定されていません。", e.getMessage());
+      e = assertThrows(IllegalArgumentException.class,
+          () -> BatchMaskingTask.invoke(null, mask, values, new Object[2], 3, new MaskingRule()));
+      assertEquals("件数 3 が配列の長さを超えています。", e.getMessage());
+      e = assertThrows(IllegalArgumentException.class,
+          () -> BatchMaskingTask.invoke(null, mask, values, values, 3, new MaskingRule(), 0));
+      assertEquals("分割単位 0 は1以上を指定してください。", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("分割して並列に実行しても1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      MaskedTextReplacer mask = new MaskedTextReplacer();
+      MaskingRule rule = new MaskingRule();
+      rule.setUnmaksedLengthLeft(1);
+      int len = 1000;
+      Object[] in = new Object[len + 1];
+      for (int i = 0; i < len; i++) {
+        in[i] = (i % 7 == 0) ? null : "テスト" + i;
+      }
+      in[len] = "対象外";
+      Object[] out = new Object[in.length];
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+        BatchMaskingTask.invoke(pool, mask, in, out, len, rule, 16);
+      } finally {
+        pool.shutdown();
+      }
+      for (int i = 0; i < len; i++) {
+        assertEquals(mask.execute(in[i], rule), out[i], String.valueOf(in[i]));
+      }
+      assertNull(out[len]);
+      BatchMaskingTask.invoke(null, mask, in, in, len, rule);
+      assertArrayEquals(Arrays.copyOf(out, len), Arrays.copyOf(in, len));
+      assertEquals("対象外", in[len]);
+    }
+
+    @Test
+    @DisplayName("マスク処理でのエラーは元の例外で返る")
+    void case3() throws Exception {
+      DataMask failure = (src, rule) -> {
+        if ("NG".equals(src)) {
+          throw new SQLException("NG");
+        }
+        return src;
+      };
+      Object[] values = new Object[100];
+      values[77] = "NG";
+      Exception e = assertThrows(SQLException.class,
+          () -> BatchMaskingTask.invoke(null, failure, values, values, values.length, null, 8));
+      assertEquals("NG", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("ルールは1回だけ解決し、分割した全ての範囲で同じものを使う")
+    void case4() throws Exception {
+      Set<CompiledRule> passed = ConcurrentHashMap.newKeySet();
+      AtomicInteger count = new AtomicInteger();
+      DataMask mask = new DataMask() {
+        @Override
+        public Object execute(Object src, MaskingRule rule) throws Exception {
+          return src;
+        }
+
+        @Override
+        public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff,
+            int len, CompiledRule rule) throws Exception {
+          passed.add(rule);
+          count.incrementAndGet();
+        }
+      };
+      BatchMaskingTask.invoke(null, mask, new Object[100], new Object[100], 100,
+          new MaskingRule(), 10);
+      assertTrue(count.get() >= 10);
+      assertEquals(1, passed.size());
+      assertNotNull(passed.iterator().next());
+    }
+
+  }
+
+}
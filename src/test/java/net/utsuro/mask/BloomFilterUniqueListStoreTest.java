@@ -0,0 +1,199 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class BloomFilterUniqueListStoreTest {
+
+  @Mock
+  Connection mockConn;
+  @Mock
+  PreparedStatement mockPreparedStmnt;
+  @Mock
+  ResultSet mockResultSet;
+
+  @Nested
+  @DisplayName("method: constructor")
+  class Constructor {
+
+    @Test
+    @DisplayName("不正な引数はエラー")
+    void case1() throws Exception {
+      InMemoryUniqueListStore delegate = new InMemoryUniqueListStore();
+      assertThrows(IllegalArgumentException.class, () -> new BloomFilterUniqueListStore(null));
+      assertThrows(IllegalArgumentException.class, () -> new BloomFilterUniqueListStore(delegate, 0, 0.01));
+      assertThrows(IllegalArgumentException.class, () -> new BloomFilterUniqueListStore(delegate, 100, 0));
+      assertThrows(IllegalArgumentException.class, () -> new BloomFilterUniqueListStore(delegate, 100, 1));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: isExistsInUniqueList")
+  class IsExistsInUniqueList {
+
+    @Test
+    @DisplayName("rebuild/clear前は全て元の格納先に問い合わせる")
+    void case1() throws Exception {
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(delegate, 100, 0.01);
+      delegate.addUniqueList("HOGE", "id1", "fuga");
+      assertTrue(store.isExistsInUniqueList("HOGE", "fuga"));
+      assertFalse(store.isExistsInUniqueList("HOGE", "piyo"));
+      verify(delegate, times(2)).isExistsInUniqueList(anyString(), anyString());
+      assertEquals(0, store.getNegativeCount());
+    }
+
+    @Test
+    @DisplayName("フィルタで存在しないと判定できた場合は元の格納先に問い合わせない")
+    void case2() throws Exception {
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(delegate, 1000, 0.01);
+      store.clear();
+      assertFalse(store.isExistsInUniqueList("HOGE", null));
+      for (int i = 0; i < 1000; i++) {
+        assertTrue(store.addUniqueList("HOGE", "in" + i, "out" + i));
+      }
+      // 登録済は必ずtrue
+      for (int i = 0; i < 1000; i++) {
+        assertTrue(store.isExistsInUniqueList("HOGE", "out" + i));
+      }
+      // 未登録は大半が問い合わせ不要
+      for (int i = 1000; i < 11000; i++) {
+        assertFalse(store.isExistsInUniqueList("HOGE", "out" + i));
+      }
+      // 識別子が違えばフィルタも別
+      assertFalse(store.isExistsInUniqueList("FUGA", "out1"));
+      assertTrue(store.getPositiveCount() >= 1000);
+      assertTrue(store.getNegativeCount() > 9500, String.format("%d件は少なすぎ", store.getNegativeCount()));
+      assertTrue(store.getObservedFalsePositiveRate() < 0.03,
+          String.format("誤検知率%fは高すぎ", store.getObservedFalsePositiveRate()));
+      double expected = store.getExpectedFalsePositiveRate("HOGE");
+      assertTrue(expected > 0.005 && expected < 0.02, String.format("想定誤検知率%fはNG", expected));
+      assertEquals(0, store.getExpectedFalsePositiveRate("PIYO"));
+      // 1000件1%なら約1.2KB
+      assertTrue(store.getMemoryUsage() > 1000 && store.getMemoryUsage() < 1500);
+    }
+
+    @Test
+    @DisplayName("識別子ごとの想定件数でフィルタのサイズが決まる")
+    void case3() throws Exception {
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(new InMemoryUniqueListStore(), 1000, 0.01);
+      store.setExpectedCount("HOGE", 100000);
+      assertThrows(IllegalArgumentException.class, () -> store.setExpectedCount("FUGA", 0));
+      store.clear();
+      store.addUniqueList("HOGE", "id1", "fuga");
+      long hoge = store.getMemoryUsage();
+      store.addUniqueList("FUGA", "id1", "fuga");
+      long fuga = store.getMemoryUsage() - hoge;
+      assertTrue(hoge > fuga * 90, String.format("%d, %d", hoge, fuga));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addUniqueList")
+  class AddUniqueList {
+
+    @Test
+    @DisplayName("重複で登録失敗した値も存在する扱いになる")
+    void case1() throws Exception {
+      InMemoryUniqueListStore delegate = new InMemoryUniqueListStore();
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(delegate, 100, 0.01);
+      store.clear();
+      // フィルタを通さずに登録された値
+      delegate.addUniqueList("HOGE", "id1", "fuga");
+      assertFalse(store.addUniqueList("HOGE", "id2", "fuga"));
+      assertTrue(store.isExistsInUniqueList("HOGE", "fuga"));
+      assertTrue(store.addUniqueList("HOGE", null, "piyo"));
+      assertEquals("fuga", store.getRegisteredUniqueVal("HOGE", "id1"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addOrGetUniqueList")
+  class AddOrGetUniqueList {
+
+    @Test
+    @DisplayName("元の格納先にそのまま委譲し、結果の値は存在する扱いになる")
+    void case1() throws Exception {
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(delegate, 100, 0.01);
+      store.clear();
+      assertEquals("out1", store.addOrGetUniqueList("HOGE", "id1", "out1"));
+      assertEquals("out1", store.addOrGetUniqueList("HOGE", "id1", "out2"));
+      // フィルタを通さずに登録された値と重複
+      delegate.addUniqueList("HOGE", "id3", "out3");
+      assertNull(store.addOrGetUniqueList("HOGE", "id4", "out3"));
+      verify(delegate, times(3)).addOrGetUniqueList(anyString(), anyString(), anyString());
+      assertTrue(store.isExistsInUniqueList("HOGE", "out1"));
+      assertTrue(store.isExistsInUniqueList("HOGE", "out3"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: rebuild")
+  class Rebuild {
+
+    @Test
+    @DisplayName("DBのユニークリストからフィルタを作り直す")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement("SELECT id, output_val FROM sys_unique_list")).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true, true, true, false);
+      when(mockResultSet.getString("id")).thenReturn("HOGE", "HOGE", "FUGA");
+      when(mockResultSet.getString("output_val")).thenReturn("out1", null, "out2");
+
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(delegate, 100, 0.01);
+      store.rebuild(mockConn);
+      verify(mockPreparedStmnt, times(1)).setFetchSize(10000);
+      // フィルタにある値は元の格納先に問い合わせる
+      assertFalse(store.isExistsInUniqueList("HOGE", "out1"));
+      assertFalse(store.isExistsInUniqueList("FUGA", "out2"));
+      verify(delegate, times(2)).isExistsInUniqueList(anyString(), anyString());
+      // フィルタに無い値は問い合わせない
+      assertFalse(store.isExistsInUniqueList("HOGE", "out2"));
+      verify(delegate, times(2)).isExistsInUniqueList(anyString(), anyString());
+      assertEquals(2.0 / 3, store.getObservedFalsePositiveRate(), 0.0001);
+    }
+
+    @Test
+    @DisplayName("作り直している間は元の格納先に問い合わせる")
+    void case2() throws Exception {
+      UniqueListStore delegate = new InMemoryUniqueListStore();
+      BloomFilterUniqueListStore store = new BloomFilterUniqueListStore(delegate, 100, 0.01);
+      store.clear();
+      delegate.addUniqueList("HOGE", "id1", "out1");
+      // モックの設定(読み込み中に存在チェックする)
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement("SELECT id, output_val FROM sys_unique_list")).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenAnswer(invocation -> {
+        assertTrue(store.isExistsInUniqueList("HOGE", "out1"));
+        return false;
+      });
+      store.rebuild(mockConn);
+    }
+
+  }
+
+}
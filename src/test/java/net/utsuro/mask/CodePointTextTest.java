@@ -0,0 +1,132 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class CodePointTextTest {
+
+  @Nested
+  @DisplayName("method: of")
+  class Of {
+
+    @Test
+    @DisplayName("サロゲートペアは1文字として展開される")
+    void case1() throws Exception {
+      try (CodePointText text = CodePointText.of("𠀋あ𪚲a")) {
+        assertEquals(4, text.length());
+        assertEquals("𠀋".codePointAt(0), text.codePointAt(0));
+        assertEquals('あ', text.codePointAt(1));
+        assertEquals("𪚲".codePointAt(0), text.codePointAt(2));
+        assertEquals('a', text.codePointAt(3));
+      }
+    }
+
+    @Test
+    @DisplayName("対になっていないサロゲートはそのまま1文字になる")
+    void case2() throws Exception {
+      try (CodePointText text = CodePointText.of("\uD840a\uDC0B")) {
+        assertEquals(3, text.length());
+        for (int i = 0; i < text.length(); i++) {
+          text.appendSource(i);
+        }
+        assertEquals("\uD840a\uDC0B", text.result());
+      }
+    }
+
+    @Test
+    @DisplayName("使用中に入れ子で取得した場合は別の作業領域、返却後は同じ作業領域が返る")
+    void case3() throws Exception {
+      CodePointText first;
+      try (CodePointText outer = CodePointText.of("abc")) {
+        first = outer;
+        try (CodePointText inner = CodePointText.of("あいうえ")) {
+          assertNotSame(outer, inner);
+          assertEquals(4, inner.length());
+          inner.append("x");
+        }
+        // 入れ子の作業領域で外側が上書きされないこと
+        assertEquals(3, outer.length());
+        assertEquals("", outer.result());
+      }
+      try (CodePointText text = CodePointText.of("def")) {
+        assertSame(first, text);
+        assertEquals("", text.result());
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: swap")
+  class Swap {
+
+    @Test
+    @DisplayName("サロゲートペアを崩さずに入れ替わる")
+    void case1() throws Exception {
+      try (CodePointText text = CodePointText.of("𠀋あ𪚲")) {
+        text.swap(0, 1);
+        text.swap(1, 2);
+        for (int i = 0; i < text.length(); i++) {
+          text.appendSource(i);
+        }
+        assertEquals("あ𪚲𠀋", text.result());
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: find")
+  class Find {
+
+    @Test
+    @DisplayName("BMP内の全文字で1文字の文字列にfind()した結果と一致する")
+    void case1() throws Exception {
+      Pattern[] patterns = {
+          Pattern.compile("[ 　]"),
+          Pattern.compile("[a-c]", Pattern.CASE_INSENSITIVE),
+          Pattern.compile("[^0-9０-９]"),
+      };
+      for (Pattern p : patterns) {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+          boolean expected = p.matcher(String.valueOf((char) c)).find();
+          assertEquals(expected, CodePointText.find(p, c), String.format("%s U+%04X", p, c));
+          // 2回目は判定表から
+          assertEquals(expected, CodePointText.find(p, c), String.format("%s U+%04X", p, c));
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("BMP外の文字はサロゲートペアの文字列として判定する")
+    void case2() throws Exception {
+      Pattern p = Pattern.compile("[𠀋]");
+      try (CodePointText text = CodePointText.of("𠀋𪚲")) {
+        assertTrue(text.find(0, p));
+        assertFalse(text.find(1, p));
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: isWideChar")
+  class IsWideChar {
+
+    @Test
+    @DisplayName("BMP外の文字は全角、BMP内はSJISのバイト数で判定する")
+    void case1() throws Exception {
+      assertTrue(CodePointText.isWideChar("𠀋".codePointAt(0)));
+      assertTrue(CodePointText.isWideChar('あ'));
+      assertFalse(CodePointText.isWideChar('ｱ'));
+      assertFalse(CodePointText.isWideChar('a'));
+    }
+
+  }
+
+}
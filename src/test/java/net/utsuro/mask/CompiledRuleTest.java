@@ -0,0 +1,195 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.chrono.JapaneseChronology;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class CompiledRuleTest {
+
+  @Nested
+  @DisplayName("method: compile")
+  class Compile {
+
+    @Test
+    @DisplayName("ルールが無い場合はnullが返る")
+    void case1() throws Exception {
+      assertNull(CompiledRule.compile(null));
+    }
+
+    @Test
+    @DisplayName("ルールをコピーするため元のルールを変更しても影響しない")
+    void case2() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName(String.class.getName());
+      CompiledRule compiled = CompiledRule.compile(rule);
+      rule.setToClassName(Long.class.getName());
+      assertNotSame(rule, compiled.getRule());
+      assertEquals(String.class.getName(), compiled.getRule().getToClassName());
+      assertEquals(String.class, compiled.getToClass());
+    }
+
+    @Test
+    @DisplayName("解決できない型変換先・日付書式でも作成でき、使用した時点でエラーになる")
+    void case3() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName("hoge");
+      rule.setDateTimeFormat("yyyyMMddb");
+      CompiledRule compiled = CompiledRule.compile(rule);
+      Exception e = assertThrows(IllegalArgumentException.class, () -> compiled.getToClass());
+      assertEquals("型変換先の指定 hoge に問題があります。", e.getMessage());
+      assertThrows(IllegalArgumentException.class, () -> compiled.getDateTimeFormatter());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getToClass")
+  class GetToClass {
+
+    @Test
+    @DisplayName("型変換先が指定されていない場合はエラー")
+    void case1() throws Exception {
+      CompiledRule compiled = CompiledRule.compile(new MaskingRule());
+      Exception e = assertThrows(IllegalArgumentException.class, () -> compiled.getToClass());
+      assertEquals("型変換先が指定されていません。", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("型変換先のクラスが返る")
+    void case2() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName(LocalDate.class.getName());
+      assertEquals(LocalDate.class, CompiledRule.compile(rule).getToClass());
+      assertEquals(LocalDate.class, CompiledRule.wrap(rule).getToClass());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getDateTimeFormatter")
+  class GetDateTimeFormatter {
+
+    @Test
+    @DisplayName("書式指定無しの場合はnullが返る")
+    void case1() throws Exception {
+      assertNull(CompiledRule.compile(new MaskingRule()).getDateTimeFormatter());
+    }
+
+    @Test
+    @DisplayName("GGGGを含む場合は和暦の書式が返る")
+    void case2() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setDateTimeFormat("GGGGy年MM月dd日");
+      CompiledRule compiled = CompiledRule.compile(rule);
+      assertEquals(JapaneseChronology.INSTANCE, compiled.getDateTimeFormatter().getChronology());
+      assertSame(compiled.getDateTimeFormatter(), compiled.getDateTimeFormatter());
+      rule.setDateTimeFormat("yyyy/MM/dd");
+      assertNull(CompiledRule.compile(rule).getDateTimeFormatter().getChronology());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: withToClassName")
+  class WithToClassName {
+
+    @Test
+    @DisplayName("型変換先だけ異なるルールが返り、2回目以降は同じものが返る")
+    void case1() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName(String.class.getName());
+      rule.useHalfKana(true);
+      CompiledRule compiled = CompiledRule.compile(rule);
+      assertSame(compiled, compiled.withToClassName(String.class.getName()));
+      CompiledRule derived = compiled.withToClassName(LocalDateTime.class.getName());
+      assertEquals(LocalDateTime.class, derived.getToClass());
+      assertTrue(derived.getRule().useHalfKana());
+      assertEquals(String.class.getName(), compiled.getRule().getToClassName());
+      assertSame(derived, compiled.withToClassName(LocalDateTime.class.getName()));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getAfterTextReplaceRule")
+  class GetAfterTextReplaceRule {
+
+    @Test
+    @DisplayName("奇数目・偶数目の指定をマスク後の置換マスク用の指定に差し替えたルールが返る")
+    void case1() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.useOddCharMask(true);
+      rule.useAfterRepEvenCharMask(true);
+      CompiledRule compiled = CompiledRule.compile(rule);
+      MaskingRule afterRep = compiled.getAfterTextReplaceRule().getRule();
+      assertFalse(afterRep.useOddCharMask());
+      assertTrue(afterRep.useEvenCharMask());
+      assertTrue(compiled.getRule().useOddCharMask());
+      assertSame(afterRep, compiled.getAfterTextReplaceRule().getRule());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getDerived")
+  class GetDerived {
+
+    @Test
+    @DisplayName("キーごとに初回のみ作成される")
+    void case1() throws Exception {
+      CompiledRule compiled = CompiledRule.compile(new MaskingRule());
+      int[] count = {0};
+      Object first = compiled.getDerived("key", r -> {
+        count[0]++;
+        return new Object();
+      });
+      Object second = compiled.getDerived("key", r -> {
+        count[0]++;
+        return new Object();
+      });
+      assertSame(first, second);
+      assertEquals(1, count[0]);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: DataMask.executeCompiled")
+  class ExecuteCompiled {
+
+    @Test
+    @DisplayName("ルールが無い場合はそのまま返る")
+    void case1() throws Exception {
+      assertEquals("あいう", new TypeConverter().executeCompiled("あいう", null));
+      assertEquals("あいう", new TextReplace().executeCompiled("あいう", null));
+    }
+
+    @Test
+    @DisplayName("ルールを直接渡した場合と同じ結果が返る")
+    void case2() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName(String.class.getName());
+      rule.setDateTimeFormat("GGGGy年MM月dd日");
+      rule.useHalfKana(true);
+      CompiledRule compiled = CompiledRule.compile(rule);
+      TypeConverter converter = new TypeConverter();
+      for (Object src : Arrays.asList("あいうカキク", LocalDate.of(2021, 1, 3), 123L)) {
+        assertEquals(converter.execute(src, rule), converter.executeCompiled(src, compiled));
+      }
+      Object[] src = {LocalDate.of(2021, 1, 3), LocalTime.of(20, 42, 59)};
+      assertEquals(new DateTimeConcat().execute(src, rule),
+          new DateTimeConcat().executeCompiled(src, compiled));
+      assertEquals("令和3年01月03日", new DateTimeConcat().executeCompiled(src, compiled));
+    }
+
+  }
+
+}
@@ -214,4 +214,23 @@ class DataMaskTest implements DataMask {
 
   }
 
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("先頭から件数分をexecute()で処理し、残りは変更しない")
+    void case1() throws Exception {
+      DataMask mask = (src, rule) -> (src == null) ? null : src + "!";
+      Object[] in = {"a", null, "c", "d"};
+      Object[] out = new Object[4];
+      mask.executeBatch(in, out, 3, new MaskingRule());
+      assertArrayEquals(new Object[] {"a!", null, "c!", null}, out);
+      assertArrayEquals(new Object[] {"a", null, "c", "d"}, in);
+      mask.executeBatch(in, in, 4, new MaskingRule());
+      assertArrayEquals(new Object[] {"a!", null, "c!", "d!"}, in);
+    }
+
+  }
+
 }
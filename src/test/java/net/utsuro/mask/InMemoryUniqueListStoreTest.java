@@ -0,0 +1,225 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class InMemoryUniqueListStoreTest extends InMemoryUniqueListStore {
+
+  @Nested
+  @DisplayName("method: constructor")
+  class Constructor {
+
+    @Test
+    @DisplayName("ストライプ数が0以下の場合はエラー")
+    void case1() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> new InMemoryUniqueListStore(0));
+      assertThrows(IllegalArgumentException.class, () -> new InMemoryUniqueListStore(-1));
+    }
+
+    @Test
+    @DisplayName("ストライプ数が2の累乗でなくても使用できる")
+    void case2() throws Exception {
+      InMemoryUniqueListStore store = new InMemoryUniqueListStore(3);
+      for (int i = 0; i < 100; i++) {
+        assertTrue(store.addUniqueList("HOGE", "in" + i, "out" + i));
+      }
+      assertEquals(100, store.size("HOGE"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getRegisteredUniqueVal")
+  class GetRegisteredUniqueVal {
+
+    @Test
+    @DisplayName("登録済のINPUTの場合はその値を返す")
+    void case1() throws Exception {
+      clear();
+      // 未登録
+      assertEquals(null, getRegisteredUniqueVal("HOGE", "id1"));
+      // nullを渡したとき
+      assertEquals(null, getRegisteredUniqueVal("HOGE", null));
+      addUniqueList("HOGE", "id1", "fuga");
+      assertEquals("fuga", getRegisteredUniqueVal("HOGE", "id1"));
+      // 識別子が違えば別扱い
+      assertEquals(null, getRegisteredUniqueVal("FUGA", "id1"));
+      // 同じINPUTは最初に登録された値を返す
+      addUniqueList("HOGE", "id1", "piyo");
+      assertEquals("fuga", getRegisteredUniqueVal("HOGE", "id1"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: isExistsInUniqueList")
+  class IsExistsInUniqueList {
+
+    @Test
+    @DisplayName("登録済のOUTPUTの場合はtrue、なければfalseを返す")
+    void case1() throws Exception {
+      clear();
+      assertFalse(isExistsInUniqueList("HOGE", "fuga"));
+      assertFalse(isExistsInUniqueList("HOGE", null));
+      addUniqueList("HOGE", "id1", "fuga");
+      assertTrue(isExistsInUniqueList("HOGE", "fuga"));
+      assertFalse(isExistsInUniqueList("HOGE", "id1"));
+      assertFalse(isExistsInUniqueList("FUGA", "fuga"));
+      // 識別子のnullは空文字と同じ扱い
+      addUniqueList(null, "id1", "piyo");
+      assertTrue(isExistsInUniqueList("", "piyo"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addUniqueList")
+  class AddUniqueList {
+
+    @Test
+    @DisplayName("ユニークリストへの登録")
+    void case1() throws Exception {
+      clear();
+      // nullを渡したとき
+      assertTrue(addUniqueList("HOGE", null, null));
+      assertTrue(addUniqueList("HOGE", null, "hoge"));
+      assertTrue(addUniqueList("HOGE", "id3", null));
+      assertEquals(0, size("HOGE"));
+      // 正常な場合
+      assertTrue(addUniqueList("HOGE", "id1", "fuga"));
+      // OUTPUTが重複する場合はNG
+      assertFalse(addUniqueList("HOGE", "id2", "fuga"));
+      // 同じINPUTでもOUTPUTが違えば登録できる
+      assertTrue(addUniqueList("HOGE", "id1", "piyo"));
+      // 識別子が違えば登録できる
+      assertTrue(addUniqueList("FUGA", "id2", "fuga"));
+      assertEquals(2, size("HOGE"));
+      assertEquals(1, size("FUGA"));
+    }
+
+    @Test
+    @DisplayName("複数スレッドから同じ値を登録しても1件しか成功しない")
+    void case2() throws Exception {
+      clear();
+      int threads = 8;
+      int count = 1000;
+      AtomicInteger success = new AtomicInteger();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          String in = "thread" + t;
+          futures.add(executor.submit(() -> {
+            for (int i = 0; i < count; i++) {
+              if (addUniqueList("HOGE", in, Integer.toString(i))) {
+                success.incrementAndGet();
+              }
+            }
+          }));
+        }
+        for (Future<?> f : futures) {
+          f.get();
+        }
+      } finally {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+      }
+      assertEquals(count, success.get());
+      assertEquals(count, size("HOGE"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addOrGetUniqueList")
+  class AddOrGetUniqueList {
+
+    @Test
+    @DisplayName("登録済のINPUTはその値、未登録なら登録した値、OUTPUTが重複する場合はnull")
+    void case1() throws Exception {
+      clear();
+      // nullを渡したとき
+      assertEquals("hoge", addOrGetUniqueList("HOGE", null, "hoge"));
+      assertNull(addOrGetUniqueList("HOGE", "id1", null));
+      assertEquals(0, size("HOGE"));
+      // 正常な場合
+      assertEquals("fuga", addOrGetUniqueList("HOGE", "id1", "fuga"));
+      // 登録済のINPUTは登録済の値
+      assertEquals("fuga", addOrGetUniqueList("HOGE", "id1", "piyo"));
+      assertEquals("fuga", addOrGetUniqueList("HOGE", "id1", null));
+      // OUTPUTが重複する場合はnull
+      assertNull(addOrGetUniqueList("HOGE", "id2", "fuga"));
+      assertNull(getRegisteredUniqueVal("HOGE", "id2"));
+      assertEquals(1, size("HOGE"));
+      assertFalse(isExistsInUniqueList("HOGE", "piyo"));
+    }
+
+    @Test
+    @DisplayName("複数スレッドから同じINPUTを登録しても全て同じ値を受け取り、OUTPUTは1件だけ登録される")
+    void case2() throws Exception {
+      clear();
+      int threads = 8;
+      int count = 1000;
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      List<Future<String[]>> futures = new ArrayList<>();
+      try {
+        for (int t = 0; t < threads; t++) {
+          String suffix = "-" + t;
+          futures.add(executor.submit(() -> {
+            String[] ret = new String[count];
+            for (int i = 0; i < count; i++) {
+              ret[i] = addOrGetUniqueList("HOGE", "id" + i, i + suffix);
+            }
+            return ret;
+          }));
+        }
+        List<String[]> results = new ArrayList<>();
+        for (Future<String[]> f : futures) {
+          results.add(f.get());
+        }
+        for (int i = 0; i < count; i++) {
+          String registered = getRegisteredUniqueVal("HOGE", "id" + i);
+          assertNotNull(registered);
+          for (String[] ret : results) {
+            assertEquals(registered, ret[i]);
+          }
+        }
+      } finally {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+      }
+      assertEquals(count, size("HOGE"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: clear")
+  class Clear {
+
+    @Test
+    @DisplayName("登録内容が全て消える")
+    void case1() throws Exception {
+      addUniqueList("HOGE", "id1", "fuga");
+      addUniqueList("FUGA", "id1", "fuga");
+      clear();
+      assertEquals(0, size("HOGE"));
+      assertEquals(0, size("FUGA"));
+      assertFalse(isExistsInUniqueList("HOGE", "fuga"));
+      assertEquals(null, getRegisteredUniqueVal("HOGE", "id1"));
+    }
+
+  }
+
+}
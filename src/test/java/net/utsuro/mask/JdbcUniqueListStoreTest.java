@@ -0,0 +1,146 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLIntegrityConstraintViolationException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class JdbcUniqueListStoreTest {
+
+  @Mock
+  Connection mockConn;
+  @Mock
+  PreparedStatement mockPreparedStmnt;
+  @Mock
+  ResultSet mockResultSet;
+
+  @Nested
+  @DisplayName("method: getRegisteredUniqueVal")
+  class GetRegisteredUniqueVal {
+
+    @Test
+    @DisplayName("DBにデータがある場合はその値を返す")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(true, false, false, false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      doNothing().when(mockPreparedStmnt).setString(anyInt(), anyString());
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(false, true);
+      when(mockResultSet.getString("output_val")).thenReturn("fuga");
+
+      // コネクションがnull
+      assertEquals(null, new JdbcUniqueListStore(null).getRegisteredUniqueVal("hoge", "id1"));
+      JdbcUniqueListStore store = new JdbcUniqueListStore(mockConn);
+      // DB未接続時
+      assertEquals(null, store.getRegisteredUniqueVal("hoge", "id1"));
+      // nullを渡したとき
+      assertEquals(null, store.getRegisteredUniqueVal("hoge", null));
+      // rs.next()でfalse
+      assertEquals(null, store.getRegisteredUniqueVal("hoge", "id1"));
+      // rs.next()でtrue
+      assertEquals("fuga", store.getRegisteredUniqueVal("hoge", "id2"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: isExistsInUniqueList")
+  class IsExistsInUniqueList {
+
+    @Test
+    @DisplayName("DBにデータがある場合はtrue、データがなければfalseを返す")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      doNothing().when(mockPreparedStmnt).setString(anyInt(), anyString());
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(false, true, true);
+      when(mockResultSet.getLong("cnt")).thenReturn(1L, 0L);
+
+      JdbcUniqueListStore store = new JdbcUniqueListStore(mockConn);
+      // rs.next()でfalse
+      assertFalse(store.isExistsInUniqueList("hoge", "id1"));
+      // rs.next()でtrue かつ 件数1件
+      assertTrue(store.isExistsInUniqueList("hoge", "id2"));
+      // rs.next()でtrue かつ 件数0件
+      assertFalse(store.isExistsInUniqueList("hoge", "id2"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addUniqueList")
+  class AddUniqueList {
+
+    @Test
+    @DisplayName("ユニークリストへの登録")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      doNothing().when(mockPreparedStmnt).setString(anyInt(), anyString());
+      when(mockPreparedStmnt.execute()).thenReturn(true);
+
+      JdbcUniqueListStore store = new JdbcUniqueListStore(mockConn);
+      // nullを渡したとき
+      assertTrue(store.addUniqueList("hoge", null, "hoge"));
+      // 正常な場合
+      assertTrue(store.addUniqueList("hoge", "id2", "fuga"));
+      verify(mockPreparedStmnt, times(1)).setString(1, "hoge");
+      verify(mockPreparedStmnt, times(1)).setString(2, "id2");
+      verify(mockPreparedStmnt, times(1)).setString(3, "fuga");
+    }
+
+    @Test
+    @DisplayName("一意制約違反の場合はfalseを返す")
+    void case2() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      doThrow(new SQLIntegrityConstraintViolationException()).when(mockPreparedStmnt).execute();
+
+      JdbcUniqueListStore store = new JdbcUniqueListStore(mockConn);
+      assertFalse(store.addUniqueList("hoge", "id2", "fuga"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: clear")
+  class Clear {
+
+    @Test
+    @DisplayName("ユニークリストをTRUNCATEする")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(true, false);
+      when(mockConn.prepareStatement("TRUNCATE TABLE sys_unique_list")).thenReturn(mockPreparedStmnt);
+
+      JdbcUniqueListStore store = new JdbcUniqueListStore(mockConn);
+      // DB未接続時は何もしない
+      store.clear();
+      store.clear();
+      verify(mockConn, times(1)).prepareStatement("TRUNCATE TABLE sys_unique_list");
+      verify(mockPreparedStmnt, times(1)).execute();
+    }
+
+  }
+
+}
@@ -0,0 +1,236 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import net.utsuro.mask.KanaConverter.Step;
+
+class KanaConverterTest {
+
+  private static final List<String> HKANA = Arrays.asList(
+      "ｱ", "ｲ", "ｳ", "ｴ", "ｵ", "ｶ", "ｷ", "ｸ", "ｹ", "ｺ", "ｻ", "ｼ", "ｽ", "ｾ", "ｿ",
+      "ﾀ", "ﾁ", "ﾂ", "ﾃ", "ﾄ", "ﾅ", "ﾆ", "ﾇ", "ﾈ", "ﾉ", "ﾊ", "ﾋ", "ﾌ", "ﾍ", "ﾎ",
+      "ﾏ", "ﾐ", "ﾑ", "ﾒ", "ﾓ", "ﾔ", "ﾕ", "ﾖ", "ﾗ", "ﾘ", "ﾙ", "ﾚ", "ﾛ", "ﾜ", "ｦ", "ﾝ",
+      "ｶﾞ", "ｷﾞ", "ｸﾞ", "ｹﾞ", "ｺﾞ", "ｻﾞ", "ｼﾞ", "ｽﾞ", "ｾﾞ", "ｿﾞ",
+      "ﾀﾞ", "ﾁﾞ", "ﾂﾞ", "ﾃﾞ", "ﾄﾞ", "ﾊﾞ", "ﾋﾞ", "ﾌﾞ", "ﾍﾞ", "ﾎﾞ",
+      "ｳﾞ", "ｰ", "｡", "､", "｢", "｣", "ﾊﾟ", "ﾋﾟ", "ﾌﾟ", "ﾍﾟ", "ﾎﾟ",
+      "ｧ", "ｨ", "ｩ", "ｪ", "ｫ", "ｯ", "ｬ", "ｭ", "ｮ");
+
+  private static final List<String> WKANA = Arrays.asList(
+      "ア", "イ", "ウ", "エ", "オ", "カ", "キ", "ク", "ケ", "コ", "サ", "シ", "ス", "セ", "ソ",
+      "タ", "チ", "ツ", "テ", "ト", "ナ", "ニ", "ヌ", "ネ", "ノ", "ハ", "ヒ", "フ", "ヘ", "ホ",
+      "マ", "ミ", "ム", "メ", "モ", "ヤ", "ユ", "ヨ", "ラ", "リ", "ル", "レ", "ロ", "ワ", "ヲ", "ン",
+      "ガ", "ギ", "グ", "ゲ", "ゴ", "ザ", "ジ", "ズ", "ゼ", "ゾ",
+      "ダ", "ヂ", "ヅ", "デ", "ド", "バ", "ビ", "ブ", "ベ", "ボ",
+      "ヴ", "ー", "。", "、", "「", "」", "パ", "ピ", "プ", "ペ", "ポ",
+      "ァ", "ィ", "ゥ", "ェ", "ォ", "ッ", "ャ", "ュ", "ョ");
+
+  /**
+   * 表引きに置き換える前の1文字ずつの変換.
+   */
+  private static String convertByLegacy(String s, Step... steps) {
+    for (Step step : steps) {
+      StringBuilder sb = new StringBuilder();
+      String[] c = s.split("");
+      for (int i = 0; i < c.length; i++) {
+        switch (step) {
+          case UPPER_HALF_KANA:
+            sb.append(toUpper(c[i], "ｧｨｩｪｫｯｬｭｮ", "ｱｲｳｴｵﾂﾔﾕﾖ"));
+            break;
+          case UPPER_WIDE_KANA:
+            sb.append(toUpper(c[i], "ァィゥェォヵヶッャュョヮ", "アイウエオカケツヤユヨワ"));
+            break;
+          case UPPER_HIRAGANA:
+            sb.append(toUpper(c[i], "ぁぃぅぇぉっゃゅょゎ", "あいうえおつやゆよわ"));
+            break;
+          case HIRAGANA_TO_WIDE_KANA:
+            sb.append(c[i].matches("[ぁ-ん]") ? String.valueOf((char) (c[i].charAt(0) + 0x60)) : c[i]);
+            break;
+          case WIDE_KANA_TO_HIRAGANA:
+            sb.append(c[i].matches("[ァ-ン]") ? String.valueOf((char) (c[i].charAt(0) - 0x60)) : c[i]);
+            break;
+          case WIDE_KANA_TO_HALF_KANA:
+            int idx = WKANA.indexOf(c[i]);
+            sb.append((idx < 0) ? c[i] : HKANA.get(idx));
+            break;
+          case HALF_KANA_TO_WIDE_KANA:
+            if (c[i].isEmpty()) {
+              break;
+            }
+            if (i < c.length - 1 && c[i + 1].matches("[ﾟﾞ]")) {
+              c[i] = c[i].concat(c[i + 1]);
+              c[i + 1] = "";
+            }
+            idx = HKANA.indexOf(c[i]);
+            sb.append((idx < 0) ? c[i] : WKANA.get(idx));
+            break;
+          default:
+            sb.append(c[i]);
+            break;
+        }
+      }
+      s = (step == Step.NORMALIZE) ? Normalizer.normalize(s, Form.NFKC) : sb.toString();
+    }
+    return s;
+  }
+
+  private static String toUpper(String c, String lower, String upper) {
+    int idx = (c.length() == 1) ? lower.indexOf(c.charAt(0)) : -1;
+    return (idx < 0) ? c : String.valueOf(upper.charAt(idx));
+  }
+
+  /**
+   * かな・カナの全文字と、濁点・半濁点の組み合わせ.
+   */
+  private static List<String> createCorpus() {
+    List<String> ret = new ArrayList<>();
+    StringBuilder all = new StringBuilder();
+    for (char c = 0x3000; c < 0x3100; c++) {
+      all.append(c);
+    }
+    for (char c = 0xFF60; c < 0xFFA0; c++) {
+      all.append(c);
+    }
+    all.append("Aa1漢゙゚");
+    for (char c : all.toString().toCharArray()) {
+      ret.add(String.valueOf(c));
+      ret.add(c + "ﾞ");
+      ret.add(c + "ﾟ");
+      ret.add(c + "ﾞﾞ");
+      ret.add("ｶ" + c + "ﾟ");
+      ret.add(c + "゙");
+    }
+    ret.add(all.toString());
+    Random random = new Random(1);
+    for (int i = 0; i < 200; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = 0; j < 20; j++) {
+        sb.append(all.charAt(random.nextInt(all.length())));
+        if (random.nextInt(4) == 0) {
+          sb.append((random.nextBoolean()) ? 'ﾞ' : 'ﾟ');
+        }
+      }
+      ret.add(sb.toString());
+    }
+    return ret;
+  }
+
+  private static void assertSameAsLegacy(Step... steps) {
+    KanaConverter converter = new KanaConverter(steps);
+    for (String s : createCorpus()) {
+      assertEquals(convertByLegacy(s, steps), converter.convert(s),
+          () -> String.format("%s: [%s]", Arrays.toString(steps), s));
+    }
+  }
+
+  @Nested
+  @DisplayName("method: new")
+  class New {
+
+    @Test
+    @DisplayName("変換手順にnullを含む場合はエラー")
+    void case1() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> new KanaConverter((Step[]) null));
+      assertThrows(IllegalArgumentException.class, () -> new KanaConverter(Step.UPPER_HIRAGANA, null));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: convert")
+  class Convert {
+
+    @Test
+    @DisplayName("nullはnull、空文字は空文字、変換手順が無い場合はそのまま返る")
+    void case1() throws Exception {
+      assertNull(new KanaConverter(Step.UPPER_HIRAGANA).convert(null));
+      assertEquals("", new KanaConverter(Step.UPPER_HIRAGANA).convert(""));
+      String s = "ｱｲｳあいう";
+      assertSame(s, new KanaConverter().convert(s));
+      assertSame(s, new KanaConverter(Step.WIDE_KANA_TO_HALF_KANA).convert(s));
+    }
+
+    @Test
+    @DisplayName("濁点・半濁点を結合して全角にする")
+    void case2() throws Exception {
+      KanaConverter converter = new KanaConverter(Step.HALF_KANA_TO_WIDE_KANA);
+      assertEquals("ガギパｳﾟｱﾞ", converter.convert("ｶﾞｷﾞﾊﾟｳﾟｱﾞ"));
+    }
+
+    @Test
+    @DisplayName("大文字化とひらがな化を1回で行う")
+    void case3() throws Exception {
+      KanaConverter converter = new KanaConverter(
+          Step.UPPER_HALF_KANA, Step.UPPER_WIDE_KANA, Step.UPPER_HIRAGANA,
+          Step.HALF_KANA_TO_WIDE_KANA, Step.WIDE_KANA_TO_HIRAGANA);
+      assertEquals("きやつぷ、ちよこ。ABC", converter.convert("ｷｬｯﾌﾟ､チョコ｡ABC"));
+    }
+
+    @Test
+    @DisplayName("変換手順ごとに1文字ずつ変換した場合と一致する")
+    void case4() throws Exception {
+      for (Step step : Step.values()) {
+        assertSameAsLegacy(step);
+      }
+    }
+
+    @Test
+    @DisplayName("型変換の文字種変換の全組み合わせで1文字ずつ変換した場合と一致する")
+    void case5() throws Exception {
+      for (int flags = 0; flags < 16; flags++) {
+        List<Step> steps = new ArrayList<>();
+        if ((flags & 1) != 0) {
+          steps.addAll(Arrays.asList(Step.UPPER_HALF_KANA, Step.UPPER_WIDE_KANA, Step.UPPER_HIRAGANA));
+        }
+        if ((flags & 2) != 0) {
+          steps.addAll(Arrays.asList(Step.HIRAGANA_TO_WIDE_KANA, Step.WIDE_KANA_TO_HALF_KANA));
+        }
+        if ((flags & 4) != 0) {
+          steps.addAll(Arrays.asList(Step.HALF_KANA_TO_WIDE_KANA, Step.HIRAGANA_TO_WIDE_KANA));
+        }
+        if ((flags & 8) != 0) {
+          steps.addAll(Arrays.asList(Step.HALF_KANA_TO_WIDE_KANA, Step.WIDE_KANA_TO_HIRAGANA));
+        }
+        assertSameAsLegacy(steps.toArray(new Step[0]));
+      }
+    }
+
+    @Test
+    @DisplayName("正規化を挟む場合も1文字ずつ変換した場合と一致する")
+    void case6() throws Exception {
+      assertSameAsLegacy(Step.UPPER_WIDE_KANA, Step.NORMALIZE, Step.WIDE_KANA_TO_HALF_KANA);
+      assertSameAsLegacy(Step.UPPER_HIRAGANA, Step.HIRAGANA_TO_WIDE_KANA,
+          Step.NORMALIZE, Step.WIDE_KANA_TO_HALF_KANA);
+      assertSameAsLegacy(Step.WIDE_KANA_TO_HALF_KANA, Step.HALF_KANA_TO_WIDE_KANA,
+          Step.WIDE_KANA_TO_HALF_KANA, Step.UPPER_HALF_KANA, Step.HALF_KANA_TO_WIDE_KANA);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: of")
+  class Of {
+
+    @Test
+    @DisplayName("同じ変換手順の場合は同じインスタンスが返る")
+    void case1() throws Exception {
+      Step[] steps = {Step.UPPER_WIDE_KANA, Step.WIDE_KANA_TO_HIRAGANA};
+      KanaConverter converter = KanaConverter.of(steps);
+      steps[1] = Step.WIDE_KANA_TO_HALF_KANA;
+      assertSame(converter, KanaConverter.of(Step.UPPER_WIDE_KANA, Step.WIDE_KANA_TO_HIRAGANA));
+      assertNotSame(converter, KanaConverter.of(steps));
+    }
+
+  }
+
+}
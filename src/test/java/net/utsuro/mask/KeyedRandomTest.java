@@ -0,0 +1,47 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class KeyedRandomTest {
+
+  @Nested
+  @DisplayName("method: of")
+  class Of {
+
+    @Test
+    @DisplayName("キー、識別子、入力値が同じなら同じ乱数列になる")
+    void case1() throws Exception {
+      KeyedRandom rnd1 = KeyedRandom.of("secret", "HOGE", "あいう");
+      KeyedRandom rnd2 = KeyedRandom.of("secret", "HOGE", "あいう");
+      for (int i = 0; i < 100; i++) {
+        assertEquals(rnd1.nextInt(1000), rnd2.nextInt(1000));
+      }
+    }
+
+    @Test
+    @DisplayName("キー、識別子、入力値のどれかが異なれば異なる乱数列になる")
+    void case2() throws Exception {
+      long seed = KeyedRandom.seed("secret", "HOGE", "あいう");
+      assertNotEquals(seed, KeyedRandom.seed("secret2", "HOGE", "あいう"));
+      assertNotEquals(seed, KeyedRandom.seed("secret", "FUGA", "あいう"));
+      assertNotEquals(seed, KeyedRandom.seed("secret", "HOGE", "あいえ"));
+      // 識別子と入力値の区切りがずれても同じにならない
+      assertNotEquals(KeyedRandom.seed("secret", "AB", "C"), KeyedRandom.seed("secret", "A", "BC"));
+      // nullも使用できる
+      assertEquals(KeyedRandom.seed("secret", null, null), KeyedRandom.seed("secret", null, null));
+    }
+
+    @Test
+    @DisplayName("キーの指定が無い場合はエラー")
+    void case3() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> KeyedRandom.of(null, "HOGE", "あいう"));
+      assertThrows(IllegalArgumentException.class, () -> KeyedRandom.of("", "HOGE", "あいう"));
+    }
+
+  }
+
+}
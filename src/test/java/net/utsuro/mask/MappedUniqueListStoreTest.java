@@ -0,0 +1,271 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedUniqueListStoreTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Nested
+  @DisplayName("method: constructor")
+  class Constructor {
+
+    @Test
+    @DisplayName("セグメント数・初期スロット数が0以下の場合はエラー")
+    void case1() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> new MappedUniqueListStore(tempDir, 0, 16));
+      assertThrows(IllegalArgumentException.class, () -> new MappedUniqueListStore(tempDir, 4, 0));
+    }
+
+    @Test
+    @DisplayName("ユニークリストのファイルでない場合はエラー")
+    void case2() throws Exception {
+      Files.write(tempDir.resolve("unique_list.heap"), "hogehogefuga".getBytes());
+      assertThrows(java.io.IOException.class, () -> new MappedUniqueListStore(tempDir));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getRegisteredUniqueVal")
+  class GetRegisteredUniqueVal {
+
+    @Test
+    @DisplayName("登録済のINPUTの場合はその値を返す")
+    void case1() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir)) {
+        // 未登録
+        assertEquals(null, store.getRegisteredUniqueVal("HOGE", "id1"));
+        // nullを渡したとき
+        assertEquals(null, store.getRegisteredUniqueVal("HOGE", null));
+        store.addUniqueList("HOGE", "id1", "ふが");
+        assertEquals("ふが", store.getRegisteredUniqueVal("HOGE", "id1"));
+        // 識別子が違えば別扱い
+        assertEquals(null, store.getRegisteredUniqueVal("FUGA", "id1"));
+        // 同じINPUTは最初に登録された値を返す
+        store.addUniqueList("HOGE", "id1", "piyo");
+        assertEquals("ふが", store.getRegisteredUniqueVal("HOGE", "id1"));
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: isExistsInUniqueList")
+  class IsExistsInUniqueList {
+
+    @Test
+    @DisplayName("登録済のOUTPUTの場合はtrue、なければfalseを返す")
+    void case1() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir)) {
+        assertFalse(store.isExistsInUniqueList("HOGE", "fuga"));
+        assertFalse(store.isExistsInUniqueList("HOGE", null));
+        store.addUniqueList("HOGE", "id1", "fuga");
+        assertTrue(store.isExistsInUniqueList("HOGE", "fuga"));
+        assertFalse(store.isExistsInUniqueList("HOGE", "id1"));
+        assertFalse(store.isExistsInUniqueList("FUGA", "fuga"));
+        // 識別子と値の区切りが違えば別扱い
+        assertFalse(store.isExistsInUniqueList("HOGEf", "uga"));
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addUniqueList")
+  class AddUniqueList {
+
+    @Test
+    @DisplayName("ユニークリストへの登録")
+    void case1() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir)) {
+        // nullを渡したとき
+        assertTrue(store.addUniqueList("HOGE", null, "hoge"));
+        assertTrue(store.addUniqueList("HOGE", "id3", null));
+        assertEquals(0, store.size());
+        // 正常な場合
+        assertTrue(store.addUniqueList("HOGE", "id1", "fuga"));
+        // OUTPUTが重複する場合はNG
+        assertFalse(store.addUniqueList("HOGE", "id2", "fuga"));
+        // 識別子が違えば登録できる
+        assertTrue(store.addUniqueList("FUGA", "id2", "fuga"));
+        assertEquals(2, store.size());
+      }
+    }
+
+    @Test
+    @DisplayName("初期スロット数を超えて登録してもインデックスが拡張される")
+    void case2() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 1, 4)) {
+        for (int i = 0; i < 5000; i++) {
+          assertTrue(store.addUniqueList("HOGE", "in" + i, "out" + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+          assertEquals("out" + i, store.getRegisteredUniqueVal("HOGE", "in" + i));
+          assertFalse(store.addUniqueList("HOGE", "x" + i, "out" + i));
+        }
+        assertEquals(5000, store.size());
+      }
+    }
+
+    @Test
+    @DisplayName("複数スレッドから同じ値を登録しても1件しか成功しない")
+    void case3() throws Exception {
+      int threads = 8;
+      int count = 1000;
+      AtomicInteger success = new AtomicInteger();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 4, 16)) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          String in = "thread" + t;
+          futures.add(executor.submit(() -> {
+            for (int i = 0; i < count; i++) {
+              if (store.addUniqueList("HOGE", in, Integer.toString(i))) {
+                success.incrementAndGet();
+              }
+            }
+            return null;
+          }));
+        }
+        for (Future<?> f : futures) {
+          f.get();
+        }
+        assertEquals(count, success.get());
+        assertEquals(count, store.size());
+      } finally {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: close")
+  class Close {
+
+    @Test
+    @DisplayName("開き直しても登録内容が引き継がれる")
+    void case1() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 2, 4)) {
+        for (int i = 0; i < 100; i++) {
+          store.addUniqueList("HOGE", "in" + i, "out" + i);
+        }
+      }
+      // セグメント数は既存のものが使用される
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 8, 4)) {
+        assertEquals(100, store.size());
+        assertEquals("out99", store.getRegisteredUniqueVal("HOGE", "in99"));
+        assertFalse(store.addUniqueList("HOGE", "in100", "out0"));
+        assertTrue(store.addUniqueList("HOGE", "in100", "out100"));
+      }
+      try (Stream<Path> files = Files.list(tempDir)) {
+        assertEquals(0, files.filter(p -> p.getFileName().toString().contains(".8-")).count());
+      }
+    }
+
+    @Test
+    @DisplayName("インデックスが壊れていてもヒープファイルから再構築される")
+    void case2() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 1, 4)) {
+        for (int i = 0; i < 100; i++) {
+          store.addUniqueList("HOGE", "in" + i, "out" + i);
+        }
+      }
+      Files.write(tempDir.resolve("unique_list.input.1-0.idx"), new byte[] {1, 2, 3});
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 1, 4)) {
+        assertEquals(100, store.size());
+        assertEquals("out42", store.getRegisteredUniqueVal("HOGE", "in42"));
+        assertTrue(store.isExistsInUniqueList("HOGE", "out42"));
+      }
+    }
+
+    @Test
+    @DisplayName("クローズ後に使用するとエラー")
+    void case3() throws Exception {
+      MappedUniqueListStore store = new MappedUniqueListStore(tempDir);
+      store.close();
+      store.close();
+      assertThrows(SQLException.class, () -> store.isExistsInUniqueList("HOGE", "fuga"));
+      assertThrows(SQLException.class, () -> store.addUniqueList("HOGE", "id1", "fuga"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: forEachEntry")
+  class ForEachEntry {
+
+    @Test
+    @DisplayName("件数単位を超えても一時ファイルでマージして並べて渡し、一時ファイルは残らない")
+    void case1() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 2, 4)) {
+        for (int i = 99; i >= 0; i--) {
+          store.addUniqueList((i % 3 == 0) ? "HOGE" : "FUGA", "in" + (i * 7 % 100), "out" + i);
+        }
+        List<String> expected = new ArrayList<>();
+        store.forEachEntry((id, in, out) -> expected.add(id + "/" + in + "/" + out), 1000);
+        List<String> sorted = new ArrayList<>(expected);
+        sorted.sort(null);
+        assertEquals(100, expected.size());
+        assertEquals(sorted, expected);
+
+        List<String> ret = new ArrayList<>();
+        store.forEachEntry((id, in, out) -> ret.add(id + "/" + in + "/" + out), 7);
+        assertEquals(expected, ret);
+        // 受け取る処理でエラーになっても一時ファイルは削除する
+        assertThrows(java.io.IOException.class, () -> store.forEachEntry((id, in, out) -> {
+          throw new java.io.IOException("NG");
+        }, 7));
+      }
+      try (Stream<Path> files = Files.list(tempDir)) {
+        assertEquals(0, files.filter(p -> p.getFileName().toString().endsWith(".sort")).count());
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: clear")
+  class Clear {
+
+    @Test
+    @DisplayName("登録内容が全て消える")
+    void case1() throws Exception {
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 1, 4)) {
+        for (int i = 0; i < 100; i++) {
+          store.addUniqueList("HOGE", "in" + i, "out" + i);
+        }
+        store.clear();
+        assertEquals(0, store.size());
+        assertFalse(store.isExistsInUniqueList("HOGE", "out1"));
+        assertEquals(null, store.getRegisteredUniqueVal("HOGE", "in1"));
+        assertTrue(store.addUniqueList("HOGE", "in1", "out1"));
+      }
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir, 1, 4)) {
+        assertEquals(1, store.size());
+      }
+    }
+
+  }
+
+}
@@ -228,6 +228,16 @@ class MaskedTextReplacerTest extends MaskedTextReplacer {
       assertEquals("○○○○", replace("あいうえ", rule));
     }
 
+    @Test
+    @DisplayName("サロゲートペアは1文字の全角文字としてマスクする")
+    void case23() throws Exception {
+      assertEquals("○X○", replace("𠀋a𠀋", rule));
+      rule.useOddCharMask(true);
+      assertEquals("○a○b", replace("𠀋a𠀋b", rule));
+      rule.setUnmaksedChar("𠀋");
+      assertEquals("𠀋a𠀋b", replace("𠀋a𠀋b", rule));
+    }
+
     @Test
     @DisplayName("インスタンスメソッドでも処理は同じ")
     void case90() throws Exception {
@@ -239,4 +249,78 @@ class MaskedTextReplacerTest extends MaskedTextReplacer {
 
   }
 
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("ルールが無い場合はそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {"あいう", 123};
+      Object[] out = new Object[2];
+      executeBatch(in, out, 2, null);
+      assertArrayEquals(in, out);
+    }
+
+    @Test
+    @DisplayName("1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      Object[] values = {null, "", "あいう", "abcdefg", "090-1234-5678", "𠀋あ𪚲", 12345L, "ｱｲｳｴｵ"};
+      MaskingRule plain = new MaskingRule();
+      MaskingRule unmasked = new MaskingRule();
+      unmasked.setUnmaksedLengthLeft(1);
+      unmasked.setUnmaksedLengthRight(2);
+      unmasked.setReplacementHalfChar("*");
+      MaskingRule ignore = new MaskingRule();
+      ignore.setIgnoreValue("^[0-9-]+$");
+      for (MaskingRule rule : new MaskingRule[] {plain, unmasked, ignore}) {
+        Object[] out = values.clone();
+        executeBatch(out, out, out.length, rule);
+        for (int i = 0; i < values.length; i++) {
+          assertEquals(execute(values[i], rule), out[i], String.valueOf(values[i]));
+        }
+      }
+    }
+
+
+    @Test
+    @DisplayName("範囲を指定した場合はその範囲だけ置換して指定した位置に格納する")
+    void case3() throws Exception {
+      Object[] in = {"あいう", "abc", "def", "ghi"};
+      Object[] out = {"1", "2", "3", "4"};
+      executeBatch(in, 1, out, 2, 2, new MaskingRule());
+      assertArrayEquals(new Object[] {"1", "2", "XXX", "XXX"}, out);
+      executeBatch(in, 2, out, 0, 1, null);
+      assertArrayEquals(new Object[] {"def", "2", "XXX", "XXX"}, out);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: executeCompiled")
+  class ExecuteCompiled {
+
+    @Test
+    @DisplayName("execute()と同じ結果になり、マスクの手順はルールごとに1回だけ作成される")
+    void case1() throws Exception {
+      Object[] values = {null, "", "あいう", "abcdefg", "090-1234-5678", "𠀋あ𪚲", 12345L};
+      MaskingRule plain = new MaskingRule();
+      MaskingRule ignore = new MaskingRule();
+      ignore.setIgnoreValue("^[0-9-]+$");
+      for (MaskingRule rule : new MaskingRule[] {plain, ignore}) {
+        CompiledRule compiled = CompiledRule.compile(rule);
+        for (Object value : values) {
+          assertEquals(execute(value, rule), executeCompiled(value, compiled), String.valueOf(value));
+        }
+        Object plan = compiled.getDerived(MaskedTextReplacer.class, r -> null);
+        assertNotNull(plan);
+        replaceCompiled("あいう", compiled);
+        assertSame(plan, compiled.getDerived(MaskedTextReplacer.class, r -> null));
+      }
+      assertEquals("あいう", executeCompiled("あいう", null));
+      assertEquals("あいう", replaceCompiled("あいう", null));
+    }
+
+  }
+
 }
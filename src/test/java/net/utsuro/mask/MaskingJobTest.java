@@ -0,0 +1,273 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MaskingJobTest {
+
+  @Mock
+  private Connection mockConn;
+
+  private static MaskingRule replaceRule(String regex, String replacement) {
+    MaskingRule rule = new MaskingRule();
+    rule.setTextReplaceRegex(regex);
+    rule.setTextReplacement(replacement);
+    return rule;
+  }
+
+  private static MaskingRule splitRule() {
+    MaskingRule rule = new MaskingRule();
+    rule.setToClassNames(Arrays.asList(Long.class.getName(), String.class.getName()));
+    return rule;
+  }
+
+  @Nested
+  @DisplayName("method: new")
+  class New {
+
+    @Test
+    @DisplayName("カラム名が無い、重複している場合はエラー")
+    void case1() throws Exception {
+      Exception e = assertThrows(IllegalArgumentException.class, () -> new MaskingJob());
+      assertEquals("カラム名が指定されていません。", e.getMessage());
+      e = assertThrows(IllegalArgumentException.class, () -> new MaskingJob((List<String>) null));
+      assertEquals("カラム名が指定されていません。", e.getMessage());
+      e = assertThrows(IllegalArgumentException.class, () -> new MaskingJob("a", "b", "a"));
+      assertEquals("カラム a が重複しています。", e.getMessage());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: of")
+  class Of {
+
+    @Test
+    @DisplayName("カラムごとの定義から作成した場合はadd()で追加した場合と同じ結果になる")
+    void case1() throws Exception {
+      Map<String, List<Map.Entry<String, MaskingRule>>> rules = new LinkedHashMap<>();
+      rules.put("tel", List.of(Map.entry("TextTrim", new MaskingRule()),
+          Map.entry("TextReplace", replaceRule("-", ""))));
+      rules.put("id", null);
+      rules.put("memo", List.of(Map.entry("MaskedTextReplacer", new MaskingRule())));
+      MaskingJob job = MaskingJob.of(List.of("id", "tel", "memo"), rules);
+      assertEquals(2, job.getTaskCount());
+      Object[] row = {1L, " 090-1234-5678 ", "あいう"};
+      job.process(row);
+      assertArrayEquals(new Object[] {1L, "09012345678", "○○○"}, row);
+      assertEquals(0, MaskingJob.of(List.of("id"), null).getTaskCount());
+    }
+
+    @Test
+    @DisplayName("存在しないカラム、クラスを指定した場合はエラー")
+    void case2() throws Exception {
+      Exception e = assertThrows(IllegalArgumentException.class, () -> MaskingJob.of(
+          List.of("a"), Map.of("c", List.of(Map.entry("TextTrim", new MaskingRule())))));
+      assertEquals("カラム c が存在しません。", e.getMessage());
+      assertThrows(IllegalArgumentException.class, () -> MaskingJob.of(
+          List.of("a"), Map.of("a", List.of(Map.entry("Hoge", new MaskingRule())))));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: add")
+  class Add {
+
+    @Test
+    @DisplayName("存在しないカラム、クラスを指定した場合はエラー")
+    void case1() throws Exception {
+      MaskingJob job = new MaskingJob("a", "b");
+      Exception e = assertThrows(IllegalArgumentException.class,
+          () -> job.add("c", "TextTrim", new MaskingRule()));
+      assertEquals("カラム c が存在しません。", e.getMessage());
+      assertThrows(IllegalArgumentException.class, () -> job.add("a", "Hoge", new MaskingRule()));
+      e = assertThrows(IllegalArgumentException.class,
+          () -> job.add(new String[0], new String[] {"a"}, "TextConcat", new MaskingRule()));
+      assertEquals("入力カラム、出力カラムが指定されていません。", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("同じカラムに続けて追加した処理は1つにまとめられる")
+    void case2() throws Exception {
+      MaskingJob job = new MaskingJob("a", "b")
+          .add("a", "TextTrim", new MaskingRule())
+          .add("a", "TextReplace", replaceRule("-", ""))
+          .add("b", "TextTrim", new MaskingRule())
+          .add("a", "TextTrim", new MaskingRule());
+      assertEquals(3, job.getTaskCount());
+    }
+
+    @Test
+    @DisplayName("DBコネクション、ユニークリストの格納先は追加の前後どちらでセットしてもマスク処理にセットされる")
+    void case3() throws Exception {
+      RandomTextReplacer before = new RandomTextReplacer();
+      RandomTextReplacer after = new RandomTextReplacer();
+      UniqueListStore store = new InMemoryUniqueListStore();
+      MaskingJob job = new MaskingJob("a", "b").add("a", before, new MaskingRule());
+      job.setConnection(mockConn);
+      job.setUniqueListStore(store);
+      job.add("b", after, new MaskingRule());
+      assertSame(mockConn, before.getConnection());
+      assertSame(mockConn, after.getConnection());
+      assertSame(store, before.getUniqueListStore());
+      assertSame(store, after.getUniqueListStore());
+      assertSame(mockConn, job.getConnection());
+      assertSame(store, job.getUniqueListStore());
+    }
+
+    @Test
+    @DisplayName("追加でエラーになった場合は処理が残らない")
+    void case4() throws Exception {
+      MaskingJob job = new MaskingJob("a", "b");
+      assertThrows(IllegalArgumentException.class,
+          () -> job.add("a", (DataMask) null, new MaskingRule()));
+      assertEquals(0, job.getTaskCount());
+      job.add("a", "TextTrim", new MaskingRule());
+      assertThrows(IllegalArgumentException.class,
+          () -> job.add("b", (DataMask) null, new MaskingRule()));
+      assertEquals(1, job.getTaskCount());
+      Object[] row = {" x ", " y "};
+      job.process(row);
+      assertArrayEquals(new Object[] {"x", " y "}, row);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: process")
+  class Process {
+
+    @Test
+    @DisplayName("行の項目数がカラム数と一致しない場合はエラー")
+    void case1() throws Exception {
+      MaskingJob job = new MaskingJob("a", "b");
+      Exception e = assertThrows(IllegalArgumentException.class, () -> job.process(new Object[1]));
+      assertEquals("行の項目数 1 がカラム数 2 と一致しません。", e.getMessage());
+      e = assertThrows(IllegalArgumentException.class, () -> job.process(null));
+      assertEquals("行の項目数 null がカラム数 2 と一致しません。", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("カラムごとのマスク処理が順に実行され、指定していないカラムはそのまま")
+    void case2() throws Exception {
+      MaskingJob job = new MaskingJob("id", "tel", "memo")
+          .add("tel", "TextTrim", new MaskingRule())
+          .add("tel", "TextReplace", replaceRule("-", ""))
+          .add("memo", "MaskedTextReplacer", new MaskingRule());
+      Object[] row = {1L, " 090-1234-5678 ", "あいう"};
+      assertSame(row, job.process(row));
+      assertArrayEquals(new Object[] {1L, "09012345678", "○○○"}, row);
+    }
+
+    @Test
+    @DisplayName("複数カラムを結合・分割する処理は入力カラムの値の配列を渡し、結果を出力カラムに書き込む")
+    void case3() throws Exception {
+      MaskingRule concatRule = new MaskingRule();
+      concatRule.setSeparator(" ");
+      MaskingJob job = new MaskingJob("date", "time", "datetime", "ymd", "hms")
+          .add(new String[] {"date", "time"}, new String[] {"datetime"}, "TextConcat", concatRule)
+          .add(new String[] {"datetime"}, new String[] {"ymd", "hms"}, "DateTimeSplit", splitRule());
+      Object[] row = {"2021/01/03", "04:38:59", null, null, null};
+      job.process(row);
+      assertArrayEquals(
+          new Object[] {"2021/01/03", "04:38:59", "2021/01/03 04:38:59", 20210103L, "04:38:59"}, row);
+    }
+
+    @Test
+    @DisplayName("複数カラムへの書き込みで結果がnullの場合は全てnull、配列が足りない場合は残りがnull")
+    void case4() throws Exception {
+      MaskingJob job = new MaskingJob("a", "b", "c")
+          .add(new String[] {"a"}, new String[] {"b", "c"}, "DateTimeSplit", splitRule());
+      Object[] row = {null, "x", "y"};
+      job.process(row);
+      assertArrayEquals(new Object[] {null, null, null}, row);
+      DataMask shortArray = (src, rule) -> new Object[] {"1"};
+      job.add(new String[] {"a", "b"}, new String[] {"b", "c"}, shortArray, new MaskingRule());
+      row = new Object[] {null, "x", "y"};
+      job.process(row);
+      assertArrayEquals(new Object[] {null, "1", null}, row);
+    }
+
+    @Test
+    @DisplayName("複数カラムへの書き込みで結果が配列でない場合はエラー")
+    void case5() throws Exception {
+      DataMask notArray = (src, rule) -> "abc";
+      MaskingJob job = new MaskingJob("a", "b", "c")
+          .add(new String[] {"a", "b"}, new String[] {"b", "c"}, notArray, new MaskingRule());
+      Exception e = assertThrows(IllegalArgumentException.class,
+          () -> job.process(new Object[] {"1", "2", "3"}));
+      assertEquals("マスク結果 java.lang.String を複数カラムに書き込めません。", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("前の処理で置換した値を後の処理が読み込む")
+    void case6() throws Exception {
+      List<Object> received = new ArrayList<>();
+      DataMask recorder = (src, rule) -> {
+        received.add(src);
+        return src;
+      };
+      MaskingJob job = new MaskingJob("a", "b")
+          .add("a", "TextReplace", replaceRule("x", "y"))
+          .add(new String[] {"a", "b"}, new String[] {"a", "b"}, recorder, new MaskingRule());
+      job.process(new Object[] {"xx", "z"});
+      assertEquals(1, received.size());
+      assertArrayEquals(new Object[] {"yy", "z"}, (Object[]) received.get(0));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: processBatch")
+  class ProcessBatch {
+
+    @Test
+    @DisplayName("1行ずつ実行した場合と同じ結果になる")
+    void case1() throws Exception {
+      MaskingRule concatRule = new MaskingRule();
+      concatRule.setSeparator("-");
+      MaskingJob job = new MaskingJob("a", "b", "c")
+          .add("a", "TextTrim", new MaskingRule())
+          .add("b", "MaskedTextReplacer", new MaskingRule())
+          .add(new String[] {"a", "b"}, new String[] {"c"}, "TextConcat", concatRule);
+      List<Object[]> rows = new ArrayList<>();
+      List<Object[]> expected = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        rows.add(new Object[] {" a" + i + " ", "ｂ" + i, null});
+        expected.add(job.process(new Object[] {" a" + i + " ", "ｂ" + i, null}));
+      }
+      job.processBatch(rows);
+      for (int i = 0; i < rows.size(); i++) {
+        assertArrayEquals(expected.get(i), rows.get(i));
+      }
+      assertEquals("a0-○9", rows.get(0)[2]);
+    }
+
+    @Test
+    @DisplayName("項目数が一致しない行がある場合は実行前にエラー")
+    void case2() throws Exception {
+      MaskingJob job = new MaskingJob("a").add("a", "TextTrim", new MaskingRule());
+      Object[] ok = {" a "};
+      assertThrows(IllegalArgumentException.class,
+          () -> job.processBatch(Arrays.asList(ok, new Object[2])));
+      assertEquals(" a ", ok[0]);
+    }
+
+  }
+
+}
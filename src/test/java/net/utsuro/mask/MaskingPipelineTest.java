@@ -0,0 +1,338 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class MaskingPipelineTest {
+
+  private static final List<String> CORPUS = Arrays.asList(
+      "", " ", "　", "abc", "  abc  ", "　あいう　", " \t漢字テキスト\n ", "𠀋あ𪚲 ", "　 𠀋𪚲 　",
+      "090-1234-5678", "ｱｲｳｴｵ", "123456789012345");
+
+  private static MaskingRule trimRule(boolean isKeepWideSpace, boolean isLeft, boolean isRight) {
+    MaskingRule rule = new MaskingRule();
+    rule.setKeepWideSpaceTrim(isKeepWideSpace);
+    rule.useLTrim(isLeft);
+    rule.useRTrim(isRight);
+    return rule;
+  }
+
+  private static MaskingRule substrRule(int beginIndex, int endIndex) {
+    MaskingRule rule = new MaskingRule();
+    rule.setBeginIndex(beginIndex);
+    rule.setEndIndex(endIndex);
+    return rule;
+  }
+
+  private static MaskingRule replaceRule(String regex, String replacement) {
+    MaskingRule rule = new MaskingRule();
+    rule.setTextReplaceRegex(regex);
+    rule.setTextReplacement(replacement);
+    return rule;
+  }
+
+  /**
+   * マスク処理を1つずつ実行した結果.
+   */
+  private static Object executeEach(Object src, DataMask[] masks, MaskingRule[] rules)
+      throws Exception {
+    Object ret = src;
+    for (int i = 0; i < masks.length; i++) {
+      ret = masks[i].execute(ret, rules[i]);
+    }
+    return ret;
+  }
+
+  @Nested
+  @DisplayName("method: add")
+  class Add {
+
+    @Test
+    @DisplayName("マスク処理が無い場合はエラー")
+    void case1() throws Exception {
+      Exception e = assertThrows(IllegalArgumentException.class,
+          () -> new MaskingPipeline().add(new TextTrim(), new MaskingRule()).add(null, null));
+      assertEquals("2番目のマスク処理が指定されていません。", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("前の処理の出力型を受け取れない場合はエラー")
+    void case2() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName(BigDecimal.class.getName());
+      MaskingPipeline pipeline = new MaskingPipeline(String.class).add(new TypeConverter(), rule);
+      assertEquals(BigDecimal.class, pipeline.getOutputClass());
+      Exception e = assertThrows(IllegalArgumentException.class,
+          () -> pipeline.add(new TextTrim(), new MaskingRule()));
+      assertEquals("2番目のマスク処理 TextTrim は java.math.BigDecimal を受け取れません。(java.lang.String のみ)",
+          e.getMessage());
+      assertThrows(IllegalArgumentException.class,
+          () -> new MaskingPipeline(Integer.class).add(new TextSubstr(), substrRule(1, 0)));
+    }
+
+    @Test
+    @DisplayName("型変換先の指定に問題がある場合は追加時にエラー")
+    void case3() throws Exception {
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName("hoge");
+      assertThrows(IllegalArgumentException.class,
+          () -> new MaskingPipeline().add(new TypeConverter(), rule));
+      // エラーの場合はパイプラインを変更しない
+      MaskingPipeline pipeline = new MaskingPipeline().add(new TextTrim(), new MaskingRule());
+      assertThrows(IllegalArgumentException.class, () -> pipeline.add(new TypeConverter(), rule));
+      assertEquals(1, pipeline.getStepCount());
+      assertEquals(1, pipeline.getStageCount());
+      assertEquals(String.class, pipeline.getOutputClass());
+    }
+
+    @Test
+    @DisplayName("入力型が不明な場合はチェックしない")
+    void case4() throws Exception {
+      MaskingPipeline pipeline = new MaskingPipeline()
+          .add(new RandomDataPickup(), new MaskingRule())
+          .add(new TextTrim(), new MaskingRule());
+      assertEquals(String.class, pipeline.getOutputClass());
+    }
+
+    @Test
+    @DisplayName("ルールが無い処理、常に元の値を返す処理は除外される")
+    void case5() throws Exception {
+      MaskingRule ignoreAll = new MaskingRule();
+      ignoreAll.setIgnoreValue("^");
+      MaskingPipeline pipeline = new MaskingPipeline(String.class)
+          .add(new TextTrim(), null)
+          .add(new TextReplace(), new MaskingRule())
+          .add(new TextSubstr(), new MaskingRule())
+          .add(new MaskedTextReplacer(), ignoreAll)
+          .add(new RandomTextReplacer(), ignoreAll)
+          .add(new TypeConverter(), null);
+      assertEquals(6, pipeline.getStepCount());
+      assertEquals(0, pipeline.getStageCount());
+      assertEquals(" あいう ", pipeline.execute(" あいう "));
+    }
+
+    @Test
+    @DisplayName("入力型が文字列と決まっていない場合、ユニークリストを使用する場合は除外値パターンで除外しない")
+    void case6() throws Exception {
+      MaskingRule ignoreAll = new MaskingRule();
+      ignoreAll.setIgnoreValue("^");
+      assertEquals(1, new MaskingPipeline()
+          .add(new MaskedTextReplacer(), ignoreAll).getStageCount());
+      ignoreAll.setUniqueValue(true);
+      assertEquals(1, new MaskingPipeline(String.class)
+          .add(new RandomTextReplacer(), ignoreAll).getStageCount());
+    }
+
+    @Test
+    @DisplayName("連続する文字列→文字列の処理は1つにまとめられる")
+    void case7() throws Exception {
+      MaskingRule toStr = new MaskingRule();
+      toStr.setToClassName(String.class.getName());
+      MaskingPipeline pipeline = new MaskingPipeline(String.class)
+          .add(new TextTrim(), trimRule(false, false, false))
+          .add(new TextReplace(), replaceRule("-", ""))
+          .add(new RandomTextReplacer(), new MaskingRule())
+          .add(new TextSubstr(), substrRule(0, 3))
+          .add(new MaskedTextReplacer(), new MaskingRule())
+          .add(new TypeConverter(), toStr);
+      assertEquals(4, pipeline.getStageCount());
+      assertEquals(String.class, pipeline.getOutputClass());
+    }
+
+    @Test
+    @DisplayName("継承したクラスはまとめない")
+    void case8() throws Exception {
+      MaskingPipeline pipeline = new MaskingPipeline(String.class)
+          .add(new TextTrim(), trimRule(false, false, false))
+          .add(new TextTrim() {}, trimRule(false, false, false));
+      assertEquals(2, pipeline.getStageCount());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: execute")
+  class Execute {
+
+    @Test
+    @DisplayName("処理が無い場合はそのまま返る")
+    void case1() throws Exception {
+      MaskingPipeline pipeline = new MaskingPipeline();
+      assertNull(pipeline.execute(null));
+      assertEquals(123, pipeline.execute(123));
+    }
+
+    @Test
+    @DisplayName("TrimとSubstrのあらゆる組み合わせで1つずつ実行した場合と一致する")
+    void case2() throws Exception {
+      int[][] indexes = {{0, 0}, {1, 0}, {0, 2}, {1, 3}, {-2, 0}, {2, 2}, {0, 100}};
+      for (int flags = 0; flags < 8; flags++) {
+        MaskingRule trim = trimRule((flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0);
+        for (int[] index : indexes) {
+          MaskingRule substr = substrRule(index[0], index[1]);
+          DataMask[] masks = {new TextTrim(), new TextSubstr(), new TextTrim(), new TextSubstr()};
+          MaskingRule[] rules = {trim, substr, trim, substr};
+          MaskingPipeline pipeline = new MaskingPipeline(String.class);
+          for (int i = 0; i < masks.length; i++) {
+            pipeline.add(masks[i], rules[i]);
+          }
+          assertEquals(1, pipeline.getStageCount());
+          for (String s : CORPUS) {
+            Object expected;
+            try {
+              expected = executeEach(s, masks, rules);
+            } catch (StringIndexOutOfBoundsException e) {
+              // 範囲外は同じエラーになること
+              assertThrows(StringIndexOutOfBoundsException.class, () -> pipeline.execute(s));
+              continue;
+            }
+            assertEquals(expected, pipeline.execute(s),
+                String.format("flags=%d, index=%s, [%s]", flags, Arrays.toString(index), s));
+          }
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("置換・マスク・バイト数での末尾省略を挟んでも1つずつ実行した場合と一致する")
+    void case3() throws Exception {
+      MaskingRule sjis = new MaskingRule();
+      sjis.setTruncateSjisBytes(5);
+      MaskingRule masked = new MaskingRule();
+      masked.setUnmaksedLengthLeft(1);
+      DataMask[] masks = {new TextTrim(), new TextReplace(), new TextSubstr(), new TextSubstr(),
+          new MaskedTextReplacer(), new TextTrim()};
+      MaskingRule[] rules = {trimRule(false, false, false), replaceRule("[-ｱ]", " "),
+          sjis, substrRule(1, 0), masked, trimRule(true, false, true)};
+      MaskingPipeline pipeline = new MaskingPipeline(String.class);
+      for (int i = 0; i < masks.length; i++) {
+        pipeline.add(masks[i], rules[i]);
+      }
+      assertEquals(1, pipeline.getStageCount());
+      for (String s : CORPUS) {
+        assertEquals(executeEach(s, masks, rules), pipeline.execute(s), s);
+      }
+      assertNull(pipeline.execute(null));
+    }
+
+    @Test
+    @DisplayName("文字列以外は最初の処理と同じ扱いになる")
+    void case4() throws Exception {
+      MaskingPipeline masked = new MaskingPipeline().add(new MaskedTextReplacer(), new MaskingRule());
+      assertEquals(new MaskedTextReplacer().execute(12345L, new MaskingRule()), masked.execute(12345L));
+      MaskingPipeline trim = new MaskingPipeline().add(new TextTrim(), new MaskingRule());
+      assertThrows(ClassCastException.class, () -> trim.execute(12345L));
+    }
+
+    @Test
+    @DisplayName("まとめられない処理を挟んでも順に実行される")
+    void case5() throws Exception {
+      MaskingRule toNum = new MaskingRule();
+      toNum.setToClassName(BigDecimal.class.getName());
+      MaskingPipeline pipeline = new MaskingPipeline(String.class)
+          .add(new TextTrim(), new MaskingRule())
+          .add(new TextReplace(), replaceRule(",", ""))
+          .add(new TypeConverter(), toNum);
+      assertEquals(2, pipeline.getStageCount());
+      assertEquals(new BigDecimal("1234567"), pipeline.execute(" 1,234,567　"));
+    }
+
+    @Test
+    @DisplayName("追加後にルールを変更しても影響しない")
+    void case6() throws Exception {
+      MaskingRule rule = replaceRule("a", "b");
+      MaskingPipeline pipeline = new MaskingPipeline(String.class).add(new TextReplace(), rule);
+      rule.setTextReplaceRegex("c");
+      assertEquals("bbc", pipeline.execute("abc"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: matchesAlways")
+  class MatchesAlways {
+
+    @Test
+    @DisplayName("入力値に関係なくマッチするパターンのみtrue")
+    void case1() throws Exception {
+      assertFalse(MaskingPipeline.matchesAlways(null));
+      for (String p : Arrays.asList("", "^", "\\A", "(?=)", "(?<!a)")) {
+        assertTrue(MaskingPipeline.matchesAlways(Pattern.compile(p)), p);
+      }
+      for (String p : Arrays.asList("a", "^$", "$", "(?!a)", "\\b", ".*")) {
+        assertFalse(MaskingPipeline.matchesAlways(Pattern.compile(p)), p);
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("処理が無い場合はそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {"a", null, 1};
+      Object[] out = new Object[3];
+      new MaskingPipeline().executeBatch(in, out, 3);
+      assertArrayEquals(in, out);
+    }
+
+    @Test
+    @DisplayName("まとめた処理、まとめられない処理が混在しても1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      MaskingRule toNum = new MaskingRule();
+      toNum.setToClassName(BigDecimal.class.getName());
+      MaskingPipeline pipeline = new MaskingPipeline(String.class)
+          .add(new TextTrim(), new MaskingRule())
+          .add(new TextReplace(), replaceRule("[^0-9]", ""))
+          .add(new TypeConverter(), toNum);
+      Object[] values = {" 1,234 ", null, "　5-6　", "090-1234-5678", "12345678901234567890"};
+      Object[] out = new Object[values.length + 1];
+      pipeline.executeBatch(values, out, values.length);
+      for (int i = 0; i < values.length; i++) {
+        assertEquals(pipeline.execute(values[i]), out[i], String.valueOf(values[i]));
+      }
+      assertNull(out[values.length]);
+      assertEquals(" 1,234 ", values[0]);
+    }
+
+    @Test
+    @DisplayName("追加時に解決したルールをそのまま渡し、呼び出しごとに解決し直さない")
+    void case3() throws Exception {
+      List<CompiledRule> passed = new ArrayList<>();
+      DataMask mask = new DataMask() {
+        @Override
+        public Object execute(Object src, MaskingRule rule) throws Exception {
+          return src;
+        }
+
+        @Override
+        public void executeBatchCompiled(Object[] in, int inOff, Object[] out, int outOff,
+            int len, CompiledRule rule) throws Exception {
+          passed.add(rule);
+          System.arraycopy(in, inOff, out, outOff, len);
+        }
+      };
+      MaskingPipeline pipeline = new MaskingPipeline().add(mask, new MaskingRule());
+      Object[] values = {"a", "b"};
+      pipeline.executeBatch(values, values, values.length);
+      pipeline.executeBatch(values, values, values.length);
+      assertEquals(2, passed.size());
+      assertNotNull(passed.get(0));
+      assertSame(passed.get(0), passed.get(1));
+    }
+
+  }
+
+}
@@ -340,4 +340,34 @@ class MaskingRuleTest extends MaskingRule {
 
   }
 
+  @Nested
+  @DisplayName("method: useDeterministicKey/useUniqueList")
+  class UseDeterministicKey {
+
+    @Test
+    @DisplayName("キーはisDeterministicReplace指定時のみ有効")
+    void case1() throws Exception {
+      assertFalse(useDeterministicKey());
+      setDeterministicKey("secret");
+      assertFalse(useDeterministicKey());
+      setDeterministicReplace(true);
+      assertTrue(useDeterministicKey());
+      setDeterministicKey("");
+      assertFalse(useDeterministicKey());
+    }
+
+    @Test
+    @DisplayName("キー指定の決定論的置換ではユニーク値生成時のみユニークリストを使う")
+    void case2() throws Exception {
+      assertFalse(useUniqueList());
+      setDeterministicReplace(true);
+      assertTrue(useUniqueList());
+      setDeterministicKey("secret");
+      assertFalse(useUniqueList());
+      setUniqueValue(true);
+      assertTrue(useUniqueList());
+    }
+
+  }
+
 }
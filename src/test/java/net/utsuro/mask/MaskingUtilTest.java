@@ -6,8 +6,10 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -96,6 +98,67 @@ class MaskingUtilTest extends MaskingUtil {
       assertEquals(CharType.WIDE_KANA, type, String.format("[%s]は%sのはずなのに%sになった", s, CharType.WIDE_KANA, type));
     }
 
+    @Test
+    @DisplayName("getTypeByCodePoint()はBMP内の文字で正規表現で判定した場合と一致する(互換漢字は漢字)")
+    void case5() {
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        CharType expected = getTypeByRegex((char) c);
+        if (Character.UnicodeBlock.of(c) == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+            && Character.isIdeographic(c)) {
+          expected = CharType.KANJI;
+        }
+        assertEquals(expected, CharType.getTypeByCodePoint(c), String.format("U+%04X", c));
+      }
+    }
+
+    @Test
+    @DisplayName("getTypeByCodePoint()はBMP外の漢字・IBM拡張文字を漢字とする")
+    void case6() {
+      assertEquals(CharType.KANJI, CharType.getTypeByCodePoint("𠀋".codePointAt(0)));
+      assertEquals(CharType.KANJI, CharType.getTypeByCodePoint("𪚲".codePointAt(0)));
+      assertEquals(CharType.KANJI, CharType.getTypeByCodePoint('﨑'));
+      assertEquals(CharType.KANJI, CharType.getTypeByCodePoint('髙'));
+      assertEquals(CharType.UNKNOWN, CharType.getTypeByCodePoint("😀".codePointAt(0)));
+    }
+
+    /**
+     * 表引きに置き換える前の正規表現での判定.
+     */
+    private CharType getTypeByRegex(char c) {
+      String s = String.valueOf(c);
+      Character.UnicodeBlock uniBlock = Character.UnicodeBlock.of(c);
+      if (uniBlock == Character.UnicodeBlock.HIRAGANA) {
+        return CharType.HIRAGANA;
+      } else if (uniBlock == Character.UnicodeBlock.KATAKANA) {
+        return CharType.WIDE_KANA;
+      } else if (uniBlock == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
+        return CharType.KANJI;
+      } else if (uniBlock == Character.UnicodeBlock.BASIC_LATIN) {
+        if (s.matches("[a-z]")) {
+          return CharType.LOWER_ALPHA;
+        } else if (s.matches("[A-Z]")) {
+          return CharType.UPPER_ALPHA;
+        } else if (s.matches("[0-9]")) {
+          return CharType.NUMBER;
+        } else if (s.matches("[!\"#$%&'()*+,-./:;<=>?@\\[\\]^_`{|}~]")) {
+          return CharType.SPECIAL;
+        }
+      } else if (uniBlock == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS) {
+        if (s.matches("[ａ-ｚ]")) {
+          return CharType.WIDE_LOWER_ALPHA;
+        } else if (s.matches("[Ａ-Ｚ]")) {
+          return CharType.WIDE_UPPER_ALPHA;
+        } else if (s.matches("[０-９]")) {
+          return CharType.WIDE_NUMBER;
+        } else if (s.matches("[！”＃＄％＆’（）＊＋，－．／：；＜＝＞？＠［￥］＾＿｀｛｜｝￣]")) {
+          return CharType.WIDE_SPECIAL;
+        } else if (s.matches("[\\uFF61-\\uFF9F]")) {
+          return CharType.HALF_KANA;
+        }
+      }
+      return CharType.UNKNOWN;
+    }
+
   }
 
   @Nested
@@ -132,6 +195,17 @@ class MaskingUtilTest extends MaskingUtil {
       assertFalse(isWideChar(""));
     }
 
+    @Test
+    @DisplayName("1文字、コードポイント指定でも判定できる")
+    void case6() {
+      assertTrue(isWideChar('あ'));
+      assertFalse(isWideChar('ｱ'));
+      assertTrue(isWideChar((int) '漢'));
+      assertFalse(isWideChar((int) 'A'));
+      assertFalse(isWideChar(0x20B9F));
+      assertTrue(isWideChar(new StringBuilder("Aあ")));
+    }
+
   }
 
   @Nested
@@ -156,6 +230,60 @@ class MaskingUtilTest extends MaskingUtil {
       assertEquals(10, getSjisByteCount("あ123ｱ漢字"));
     }
 
+    @Test
+    @DisplayName("全ての文字でMS932に変換した場合のバイト数と一致する")
+    void case4() {
+      Charset ms932 = Charset.forName("MS932");
+      for (int i = 0; i < 0x10000; i++) {
+        String s = String.valueOf((char) i);
+        int expected = s.getBytes(ms932).length;
+        assertEquals(expected, getSjisByteCount((char) i), () -> String.format("U+%04X", (int) s.charAt(0)));
+        assertEquals(expected, getSjisByteCount(s), () -> String.format("U+%04X", (int) s.charAt(0)));
+        assertEquals(expected, getSjisByteCount((int) s.charAt(0)));
+      }
+      // サロゲートペア、単独のサロゲート
+      String s = "あ\uD842\uDF9Fい\uD842";
+      assertEquals(s.getBytes(ms932).length, getSjisByteCount(s));
+      assertEquals(s.getBytes(ms932).length != s.length(), isWideChar(s));
+      assertEquals(1, getSjisByteCount(0x20B9F));
+      assertEquals(0, getSjisByteCount((String) null));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getSjisByteEndIndex")
+  class GetSjisByteEndIndex {
+
+    @Test
+    @DisplayName("指定バイト数を超える直前の文字の次のインデックスが返る")
+    void case1() {
+      assertEquals(3, getSjisByteEndIndex("あ1ｱ漢字", 4));
+      assertEquals(3, getSjisByteEndIndex("あ1ｱ漢字", 5));
+      assertEquals(4, getSjisByteEndIndex("あ1ｱ漢字", 6));
+      assertEquals(0, getSjisByteEndIndex("あ1ｱ漢字", 1));
+    }
+
+    @Test
+    @DisplayName("全て収まる場合は文字列長、nullは0が返る")
+    void case2() {
+      assertEquals(5, getSjisByteEndIndex("あ1ｱ漢字", 8));
+      assertEquals(5, getSjisByteEndIndex(new StringBuilder("あ1ｱ漢字"), 100));
+      assertEquals(0, getSjisByteEndIndex("", 1));
+      assertEquals(0, getSjisByteEndIndex(null, 1));
+    }
+
+    @Test
+    @DisplayName("サロゲートペアは1byte換算で途中で区切られない")
+    void case3() {
+      String s = "あ\uD842\uDF9Fい";
+      assertEquals(1, getSjisByteEndIndex(s, 2));
+      assertEquals(3, getSjisByteEndIndex(s, 3));
+      assertEquals(3, getSjisByteEndIndex(s, 4));
+      assertEquals(4, getSjisByteEndIndex(s, 5));
+      assertEquals(5, getSjisByteCount(s));
+    }
+
   }
 
   @Nested
@@ -299,6 +427,55 @@ class MaskingUtilTest extends MaskingUtil {
       assertEquals(14, getEbcdicByteCount("あ123ｱ漢字"));
     }
 
+    @Test
+    @DisplayName("全ての文字でCp930に変換した場合のバイト数と一致する")
+    void case4() {
+      Charset cp930 = Charset.forName("Cp930");
+      for (int i = 0; i < 0x10000; i++) {
+        char c = (char) i;
+        // 単独、1byte文字の間、2byte文字の間
+        for (String s : new String[] {String.valueOf(c), "A" + c + "A", "あ" + c + "あ"}) {
+          assertEquals(s.getBytes(cp930).length, getEbcdicByteCount(s),
+              () -> String.format("U+%04X", (int) c));
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("サロゲートペアは代替文字1byteでシフト状態は変わらない")
+    void case5() {
+      Charset cp930 = Charset.forName("Cp930");
+      for (String s : new String[] {"\uD842\uDF9F", "あ\uD842\uDF9Fあ", "A\uD842\uDF9FA", "あ\uD842", "\uDF9Fあ"}) {
+        assertEquals(s.getBytes(cp930).length, getEbcdicByteCount(s), s);
+      }
+      assertEquals(0, getEbcdicByteCount(null));
+      assertEquals(0, getEbcdicByteCount(""));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getEbcdicByteEndIndex")
+  class GetEbcdicByteEndIndex {
+
+    @Test
+    @DisplayName("区切った位置のシフトインも含めて指定バイト数を超えない終了インデックスが返る")
+    void case1() {
+      // 12{ＡＢ}3
+      assertEquals(2, getEbcdicByteEndIndex("12ＡＢ3", 5));
+      assertEquals(3, getEbcdicByteEndIndex("12ＡＢ3", 6));
+      assertEquals(3, getEbcdicByteEndIndex("12ＡＢ3", 7));
+      assertEquals(4, getEbcdicByteEndIndex("12ＡＢ3", 8));
+      assertEquals(5, getEbcdicByteEndIndex("12ＡＢ3", 9));
+    }
+
+    @Test
+    @DisplayName("nullは0が返る")
+    void case2() {
+      assertEquals(0, getEbcdicByteEndIndex(null, 10));
+      assertEquals(0, getEbcdicByteEndIndex("", 10));
+    }
+
   }
 
   @Nested
@@ -352,6 +529,26 @@ class MaskingUtilTest extends MaskingUtil {
       ret = truncateByEbcdicBytes("1234ＡＢＣＤ12", 16);
       assertEquals("1234ＡＢＣＤ12", ret);
     }
+
+    @Test
+    @DisplayName("全ての区切り位置で従来の1文字ずつ変換する方法と一致する")
+    void case8() {
+      Charset cp930 = Charset.forName("Cp930");
+      String s = "12ＡＢ3ｱｲ漢字\uD842\uDF9Fあ\uFFFFい4\uD842\uDF9F5";
+      for (int bytes = 0; bytes <= getEbcdicByteCount(s) + 1; bytes++) {
+        // 収まる最長の前方部分
+        String expected = "";
+        for (int i = 1; i <= s.length(); i++) {
+          if (s.substring(0, i).getBytes(cp930).length <= bytes
+              && !Character.isHighSurrogate(s.charAt(i - 1))) {
+            expected = s.substring(0, i);
+          } else if (s.substring(0, i).getBytes(cp930).length > bytes) {
+            break;
+          }
+        }
+        assertEquals(expected, truncateByEbcdicBytes(s, bytes), String.valueOf(bytes));
+      }
+    }
   }
 
   @Nested
@@ -1320,6 +1517,27 @@ class MaskingUtilTest extends MaskingUtil {
         assertTrue(ret.get(key) < count / 10, String.format("%sが出現しすぎ(%d/%d回)", key, ret.get(key), count));
       }
     }
+
+    @Test
+    @DisplayName("対象範囲の漢字のみ返り、80%は第一水準になる")
+    void case3() {
+      int count = 20000; //試行回数
+      int level1 = 0;
+      for (int i = 0; i < count; i++) {
+        String s = getRandomSjisKanji();
+        byte[] b = s.getBytes(java.nio.charset.Charset.forName("MS932"));
+        assertEquals(2, b.length, String.format("[%s]はSJISの2バイト文字ではない", s));
+        int code = ((b[0] & 0xFF) << 8) | (b[1] & 0xFF);
+        assertTrue((code >= 0x889F && code <= 0x9872)
+            || (code >= 0x989F && code <= 0x9FFC)
+            || (code >= 0xE040 && code <= 0xEAA4)
+            || (code >= 0xFA5C && code <= 0xFC4B), String.format("[%s](%04X)は対象範囲外", s, code));
+        if (code <= 0x9872) {
+          level1++;
+        }
+      }
+      assertTrue(level1 > count * 0.77 && level1 < count * 0.83, String.format("第一水準が%d/%d回", level1, count));
+    }
   }
 
   @Nested
@@ -1528,6 +1746,63 @@ class MaskingUtilTest extends MaskingUtil {
       }
     }
 
+    @Test
+    @DisplayName("int型・long型の範囲の端まで生成できる")
+    void case5() {
+      for (int i = 0; i < 1000; i++) {
+        int ret1 = getRandomNumber(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        long ret2 = getRandomNumber(Long.MIN_VALUE, Long.MAX_VALUE);
+        long ret3 = getRandomNumber(Long.MAX_VALUE - 1, Long.MAX_VALUE);
+        assertTrue(ret3 >= Long.MAX_VALUE - 1);
+        int ret4 = getRandomNumber(-5, -3);
+        assertTrue(ret4 >= -5 && ret4 <= -3, String.format("%dは-5~-3の範囲でない", ret4));
+      }
+      assertEquals(7, getRandomNumber(7, 7));
+      assertEquals(7L, getRandomNumber(7L, 7L));
+    }
+
+    @Test
+    @DisplayName("偏りなく生成される")
+    void case6() {
+      int[] counts = new int[3];
+      long[] longCounts = new long[3];
+      int count = 30000; //試行回数
+      for (int i = 0; i < count; i++) {
+        counts[getRandomNumber(0, 2)]++;
+        longCounts[(int) (nextLong(getRandom(), (1L << 62) + 1) % 3)]++;
+      }
+      for (int i = 0; i < counts.length; i++) {
+        assertTrue(counts[i] > 9000 && counts[i] < 11000, String.format("%dが%d件は偏っている", i, counts[i]));
+        assertTrue(longCounts[i] > 9000 && longCounts[i] < 11000, String.format("%dが%d件は偏っている", i, longCounts[i]));
+      }
+    }
+
+    @Test
+    @DisplayName("long型に収まらない範囲・小数でも指定範囲内で返る")
+    void case7() {
+      BigInteger min = new BigInteger("-100000000000000000000");
+      BigInteger max = new BigInteger("100000000000000000000");
+      BigDecimal decMin = new BigDecimal("-1000000000000.00000001");
+      BigDecimal decMax = new BigDecimal("1000000000000.00000001");
+      for (int i = 0; i < 1000; i++) {
+        BigInteger ret1 = getRandomNumber(min, max);
+        assertTrue(ret1.compareTo(min) >= 0 && ret1.compareTo(max) <= 0, String.format("%sは%s~%sの範囲でない", ret1, min, max));
+        BigDecimal ret2 = getRandomNumber(decMin, decMax);
+        assertTrue(ret2.compareTo(decMin) >= 0 && ret2.compareTo(decMax) <= 0, String.format("%sは%s~%sの範囲でない", ret2, decMin, decMax));
+      }
+      // 末尾のゼロは付かない
+      assertEquals(new BigDecimal("1.5"), getRandomNumber(new BigDecimal("1.50"), new BigDecimal("1.50")));
+      assertEquals(new BigDecimal("10"), getRandomNumber(new BigDecimal("10.0"), new BigDecimal("10.0")));
+    }
+
+    @Test
+    @DisplayName("最大値が最小値より小さい場合はエラー")
+    void case8() {
+      assertThrows(IllegalArgumentException.class, () -> getRandomNumber(2, 1));
+      assertThrows(IllegalArgumentException.class, () -> getRandomNumber(2L, 1L));
+      assertThrows(IllegalArgumentException.class, () -> getRandomNumber(BigInteger.TEN, BigInteger.ONE));
+    }
+
   }
 
   @Nested
@@ -1547,6 +1822,84 @@ class MaskingUtilTest extends MaskingUtil {
     }
   }
 
+  @Nested
+  @DisplayName("method: bindDeterministicRandom")
+  class BindDeterministicRandom {
+
+    @Test
+    @DisplayName("キー指定時は範囲内で入力値から決まる乱数になり、範囲外では元に戻る")
+    void case1() {
+      MaskingRule rule = new MaskingRule();
+      rule.setDeterministicReplace(true);
+      rule.setDeterministicKey("secret");
+      rule.setUniqueId("HOGE");
+      String ret1;
+      String ret2;
+      try (RandomScope scope = bindDeterministicRandom(rule, "あいう")) {
+        assertTrue(getRandom() instanceof KeyedRandom);
+        ret1 = getRandomString(20, CharType.ALPHA);
+      }
+      assertFalse(getRandom() instanceof KeyedRandom);
+      try (RandomScope scope = bindDeterministicRandom(rule, "あいう")) {
+        ret2 = getRandomString(20, CharType.ALPHA);
+      }
+      assertEquals(ret1, ret2);
+    }
+
+    @Test
+    @DisplayName("キー指定が無い場合は通常の乱数のまま")
+    void case2() {
+      MaskingRule rule = new MaskingRule();
+      rule.setDeterministicReplace(true);
+      try (RandomScope scope = bindDeterministicRandom(rule, "あいう")) {
+        assertFalse(getRandom() instanceof KeyedRandom);
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: setRandomSource")
+  class SetRandomSource {
+
+    @Test
+    @DisplayName("種を指定した乱数の場合は同じ種なら同じ結果になる")
+    void case1() {
+      try {
+        setRandomSource(RandomSource.seeded(12345L));
+        String ret1 = getRandomString(20, CharType.KANJI) + getRandomNumber(1, 1000000);
+        setRandomSource(RandomSource.seeded(12345L));
+        String ret2 = getRandomString(20, CharType.KANJI) + getRandomNumber(1, 1000000);
+        setRandomSource(RandomSource.seeded(54321L));
+        String ret3 = getRandomString(20, CharType.KANJI) + getRandomNumber(1, 1000000);
+        assertEquals(ret1, ret2);
+        assertNotEquals(ret1, ret3);
+      } finally {
+        setRandomSource(null);
+      }
+    }
+
+    @Test
+    @DisplayName("nullを指定するとデフォルトに戻り、決定論的置換中は割り当てた乱数が優先される")
+    void case2() {
+      MaskingRule rule = new MaskingRule();
+      rule.setDeterministicReplace(true);
+      rule.setDeterministicKey("secret");
+      try {
+        setRandomSource(RandomSource.secure());
+        assertTrue(getRandom() instanceof java.security.SecureRandom);
+        try (RandomScope scope = bindDeterministicRandom(rule, "あいう")) {
+          assertTrue(getRandom() instanceof KeyedRandom);
+        }
+        assertTrue(getRandom() instanceof java.security.SecureRandom);
+      } finally {
+        setRandomSource(null);
+      }
+      assertSame(java.util.concurrent.ThreadLocalRandom.current(), getRandom());
+    }
+
+  }
+
   @Nested
   @DisplayName("method: toUpperHalfKana")
   class ToUpperHalfKana {
@@ -1750,6 +2103,60 @@ class MaskingUtilTest extends MaskingUtil {
       assertFalse(isInvalidNextLetter("ｲﾔｧ", "あ"));
     }
 
+    @Test
+    @DisplayName("前の文字と次の文字の全組み合わせで従来の正規表現による判定と一致する")
+    void case6() {
+      String kana = "ぁぃぅぇぉっゃゅょゎん、。あきしちにひみりぎじぢびぴは"
+          + "ァィゥェォッャュョヮンーアキシチニヒミリギジヂビピハ"
+          + "ｧｨｩｪｫｯｬｭｮﾝｰﾟﾞ､｡ｱｷｼﾁﾆﾋﾐﾘﾊ-\r\n\t 　A1？";
+      List<String> prevs = new ArrayList<>();
+      List<String> nexts = new ArrayList<>();
+      prevs.add("");
+      for (char c : kana.toCharArray()) {
+        prevs.add(String.valueOf(c));
+        prevs.add("あ" + c);
+        prevs.add(c + "ﾞ");
+        prevs.add(c + "ﾟ");
+        nexts.add(String.valueOf(c));
+      }
+      prevs.add("ﾞ");
+      nexts.add("ｶﾞ");
+      for (String prev : prevs) {
+        for (String next : nexts) {
+          assertEquals(isInvalidNextLetterByRegex(prev, next), isInvalidNextLetter(prev, next),
+              () -> String.format("前の文字: [%s], 次の文字: [%s]", prev, next));
+        }
+      }
+    }
+
+    /**
+     * 表引きに置き換える前の正規表現による判定.
+     */
+    private boolean isInvalidNextLetterByRegex(String str, String nextChar) {
+      String lastChar = (str.isEmpty()) ? "" : str.substring(str.length() - 1);
+      if (lastChar.matches("[ﾟﾞ]") && str.length() >= 2) {
+        lastChar = str.substring(str.length() - 2);
+      } else if (lastChar.matches("[-、。､｡\\r\\n\\t 　]")) {
+        lastChar = "";
+      }
+      if (nextChar.matches("[ぁぃぅぇぉっゃゅょゎん、。]")) {
+        return lastChar.isEmpty()
+            || (lastChar.matches("[ぁぃぅぇぉっ]") && nextChar.matches("[ぁぃぅぇぉ]"))
+            || (!lastChar.matches("[きしちにひみりぎじぢびぴ]") && nextChar.matches("[ゃゅょ]"));
+      }
+      if (nextChar.matches("[ァィゥェォッャュョヮンー]")) {
+        return lastChar.isEmpty()
+            || (lastChar.matches("[ァィゥェォッｰ]") && nextChar.matches("[ァィゥェォ]"))
+            || (!lastChar.matches("[キシチニヒミリギジヂビピ]") && nextChar.matches("[ャュョ]"));
+      }
+      if (nextChar.matches("[ｧｨｩｪｫｯｬｭｮﾝｰﾟﾞ､｡]")) {
+        return lastChar.isEmpty()
+            || (lastChar.matches("[ｧｨｩｪｫｯｰ]") && nextChar.matches("[ｧｨｩｪｫ]"))
+            || (!lastChar.matches("(ｷﾞ|ｼﾞ|ﾁﾞ|ﾋﾞ|ﾋﾟ|[ｷｼﾁﾆﾋﾐﾘ])") && nextChar.matches("[ｬｭｮ]"));
+      }
+      return false;
+    }
+
   }
 
 }
@@ -0,0 +1,219 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class PreloadedUniqueListStoreTest {
+
+  static final String SELECT_SQL = "SELECT input_val, output_val FROM sys_unique_list WHERE id = ?";
+
+  @Mock
+  Connection mockConn;
+  @Mock
+  PreparedStatement mockPreparedStmnt;
+  @Mock
+  ResultSet mockResultSet;
+
+  @Nested
+  @DisplayName("method: constructor")
+  class Constructor {
+
+    @Test
+    @DisplayName("不正な引数はエラー")
+    void case1() throws Exception {
+      InMemoryUniqueListStore delegate = new InMemoryUniqueListStore();
+      assertThrows(IllegalArgumentException.class, () -> new PreloadedUniqueListStore(null));
+      assertThrows(IllegalArgumentException.class, () -> new PreloadedUniqueListStore(delegate, 0));
+      assertEquals(delegate, new PreloadedUniqueListStore(delegate).getDelegate());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getUniqueIds")
+  class GetUniqueIds {
+
+    @Test
+    @DisplayName("ユニークリストを使用するルールの識別子のみ返る")
+    void case1() throws Exception {
+      MaskingRule rule1 = new MaskingRule();
+      rule1.setDeterministicReplace(true);
+      rule1.setUniqueId("HOGE");
+      MaskingRule rule2 = new MaskingRule();
+      rule2.setUniqueValue(true);
+      rule2.setUniqueId("FUGA");
+      MaskingRule rule3 = new MaskingRule();
+      rule3.setUniqueId("PIYO");
+      MaskingRule rule4 = new MaskingRule();
+      rule4.setDeterministicReplace(true);
+      rule4.setDeterministicKey("secret");
+      rule4.setUniqueId("FOO");
+      assertEquals(Arrays.asList("HOGE", "FUGA"), Arrays.asList(PreloadedUniqueListStore
+          .getUniqueIds(Arrays.asList(rule1, rule2, rule3, rule4, null)).toArray()));
+      assertTrue(PreloadedUniqueListStore.getUniqueIds(null).isEmpty());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: preload")
+  class Preload {
+
+    @Test
+    @DisplayName("読み込み済の識別子は元の格納先に問い合わせない")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(SELECT_SQL, ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY)).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true, true, false);
+      when(mockResultSet.getString("input_val")).thenReturn("in1", "in2");
+      when(mockResultSet.getString("output_val")).thenReturn("out1", "out2");
+
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      PreloadedUniqueListStore store = new PreloadedUniqueListStore(delegate);
+      store.preload(mockConn, Arrays.asList("HOGE"));
+      verify(mockPreparedStmnt, times(1)).setFetchSize(PreloadedUniqueListStore.FETCH_SIZE);
+      verify(mockPreparedStmnt, times(1)).setString(1, "HOGE");
+      assertTrue(store.isPreloaded("HOGE"));
+      assertFalse(store.isPreloaded("FUGA"));
+      assertTrue(store.getMemoryUsage() > 0);
+
+      assertEquals("out1", store.getRegisteredUniqueVal("HOGE", "in1"));
+      assertEquals("out2", store.getRegisteredUniqueVal("HOGE", "in2"));
+      assertNull(store.getRegisteredUniqueVal("HOGE", "in3"));
+      assertTrue(store.isExistsInUniqueList("HOGE", "out1"));
+      assertFalse(store.isExistsInUniqueList("HOGE", "out3"));
+      verify(delegate, never()).getRegisteredUniqueVal(anyString(), anyString());
+      verify(delegate, never()).isExistsInUniqueList(anyString(), anyString());
+
+      // 読み込んでいない識別子は元の格納先に問い合わせる
+      assertNull(store.getRegisteredUniqueVal("FUGA", "in1"));
+      assertFalse(store.isExistsInUniqueList("FUGA", "out1"));
+      verify(delegate, times(1)).getRegisteredUniqueVal("FUGA", "in1");
+      verify(delegate, times(1)).isExistsInUniqueList("FUGA", "out1");
+    }
+
+    @Test
+    @DisplayName("メモリ上限を超えた識別子は都度問い合わせになる")
+    void case2() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true, true, true);
+      when(mockResultSet.getString("input_val")).thenReturn("in1", "in2", "in3");
+      when(mockResultSet.getString("output_val")).thenReturn("out1", "out2", "out3");
+
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      PreloadedUniqueListStore store = new PreloadedUniqueListStore(delegate, 400);
+      store.preload(mockConn, Arrays.asList("HOGE"));
+      assertFalse(store.isPreloaded("HOGE"));
+      assertTrue(store.getFallbackIds().contains("HOGE"));
+      assertEquals(0, store.getMemoryUsage());
+      assertNull(store.getRegisteredUniqueVal("HOGE", "in1"));
+      verify(delegate, times(1)).getRegisteredUniqueVal("HOGE", "in1");
+    }
+
+    @Test
+    @DisplayName("コネクションが無い場合は何もしない")
+    void case3() throws Exception {
+      PreloadedUniqueListStore store = new PreloadedUniqueListStore(new InMemoryUniqueListStore());
+      store.preload(null, Arrays.asList("HOGE"));
+      assertFalse(store.isPreloaded("HOGE"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addUniqueList")
+  class AddUniqueList {
+
+    @Test
+    @DisplayName("登録した内容は読み込み済の内容にも反映される")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(false);
+
+      InMemoryUniqueListStore delegate = new InMemoryUniqueListStore();
+      delegate.addUniqueList("HOGE", "other", "dup");
+      PreloadedUniqueListStore store = new PreloadedUniqueListStore(delegate);
+      store.preload(mockConn, Arrays.asList("HOGE"));
+      assertFalse(store.isExistsInUniqueList("HOGE", "dup"));
+      assertTrue(store.addUniqueList("HOGE", "in1", "out1"));
+      assertEquals("out1", store.getRegisteredUniqueVal("HOGE", "in1"));
+      assertTrue(store.isExistsInUniqueList("HOGE", "out1"));
+      // 元の格納先で重複した値はOUTPUTのみ反映される
+      assertFalse(store.addUniqueList("HOGE", "in2", "dup"));
+      assertTrue(store.isExistsInUniqueList("HOGE", "dup"));
+      assertNull(store.getRegisteredUniqueVal("HOGE", "in2"));
+      // 登録対象外は成功扱い
+      assertTrue(store.addUniqueList("HOGE", null, "out2"));
+      assertFalse(store.isExistsInUniqueList("HOGE", "out2"));
+    }
+
+    @Test
+    @DisplayName("登録でメモリ上限を超えた識別子は都度問い合わせに切り替わる")
+    void case2() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(false);
+
+      PreloadedUniqueListStore store = new PreloadedUniqueListStore(new InMemoryUniqueListStore(), 400);
+      store.preload(mockConn, Arrays.asList("HOGE"));
+      assertTrue(store.addUniqueList("HOGE", "in1", "out1"));
+      assertTrue(store.isPreloaded("HOGE"));
+      assertTrue(store.addUniqueList("HOGE", "in2", "out2"));
+      assertTrue(store.addUniqueList("HOGE", "in3", "out3"));
+      assertFalse(store.isPreloaded("HOGE"));
+      assertEquals(0, store.getMemoryUsage());
+      // 元の格納先に登録済なので参照できる
+      assertEquals("out3", store.getRegisteredUniqueVal("HOGE", "in3"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: clear")
+  class Clear {
+
+    @Test
+    @DisplayName("元の格納先と読み込み済の内容を初期化する")
+    void case1() throws Exception {
+      UniqueListStore delegate = spy(new InMemoryUniqueListStore());
+      PreloadedUniqueListStore store = new PreloadedUniqueListStore(delegate);
+      store.addUniqueList("HOGE", "in1", "out1");
+      store.clear();
+      verify(delegate, times(1)).clear();
+      assertFalse(store.isExistsInUniqueList("HOGE", "out1"));
+      assertEquals(0, store.getMemoryUsage());
+      store.close();
+      verify(delegate, times(1)).close();
+    }
+
+  }
+
+}
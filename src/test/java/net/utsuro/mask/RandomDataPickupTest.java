@@ -158,6 +158,10 @@ class RandomDataPickupTest extends RandomDataPickup {
 
       verify(mockConn, times(1)).prepareStatement("SELECT MAX(idx) AS maxseq FROM hoge");
       verify(mockConn, times(1)).prepareStatement("SELECT val FROM hoge WHERE idx = ?");
+      // カラム名を変更した場合はSQLを作り直す
+      rule.setSelectListColName("val2");
+      execute("テスト", rule);
+      verify(mockConn, times(1)).prepareStatement("SELECT val2 FROM hoge WHERE idx = ?");
     }
 
     @Test
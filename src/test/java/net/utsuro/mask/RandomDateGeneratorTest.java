@@ -473,6 +473,26 @@ class RandomDateGeneratorTest extends RandomDateGenerator {
       }
     }
 
+
+    @Test
+    @DisplayName("期間内の日付を使い切るまで重複なく生成でき、使い切るとエラー")
+    void case4() throws Exception {
+      setUniqueListStore(new InMemoryUniqueListStore());
+      rule.setUniqueValue(true);
+      rule.setUniqueId("HOGE");
+      rule.setMinDate(LocalDateTime.parse("2020-01-01T00:00:00"));
+      rule.setMaxDate(LocalDateTime.parse("2020-01-31T00:00:00"));
+      List<LocalDateTime> ret = new ArrayList<>();
+      for (int i = 0; i < 31; i++) {
+        LocalDateTime dt = (LocalDateTime) execute(LocalDateTime.parse("2000-01-01T00:00:00"), rule);
+        assertFalse(ret.contains(dt), String.format("%s が重複", dt));
+        ret.add(dt);
+      }
+      SQLIntegrityConstraintViolationException e = assertThrows(
+          SQLIntegrityConstraintViolationException.class,
+          () -> execute(LocalDateTime.parse("2000-01-01T00:00:00"), rule));
+      assertEquals("ユニークな値を使い切りました。(識別子: HOGE, 件数: 31)", e.getMessage());
+    }
   }
 
 }
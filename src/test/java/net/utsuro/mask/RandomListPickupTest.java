@@ -176,6 +176,69 @@ class RandomListPickupTest extends RandomListPickup {
       assertFalse(retMap.containsKey("もも"));
     }
 
+    @Test
+    @DisplayName("リスト・重みをセットし直すと抽選に反映される")
+    void case13() throws Exception {
+      rule.setPickupList(new String[] {"りんご", "みかん"});
+      rule.setPickupWeights(new int[] {1, 0});
+      assertEquals("りんご", execute("hoge", rule));
+      rule.setPickupWeights(new int[] {0, 1});
+      assertEquals("みかん", execute("hoge", rule));
+      rule.setPickupList(new String[] {"バナナ", "もも"});
+      assertEquals("もも", execute("hoge", rule));
+      // 別のルールとは共有しない
+      MaskingRule other = new MaskingRule(rule);
+      other.setPickupWeights(new int[] {1, 0});
+      assertEquals("バナナ", execute("hoge", other));
+      assertEquals("もも", execute("hoge", rule));
+      assertEquals(rule.hashCode(), new MaskingRule(rule).hashCode());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("ルールが無い場合、picklist無しはそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {"あいう", null};
+      Object[] out = new Object[2];
+      executeBatch(in, out, 2, null);
+      assertArrayEquals(in, out);
+      out = new Object[2];
+      executeBatch(in, out, 2, new MaskingRule());
+      assertArrayEquals(in, out);
+    }
+
+    @Test
+    @DisplayName("同じ乱数列なら1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      Object[] values = {"a", null, "b", "c", null, "a", "d", "e"};
+      MaskingRule weighted = new MaskingRule();
+      weighted.setPickupList(new String[] {"会長", "社長", "部長", "課長"});
+      weighted.setPickupWeights(new int[] {1, 2, 10, 40});
+      MaskingRule nullReplace = new MaskingRule();
+      nullReplace.setPickupList(new String[] {"hoge", "fuga", "piyo"});
+      nullReplace.setNullReplace(true);
+      try {
+        for (MaskingRule rule : new MaskingRule[] {weighted, nullReplace}) {
+          MaskingUtil.setRandomSource(RandomSource.seeded(12345L));
+          Object[] expected = new Object[values.length];
+          for (int i = 0; i < values.length; i++) {
+            expected[i] = execute(values[i], rule);
+          }
+          MaskingUtil.setRandomSource(RandomSource.seeded(12345L));
+          Object[] out = values.clone();
+          executeBatch(out, out, out.length, rule);
+          assertArrayEquals(expected, out);
+        }
+      } finally {
+        MaskingUtil.setRandomSource(null);
+      }
+    }
+
   }
 
 }
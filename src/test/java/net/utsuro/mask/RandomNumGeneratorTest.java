@@ -278,4 +278,49 @@ class RandomNumGeneratorTest extends RandomNumGenerator {
 
   }
 
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("ルールが無い場合はそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {"あいう", null};
+      Object[] out = new Object[2];
+      executeBatch(in, out, 2, null);
+      assertArrayEquals(in, out);
+    }
+
+    @Test
+    @DisplayName("同じ乱数列なら1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      Object[] values = {null, "あいう", 123456L, "-123456", new BigDecimal("12.345"), 7,
+          new BigDecimal("12345678901234567890.12"), "999"};
+      MaskingRule byPrecision = new MaskingRule();
+      byPrecision.setNullReplace(true);
+      byPrecision.setIgnoreValue("^999$");
+      MaskingRule byRange = new MaskingRule();
+      byRange.setMinDecimalValue(new BigDecimal("-100"));
+      byRange.setMaxDecimalValue(new BigDecimal("100"));
+      MaskingRule byLargeRange = new MaskingRule();
+      byLargeRange.setMaxDecimalValue(new BigDecimal("99999999999999999999.99"));
+      try {
+        for (MaskingRule rule : new MaskingRule[] {byPrecision, byRange, byLargeRange}) {
+          MaskingUtil.setRandomSource(RandomSource.seeded(12345L));
+          Object[] expected = new Object[values.length];
+          for (int i = 0; i < values.length; i++) {
+            expected[i] = execute(values[i], rule);
+          }
+          MaskingUtil.setRandomSource(RandomSource.seeded(12345L));
+          Object[] out = values.clone();
+          executeBatch(out, out, out.length, rule);
+          assertArrayEquals(expected, out);
+        }
+      } finally {
+        MaskingUtil.setRandomSource(null);
+      }
+    }
+
+  }
+
 }
@@ -0,0 +1,93 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class RandomSourceTest {
+
+  /**
+   * 別スレッドで乱数を取得する.
+   * @param source 乱数の供給元
+   * @return 別スレッドの乱数
+   */
+  static Random getOnOtherThread(RandomSource source) throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Callable<Random> task = source::get;
+      return executor.submit(task).get();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Nested
+  @DisplayName("method: fast")
+  class Fast {
+
+    @Test
+    @DisplayName("ThreadLocalRandomを返す")
+    void case1() throws Exception {
+      RandomSource source = RandomSource.fast();
+      assertSame(ThreadLocalRandom.current(), source.get());
+      // 乱数の状態はスレッドごとに保持される
+      assertSame(ThreadLocalRandom.current(), getOnOtherThread(source));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: secure")
+  class Secure {
+
+    @Test
+    @DisplayName("スレッドごとのSecureRandomを返す")
+    void case1() throws Exception {
+      RandomSource source = RandomSource.secure();
+      assertTrue(source.get() instanceof SecureRandom);
+      assertSame(source.get(), source.get());
+      assertNotSame(source.get(), getOnOtherThread(source));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: seeded")
+  class Seeded {
+
+    @Test
+    @DisplayName("同じ種なら同じ乱数列になる")
+    void case1() throws Exception {
+      Random r1 = RandomSource.seeded(1L).get();
+      Random r2 = RandomSource.seeded(1L).get();
+      Random r3 = RandomSource.seeded(2L).get();
+      long[] v1 = {r1.nextLong(), r1.nextLong(), r1.nextLong()};
+      long[] v2 = {r2.nextLong(), r2.nextLong(), r2.nextLong()};
+      long[] v3 = {r3.nextLong(), r3.nextLong(), r3.nextLong()};
+      assertArrayEquals(v1, v2);
+      assertFalse(java.util.Arrays.equals(v1, v3));
+    }
+
+    @Test
+    @DisplayName("スレッドごとに別の乱数列になる")
+    void case2() throws Exception {
+      RandomSource source = RandomSource.seeded(1L);
+      Random r1 = source.get();
+      Random r2 = getOnOtherThread(source);
+      assertSame(r1, source.get());
+      assertNotSame(r1, r2);
+      assertNotEquals(r1.nextLong(), r2.nextLong());
+    }
+
+  }
+
+}
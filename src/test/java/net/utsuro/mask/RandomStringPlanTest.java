@@ -0,0 +1,96 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.EnumSet;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import net.utsuro.mask.MaskingUtil.CharType;
+
+class RandomStringPlanTest {
+
+  @Nested
+  @DisplayName("method: of")
+  class Of {
+
+    @Test
+    @DisplayName("文字種・生成しない文字パターンが同じなら同じインスタンスを返す")
+    void case1() throws Exception {
+      RandomStringPlan plan = RandomStringPlan.of(EnumSet.of(CharType.ALPHANUM), Pattern.compile("[0-4]"));
+      assertSame(plan, RandomStringPlan.of(EnumSet.of(CharType.ALPHANUM), Pattern.compile("[0-4]")));
+      assertNotSame(plan, RandomStringPlan.of(EnumSet.of(CharType.ALPHANUM), Pattern.compile("[5-9]")));
+      assertNotSame(plan, RandomStringPlan.of(EnumSet.of(CharType.ALPHANUM), null));
+      assertNotSame(plan, RandomStringPlan.of(EnumSet.of(CharType.ALPHA), Pattern.compile("[0-4]")));
+    }
+
+    @Test
+    @DisplayName("引き渡した文字種は書き換えない")
+    void case2() throws Exception {
+      EnumSet<CharType> types = EnumSet.of(CharType.WIDE_WITH_SPECIAL);
+      RandomStringPlan.of(types, Pattern.compile("x"));
+      assertEquals(EnumSet.of(CharType.WIDE_WITH_SPECIAL), types);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: generate")
+  class Generate {
+
+    @Test
+    @DisplayName("生成しない文字は生成されない")
+    void case1() throws Exception {
+      RandomStringPlan plan = RandomStringPlan.of(
+          EnumSet.of(CharType.HALF_WITH_SPECIAL, CharType.HIRAGANA), Pattern.compile("[a-zA-Zあ-おｱ-ｵ!-/]"));
+      for (int i = 0; i < 100; i++) {
+        String ret = plan.generate(20);
+        assertFalse(Pattern.compile("[a-zA-Zあ-おｱ-ｵ!-/]").matcher(ret).find(), ret);
+        assertEquals(20, MaskingUtil.getSjisByteCount(ret), ret);
+      }
+    }
+
+    @Test
+    @DisplayName("生成できる文字が無い場合はブランク")
+    void case2() throws Exception {
+      assertEquals("", RandomStringPlan.of(EnumSet.of(CharType.NUMBER), Pattern.compile("[0-9]")).generate(5));
+      assertEquals("", RandomStringPlan.of(EnumSet.of(CharType.NONE), null).generate(5));
+    }
+
+    @Test
+    @DisplayName("全角文字のみの場合は指定byte数を超えない偶数byteになる")
+    void case3() throws Exception {
+      RandomStringPlan plan = RandomStringPlan.of(EnumSet.of(CharType.KANJI, CharType.WIDE_KANA), null);
+      assertEquals("", plan.generate(1));
+      for (int i = 0; i < 100; i++) {
+        String ret = plan.generate(7);
+        assertEquals(3, ret.length(), ret);
+        assertEquals(6, MaskingUtil.getSjisByteCount(ret), ret);
+      }
+    }
+
+    @Test
+    @DisplayName("かなはありえない組み合わせにならない")
+    void case4() throws Exception {
+      for (CharType type : EnumSet.of(CharType.HIRAGANA, CharType.WIDE_KANA, CharType.HALF_KANA)) {
+        RandomStringPlan plan = RandomStringPlan.of(EnumSet.of(type), null);
+        for (int i = 0; i < 200; i++) {
+          String ret = plan.generate(20);
+          for (int j = 1; j <= ret.length(); j++) {
+            String prev = ret.substring(0, j - 1);
+            String next = ret.substring(j - 1, j);
+            if (next.matches("[ﾞﾟ]") && j >= 2) {
+              // 濁点付きの半角カナは前の文字と組で生成されるので判定しない
+              continue;
+            }
+            assertFalse(MaskingUtil.isInvalidNextLetter(prev, next), ret);
+          }
+        }
+      }
+    }
+
+  }
+
+}
@@ -59,6 +59,16 @@ class RandomTextReplacerTest extends RandomTextReplacer {
       assertTrue(useDatabase(rule));
     }
 
+    @Test
+    @DisplayName("isDeterministicReplaceでもdeterministicKey指定時はDBは使用しない")
+    void case4() throws Exception {
+      rule.setDeterministicReplace(true);
+      rule.setDeterministicKey("secret");
+      assertFalse(useDatabase(rule));
+      rule.setUniqueValue(true);
+      assertTrue(useDatabase(rule));
+    }
+
   }
 
   @Nested
@@ -99,6 +109,42 @@ class RandomTextReplacerTest extends RandomTextReplacer {
 
   }
 
+  @Nested
+  @DisplayName("method: getUniqueListStore")
+  class GetUniqueListStore {
+
+    @Mock
+    Connection mockConn;
+
+    @Test
+    @DisplayName("未指定の場合はDBコネクションのユニークリストが返る")
+    void case1() throws Exception {
+      setConnection(mockConn);
+      UniqueListStore store = getUniqueListStore();
+      assertTrue(store instanceof JdbcUniqueListStore);
+      assertEquals(mockConn, ((JdbcUniqueListStore) store).getConnection());
+    }
+
+    @Test
+    @DisplayName("セットすればセットしたものが返る")
+    void case2() throws Exception {
+      UniqueListStore store = new InMemoryUniqueListStore();
+      setUniqueListStore(store);
+      assertEquals(store, getUniqueListStore());
+    }
+
+    @Test
+    @DisplayName("DBコネクションのユニークリストはコネクションをセットするまで同じものが返る")
+    void case3() throws Exception {
+      setConnection(mockConn);
+      UniqueListStore store = getUniqueListStore();
+      assertSame(store, getUniqueListStore());
+      setConnection(mockConn);
+      assertNotSame(store, getUniqueListStore());
+    }
+
+  }
+
   @Nested
   @DisplayName("method: execute")
   class Execute {
@@ -270,6 +316,18 @@ class RandomTextReplacerTest extends RandomTextReplacer {
       assertTrue(ret.matches("[0-9]x[0-9]x[0-9]x[0-9]x[0-9]x[0-9]x[0-9]x[0-9]x"), String.format("[%s]はNG", ret));
     }
 
+    @Test
+    @DisplayName("BMP外の漢字は1文字の漢字に置換する")
+    void case31() throws Exception {
+      for (int i = 0; i < 100; i++) {
+        String ret = replace("𠀋a𪚲", rule);
+        assertEquals(3, ret.length(), String.format("[%s]はNG", ret));
+        assertEquals(CharType.KANJI, CharType.getTypeByString(ret.substring(0, 1)));
+        assertEquals(CharType.LOWER_ALPHA, CharType.getTypeByString(ret.substring(1, 2)));
+        assertEquals(CharType.KANJI, CharType.getTypeByString(ret.substring(2)));
+      }
+    }
+
     @Test
     @DisplayName("インスタンスメソッドでも基本的には処理は同じ")
     void case90() throws Exception {
@@ -389,6 +447,97 @@ class RandomTextReplacerTest extends RandomTextReplacer {
       }
     }
 
+    @Test
+    @DisplayName("メモリ上のユニークリストでの一貫性・ユニーク性テスト")
+    void case4() throws Exception {
+      setUniqueListStore(new InMemoryUniqueListStore());
+      rule.setDeterministicReplace(true);
+      rule.setUniqueValue(true);
+      rule.setUniqueId("HOGE");
+      String ret1 = (String) execute("1234XXXXXXXXXXXX", rule);
+      String ret2 = (String) execute("1234XXXXXXXXXXXX", rule);
+      String ret3 = (String) execute("4567XXXXXXXXXXXX", rule);
+      assertEquals(ret1, ret2, String.format("[%s]<>[%s]はNG", ret1, ret2));
+      assertFalse(ret1.equals(ret3), String.format("[%s]=[%s]はNG", ret1, ret3));
+      assertTrue(isExistsInUniqueList("HOGE", ret1));
+      assertTrue(isExistsInUniqueList("HOGE", ret3));
+    }
+
+    @Test
+    @DisplayName("キー指定時はユニークリスト無しで一貫性が保たれる")
+    void case5() throws Exception {
+      InMemoryUniqueListStore store = new InMemoryUniqueListStore();
+      setUniqueListStore(store);
+      rule.setDeterministicReplace(true);
+      rule.setDeterministicKey("secret");
+      rule.setUniqueId("HOGE");
+      String ret1 = (String) execute("1234XXXXXXXXXXXX", rule);
+      String ret2 = (String) execute("1234XXXXXXXXXXXX", rule);
+      String ret3 = (String) execute("4567XXXXXXXXXXXX", rule);
+      assertEquals(ret1, ret2, String.format("[%s]<>[%s]はNG", ret1, ret2));
+      assertFalse(ret1.equals(ret3), String.format("[%s]=[%s]はNG", ret1, ret3));
+      assertEquals(0, store.size("HOGE"));
+      // キーが変わると結果も変わる
+      rule.setDeterministicKey("other");
+      String ret4 = (String) execute("1234XXXXXXXXXXXX", rule);
+      assertFalse(ret1.equals(ret4), String.format("[%s]=[%s]はNG", ret1, ret4));
+    }
+
+
+    @Test
+    @DisplayName("出力値の範囲を使い切るまで重複なく生成でき、使い切るとエラー")
+    void case6() throws Exception {
+      setUniqueListStore(new InMemoryUniqueListStore());
+      rule.setUniqueValue(true);
+      rule.setUniqueId("HOGE");
+      List<String> ret = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        String val = (String) execute("12", rule);
+        assertFalse(ret.contains(val), String.format("%s が重複", val));
+        ret.add(val);
+      }
+      SQLIntegrityConstraintViolationException e = assertThrows(
+          SQLIntegrityConstraintViolationException.class, () -> execute("12", rule));
+      assertEquals("ユニークな値を使い切りました。(識別子: HOGE, 件数: 100)", e.getMessage());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("ルールが無い場合はそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {"あいう", null};
+      Object[] out = new Object[2];
+      executeBatch(in, out, 2, null);
+      assertArrayEquals(in, out);
+    }
+
+    @Test
+    @DisplayName("同じ乱数列なら1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      Object[] values = {"あいう", null, "abc-123", "ｱｲｳ", "", 12345L, "漢字テキスト", "999"};
+      MaskingRule rule = new MaskingRule();
+      rule.setIgnoreValue("^999$");
+      try {
+        MaskingUtil.setRandomSource(RandomSource.seeded(12345L));
+        Object[] expected = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+          expected[i] = execute(values[i], rule);
+        }
+        MaskingUtil.setRandomSource(RandomSource.seeded(12345L));
+        Object[] out = values.clone();
+        executeBatch(out, out, out.length, rule);
+        assertArrayEquals(expected, out);
+        assertEquals("999", out[7]);
+      } finally {
+        MaskingUtil.setRandomSource(null);
+      }
+    }
+
   }
 
-}
\ No newline at end of file
+}
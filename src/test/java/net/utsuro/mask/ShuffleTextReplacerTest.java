@@ -4,7 +4,9 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.sql.Connection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -114,6 +116,21 @@ class ShuffleTextReplacerTest extends ShuffleTextReplacer {
       }
     }
 
+    @Test
+    @DisplayName("サロゲートペアは分割せずにシャッフルする")
+    void case11() throws Exception {
+      Set<String> rets = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+        String ret = (String) execute("𠀋あ𪚲", rule);
+        assertEquals(5, ret.length());
+        assertTrue(ret.indexOf("𠀋") >= 0);
+        assertTrue(ret.indexOf("𪚲") >= 0);
+        assertTrue(ret.indexOf("あ") >= 0);
+        rets.add(ret);
+      }
+      assertTrue(rets.size() > 1);
+    }
+
   }
 
 }
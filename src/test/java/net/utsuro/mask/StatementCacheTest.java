@@ -0,0 +1,238 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class StatementCacheTest {
+
+  @Mock
+  Connection mockConn;
+  @Mock
+  PreparedStatement mockPreparedStmnt;
+
+  @Nested
+  @DisplayName("method: prepare")
+  class Prepare {
+
+    @Test
+    @DisplayName("close()したステートメントは同じSQLで再利用される")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+
+      StatementCache cache = new StatementCache(mockConn);
+      try (PreparedStatement stmt = cache.prepare("SELECT 1")) {
+        stmt.setString(1, "hoge");
+      }
+      assertEquals(1, cache.size());
+      try (PreparedStatement stmt = cache.prepare("SELECT 1")) {
+        stmt.setString(1, "fuga");
+        assertFalse(stmt.isClosed());
+      }
+      verify(mockConn, times(1)).prepareStatement("SELECT 1");
+      verify(mockPreparedStmnt, times(2)).clearParameters();
+      verify(mockPreparedStmnt, never()).close();
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      assertSame(mockConn, cache.getConnection());
+    }
+
+    @Test
+    @DisplayName("使用中のステートメントは共有しない")
+    void case2() throws Exception {
+      // モックの設定
+      PreparedStatement mockPreparedStmnt2 = mock(PreparedStatement.class);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt, mockPreparedStmnt2);
+
+      StatementCache cache = new StatementCache(mockConn);
+      PreparedStatement stmt1 = cache.prepare("SELECT 1");
+      PreparedStatement stmt2 = cache.prepare("SELECT 1");
+      stmt1.setLong(1, 1L);
+      stmt2.setLong(1, 2L);
+      verify(mockPreparedStmnt, times(1)).setLong(1, 1L);
+      verify(mockPreparedStmnt2, times(1)).setLong(1, 2L);
+      stmt1.close();
+      stmt2.close();
+      // 閉じた後は使用できない
+      assertTrue(stmt1.isClosed());
+      assertThrows(java.sql.SQLException.class, () -> stmt1.setLong(1, 3L));
+      assertEquals(2, cache.size());
+      assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    @DisplayName("上限を超えた分は古いものから閉じる")
+    void case3() throws Exception {
+      // モックの設定
+      PreparedStatement mockPreparedStmnt2 = mock(PreparedStatement.class);
+      when(mockConn.prepareStatement("SELECT 1")).thenReturn(mockPreparedStmnt);
+      when(mockConn.prepareStatement("SELECT 2")).thenReturn(mockPreparedStmnt2);
+
+      StatementCache cache = new StatementCache(mockConn);
+      cache.setMaxSize(1);
+      cache.prepare("SELECT 1").close();
+      cache.prepare("SELECT 2").close();
+      assertEquals(1, cache.size());
+      verify(mockPreparedStmnt, times(1)).close();
+      verify(mockPreparedStmnt2, never()).close();
+      // キャッシュしない
+      cache.setMaxSize(0);
+      verify(mockPreparedStmnt2, times(1)).close();
+      assertEquals(0, cache.size());
+      assertThrows(IllegalArgumentException.class, () -> cache.setMaxSize(-1));
+    }
+
+    @Test
+    @DisplayName("バッチを追加した場合はバッチもクリアして戻す")
+    void case4() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+
+      StatementCache cache = new StatementCache(mockConn);
+      try (PreparedStatement stmt = cache.prepare("INSERT")) {
+        stmt.addBatch();
+      }
+      try (PreparedStatement stmt = cache.prepare("INSERT")) {
+        stmt.execute();
+      }
+      verify(mockPreparedStmnt, times(1)).clearBatch();
+    }
+
+    @Test
+    @DisplayName("コネクションが閉じている場合はキャッシュに戻さずに閉じる")
+    void case5() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockConn.isClosed()).thenReturn(true);
+
+      StatementCache cache = new StatementCache(mockConn);
+      cache.prepare("SELECT 1").close();
+      verify(mockPreparedStmnt, times(1)).close();
+      assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("コネクションが無い場合、上限が不正な場合はエラー")
+    void case6() throws Exception {
+      Exception e = assertThrows(IllegalArgumentException.class, () -> new StatementCache(null));
+      assertEquals("DBコネクションを指定してください。", e.getMessage());
+      e = assertThrows(IllegalArgumentException.class, () -> new StatementCache(mockConn, -1));
+      assertEquals("キャッシュ件数の上限は0以上を指定してください。", e.getMessage());
+      // 上限0の場合はキャッシュしない
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      StatementCache cache = new StatementCache(mockConn, 0);
+      cache.prepare("SELECT 1").close();
+      verify(mockPreparedStmnt, times(1)).close();
+      assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("JDBCの呼び出しはプロキシを経由せずにそのまま委譲する")
+    void case7() throws Exception {
+      // モックの設定
+      ResultSet mockResultSet = mock(ResultSet.class);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockPreparedStmnt.executeUpdate()).thenReturn(3);
+
+      StatementCache cache = new StatementCache(mockConn);
+      try (PreparedStatement stmt = cache.prepare("SELECT 1")) {
+        assertFalse(Proxy.isProxyClass(stmt.getClass()));
+        assertSame(mockResultSet, stmt.executeQuery());
+        assertEquals(3, stmt.executeUpdate());
+        stmt.setNull(2, Types.VARCHAR);
+      }
+      verify(mockPreparedStmnt, times(1)).setNull(2, Types.VARCHAR);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: close")
+  class Close {
+
+    @Test
+    @DisplayName("キャッシュ中のステートメントを閉じて破棄する")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+
+      StatementCache cache = new StatementCache(mockConn);
+      PreparedStatement inUse = cache.prepare("SELECT 2");
+      cache.prepare("SELECT 1").close();
+      cache.close();
+      verify(mockPreparedStmnt, times(1)).close();
+      assertEquals(0, cache.size());
+      // 破棄後に戻されたものも閉じる
+      inUse.close();
+      verify(mockPreparedStmnt, times(2)).close();
+    }
+
+    @Test
+    @DisplayName("閉じずに参照が無くなった場合もコネクションは回収される")
+    void case2() throws Exception {
+      WeakReference<Connection> ref = prepareWithoutClose();
+      for (int i = 0; i < 100 && ref.get() != null; i++) {
+        System.gc();
+        Thread.sleep(10);
+      }
+      assertNull(ref.get());
+    }
+
+    /**
+     * 格納先を閉じずにステートメントをキャッシュしたコネクションの参照を返す.
+     * ※ステートメントは実際のドライバと同様にコネクションを参照する
+     */
+    private WeakReference<Connection> prepareWithoutClose() throws Exception {
+      Connection conn = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "prepareStatement":
+                return fakeStatement((Connection) proxy);
+              case "isClosed":
+                return false;
+              default:
+                return null;
+            }
+          });
+      JdbcUniqueListStore store = new JdbcUniqueListStore(conn, UniqueListDialect.STANDARD);
+      store.getStatementCache().prepare("SELECT 1").close();
+      assertEquals(1, store.getStatementCache().size());
+      return new WeakReference<>(conn);
+    }
+
+    private PreparedStatement fakeStatement(Connection conn) {
+      return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getConnection":
+                return conn;
+              case "isClosed":
+                return false;
+              default:
+                return null;
+            }
+          });
+    }
+
+  }
+
+}
@@ -122,4 +122,36 @@ class TextTrimTest extends TextTrim {
 
   }
 
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("ルールが無い場合はそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {" a ", null};
+      Object[] out = new Object[3];
+      executeBatch(in, out, 2, null);
+      assertArrayEquals(new Object[] {" a ", null, null}, out);
+    }
+
+    @Test
+    @DisplayName("あらゆる組み合わせで1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      Object[] values = {null, "", " ", "　", "  abc  ", "　あいう　", " \t漢字\n ", "　 𠀋𪚲 　"};
+      for (int flags = 0; flags < 8; flags++) {
+        MaskingRule rule = new MaskingRule();
+        rule.setKeepWideSpaceTrim((flags & 1) != 0);
+        rule.useLTrim((flags & 2) != 0);
+        rule.useRTrim((flags & 4) != 0);
+        Object[] out = values.clone();
+        executeBatch(out, out, out.length, rule);
+        for (int i = 0; i < values.length; i++) {
+          assertEquals(execute(values[i], rule), out[i], String.format("flags=%d, [%s]", flags, values[i]));
+        }
+      }
+    }
+
+  }
+
 }
@@ -989,4 +989,39 @@ class TypeConverterTest extends TypeConverter {
 
   }
 
+  @Nested
+  @DisplayName("method: executeBatch")
+  class ExecuteBatch {
+
+    @Test
+    @DisplayName("ルールが無い場合はそのままコピーされる")
+    void case1() throws Exception {
+      Object[] in = {"123", null};
+      Object[] out = new Object[2];
+      executeBatch(in, out, 2, null);
+      assertArrayEquals(in, out);
+    }
+
+    @Test
+    @DisplayName("1件ずつ実行した場合と一致する")
+    void case2() throws Exception {
+      Object[] values = {null, "123", "-0.5", 456L, new BigDecimal("7.89")};
+      MaskingRule rule = new MaskingRule();
+      rule.setToClassName(BigDecimal.class.getName());
+      Object[] out = values.clone();
+      executeBatch(out, out, out.length, rule);
+      for (int i = 0; i < values.length; i++) {
+        assertEquals(execute(values[i], rule), out[i], String.valueOf(values[i]));
+      }
+      Object[] dates = {"2021/01/03", "20210103", null};
+      rule.setToClassName(LocalDate.class.getName());
+      out = dates.clone();
+      executeBatch(out, out, out.length, rule);
+      for (int i = 0; i < dates.length; i++) {
+        assertEquals(execute(dates[i], rule), out[i], String.valueOf(dates[i]));
+      }
+    }
+
+  }
+
 }
@@ -0,0 +1,201 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class UniqueListDialectTest {
+
+  @Mock
+  Connection mockConn;
+  @Mock
+  DatabaseMetaData mockMetaData;
+  @Mock
+  PreparedStatement mockPreparedStmnt;
+  @Mock
+  ResultSet mockResultSet;
+
+  /**
+   * PostgreSQL互換モードのH2(インメモリ).
+   */
+  Connection conn;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    conn = DriverManager.getConnection(
+        "jdbc:h2:mem:unique_list_dialect;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE");
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("CREATE TABLE sys_unique_list ("
+          + "id VARCHAR(100) NOT NULL, input_val VARCHAR(1000), output_val VARCHAR(1000) NOT NULL,"
+          + " PRIMARY KEY (id, output_val))");
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("DROP TABLE sys_unique_list");
+    }
+    conn.close();
+  }
+
+  int count() throws Exception {
+    try (Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sys_unique_list")) {
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+
+  @Nested
+  @DisplayName("method: of")
+  class Of {
+
+    @Test
+    @DisplayName("コネクションのDB製品名から判別する")
+    void case1() throws Exception {
+      assertEquals(UniqueListDialect.H2, UniqueListDialect.of(conn));
+      assertEquals(UniqueListDialect.STANDARD, UniqueListDialect.of(null));
+      when(mockConn.getMetaData()).thenReturn(mockMetaData);
+      when(mockMetaData.getDatabaseProductName()).thenReturn("PostgreSQL", "Oracle", "MySQL", null);
+      assertEquals(UniqueListDialect.POSTGRESQL, UniqueListDialect.of(mockConn));
+      assertEquals(UniqueListDialect.ORACLE, UniqueListDialect.of(mockConn));
+      assertEquals(UniqueListDialect.STANDARD, UniqueListDialect.of(mockConn));
+      assertEquals(UniqueListDialect.STANDARD, UniqueListDialect.of(mockConn));
+    }
+
+    @Test
+    @DisplayName("メタデータが取得できない場合はSTANDARD")
+    void case2() throws Exception {
+      assertEquals(UniqueListDialect.STANDARD, UniqueListDialect.of(mockConn));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addOrGet")
+  class AddOrGet {
+
+    @Test
+    @DisplayName("H2: 未登録なら登録し、登録済ならその値、OUTPUTが重複したらnullが返る")
+    void case1() throws Exception {
+      UniqueListDialect dialect = UniqueListDialect.H2;
+      StatementCache statements = new StatementCache(conn);
+      assertEquals("out1", dialect.addOrGet(statements, "HOGE", "in1", "out1"));
+      assertEquals("out1", dialect.addOrGet(statements, "HOGE", "in1", "out2"));
+      assertNull(dialect.addOrGet(statements, "HOGE", "in2", "out1"));
+      assertEquals("out1", dialect.addOrGet(statements, "FUGA", "in2", "out1"));
+      assertEquals(2, count());
+    }
+
+    @Test
+    @DisplayName("STANDARD: 未登録なら登録し、登録済ならその値、OUTPUTが重複したらnullが返る")
+    void case2() throws Exception {
+      UniqueListDialect dialect = UniqueListDialect.STANDARD;
+      StatementCache statements = new StatementCache(conn);
+      assertEquals("out1", dialect.addOrGet(statements, "HOGE", "in1", "out1"));
+      assertEquals("out1", dialect.addOrGet(statements, "HOGE", "in1", "out2"));
+      assertNull(dialect.addOrGet(statements, "HOGE", "in2", "out1"));
+      assertEquals(1, count());
+    }
+
+    @Test
+    @DisplayName("POSTGRESQL: 1回のSQLで結果が返ればその値、返らなければnull")
+    void case3() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true, false);
+      when(mockResultSet.getString("output_val")).thenReturn("out1");
+
+      UniqueListDialect dialect = UniqueListDialect.POSTGRESQL;
+      StatementCache statements = new StatementCache(mockConn);
+      assertEquals("out1", dialect.addOrGet(statements, "HOGE", "in1", "out2"));
+      assertNull(dialect.addOrGet(statements, "HOGE", "in2", "out1"));
+      // 同じSQLのステートメントは使い回す
+      verify(mockConn, times(1)).prepareStatement(anyString());
+      verify(mockPreparedStmnt, times(2)).setString(1, "HOGE");
+      verify(mockPreparedStmnt, times(2)).setString(3, "HOGE");
+      verify(mockPreparedStmnt, times(1)).setString(5, "out2");
+    }
+
+    @Test
+    @DisplayName("ORACLE: 登録できた場合は既登録の値を取得しない")
+    void case4() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeUpdate()).thenReturn(1, 0);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getString("output_val")).thenReturn("out1");
+
+      UniqueListDialect dialect = UniqueListDialect.ORACLE;
+      StatementCache statements = new StatementCache(mockConn);
+      assertEquals("out2", dialect.addOrGet(statements, "HOGE", "in2", "out2"));
+      verify(mockPreparedStmnt, never()).executeQuery();
+      assertEquals("out1", dialect.addOrGet(statements, "HOGE", "in1", "out3"));
+      verify(mockPreparedStmnt, times(1)).executeQuery();
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: JdbcUniqueListStore")
+  class WithJdbcUniqueListStore {
+
+    @Test
+    @DisplayName("コネクションからDB種別を判別して使用する")
+    void case1() throws Exception {
+      JdbcUniqueListStore store = new JdbcUniqueListStore(conn);
+      assertEquals(UniqueListDialect.H2, store.getDialect());
+      assertEquals("out1", store.addOrGetUniqueList("HOGE", "in1", "out1"));
+      assertEquals("out1", store.addOrGetUniqueList("HOGE", "in1", "out2"));
+      assertNull(store.addOrGetUniqueList("HOGE", "in2", "out1"));
+      assertEquals("out1", store.getRegisteredUniqueVal("HOGE", "in1"));
+      assertTrue(store.isExistsInUniqueList("HOGE", "out1"));
+      // 登録対象外はそのまま返る
+      assertEquals("out3", store.addOrGetUniqueList("HOGE", null, "out3"));
+      assertEquals(1, count());
+      // TRUNCATEもDB種別を通して行う
+      DataMaskFactory.initUniqueList(conn);
+      assertEquals(0, count());
+    }
+
+    @Test
+    @DisplayName("決定論的置換で同じ入力値には同じ値が返る")
+    void case2() throws Exception {
+      RandomTextReplacer converter = new RandomTextReplacer();
+      converter.setConnection(conn);
+      MaskingRule rule = new MaskingRule();
+      rule.setDeterministicReplace(true);
+      rule.setUniqueValue(true);
+      rule.setUniqueId("HOGE");
+      String ret1 = (String) converter.execute("1234XXXXXXXXXXXX", rule);
+      String ret2 = (String) converter.execute("1234XXXXXXXXXXXX", rule);
+      String ret3 = (String) converter.execute("4567XXXXXXXXXXXX", rule);
+      assertEquals(ret1, ret2, String.format("[%s]<>[%s]はNG", ret1, ret2));
+      assertFalse(ret1.equals(ret3), String.format("[%s]=[%s]はNG", ret1, ret3));
+      assertEquals(2, count());
+    }
+
+  }
+
+}
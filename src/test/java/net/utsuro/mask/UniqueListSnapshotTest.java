@@ -0,0 +1,274 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UniqueListSnapshotTest {
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * テスト用の登録内容を作成する.
+   * @return 格納先
+   */
+  static InMemoryUniqueListStore sample() {
+    InMemoryUniqueListStore store = new InMemoryUniqueListStore();
+    store.addUniqueList("HOGE", "東京都千代田区1", "out1");
+    store.addUniqueList("HOGE", "東京都千代田区2", "out2");
+    store.addUniqueList("HOGE", "𠮷野家", "out3");
+    store.addUniqueList("HOGE", "𠮸", "out4");
+    store.addUniqueList("FUGA", "", "空文字");
+    store.addUniqueList(null, "in1", "out1");
+    return store;
+  }
+
+  /**
+   * 登録内容を一覧にする.
+   * @param store 格納先
+   * @return 登録内容の一覧
+   */
+  static List<String> entries(UniqueListStore store) throws Exception {
+    List<String> ret = new ArrayList<>();
+    store.forEachEntry((id, in, out) -> ret.add(id + "/" + in + "/" + out));
+    return ret;
+  }
+
+  @Nested
+  @DisplayName("method: export")
+  class Export {
+
+    @Test
+    @DisplayName("識別子、入力値の順に出力され、そのまま読み込める")
+    void case1() throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(6, UniqueListSnapshot.export(sample(), out, false));
+      UniqueListSnapshot.Reader reader =
+          new UniqueListSnapshot.Reader(new ByteArrayInputStream(out.toByteArray()));
+      List<String> ret = new ArrayList<>();
+      while (reader.next()) {
+        ret.add(reader.getId() + "/" + reader.getInputVal() + "/" + reader.getOutputVal());
+      }
+      assertEquals(6, reader.getCount());
+      assertEquals(List.of("/in1/out1", "FUGA//空文字", "HOGE/東京都千代田区1/out1",
+          "HOGE/東京都千代田区2/out2", "HOGE/𠮷野家/out3", "HOGE/𠮸/out4"), ret);
+    }
+
+    @Test
+    @DisplayName("圧縮の有無どちらでも同じ内容になる")
+    void case2() throws Exception {
+      InMemoryUniqueListStore store = new InMemoryUniqueListStore();
+      for (int i = 0; i < 5000; i++) {
+        store.addUniqueList("HOGE", String.format("1234567890%05d", i), String.format("out%05d", i));
+      }
+      ByteArrayOutputStream plain = new ByteArrayOutputStream();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      UniqueListSnapshot.export(store, plain, false);
+      UniqueListSnapshot.export(store, compressed, true);
+      assertTrue(compressed.size() < plain.size());
+
+      InMemoryUniqueListStore ret1 = new InMemoryUniqueListStore();
+      InMemoryUniqueListStore ret2 = new InMemoryUniqueListStore();
+      assertEquals(5000, UniqueListSnapshot.load(new ByteArrayInputStream(plain.toByteArray()), ret1));
+      assertEquals(5000,
+          UniqueListSnapshot.load(new ByteArrayInputStream(compressed.toByteArray()), ret2));
+      assertEquals(entries(store), entries(ret1));
+      assertEquals(entries(store), entries(ret2));
+    }
+
+    @Test
+    @DisplayName("一括取得に対応していない格納先はエラー")
+    void case3() throws Exception {
+      UniqueListStore store = new UniqueListStore() {
+        @Override
+        public String getRegisteredUniqueVal(String id, String val) {
+          return null;
+        }
+
+        @Override
+        public boolean isExistsInUniqueList(String id, String val) {
+          return false;
+        }
+
+        @Override
+        public boolean addUniqueList(String id, String inputVal, String outputVal) {
+          return true;
+        }
+
+        @Override
+        public void clear() {}
+      };
+      assertThrows(SQLFeatureNotSupportedException.class,
+          () -> UniqueListSnapshot.export(store, new ByteArrayOutputStream(), false));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: load")
+  class Load {
+
+    @Test
+    @DisplayName("ファイル経由で別の格納先に読み込める")
+    void case1() throws Exception {
+      Path file = tempDir.resolve("unique_list.snapshot");
+      InMemoryUniqueListStore src = sample();
+      assertEquals(6, UniqueListSnapshot.export(src, file, true));
+      try (MappedUniqueListStore store = new MappedUniqueListStore(tempDir.resolve("mapped"))) {
+        assertEquals(6, UniqueListSnapshot.load(file, store));
+        assertEquals("out3", store.getRegisteredUniqueVal("HOGE", "𠮷野家"));
+        assertTrue(store.isExistsInUniqueList("FUGA", "空文字"));
+        assertEquals(entries(src), entries(store));
+      }
+    }
+
+    @Test
+    @DisplayName("DBのユニークリストとの間で読み込み・出力ができる")
+    void case2() throws Exception {
+      try (Connection conn = DriverManager.getConnection(
+          "jdbc:h2:mem:unique_list_snapshot;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE")) {
+        try (Statement stmt = conn.createStatement()) {
+          stmt.execute("CREATE TABLE sys_unique_list ("
+              + "id VARCHAR(100) NOT NULL, input_val VARCHAR(1000), output_val VARCHAR(1000) NOT NULL,"
+              + " PRIMARY KEY (id, output_val))");
+        }
+        InMemoryUniqueListStore src = new InMemoryUniqueListStore();
+        for (int i = 0; i < 25000; i++) {
+          src.addUniqueList("HOGE", String.format("in%05d", i), String.format("out%05d", i));
+        }
+        src.addUniqueList("FUGA", "in1", "out1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UniqueListSnapshot.export(src, out, true);
+
+        JdbcUniqueListStore store = new JdbcUniqueListStore(conn);
+        assertEquals(25001,
+            UniqueListSnapshot.load(new ByteArrayInputStream(out.toByteArray()), store));
+        assertTrue(conn.getAutoCommit());
+        assertEquals("out12345", store.getRegisteredUniqueVal("HOGE", "in12345"));
+        assertEquals(entries(src), entries(store));
+
+        // ブルームフィルタは読み込んだ内容で作り直される
+        BloomFilterUniqueListStore bloom = new BloomFilterUniqueListStore(store);
+        store.clear();
+        UniqueListSnapshot.load(new ByteArrayInputStream(out.toByteArray()), bloom);
+        assertTrue(bloom.isExistsInUniqueList("FUGA", "out1"));
+        assertFalse(bloom.isExistsInUniqueList("FUGA", "out2"));
+        assertEquals(1, bloom.getNegativeCount());
+
+        try (Statement stmt = conn.createStatement()) {
+          stmt.execute("DROP TABLE sys_unique_list");
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("スナップショットでない・壊れている場合はエラー")
+    void case3() throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      UniqueListSnapshot.export(sample(), out, false);
+      byte[] bytes = out.toByteArray();
+
+      // ヘッダ不正
+      byte[] magic = bytes.clone();
+      magic[0] = 'X';
+      assertThrows(IOException.class, () -> UniqueListSnapshot
+          .load(new ByteArrayInputStream(magic), new InMemoryUniqueListStore()));
+      // バージョン不正
+      byte[] version = bytes.clone();
+      version[4] = 99;
+      assertThrows(IOException.class, () -> UniqueListSnapshot
+          .load(new ByteArrayInputStream(version), new InMemoryUniqueListStore()));
+      // 内容の改変
+      byte[] crc = bytes.clone();
+      crc[bytes.length - 20]++;
+      assertThrows(IOException.class, () -> UniqueListSnapshot
+          .load(new ByteArrayInputStream(crc), new InMemoryUniqueListStore()));
+      // 途中で終わっている
+      byte[] part = java.util.Arrays.copyOf(bytes, bytes.length - 3);
+      assertThrows(IOException.class, () -> UniqueListSnapshot
+          .load(new ByteArrayInputStream(part), new InMemoryUniqueListStore()));
+    }
+
+    @Test
+    @DisplayName("ファイルは検証してから読み込み、壊れている場合は何も登録しない")
+    void case4() throws Exception {
+      Path file = tempDir.resolve("unique_list.snapshot");
+      UniqueListSnapshot.export(sample(), file, false);
+      assertEquals(6, UniqueListSnapshot.verify(file));
+      byte[] bytes = java.nio.file.Files.readAllBytes(file);
+      bytes[bytes.length - 20]++;
+      java.nio.file.Files.write(file, bytes);
+
+      InMemoryUniqueListStore store = new InMemoryUniqueListStore();
+      assertThrows(IOException.class, () -> UniqueListSnapshot.verify(file));
+      assertThrows(IOException.class, () -> UniqueListSnapshot.load(file, store));
+      assertEquals(List.of(), entries(store));
+    }
+
+    @Test
+    @DisplayName("DBのユニークリストは検証エラーの場合ロールバックして何も登録しない")
+    void case5() throws Exception {
+      try (Connection conn = DriverManager.getConnection(
+          "jdbc:h2:mem:unique_list_snapshot_broken;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE")) {
+        try (Statement stmt = conn.createStatement()) {
+          stmt.execute("CREATE TABLE sys_unique_list ("
+              + "id VARCHAR(100) NOT NULL, input_val VARCHAR(1000), output_val VARCHAR(1000) NOT NULL,"
+              + " PRIMARY KEY (id, output_val))");
+        }
+        InMemoryUniqueListStore src = new InMemoryUniqueListStore();
+        for (int i = 0; i < 25000; i++) {
+          src.addUniqueList("HOGE", String.format("in%05d", i), String.format("out%05d", i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UniqueListSnapshot.export(src, out, false);
+        // 件数単位を超えた後の内容を改変する
+        byte[] bytes = out.toByteArray();
+        bytes[bytes.length - 20]++;
+
+        try (JdbcUniqueListStore store = new JdbcUniqueListStore(conn)) {
+          assertThrows(IOException.class,
+              () -> UniqueListSnapshot.load(new ByteArrayInputStream(bytes), store));
+          assertTrue(conn.getAutoCommit());
+          assertEquals(List.of(), entries(store));
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+          stmt.execute("DROP TABLE sys_unique_list");
+        }
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: commonPrefix")
+  class CommonPrefix {
+
+    @Test
+    @DisplayName("サロゲートペアの途中では区切らない")
+    void case1() throws Exception {
+      assertEquals(0, UniqueListSnapshot.commonPrefix(null, "abc"));
+      assertEquals(2, UniqueListSnapshot.commonPrefix("abc", "abd"));
+      assertEquals(3, UniqueListSnapshot.commonPrefix("abc", "abc"));
+      assertEquals(0, UniqueListSnapshot.commonPrefix("𠮷", "𠮸"));
+      assertEquals(2, UniqueListSnapshot.commonPrefix("𠮷a", "𠮷b"));
+    }
+
+  }
+
+}
@@ -0,0 +1,180 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class UniqueListStoreHolderTest {
+
+  @Nested
+  @DisplayName("method: getUniqueListStore")
+  class GetUniqueListStore {
+
+    @Mock
+    Connection mockConn;
+
+    @Test
+    @DisplayName("未指定の場合はDBコネクションのユニークリストが返り、コネクションをセットするまで使い回す")
+    void case1() throws Exception {
+      UniqueListStoreHolder holder = new UniqueListStoreHolder();
+      UniqueListStore noConn = holder.getUniqueListStore();
+      assertTrue(noConn instanceof JdbcUniqueListStore);
+      assertNull(((JdbcUniqueListStore) noConn).getConnection());
+      holder.setConnection(mockConn);
+      UniqueListStore store = holder.getUniqueListStore();
+      assertNotSame(noConn, store);
+      assertSame(mockConn, ((JdbcUniqueListStore) store).getConnection());
+      assertSame(store, holder.getUniqueListStore());
+      assertSame(mockConn, holder.getConnection());
+    }
+
+    @Test
+    @DisplayName("セットした場合はセットしたものが返り、nullをセットするとDBコネクションのユニークリストに戻る")
+    void case2() throws Exception {
+      UniqueListStoreHolder holder = new UniqueListStoreHolder();
+      holder.setConnection(mockConn);
+      UniqueListStore store = new InMemoryUniqueListStore();
+      holder.setUniqueListStore(store);
+      assertSame(store, holder.getUniqueListStore());
+      holder.setUniqueListStore(null);
+      assertTrue(holder.getUniqueListStore() instanceof JdbcUniqueListStore);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: setConnection")
+  class SetConnection {
+
+    @Mock
+    Connection mockConn;
+    @Mock
+    PreparedStatement mockPreparedStmnt;
+
+    @Test
+    @DisplayName("DBコネクションをセットし直すと前のキャッシュを閉じる")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+
+      UniqueListStoreHolder holder = new UniqueListStoreHolder();
+      holder.setConnection(mockConn);
+      StatementCache statements = holder.getStatementCache();
+      statements.prepare("SELECT 1").close();
+      verify(mockPreparedStmnt, never()).close();
+      holder.setConnection(mockConn);
+      assertNotSame(statements, holder.getStatementCache());
+      assertEquals(0, statements.size());
+      verify(mockPreparedStmnt, times(1)).close();
+      holder.setConnection(null);
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: close")
+  class Close {
+
+    @Mock
+    Connection mockConn;
+    @Mock
+    PreparedStatement mockPreparedStmnt;
+
+    @Test
+    @DisplayName("DBコネクションのキャッシュを閉じる")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+
+      UniqueListStoreHolder holder = new UniqueListStoreHolder();
+      holder.setConnection(mockConn);
+      holder.getStatementCache().prepare("SELECT 1").close();
+      holder.close();
+      verify(mockPreparedStmnt, times(1)).close();
+      assertEquals(0, holder.getStatementCache().size());
+      // コネクションが無い場合も閉じられる
+      new UniqueListStoreHolder().close();
+    }
+
+    @Test
+    @DisplayName("マスク処理からも閉じられる")
+    void case2() throws Exception {
+      // モックの設定
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+
+      RandomTextReplacer mask = new RandomTextReplacer();
+      mask.setConnection(mockConn);
+      StatementCache statements = ((JdbcUniqueListStore) mask.getUniqueListStore())
+          .getStatementCache();
+      statements.prepare("SELECT 1").close();
+      mask.closeStatements();
+      verify(mockPreparedStmnt, times(1)).close();
+      assertEquals(0, statements.size());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getSamplers")
+  class GetSamplers {
+
+    @Mock
+    Connection mockConn;
+
+    @Test
+    @DisplayName("同じDBコネクション・格納先のマスク処理で共有し、ユニークリストが無い場合は共有しない")
+    void case1() throws Exception {
+      UniqueListStoreHolder holder1 = new UniqueListStoreHolder();
+      UniqueListStoreHolder holder2 = new UniqueListStoreHolder();
+      assertNotSame(holder1.getSamplers(), holder2.getSamplers());
+      holder1.setConnection(mockConn);
+      holder2.setConnection(mockConn);
+      assertSame(holder1.getSamplers(), holder2.getSamplers());
+
+      // 格納先を指定した場合は格納先ごと
+      UniqueListStore store = new InMemoryUniqueListStore();
+      holder1.setUniqueListStore(store);
+      assertNotSame(holder1.getSamplers(), holder2.getSamplers());
+      UniqueListStoreHolder holder3 = new UniqueListStoreHolder();
+      holder3.setUniqueListStore(store);
+      assertSame(holder1.getSamplers(), holder3.getSamplers());
+      holder1.setUniqueListStore(null);
+      assertSame(holder1.getSamplers(), holder2.getSamplers());
+    }
+
+    @Test
+    @DisplayName("ユニークリストの初期化で共有している使用状況が破棄される")
+    void case2() throws Exception {
+      UniqueValueSpace space = UniqueValueSpace.ofChars(new String[][] {{"1", "2", "3"}}, false);
+      UniqueListStore store = new InMemoryUniqueListStore();
+      UniqueListStoreHolder holder1 = new UniqueListStoreHolder();
+      UniqueListStoreHolder holder2 = new UniqueListStoreHolder();
+      holder1.setUniqueListStore(store);
+      holder2.setUniqueListStore(store);
+      UniqueValueSampler sampler = holder1.getSamplers().get("HOGE", space);
+      sampler.next();
+      assertSame(sampler, holder2.getSamplers().get("HOGE", space));
+      assertEquals(2, holder2.getSamplers().get("HOGE", space).getRemaining());
+      UniqueListStoreHolder.clearSamplers(store);
+      assertEquals(3, holder2.getSamplers().get("HOGE", space).getRemaining());
+      holder1.setConnection(mockConn);
+      UniqueListStoreHolder.clearSamplers(mockConn);
+      UniqueListStoreHolder.clearSamplers((Connection) null);
+    }
+
+  }
+
+}
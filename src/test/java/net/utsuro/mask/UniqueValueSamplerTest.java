@@ -0,0 +1,126 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class UniqueValueSamplerTest {
+
+  static final String[] DIGITS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
+  static UniqueValueSpace space() {
+    return UniqueValueSpace.ofChars(new String[][] {DIGITS, DIGITS}, false);
+  }
+
+  @Nested
+  @DisplayName("method: next")
+  class Next {
+
+    @Test
+    @DisplayName("値空間をすべて重複なく抽選し、使い切るとエラー")
+    void case1() throws Exception {
+      UniqueValueSampler sampler = new UniqueValueSampler("HOGE", space());
+      Set<String> ret = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+        assertTrue(ret.add(sampler.next()));
+      }
+      assertEquals(0, sampler.getRemaining());
+      SQLIntegrityConstraintViolationException e =
+          assertThrows(SQLIntegrityConstraintViolationException.class, () -> sampler.next());
+      assertEquals("ユニークな値を使い切りました。(識別子: HOGE, 件数: 100)", e.getMessage());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: record")
+  class Record {
+
+    @Test
+    @DisplayName("登録できた値・重複した値は使用済になり、抽選されない")
+    void case1() throws Exception {
+      UniqueValueSampler sampler = new UniqueValueSampler("HOGE", space());
+      for (int i = 0; i < 60; i++) {
+        sampler.record(String.format("%02d", i), (i % 2 == 0) ? String.format("%02d", i) : null,
+            false);
+      }
+      sampler.record("XX", null, false);
+      assertEquals(40, sampler.getRemaining());
+      for (int i = 0; i < 40; i++) {
+        assertTrue(Integer.parseInt(sampler.next()) >= 60);
+      }
+    }
+
+    @Test
+    @DisplayName("既登録の値を使用した場合は抽選した値を未使用に戻す")
+    void case2() throws Exception {
+      UniqueValueSampler sampler = new UniqueValueSampler("HOGE", space());
+      String val = sampler.next();
+      assertEquals(99, sampler.getRemaining());
+      sampler.record(val, "registered", true);
+      assertEquals(100, sampler.getRemaining());
+      // 抽選していない値は戻さない
+      sampler.record("00", "00", false);
+      sampler.record("00", "registered", false);
+      assertEquals(99, sampler.getRemaining());
+    }
+
+    @Test
+    @DisplayName("使用済の割合か連続重複回数で飽和したとみなす")
+    void case3() throws Exception {
+      UniqueValueSampler sampler1 = new UniqueValueSampler("HOGE", space());
+      for (int i = 0; i < 49; i++) {
+        sampler1.record(String.format("%02d", i), String.format("%02d", i), false);
+      }
+      assertFalse(sampler1.isSaturated());
+      sampler1.record("49", "49", false);
+      assertTrue(sampler1.isSaturated());
+
+      UniqueValueSampler sampler2 = new UniqueValueSampler("HOGE", space());
+      for (int i = 0; i < UniqueValueSampler.SATURATION_REJECTS - 1; i++) {
+        sampler2.record(String.format("%02d", i), null, false);
+      }
+      sampler2.record("50", "50", false);
+      assertFalse(sampler2.isSaturated());
+      for (int i = 0; i < UniqueValueSampler.SATURATION_REJECTS; i++) {
+        sampler2.record(String.format("%02d", i + 60), null, false);
+      }
+      assertTrue(sampler2.isSaturated());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: Pool.get")
+  class PoolGet {
+
+    @Test
+    @DisplayName("識別子・値空間ごとに同じインスタンスを返す")
+    void case1() throws Exception {
+      UniqueValueSampler.Pool pool = new UniqueValueSampler.Pool();
+      UniqueValueSampler sampler = pool.get("HOGE", space());
+      assertSame(sampler, pool.get("HOGE", space()));
+      assertNotSame(sampler, pool.get("FUGA", space()));
+      assertNotSame(sampler, pool.get("HOGE", UniqueValueSpace.ofChars(new String[][] {DIGITS}, false)));
+      pool.clear();
+      assertNotSame(sampler, pool.get("HOGE", space()));
+    }
+
+    @Test
+    @DisplayName("値空間が無いか大きすぎる場合はnull")
+    void case2() throws Exception {
+      UniqueValueSampler.Pool pool = new UniqueValueSampler.Pool();
+      assertNull(pool.get("HOGE", null));
+      assertNull(pool.get("HOGE", UniqueValueSpace.ofChars(
+          new String[][] {DIGITS, DIGITS, DIGITS, DIGITS, DIGITS, DIGITS, DIGITS}, false)));
+    }
+
+  }
+
+}
@@ -0,0 +1,96 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class UniqueValueSpaceTest {
+
+  @Nested
+  @DisplayName("method: ofChars")
+  class OfChars {
+
+    @Test
+    @DisplayName("文字位置ごとの組み合わせの件数になり、番号と出力値が相互に変換できる")
+    void case1() throws Exception {
+      String[] digits = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+      UniqueValueSpace space = UniqueValueSpace.ofChars(
+          new String[][] {{"A", "B"}, {"-"}, digits, digits}, false);
+      assertEquals(200, space.size());
+      assertEquals("A-00", space.valueOf(0));
+      assertEquals("B-99", space.valueOf(199));
+      for (long i = 0; i < space.size(); i++) {
+        assertEquals(i, space.indexOf(space.valueOf(i)));
+      }
+      assertEquals(-1, space.indexOf("C-00"));
+      assertEquals(-1, space.indexOf("A_00"));
+      assertEquals(-1, space.indexOf("A-0"));
+      assertEquals(-1, space.indexOf(null));
+    }
+
+    @Test
+    @DisplayName("チェックディジット指定時は最後の桁がLuhnアルゴリズムの値になる")
+    void case2() throws Exception {
+      String[] digits = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+      UniqueValueSpace space = UniqueValueSpace.ofChars(
+          new String[][] {{"4"}, digits, digits, digits}, true);
+      assertEquals(100, space.size());
+      for (long i = 0; i < space.size(); i++) {
+        String val = space.valueOf(i);
+        assertEquals(MaskingUtil.getLuhnDigit(val.substring(0, 3) + "0"), val.substring(3));
+        assertEquals(i, space.indexOf(val));
+      }
+    }
+
+    @Test
+    @DisplayName("大きすぎる値空間はLong.MAX_VALUE")
+    void case3() throws Exception {
+      String[][] chars = new String[30][];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = new String[] {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+      }
+      assertEquals(Long.MAX_VALUE, UniqueValueSpace.ofChars(chars, false).size());
+    }
+
+    @Test
+    @DisplayName("生成される文字が無い文字位置がある場合はエラー")
+    void case4() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> UniqueValueSpace.ofChars(null, false));
+      assertThrows(IllegalArgumentException.class,
+          () -> UniqueValueSpace.ofChars(new String[][] {{"A"}, {}}, false));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: ofDays")
+  class OfDays {
+
+    @Test
+    @DisplayName("最小値から最大値までの日数になり、時刻は最小値のまま")
+    void case1() throws Exception {
+      UniqueValueSpace space = UniqueValueSpace.ofDays(LocalDateTime.parse("2020-02-27T10:00:00"),
+          LocalDateTime.parse("2020-03-01T09:00:00"));
+      assertEquals(3, space.size());
+      assertEquals("2020-02-27T10:00", space.valueOf(0));
+      assertEquals("2020-02-29T10:00", space.valueOf(2));
+      assertEquals(2, space.indexOf("2020-02-29T10:00"));
+      assertEquals(-1, space.indexOf("2020-02-29T11:00"));
+      assertEquals(-1, space.indexOf("2020-03-01T10:00"));
+      assertEquals(-1, space.indexOf("2020/02/29"));
+    }
+
+    @Test
+    @DisplayName("最大値が最小値より前の場合はエラー")
+    void case2() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> UniqueValueSpace.ofDays(
+          LocalDateTime.parse("2020-03-01T00:00:00"), LocalDateTime.parse("2020-02-01T00:00:00")));
+    }
+
+  }
+
+}
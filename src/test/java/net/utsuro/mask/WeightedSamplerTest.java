@@ -0,0 +1,81 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class WeightedSamplerTest {
+
+  @Nested
+  @DisplayName("method: new")
+  class New {
+
+    @Test
+    @DisplayName("重みが無い・負の値・合計0の場合はエラー")
+    void case1() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> new WeightedSampler(null));
+      assertThrows(IllegalArgumentException.class, () -> new WeightedSampler(new int[0]));
+      assertThrows(IllegalArgumentException.class, () -> new WeightedSampler(new int[] {1, -1}));
+      assertThrows(IllegalArgumentException.class, () -> new WeightedSampler(new int[] {0, 0}));
+    }
+
+    @Test
+    @DisplayName("件数と重み合計値が取得できる")
+    void case2() throws Exception {
+      WeightedSampler sampler = new WeightedSampler(new int[] {2, 7, 10, 5});
+      assertEquals(4, sampler.size());
+      assertEquals(24, sampler.getTotalWeight());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: next")
+  class Next {
+
+    @Test
+    @DisplayName("重み0のインデックスは選ばれない")
+    void case1() throws Exception {
+      WeightedSampler sampler = new WeightedSampler(new int[] {0, 3, 0, 1, 0});
+      for (int i = 0; i < 1000; i++) {
+        int ret = sampler.next();
+        assertTrue(ret == 1 || ret == 3, String.format("%dは重み0", ret));
+      }
+    }
+
+    @Test
+    @DisplayName("重みに比例した確率で選ばれる")
+    void case2() throws Exception {
+      int[] weights = {2, 7, 10, 5, 0, 1};
+      WeightedSampler sampler = new WeightedSampler(weights);
+      Random random = new Random(1);
+      int count = 250000; //試行回数
+      int[] counts = new int[weights.length];
+      for (int i = 0; i < count; i++) {
+        counts[sampler.next(random)]++;
+      }
+      for (int i = 0; i < weights.length; i++) {
+        double expected = (double) count * weights[i] / 25;
+        assertTrue(Math.abs(counts[i] - expected) <= expected * 0.03,
+            String.format("%dが%d件(期待値%.0f件)は偏っている", i, counts[i], expected));
+      }
+    }
+
+    @Test
+    @DisplayName("同じ乱数なら同じ結果になる")
+    void case3() throws Exception {
+      WeightedSampler sampler = new WeightedSampler(MaskingUtil.HIRAGANA_RATIO);
+      Random r1 = new KeyedRandom(123L);
+      Random r2 = new KeyedRandom(123L);
+      for (int i = 0; i < 100; i++) {
+        assertEquals(sampler.next(r1), sampler.next(r2));
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,288 @@
+package net.utsuro.mask;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindUniqueListStoreTest {
+
+  @Mock
+  Connection mockConn;
+  @Mock
+  PreparedStatement mockPreparedStmnt;
+  @Mock
+  PreparedStatement mockInsertStmnt;
+  @Mock
+  ResultSet mockResultSet;
+
+  @Nested
+  @DisplayName("method: constructor")
+  class Constructor {
+
+    @Test
+    @DisplayName("バッチ件数が0以下の場合はエラー")
+    void case1() throws Exception {
+      assertThrows(IllegalArgumentException.class, () -> new WriteBehindUniqueListStore(mockConn, 0, 0));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: getRegisteredUniqueVal")
+  class GetRegisteredUniqueVal {
+
+    @Test
+    @DisplayName("未反映の値があればDBを参照せずに返す")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true, false);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      // コネクションがnull
+      assertEquals(null, new WriteBehindUniqueListStore(null).getRegisteredUniqueVal("HOGE", "id1"));
+      // nullを渡したとき
+      assertEquals(null, store.getRegisteredUniqueVal("HOGE", null));
+      assertTrue(store.addUniqueList("HOGE", "id1", "fuga"));
+      assertEquals("fuga", store.getRegisteredUniqueVal("HOGE", "id1"));
+      // 未反映に無ければDBを参照する
+      assertEquals(null, store.getRegisteredUniqueVal("HOGE", "id2"));
+      verify(mockConn, times(2)).prepareStatement(anyString());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: isExistsInUniqueList")
+  class IsExistsInUniqueList {
+
+    @Test
+    @DisplayName("未反映のOUTPUTがあればtrue")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      assertFalse(store.isExistsInUniqueList("HOGE", null));
+      // DBにも未反映にも無い
+      assertFalse(store.isExistsInUniqueList("HOGE", "fuga"));
+      // 直前に存在確認済なのでDBの再チェックは無し
+      assertTrue(store.addUniqueList("HOGE", "id1", "fuga"));
+      verify(mockConn, times(1)).prepareStatement(anyString());
+      // 未反映にある
+      assertTrue(store.isExistsInUniqueList("HOGE", "fuga"));
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: addUniqueList")
+  class AddUniqueList {
+
+    @Test
+    @DisplayName("未反映またはDBにOUTPUTがあれば登録失敗")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L, 1L);
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      // nullを渡したとき
+      assertTrue(store.addUniqueList("HOGE", null, "hoge"));
+      assertTrue(store.addUniqueList("HOGE", "id1", null));
+      // 正常な場合
+      assertTrue(store.addUniqueList("HOGE", "id1", "fuga"));
+      // 未反映と重複
+      assertFalse(store.addUniqueList("HOGE", "id2", "fuga"));
+      // DBと重複
+      assertFalse(store.addUniqueList("HOGE", "id2", "piyo"));
+      assertEquals(1, store.getPendingCount());
+      // INSERTはまだ実行されない
+      verify(mockPreparedStmnt, never()).addBatch();
+    }
+
+    @Test
+    @DisplayName("バッチ件数に達したらバッチ登録する")
+    void case2() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.getAutoCommit()).thenReturn(true, false, true, false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockConn.prepareStatement(JdbcUniqueListStore.INSERT_SQL)).thenReturn(mockInsertStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 3, 0);
+      for (int i = 0; i < 7; i++) {
+        assertTrue(store.addUniqueList("HOGE", "id" + i, "out" + i));
+      }
+      // 3件×2回バッチ登録され、1件が未反映で残る
+      verify(mockInsertStmnt, times(6)).addBatch();
+      verify(mockInsertStmnt, times(2)).executeBatch();
+      verify(mockConn, times(2)).commit();
+      verify(mockConn, times(2)).setAutoCommit(false);
+      verify(mockConn, times(2)).setAutoCommit(true);
+      assertEquals(1, store.getPendingCount());
+      // 重複は無し
+      assertTrue(store.getCollisions().isEmpty());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: flush")
+  class Flush {
+
+    @Test
+    @DisplayName("バッチ登録で重複した場合は1件ずつ登録して重複を特定する")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.getAutoCommit()).thenReturn(true, true);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockConn.prepareStatement(JdbcUniqueListStore.INSERT_SQL)).thenReturn(mockInsertStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+      doThrow(new BatchUpdateException()).when(mockInsertStmnt).executeBatch();
+      when(mockInsertStmnt.execute())
+          .thenReturn(false)
+          .thenThrow(new SQLIntegrityConstraintViolationException())
+          .thenReturn(false);
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      for (int i = 0; i < 3; i++) {
+        assertTrue(store.addUniqueList("HOGE", "id" + i, "out" + i));
+      }
+      store.flush();
+      verify(mockConn, times(1)).rollback();
+      verify(mockConn, never()).commit();
+      verify(mockInsertStmnt, times(3)).execute();
+      List<WriteBehindUniqueListStore.Entry> collisions = store.getCollisions();
+      assertEquals(1, collisions.size());
+      assertEquals("HOGE", collisions.get(0).getId());
+      assertEquals("id1", collisions.get(0).getInputVal());
+      assertEquals("out1", collisions.get(0).getOutputVal());
+      assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    @DisplayName("自動コミットでない場合はコミットせず、重複時は例外をスローする")
+    void case2() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.getAutoCommit()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockConn.prepareStatement(JdbcUniqueListStore.INSERT_SQL)).thenReturn(mockInsertStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+      when(mockInsertStmnt.executeBatch()).thenReturn(new int[] {1}).thenThrow(new BatchUpdateException());
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      store.addUniqueList("HOGE", "id1", "out1");
+      store.close();
+      verify(mockConn, never()).commit();
+      verify(mockConn, never()).setAutoCommit(anyBoolean());
+      store.addUniqueList("HOGE", "id2", "out2");
+      assertThrows(BatchUpdateException.class, () -> store.flush());
+      // 登録できなかったものは未反映リストに残る
+      assertEquals(1, store.getPendingCount());
+      assertEquals("out2", store.getRegisteredUniqueVal("HOGE", "id2"));
+    }
+
+    @Test
+    @DisplayName("未反映が無ければ何もしない")
+    void case3() throws Exception {
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      store.flush();
+      new WriteBehindUniqueListStore(null).flush();
+      verify(mockConn, never()).prepareStatement(anyString());
+    }
+
+    @Test
+    @DisplayName("重複以外のエラーの場合はロールバックして未反映リストに残し、次回に再登録する")
+    void case4() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.getAutoCommit()).thenReturn(true, false, true, false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockConn.prepareStatement(JdbcUniqueListStore.INSERT_SQL)).thenReturn(mockInsertStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+      when(mockInsertStmnt.executeBatch())
+          .thenThrow(new SQLException("connection lost"))
+          .thenReturn(new int[] {1, 1});
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      store.addUniqueList("HOGE", "id1", "out1");
+      store.addUniqueList("HOGE", "id2", "out2");
+      SQLException e = assertThrows(SQLException.class, () -> store.flush());
+      assertEquals("connection lost", e.getMessage());
+      verify(mockConn, times(1)).rollback();
+      assertEquals(2, store.getPendingCount());
+      assertTrue(store.isExistsInUniqueList("HOGE", "out1"));
+      store.flush();
+      verify(mockConn, times(1)).commit();
+      verify(mockInsertStmnt, times(4)).addBatch();
+      assertEquals(0, store.getPendingCount());
+      assertTrue(store.getCollisions().isEmpty());
+    }
+
+  }
+
+  @Nested
+  @DisplayName("method: clear")
+  class Clear {
+
+    @Test
+    @DisplayName("未反映の登録内容を破棄してTRUNCATEする")
+    void case1() throws Exception {
+      // モックの設定
+      when(mockConn.isClosed()).thenReturn(false);
+      when(mockConn.prepareStatement(anyString())).thenReturn(mockPreparedStmnt);
+      when(mockPreparedStmnt.executeQuery()).thenReturn(mockResultSet);
+      when(mockResultSet.next()).thenReturn(true);
+      when(mockResultSet.getLong("cnt")).thenReturn(0L);
+
+      WriteBehindUniqueListStore store = new WriteBehindUniqueListStore(mockConn, 10, 0);
+      store.addUniqueList("HOGE", "id1", "out1");
+      store.clear();
+      assertEquals(0, store.getPendingCount());
+      verify(mockConn, times(1)).prepareStatement("TRUNCATE TABLE sys_unique_list");
+    }
+
+  }
+
+}